@@ -39,6 +39,16 @@ public class QuasarConfiguration {
    */
   public final static String WARP_TRL_STARTUP_DELAY ="warp.trl.startup.delay";
 
+  /**
+   * Maximum number of decoded tokens kept in the token filter cache, 0 to disable the cache
+   */
+  public final static String WARP_TOKEN_CACHE_SIZE = "warp.token.cache.size";
+
+  /**
+   * Default size of the token filter cache
+   */
+  public final static String WARP_TOKEN_CACHE_SIZE_DEFAULT = "0";
+
   /**
    * application prefix for TRL files
    */
@@ -27,6 +27,8 @@ import io.warp10.quasar.filter.exception.QuasarTokenInvalid;
 import io.warp10.quasar.filter.sensision.QuasarTokenFilterSensisionConstants;
 import io.warp10.quasar.token.thrift.data.ReadToken;
 import io.warp10.quasar.token.thrift.data.WriteToken;
+import io.warp10.quasar.trl.QuasarTRL;
+import io.warp10.quasar.trl.QuasarTRLLoadedHandler;
 import io.warp10.quasar.trl.QuasarTokenRevocationListLoader;
 import io.warp10.sensision.Sensision;
 
@@ -34,11 +36,17 @@ import com.google.common.base.Strings;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Properties;
 
-public class QuasarTokenFilter {
+import org.apache.thrift.TBase;
+
+public class QuasarTokenFilter implements QuasarTRLLoadedHandler {
 
   private final QuasarTokenDecoder quasarTokenDecoder;
   private final QuasarTokensRevoked quasarTokenRevoked;
@@ -47,6 +55,29 @@ public class QuasarTokenFilter {
   private long tokenSipHashKeyK0;
   private long tokenSipHashKeyK1;
 
+  /**
+   * Decoded token cached under the SipHash of its encoded form
+   */
+  private static final class CachedToken {
+    private final byte[] encoded;
+    private final TBase<?,?> token;
+    private final long appId;
+    private final long expiry;
+
+    private CachedToken(byte[] encoded, TBase<?,?> token, long appId, long expiry) {
+      this.encoded = encoded;
+      this.token = token;
+      this.appId = appId;
+      this.expiry = expiry;
+    }
+  }
+
+  /**
+   * LRU cache of decoded tokens, null if disabled. The cached tokens are still checked
+   * against the TRL and for expiry each time they are used.
+   */
+  private final Map<Long,CachedToken> tokenCache;
+
   // custom key constructor
   private QuasarTokenFilter(Properties props, KeyStore keystore, String tokenAesKeyName) {
     this.properties = (Properties) props.clone();
@@ -64,6 +95,21 @@ public class QuasarTokenFilter {
 
     this.quasarTokenDecoder = new QuasarTokenDecoder(tokenSipHashKeyK0, tokenSipHashKeyK1, tokenAESKey);
     this.quasarTokenRevoked = new QuasarTokensRevoked(properties, appSipHashKey);
+
+    final int cacheSize = Integer.parseInt(properties.getProperty(QuasarConfiguration.WARP_TOKEN_CACHE_SIZE, QuasarConfiguration.WARP_TOKEN_CACHE_SIZE_DEFAULT));
+
+    if (cacheSize > 0) {
+      this.tokenCache = new LinkedHashMap<Long,CachedToken>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Entry<Long,CachedToken> eldest) {
+          return size() > cacheSize;
+        }
+      };
+      // Evict revoked tokens from the cache when a new TRL is loaded
+      QuasarTokenRevocationListLoader.getInstance(properties, appSipHashKey).addTrlUpdatedHandler(this);
+    } else {
+      this.tokenCache = null;
+    }
   }
 
   // default contructor
@@ -85,17 +131,31 @@ public class QuasarTokenFilter {
 
       byte[] tokenB64Data = cryptedToken.getBytes();
 
+      long sipHash = getTokenSipHash(tokenB64Data);
+
       // check if the token is revoked by the owner
-      quasarTokenRevoked.isTokenRevoked(getTokenSipHash(tokenB64Data));
+      quasarTokenRevoked.isTokenRevoked(sipHash);
 
-      // Decode the token hex string to byte array
-      byte[] tokenHexData = OrderPreservingBase64.decode(tokenB64Data);
+      CachedToken cached = getCachedToken(sipHash, tokenB64Data);
 
-      // decode the read token
-      ReadToken token = quasarTokenDecoder.decodeReadToken(tokenHexData);
+      ReadToken token;
+      long appId;
 
-      // compute the app id
-      long appId = QuasarTokenRevocationListLoader.getApplicationHash(token.getAppName());
+      if (null != cached && cached.token instanceof ReadToken) {
+        // Callers may modify the token, hand them a copy
+        token = ((ReadToken) cached.token).deepCopy();
+        appId = cached.appId;
+      } else {
+        // Decode the token hex string to byte array
+        byte[] tokenHexData = OrderPreservingBase64.decode(tokenB64Data);
+
+        // decode the read token
+        token = quasarTokenDecoder.decodeReadToken(tokenHexData);
+
+        // compute the app id
+        appId = QuasarTokenRevocationListLoader.getApplicationHash(token.getAppName());
+        cached = null;
+      }
 
       // check the token expiration
       checkTokenExpired(token.getIssuanceTimestamp(), token.getExpiryTimestamp(), appId);
@@ -103,6 +163,10 @@ public class QuasarTokenFilter {
       // check the registered application status
       quasarTokenRevoked.isRegisteredAppAuthorized(appId);
 
+      if (null == cached) {
+        cacheToken(sipHash, tokenB64Data, token.deepCopy(), appId, token.getExpiryTimestamp());
+      }
+
       return token;
     } catch(IllegalStateException ise) {
       throw new QuasarTokenInvalid(ise);
@@ -137,17 +201,31 @@ public class QuasarTokenFilter {
 
       byte[] tokenB64Data = cryptedToken.getBytes();
 
+      long sipHash = getTokenSipHash(tokenB64Data);
+
       // check if the token is revoked by the owner
-      quasarTokenRevoked.isTokenRevoked(getTokenSipHash(tokenB64Data));
+      quasarTokenRevoked.isTokenRevoked(sipHash);
 
-      // Decode the token hex string to byte array
-      byte[] tokenHexData = OrderPreservingBase64.decode(tokenB64Data);
+      CachedToken cached = getCachedToken(sipHash, tokenB64Data);
 
-      // decode the write token
-      WriteToken token = quasarTokenDecoder.decodeWriteToken(tokenHexData);
+      WriteToken token;
+      long appId;
 
-      // compute the app id based on the app name
-      long appId = QuasarTokenRevocationListLoader.getApplicationHash(token.getAppName());
+      if (null != cached && cached.token instanceof WriteToken) {
+        // Callers may modify the token, hand them a copy
+        token = ((WriteToken) cached.token).deepCopy();
+        appId = cached.appId;
+      } else {
+        // Decode the token hex string to byte array
+        byte[] tokenHexData = OrderPreservingBase64.decode(tokenB64Data);
+
+        // decode the write token
+        token = quasarTokenDecoder.decodeWriteToken(tokenHexData);
+
+        // compute the app id based on the app name
+        appId = QuasarTokenRevocationListLoader.getApplicationHash(token.getAppName());
+        cached = null;
+      }
 
       // check the token expiration
       checkTokenExpired(token.getIssuanceTimestamp(), token.getExpiryTimestamp(), appId);
@@ -155,6 +233,10 @@ public class QuasarTokenFilter {
       // check the registered application status
       quasarTokenRevoked.isRegisteredAppAuthorized(appId);
 
+      if (null == cached) {
+        cacheToken(sipHash, tokenB64Data, token.deepCopy(), appId, token.getExpiryTimestamp());
+      }
+
       return token;
     } catch(IllegalStateException ise) {
       throw new QuasarTokenInvalid(ise);
@@ -170,6 +252,65 @@ public class QuasarTokenFilter {
     }
   }
 
+  /**
+   * Retrieve a decoded token from the cache.
+   *
+   * @param sipHash SipHash of the encoded token
+   * @param encoded Encoded token
+   * @return The cached token or null if the token is not cached or has expired
+   */
+  private CachedToken getCachedToken(long sipHash, byte[] encoded) {
+    if (null == tokenCache) {
+      return null;
+    }
+
+    CachedToken cached;
+
+    synchronized (tokenCache) {
+      cached = tokenCache.get(sipHash);
+
+      if (null != cached && cached.expiry < System.currentTimeMillis()) {
+        tokenCache.remove(sipHash);
+        return null;
+      }
+    }
+
+    // Guard against SipHash collisions
+    if (null != cached && !Arrays.equals(cached.encoded, encoded)) {
+      return null;
+    }
+
+    return cached;
+  }
+
+  private void cacheToken(long sipHash, byte[] encoded, TBase<?,?> token, long appId, long expiry) {
+    if (null == tokenCache) {
+      return;
+    }
+
+    synchronized (tokenCache) {
+      tokenCache.put(sipHash, new CachedToken(encoded, token, appId, expiry));
+    }
+  }
+
+  @Override
+  public void onQuasarTRL(QuasarTRL trl) {
+    if (null == tokenCache) {
+      return;
+    }
+
+    synchronized (tokenCache) {
+      Iterator<Entry<Long,CachedToken>> iter = tokenCache.entrySet().iterator();
+
+      while (iter.hasNext()) {
+        Entry<Long,CachedToken> entry = iter.next();
+        if (trl.isTokenRevoked(entry.getKey()) || trl.isAppAuthorized(entry.getValue().appId)) {
+          iter.remove();
+        }
+      }
+    }
+  }
+
   /**
    * Extract a key of the keystore,
    * @param keystore the Keystore
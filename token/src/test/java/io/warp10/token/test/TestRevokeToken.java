@@ -1,10 +1,12 @@
 package io.warp10.token.test;
 
 import io.warp10.quasar.encoder.QuasarTokenEncoder;
+import io.warp10.quasar.filter.QuasarConfiguration;
 import io.warp10.quasar.filter.QuasarTokenFilter;
 import io.warp10.quasar.filter.QuasarTokensRevoked;
 import io.warp10.quasar.filter.exception.QuasarTokenException;
 import io.warp10.quasar.filter.exception.QuasarTokenRevoked;
+import io.warp10.quasar.token.thrift.data.ReadToken;
 import io.warp10.quasar.trl.QuasarTRL;
 import org.apache.thrift.TException;
 import org.junit.Test;
@@ -14,6 +16,7 @@ import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Properties;
 import java.util.UUID;
 
 public class TestRevokeToken extends TokenTestCase {
@@ -56,5 +59,42 @@ public class TestRevokeToken extends TokenTestCase {
     }
   }
 
+  @Test
+  public void testRevokeCachedToken() throws IllegalAccessException, NoSuchFieldException, TException, QuasarTokenException {
+    String producer = UUID.randomUUID().toString();
+    String app = "warp10.test";
+    long ttl = 32468;
+
+    String readToken = tokenEncoder.deliverReadToken(app, producer, producer, new ArrayList<String>(Arrays.asList(app)), ttl, getKeyStore());
+
+    Properties config = getConfig();
+    config.setProperty(QuasarConfiguration.WARP_TOKEN_CACHE_SIZE, "10");
+
+    QuasarTokenFilter tokenFilter = new QuasarTokenFilter(config, getKeyStore());
+
+    // The second call uses the cached token, modifications of the first one must not be visible
+    ReadToken first = tokenFilter.getReadToken(readToken);
+    first.setAppName("modified");
+    ReadToken second = tokenFilter.getReadToken(readToken);
+    assert app.equals(second.getAppName());
+
+    // revoke the cached token
+    QuasarTRL trl = new QuasarTRL();
+    trl.revokeToken(tokenFilter.getTokenSipHash(readToken.getBytes()));
+
+    Field f = tokenFilter.getClass().getDeclaredField("quasarTokenRevoked");
+    f.setAccessible(true);
+    QuasarTokensRevoked revoked = (QuasarTokensRevoked) f.get(tokenFilter);
+
+    revoked.onQuasarTRL(trl);
+
+    try {
+      tokenFilter.getReadToken(readToken);
+      assert false;
+    } catch (QuasarTokenException qte) {
+      assert qte instanceof QuasarTokenRevoked;
+    }
+  }
+
   private QuasarTokenEncoder tokenEncoder = new QuasarTokenEncoder();
 }
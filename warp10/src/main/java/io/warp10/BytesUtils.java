@@ -48,6 +48,6 @@ public class BytesUtils {
     // The two byte arrays are identical on the first minlen bytes
     // the shortest one will now win!
 
-    return Integer.compare(left.length, right.length);
+    return Integer.compare(leftlen, rightlen);
   }
 }
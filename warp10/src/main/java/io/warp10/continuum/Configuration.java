@@ -216,6 +216,7 @@ public class Configuration {
   public static final String WARPSCRIPT_MAX_SYMBOLS = "warpscript.maxsymbols";
   public static final String WARPSCRIPT_MAX_PIXELS = "warpscript.maxpixels";
   public static final String WARPSCRIPT_MAX_JSON = "warpscript.maxjson";
+  public static final String WARPSCRIPT_MAX_PARALLELISM = "warpscript.maxparallelism";
 
   // Hard limits for the above limits which can be changed via a function call
   public static final String WARPSCRIPT_MAX_OPS_HARD = "warpscript.maxops.hard";
@@ -229,6 +230,25 @@ public class Configuration {
   public static final String WARPSCRIPT_MAX_SYMBOLS_HARD = "warpscript.maxsymbols.hard";
   public static final String WARPSCRIPT_MAX_PIXELS_HARD = "warpscript.maxpixels.hard";
   public static final String WARPSCRIPT_MAX_JSON_HARD = "warpscript.maxjson.hard";
+  public static final String WARPSCRIPT_MAX_PARALLELISM_HARD = "warpscript.maxparallelism.hard";
+
+  /**
+   * Number of threads of the pool shared by all WarpScript executions to evaluate the partitions
+   * of REDUCE and APPLY in parallel. Defaults to the number of available processors.
+   */
+  public static final String WARPSCRIPT_PARALLELISM_POOLSIZE = "warpscript.parallelism.poolsize";
+
+  /**
+   * Set to false to disable the incremental computation over sliding windows of the mappers
+   * which support it in MAP. Defaults to true.
+   */
+  public static final String WARPSCRIPT_MAP_INCREMENTAL = "warpscript.map.incremental";
+
+  /**
+   * Set to true to execute macros from a compiled form in which constants are pushed in bulk and
+   * the operation count and signals are only handled before function calls. Defaults to false.
+   */
+  public static final String WARPSCRIPT_MACRO_COMPILE = "warpscript.macro.compile";
 
   /**
    * When set to true, allow common comment block style. When false, keep the old strict comment block style within WarpScript
@@ -249,6 +269,18 @@ public class Configuration {
    */
   public static final String WARP_TIME_UNITS = "warp.timeunits";
 
+  /**
+   * Set to true to encode DOUBLE values as the XOR with the previous value when it is shorter.
+   * Data encoded this way cannot be read by versions of Warp 10 which do not support it.
+   */
+  public static final String WARP_ENCODER_DOUBLE_XOR = "warp.encoder.double.xor";
+
+  /**
+   * Set to true to encode timestamps as the difference between consecutive deltas when it is shorter.
+   * Data encoded this way cannot be read by versions of Warp 10 which do not support it.
+   */
+  public static final String WARP_ENCODER_TIMESTAMP_DELTAOFDELTA = "warp.encoder.timestamp.deltaofdelta";
+
   /**
    * Path of the 'bootstrap' WarpScript code for Egress
    */
@@ -489,6 +521,22 @@ public class Configuration {
    */
   public static final String DIRECTORY_INIT_NTHREADS = "directory.init.nthreads";
 
+  /**
+   * Comma separated list of label names to index in the standalone directory, or '*' to index all labels.
+   * The index is used by FIND/FETCH to narrow the GTS to inspect for exact and prefix label selectors.
+   */
+  public static final String DIRECTORY_INDEX_LABELS = "directory.index.labels";
+
+  /**
+   * Maximum number of tasks a find in the standalone directory can be split into, defaults to 1 (no parallelism).
+   */
+  public static final String DIRECTORY_FIND_PARALLELISM = "directory.find.parallelism";
+
+  /**
+   * Number of threads of the pool running the tasks of parallel finds in the standalone directory, defaults to the number of processors.
+   */
+  public static final String DIRECTORY_FIND_POOLSIZE = "directory.find.poolsize";
+
   /**
    * Boolean indicating whether or not we should initialized Directory by reading FoundationDB
    */
@@ -1394,6 +1442,54 @@ public class Configuration {
    */
   public static final String LEVELDB_BLOCKCACHE_GTS_THRESHOLD = "leveldb.blockcache.gts.threshold";
 
+  /**
+   * Approximate size in bytes of the data of a time based fetch call to the backend above which block caching will be disabled for LevelDB.
+   * This extends leveldb.blockcache.gts.threshold to requests for few GTS spanning large time ranges.
+   */
+  public static final String LEVELDB_BLOCKCACHE_SIZE_THRESHOLD = "leveldb.blockcache.size.threshold";
+
+  /**
+   * Number of rows to read in advance, in a background thread, when scanning LevelDB during fetches.
+   * Defaults to 0 which disables read-ahead.
+   */
+  public static final String LEVELDB_READAHEAD_ROWS = "leveldb.readahead.rows";
+
+  /**
+   * Number of threads dedicated to LevelDB read-ahead.
+   */
+  public static final String LEVELDB_READAHEAD_POOLSIZE = "leveldb.readahead.poolsize";
+
+  /**
+   * Span in time units of the buckets whose rows are compacted in data blocks, 0 disables the compaction.
+   * Recorded in LevelDB once data blocks were written, it cannot be modified afterwards.
+   */
+  public static final String LEVELDB_BLOCKS_SPAN = "leveldb.blocks.span";
+
+  /**
+   * Age in time units above which a bucket is compacted.
+   */
+  public static final String LEVELDB_BLOCKS_AGE = "leveldb.blocks.age";
+
+  /**
+   * Delay in ms between two runs of the data blocks compactor.
+   */
+  public static final String LEVELDB_BLOCKS_PERIOD = "leveldb.blocks.period";
+
+  /**
+   * Maximum number of datapoints per data block.
+   */
+  public static final String LEVELDB_BLOCKS_MAXSIZE = "leveldb.blocks.maxsize";
+
+  /**
+   * Minimum number of rows a bucket without data blocks must contain to be compacted.
+   */
+  public static final String LEVELDB_BLOCKS_MINROWS = "leveldb.blocks.minrows";
+
+  /**
+   * Flag indicating whether or not data blocks are compressed.
+   */
+  public static final String LEVELDB_BLOCKS_COMPRESS = "leveldb.blocks.compress";
+
   /**
    * Rate of synchronous writes for the datapoints (update/deletes).
    * This is a double between 0.0 (all writes asynchronous) and 1.0 (all writes synchronous).
@@ -1755,6 +1851,11 @@ public class Configuration {
    */
   public static final String ACCELERATOR_GC_MAXALLOC = "accelerator.gc.maxalloc";
 
+  /**
+   * Set to true to store the non current chunks of the Warp 10 accelerator off heap
+   */
+  public static final String ACCELERATOR_OFFHEAP = "accelerator.offheap";
+
   /**
    * If set to true, then only the last recorded value of a GTS is kept
    */
@@ -1785,6 +1886,16 @@ public class Configuration {
    */
   public static final String STANDALONE_MEMORY_STORE_LOAD_FAILSAFE = "in.memory.load.failsafe";
 
+  /**
+   * Set to true to persist the in-memory state as a snapshot which can be memory mapped when loaded instead of a SequenceFile.
+   */
+  public static final String STANDALONE_MEMORY_STORE_DUMP_SNAPSHOT = "in.memory.dump.snapshot";
+
+  /**
+   * Number of threads to use for loading a snapshot, defaults to the number of available processors.
+   */
+  public static final String STANDALONE_MEMORY_STORE_LOAD_NTHREADS = "in.memory.load.nthreads";
+
   /**
    * How often (in ms) to perform a gc of the in-memory store.
    */
@@ -1795,6 +1906,11 @@ public class Configuration {
    */
   public static final String STANDALONE_MEMORY_GC_MAXALLOC = "in.memory.gc.maxalloc";
 
+  /**
+   * Set to true to store the non current chunks of the chunked in-memory store off heap
+   */
+  public static final String STANDALONE_MEMORY_OFFHEAP = "in.memory.offheap";
+
   //
   // E G R E S S
   //
@@ -1932,6 +2048,13 @@ public class Configuration {
    */
   public static final String STANDALONE_PARALLELSCANNERS_MAX_PARALLEL_SCANNERS = "standalone.parallelscanners.max.parallel.scanners";
 
+  /**
+   * Approximate number of bytes of LevelDB data to assign to a parallel scanner when splitting the time range of a GTS in the standalone version.
+   * When a fetch request for fewer GTS than the maximum number of parallel scanners would read more than twice this size for a GTS, its time range
+   * is split into sub-ranges scanned in parallel, sized using the approximate sizes reported by LevelDB. Defaults to 0 which disables range splitting.
+   */
+  public static final String STANDALONE_PARALLELSCANNERS_RANGESPLIT_MINSIZE = "standalone.parallelscanners.rangesplit.minsize";
+
   /**
    * Key to use for encrypting data in FDB (128/192/256 bits in hex or OSS reference)
    */
@@ -25,16 +25,20 @@ import java.io.PrintWriter;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.ConcurrentModificationException;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.kafka.clients.producer.KafkaProducer;
 import org.apache.kafka.clients.producer.ProducerConfig;
@@ -43,8 +47,6 @@ import org.joda.time.format.ISODateTimeFormat;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.common.util.concurrent.RateLimiter;
-
 import io.warp10.WarpConfig;
 import io.warp10.WarpURLDecoder;
 import io.warp10.continuum.KafkaSynchronizedConsumerPool.ConsumerFactory;
@@ -53,6 +55,7 @@ import io.warp10.continuum.sensision.SensisionConstants;
 import io.warp10.continuum.store.thrift.data.Metadata;
 import io.warp10.crypto.CryptoUtils;
 import io.warp10.crypto.OrderPreservingBase64;
+import io.warp10.script.ConcurrentHyperLogLogPlus;
 import io.warp10.script.HyperLogLogPlus;
 import io.warp10.sensision.Sensision;
 
@@ -76,7 +79,7 @@ public class ThrottlingManager {
   public static final String LIMITS_APPLICATION_MADS_CURRENT = "application.mads.current";
 
   /**
-   * Minimal limit (1 per hour) because 0 is not acceptable by RateLimiter.
+   * Minimal limit (1 per hour) because 0 is not acceptable by TokenBucket.
    */
   public static final double MINIMUM_RATE_LIMIT = 1.0D/3600.0D;
 
@@ -111,7 +114,7 @@ public class ThrottlingManager {
   private static final long[] SIP_KEYS = { 0x01L, 0x02L };
 
   /**
-   * Maximum number of milliseconds to wait for RateLimiter permits
+   * Maximum number of milliseconds to wait for rate limiter permits
    */
   private static long MAXWAIT_PER_DATAPOINT;
 
@@ -133,54 +136,127 @@ public class ThrottlingManager {
   private static final double toleranceRatio = 1.0D + (1.04D / Math.sqrt(1L << DEFAULT_P));
 
   /**
-   * Rate limiters to control the rate of datapoints ingestion per producer
+   * Throttling state of a producer or an application
    */
-  private static Map<String,RateLimiter> producerRateLimiters = new HashMap<String, RateLimiter>();
+  private static final class Throttle {
+    /**
+     * Sensision labels identifying the producer or application, never modified
+     */
+    private final Map<String,String> labels;
+
+    /**
+     * Rate limiter to control the rate of datapoints ingestion, null if there is none
+     */
+    private final AtomicReference<TokenBucket> limiter = new AtomicReference<TokenBucket>();
+
+    /**
+     * MADS (Monthly Active Data Streams) limit, adjusted for the error of the estimator, null if none was set
+     */
+    private volatile Long mads = null;
+
+    private Throttle(String label, String name) {
+      Map<String,String> labels = new HashMap<String, String>(1);
+      labels.put(label, name);
+      this.labels = Collections.unmodifiableMap(labels);
+    }
+  }
 
   /**
-   * Rate limiters to control the rate of datapoints ingestion per application
+   * Throttling state per producer
    */
-  private static Map<String,RateLimiter> applicationRateLimiters = new HashMap<String, RateLimiter>();
+  private static final Map<String,Throttle> producerThrottles = new ConcurrentHashMap<String, Throttle>();
 
   /**
-   * Map of estimators for producers
+   * Throttling state per application
    */
-  private static Map<String,HyperLogLogPlus> producerHLLPEstimators = new LinkedHashMap<String, HyperLogLogPlus>() {
-    @Override
-    protected boolean removeEldestEntry(java.util.Map.Entry<String, HyperLogLogPlus> eldest) {
-      //
-      // Update estimator cache size
-      //
+  private static final Map<String,Throttle> applicationThrottles = new ConcurrentHashMap<String, Throttle>();
 
-      boolean overflow = this.size() > ESTIMATOR_CACHE_SIZE;
+  /**
+   * Estimators retained in memory. Lookups do not lock, insertions and removals are serialized
+   * and evict the estimators inserted the longest ago once ESTIMATOR_CACHE_SIZE is exceeded.
+   */
+  private static final class EstimatorCache {
+    private final Map<String,ConcurrentHyperLogLogPlus> estimators = new ConcurrentHashMap<String, ConcurrentHyperLogLogPlus>();
 
-      if (!overflow) {
-        Sensision.set(SensisionConstants.SENSISION_CLASS_CONTINUUM_ESTIMATORS_CACHED, Sensision.EMPTY_LABELS, this.size());
-      }
+    /**
+     * Keys of the estimators in insertion order
+     */
+    private final Set<String> order = new LinkedHashSet<String>();
 
-      return overflow;
+    private final String sensisionClass;
+
+    private EstimatorCache(String sensisionClass) {
+      this.sensisionClass = sensisionClass;
     }
-  };
 
-  /**
-   * Map of estimators for applications
-   */
-  private static Map<String,HyperLogLogPlus> applicationHLLPEstimators = new LinkedHashMap<String, HyperLogLogPlus>() {
-    @Override
-    protected boolean removeEldestEntry(java.util.Map.Entry<String, HyperLogLogPlus> eldest) {
+    ConcurrentHyperLogLogPlus get(String name) {
+      return null == name ? null : estimators.get(name);
+    }
+
+    boolean containsKey(String name) {
+      return null != name && estimators.containsKey(name);
+    }
+
+    boolean isEmpty() {
+      return estimators.isEmpty();
+    }
+
+    Set<Map.Entry<String,ConcurrentHyperLogLogPlus>> entrySet() {
+      return estimators.entrySet();
+    }
+
+    Set<String> keySet() {
+      return estimators.keySet();
+    }
+
+    synchronized void put(String name, ConcurrentHyperLogLogPlus estimator) {
+      estimators.put(name, estimator);
+      order.add(name);
+
       //
       // Update estimator cache size
       //
 
-      boolean overflow = this.size() > ESTIMATOR_CACHE_SIZE;
+      if (order.size() > ESTIMATOR_CACHE_SIZE) {
+        Iterator<String> iter = order.iterator();
+        estimators.remove(iter.next());
+        iter.remove();
+      } else {
+        Sensision.set(sensisionClass, Sensision.EMPTY_LABELS, estimators.size());
+      }
+    }
+
+    synchronized void remove(String name) {
+      estimators.remove(name);
+      order.remove(name);
+    }
 
-      if (!overflow) {
-        Sensision.set(SensisionConstants.SENSISION_CLASS_CONTINUUM_ESTIMATORS_CACHED_PER_APP, Sensision.EMPTY_LABELS, this.size());
+    /**
+     * Return the estimator for 'name', allocating a new one if there is none or if it has expired.
+     */
+    synchronized ConcurrentHyperLogLogPlus renew(String name, String key) {
+      ConcurrentHyperLogLogPlus estimator = estimators.get(name);
+
+      if (null == estimator || estimator.hasExpired()) {
+        estimator = new ConcurrentHyperLogLogPlus(DEFAULT_P, DEFAULT_PPRIME);
+        estimator.toNormal();
+        estimator.setKey(key);
+        put(name, estimator);
       }
 
-      return overflow;
+      return estimator;
     }
-  };
+  }
+
+  /**
+   * Map of estimators for producers
+   */
+  private static final EstimatorCache producerHLLPEstimators = new EstimatorCache(SensisionConstants.SENSISION_CLASS_CONTINUUM_ESTIMATORS_CACHED);
+
+  /**
+   * Map of estimators for applications
+   */
+  private static final EstimatorCache applicationHLLPEstimators = new EstimatorCache(SensisionConstants.SENSISION_CLASS_CONTINUUM_ESTIMATORS_CACHED_PER_APP);
 
   private static AtomicBoolean initialized = new AtomicBoolean(false);
 
@@ -198,15 +274,43 @@ public class ThrottlingManager {
     init();
   }
 
+  private static Throttle producerThrottle(String producer) {
+    return throttle(producerThrottles, SensisionConstants.SENSISION_LABEL_PRODUCER, producer);
+  }
+
+  private static Throttle applicationThrottle(String application) {
+    return throttle(applicationThrottles, SensisionConstants.SENSISION_LABEL_APPLICATION, application);
+  }
+
   /**
-   * Map of per producer MADS (Monthly Active Data Streams) limits
+   * Retrieve the throttling state of 'name', creating it if there is none yet
    */
-  private static Map<String,Long> producerMADSLimits = new HashMap<String, Long>();
+  private static Throttle throttle(Map<String,Throttle> throttles, String label, String name) {
+    Throttle throttle = throttles.get(name);
+
+    if (null == throttle) {
+      throttle = new Throttle(label, name);
+      Throttle previous = throttles.putIfAbsent(name, throttle);
+      if (null != previous) {
+        throttle = previous;
+      }
+    }
+
+    return throttle;
+  }
 
   /**
-   * Map of per application MADS (Monthly Active Data Streams) limits
+   * Retrieve the Sensision labels of 'name', without creating its throttling state if there is none
    */
-  private static Map<String,Long> applicationMADSLimits = new HashMap<String, Long>();
+  private static Map<String,String> labels(Throttle throttle, String label, String name) {
+    if (null != throttle) {
+      return throttle.labels;
+    }
+
+    Map<String,String> labels = new HashMap<String, String>(1);
+    labels.put(label, name);
+    return labels;
+  }
 
   /**
    * Check compatibility of a GTS with the current MADS limit
@@ -225,17 +329,20 @@ public class ThrottlingManager {
       return;
     }
 
+    Throttle producerThrottle = null == producer ? null : producerThrottles.get(producer);
+    Throttle applicationThrottle = null == application ? null : applicationThrottles.get(application);
+
     //
     // Retrieve per producer limit
     //
 
-    Long oProducerLimit = producerMADSLimits.get(producer);
+    Long oProducerLimit = null == producerThrottle ? null : producerThrottle.mads;
 
     //
     // Extract per application limit
     //
 
-    Long oApplicationLimit = applicationMADSLimits.get(application);
+    Long oApplicationLimit = null == applicationThrottle ? null : applicationThrottle.mads;
 
     // If there is no per producer limit, check the default one
 
@@ -248,8 +355,7 @@ public class ThrottlingManager {
         return;
       } else if (0 == oProducerLimit) {
         // 0 means we don't accept datastreams anymore for this producer
-        Map<String,String> labels = new HashMap<String, String>();
-        labels.put(SensisionConstants.SENSISION_LABEL_PRODUCER, producer);
+        Map<String,String> labels = labels(producerThrottle, SensisionConstants.SENSISION_LABEL_PRODUCER, producer);
         StringBuilder sb = new StringBuilder();
         sb.append("Geo Time Series ");
         // Do not expose producer and owner as the update did not contain them so
@@ -276,22 +382,13 @@ public class ThrottlingManager {
     // was created in the previous 30 days period, allocate a new one
     //
 
-    HyperLogLogPlus producerHLLP = null;
+    ConcurrentHyperLogLogPlus producerHLLP = null;
 
     if (-1 != producerLimit) {
-      synchronized(producerHLLPEstimators) {
-        producerHLLP = producerHLLPEstimators.get(producer);
-        // If the HyperLogLogPlus is older than 30 days or not yet created, generate a new one
-        if (null == producerHLLP || producerHLLP.hasExpired()) {
-          producerHLLP = new HyperLogLogPlus(DEFAULT_P, DEFAULT_PPRIME);
-          try {
-            producerHLLP.toNormal();
-          } catch (IOException ioe) {
-            throw new WarpException(ioe);
-          }
-          producerHLLP.setKey(producer);
-          producerHLLPEstimators.put(producer, producerHLLP);
-        }
+      producerHLLP = producerHLLPEstimators.get(producer);
+      // If the HyperLogLogPlus is older than 30 days or not yet created, generate a new one
+      if (null == producerHLLP || producerHLLP.hasExpired()) {
+        producerHLLP = producerHLLPEstimators.renew(producer, producer);
       }
     }
 
@@ -311,26 +408,17 @@ public class ThrottlingManager {
       return;
     }
 
-    HyperLogLogPlus applicationHLLP = null;
+    ConcurrentHyperLogLogPlus applicationHLLP = null;
 
     long applicationLimit = Long.MIN_VALUE;
 
     if (null != oApplicationLimit) {
       applicationLimit = oApplicationLimit;
 
-      synchronized(applicationHLLPEstimators) {
-        applicationHLLP = applicationHLLPEstimators.get(application);
-        // If the HyperLogLogPlus is older than 30 days or not yet created, generate a new one
-        if (null == applicationHLLP || applicationHLLP.hasExpired()) {
-          applicationHLLP = new HyperLogLogPlus(DEFAULT_P, DEFAULT_PPRIME);
-          try {
-            applicationHLLP.toNormal();
-          } catch (IOException ioe) {
-            throw new WarpException(ioe);
-          }
-          applicationHLLP.setKey(APPLICATION_PREFIX_CHAR + application);
-          applicationHLLPEstimators.put(application, applicationHLLP);
-        }
+      applicationHLLP = applicationHLLPEstimators.get(application);
+      // If the HyperLogLogPlus is older than 30 days or not yet created, generate a new one
+      if (null == applicationHLLP || applicationHLLP.hasExpired()) {
+        applicationHLLP = applicationHLLPEstimators.renew(application, APPLICATION_PREFIX_CHAR + application);
       }
     }
 
@@ -344,30 +432,25 @@ public class ThrottlingManager {
         return;
       }
 
-      try {
-        long cardinality = applicationHLLP.cardinality();
+      long cardinality = applicationHLLP.cardinality();
 
-        Map<String,String> labels = new HashMap<String, String>();
-        labels.put(SensisionConstants.SENSISION_LABEL_APPLICATION, application);
+      Map<String,String> labels = applicationThrottle.labels;
 
-        if (cardinality > applicationLimit) {
-          StringBuilder sb = new StringBuilder();
-          sb.append("Geo Time Series ");
-          GTSHelper.metadataToString(sb, metadata.getName(), metadata.getLabels(), expose);
-          sb.append(" would exceed the Monthly Active Data Streams limit for application '" + application + "' (");
-          sb.append((long) Math.floor(applicationLimit / toleranceRatio));
-          sb.append(").");
-          Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_THROTTLING_GTS_PER_APP, labels, 1);
-          Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_THROTTLING_GTS_PER_APP_GLOBAL, Sensision.EMPTY_LABELS, 1);
-          throw new WarpException(sb.toString());
-        }
+      if (cardinality > applicationLimit) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Geo Time Series ");
+        GTSHelper.metadataToString(sb, metadata.getName(), metadata.getLabels(), expose);
+        sb.append(" would exceed the Monthly Active Data Streams limit for application '" + application + "' (");
+        sb.append((long) Math.floor(applicationLimit / toleranceRatio));
+        sb.append(").");
+        Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_THROTTLING_GTS_PER_APP, labels, 1);
+        Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_THROTTLING_GTS_PER_APP_GLOBAL, Sensision.EMPTY_LABELS, 1);
+        throw new WarpException(sb.toString());
+      }
 
-        applicationHLLP.aggregate(hash);
+      applicationHLLP.aggregate(hash);
 
-        Sensision.set(SensisionConstants.SENSISION_CLASS_CONTINUUM_GTS_DISTINCT_PER_APP, labels, applicationHLLP.cardinality());
-      } catch (IOException ioe){
-        // Ignore for now...
-      }
+      Sensision.set(SensisionConstants.SENSISION_CLASS_CONTINUUM_GTS_DISTINCT_PER_APP, labels, applicationHLLP.cardinality());
     }
 
     if (-1 == producerLimit) {
@@ -378,31 +461,25 @@ public class ThrottlingManager {
     // If we are already above the monthly limit, throw an exception
     //
 
-    try {
-
-      long cardinality = producerHLLP.cardinality();
+    long cardinality = producerHLLP.cardinality();
 
-      Map<String,String> labels = new HashMap<String, String>();
-      labels.put(SensisionConstants.SENSISION_LABEL_PRODUCER, producer);
+    Map<String,String> labels = labels(producerThrottle, SensisionConstants.SENSISION_LABEL_PRODUCER, producer);
 
-      if (cardinality > producerLimit) {
-        StringBuilder sb = new StringBuilder();
-        sb.append("Geo Time Series ");
-        GTSHelper.metadataToString(sb, metadata.getName(), metadata.getLabels(), expose);
-        sb.append(" would exceed your Monthly Active Data Streams limit (");
-        sb.append((long) Math.floor(producerLimit / toleranceRatio));
-        sb.append(").");
-        Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_THROTTLING_GTS, labels, 1);
-        Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_THROTTLING_GTS_GLOBAL, Sensision.EMPTY_LABELS, 1);
-        throw new WarpException(sb.toString());
-      }
+    if (cardinality > producerLimit) {
+      StringBuilder sb = new StringBuilder();
+      sb.append("Geo Time Series ");
+      GTSHelper.metadataToString(sb, metadata.getName(), metadata.getLabels(), expose);
+      sb.append(" would exceed your Monthly Active Data Streams limit (");
+      sb.append((long) Math.floor(producerLimit / toleranceRatio));
+      sb.append(").");
+      Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_THROTTLING_GTS, labels, 1);
+      Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_THROTTLING_GTS_GLOBAL, Sensision.EMPTY_LABELS, 1);
+      throw new WarpException(sb.toString());
+    }
 
-      producerHLLP.aggregate(hash);
+    producerHLLP.aggregate(hash);
 
-      Sensision.set(SensisionConstants.SENSISION_CLASS_CONTINUUM_GTS_DISTINCT, labels, producerHLLP.cardinality());
-    } catch (IOException ioe) {
-      // Ignore for now...
-    }
+    Sensision.set(SensisionConstants.SENSISION_CLASS_CONTINUUM_GTS_DISTINCT, labels, producerHLLP.cardinality());
   }
 
   /**
@@ -422,11 +499,14 @@ public class ThrottlingManager {
     }
 
     //
-    // Extract RateLimiter
+    // Extract rate limiters
     //
 
-    RateLimiter producerLimiter = producerRateLimiters.get(producer);
-    RateLimiter applicationLimiter = applicationRateLimiters.get(application);
+    Throttle producerThrottle = null == producer ? null : producerThrottles.get(producer);
+    Throttle applicationThrottle = null == application ? null : applicationThrottles.get(application);
+
+    TokenBucket producerLimiter = null == producerThrottle ? null : producerThrottle.limiter.get();
+    TokenBucket applicationLimiter = null == applicationThrottle ? null : applicationThrottle.limiter.get();
 
     //
     // TODO(hbs): store per producer/per app maxwait values? Extract them from the throttling file?
@@ -438,10 +518,12 @@ public class ThrottlingManager {
     // -1.0 as the default rate means do not enforce DDP limit
     if (null == producerLimiter && null == applicationLimiter && -1.0D == DEFAULT_RATE_PRODUCER) {
       return;
-    } else if (null == producerLimiter && -1.0D != DEFAULT_RATE_PRODUCER) {
-      // Create a rate limiter with the default rate
-      producerLimiter = RateLimiter.create(Math.max(MINIMUM_RATE_LIMIT,DEFAULT_RATE_PRODUCER));
-      producerRateLimiters.put(producer, producerLimiter);
+    } else if (null == producerLimiter && null != producer && -1.0D != DEFAULT_RATE_PRODUCER) {
+      // Create a rate limiter with the default rate, unless another thread just did. The throttling
+      // state of the producer is only created when it gets a limiter.
+      producerThrottle = producerThrottle(producer);
+      TokenBucket limiter = TokenBucket.create(Math.max(MINIMUM_RATE_LIMIT,DEFAULT_RATE_PRODUCER));
+      producerLimiter = producerThrottle.limiter.compareAndSet(null, limiter) ? limiter : producerThrottle.limiter.get();
     }
 
     // Check per application limiter
@@ -456,9 +538,7 @@ public class ThrottlingManager {
         sb.append(appMaxWait);
         sb.append(" ms per datapoint due to your Daily Data Points limit being already exceeded for application '" + application + "'. Current max rate is " + applicationLimiter.getRate() + " datapoints/s.");
 
-        Map<String,String> labels = new HashMap<String, String>();
-        labels.put(SensisionConstants.SENSISION_LABEL_APPLICATION, application);
-        Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_THROTTLING_RATE_PER_APP, labels, 1);
+        Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_THROTTLING_RATE_PER_APP, applicationThrottle.labels, 1);
         Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_THROTTLING_RATE_PER_APP_GLOBAL, Sensision.EMPTY_LABELS, 1);
 
         throw new WarpException(sb.toString());
@@ -479,9 +559,7 @@ public class ThrottlingManager {
       sb.append(producerMaxWait);
       sb.append(" ms per datapoint due to your Daily Data Points limit being already exceeded. Current maximum rate is " + producerLimiter.getRate() + " datapoints/s.");
 
-      Map<String,String> labels = new HashMap<String, String>();
-      labels.put(SensisionConstants.SENSISION_LABEL_PRODUCER, producer);
-      Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_THROTTLING_RATE, labels, 1);
+      Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_THROTTLING_RATE, producerThrottle.labels, 1);
       Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_THROTTLING_RATE_GLOBAL, Sensision.EMPTY_LABELS, 1);
 
       throw new WarpException(sb.toString());
@@ -495,17 +573,20 @@ public class ThrottlingManager {
   public static Map<String,Object> getLimits(String producer, String app) {
     Map<String,Object> limits = new HashMap<String, Object>();
 
-    RateLimiter producerLimiter = producerRateLimiters.get(producer);
-    RateLimiter applicationLimiter = applicationRateLimiters.get(app);
+    Throttle producerThrottle = null == producer ? null : producerThrottles.get(producer);
+    Throttle applicationThrottle = null == app ? null : applicationThrottles.get(app);
 
-    Long oProducerLimit = producerMADSLimits.get(producer);
-    Long oApplicationLimit = applicationMADSLimits.get(app);
+    TokenBucket producerLimiter = null == producerThrottle ? null : producerThrottle.limiter.get();
+    TokenBucket applicationLimiter = null == applicationThrottle ? null : applicationThrottle.limiter.get();
+
+    Long oProducerLimit = null == producerThrottle ? null : producerThrottle.mads;
+    Long oApplicationLimit = null == applicationThrottle ? null : applicationThrottle.mads;
 
     long producerLimit = Long.MAX_VALUE;
     long applicationLimit = Long.MAX_VALUE;
 
-    HyperLogLogPlus prodHLLP = producerHLLPEstimators.get(producer);
-    HyperLogLogPlus appHLLP = applicationHLLPEstimators.get(app);
+    ConcurrentHyperLogLogPlus prodHLLP = producerHLLPEstimators.get(producer);
+    ConcurrentHyperLogLogPlus appHLLP = applicationHLLPEstimators.get(app);
 
     if (null != producerLimiter) {
       limits.put(LIMITS_PRODUCER_RATE_CURRENT, producerLimiter.getRate());
@@ -526,35 +607,29 @@ public class ThrottlingManager {
     }
 
     if (null != prodHLLP) {
-      try {
-        long cardinality = prodHLLP.cardinality();
+      long cardinality = prodHLLP.cardinality();
 
-        // Change cardinality so it is capped by 'producerLimit', we don't want to expose the
-        // toleranceRatio
+      // Change cardinality so it is capped by 'producerLimit', we don't want to expose the
+      // toleranceRatio
 
-        if (cardinality > producerLimit) {
-          cardinality = producerLimit;
-        }
-
-        limits.put(LIMITS_PRODUCER_MADS_CURRENT, cardinality);
-      } catch (IOException ioe) {
+      if (cardinality > producerLimit) {
+        cardinality = producerLimit;
       }
+
+      limits.put(LIMITS_PRODUCER_MADS_CURRENT, cardinality);
     }
 
     if (null != appHLLP) {
-      try {
-        long cardinality = appHLLP.cardinality();
-
-        // Change cardinality so it is capped by 'producerLimit', we don't want to expose the
-        // toleranceRatio
+      long cardinality = appHLLP.cardinality();
 
-        if (cardinality > applicationLimit) {
-          cardinality = applicationLimit;
-        }
+      // Change cardinality so it is capped by 'producerLimit', we don't want to expose the
+      // toleranceRatio
 
-        limits.put(LIMITS_APPLICATION_MADS_CURRENT, cardinality);
-      } catch (IOException ioe) {
+      if (cardinality > applicationLimit) {
+        cardinality = applicationLimit;
       }
+
+      limits.put(LIMITS_APPLICATION_MADS_CURRENT, cardinality);
     }
 
     return limits;
@@ -765,37 +840,31 @@ public class ThrottlingManager {
                   //
 
                   if (isProducer) {
-                    synchronized(producerHLLPEstimators) {
-                      producerHLLPEstimators.remove(entity);
-                      Map<String,String> labels = new HashMap<String, String>();
-                      labels.put(SensisionConstants.SENSISION_LABEL_PRODUCER, entity);
-                      Sensision.clear(SensisionConstants.SENSISION_CLASS_CONTINUUM_GTS_DISTINCT, labels);
-                      Sensision.event(SensisionConstants.SENSISION_CLASS_CONTINUUM_GTS_DISTINCT, labels, 0);
-                      Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_ESTIMATOR_RESETS, labels, 1);
-                    }
+                    producerHLLPEstimators.remove(entity);
+                    Map<String,String> labels = new HashMap<String, String>();
+                    labels.put(SensisionConstants.SENSISION_LABEL_PRODUCER, entity);
+                    Sensision.clear(SensisionConstants.SENSISION_CLASS_CONTINUUM_GTS_DISTINCT, labels);
+                    Sensision.event(SensisionConstants.SENSISION_CLASS_CONTINUUM_GTS_DISTINCT, labels, 0);
+                    Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_ESTIMATOR_RESETS, labels, 1);
                   } else {
-                    synchronized(applicationHLLPEstimators) {
-                      applicationHLLPEstimators.remove(entity);
-                      Map<String,String> labels = new HashMap<String, String>();
-                      labels.put(SensisionConstants.SENSISION_LABEL_APPLICATION, entity);
-                      Sensision.clear(SensisionConstants.SENSISION_CLASS_CONTINUUM_GTS_DISTINCT_PER_APP, labels);
-                      Sensision.event(SensisionConstants.SENSISION_CLASS_CONTINUUM_GTS_DISTINCT_PER_APP, labels, 0);
-                      Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_ESTIMATOR_RESETS_PER_APP, labels, 1);
-                    }
+                    applicationHLLPEstimators.remove(entity);
+                    Map<String,String> labels = new HashMap<String, String>();
+                    labels.put(SensisionConstants.SENSISION_LABEL_APPLICATION, entity);
+                    Sensision.clear(SensisionConstants.SENSISION_CLASS_CONTINUUM_GTS_DISTINCT_PER_APP, labels);
+                    Sensision.event(SensisionConstants.SENSISION_CLASS_CONTINUUM_GTS_DISTINCT_PER_APP, labels, 0);
+                    Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_ESTIMATOR_RESETS_PER_APP, labels, 1);
                   }
                 } else if (!"".equals(estimator)) {
                   byte[] ser = OrderPreservingBase64.decode(estimator.getBytes(StandardCharsets.US_ASCII));
-                  HyperLogLogPlus hllp = HyperLogLogPlus.fromBytes(ser);
-
-                  // Force mode to 'NORMAL', SPARSE is too slow as it calls merge repeatdly
-                  hllp.toNormal();
+                  // Estimators are read in mode 'NORMAL'
+                  ConcurrentHyperLogLogPlus hllp = ConcurrentHyperLogLogPlus.fromBytes(ser);
 
                   //
                   // Ignore estimator if it has expired
                   //
 
                   if (hllp.hasExpired()) {
-                    hllp = new HyperLogLogPlus(hllp.getP(), hllp.getPPrime());
+                    hllp = new ConcurrentHyperLogLogPlus(hllp.getP(), hllp.getPPrime());
                     hllp.toNormal();
                     hllp.setInitTime(0);
                   }
@@ -806,7 +875,7 @@ public class ThrottlingManager {
 
                     isProducer = true;
 
-                    HyperLogLogPlus old = producerHLLPEstimators.get(entity);
+                    ConcurrentHyperLogLogPlus old = producerHLLPEstimators.get(entity);
 
                     // Merge estimators and replace with the result, keeping the most recent estimator as the base
                     if (null == old || hllp.getInitTime() > old.getInitTime()) {
@@ -816,14 +885,12 @@ public class ThrottlingManager {
 
                       hllp.setKey(entity);
 
-                      synchronized(producerHLLPEstimators) {
-                        producerHLLPEstimators.put(entity, hllp);
-                      }
+                      producerHLLPEstimators.put(entity, hllp);
                     } else {
                       old.fuse(hllp);
                     }
                   } else {
-                    HyperLogLogPlus old = applicationHLLPEstimators.get(entity);
+                    ConcurrentHyperLogLogPlus old = applicationHLLPEstimators.get(entity);
 
                     // Merge estimators and replace with the result, keeping the most recent estimator as the base
                     if (null == old || hllp.getInitTime() > old.getInitTime()) {
@@ -833,9 +900,7 @@ public class ThrottlingManager {
 
                       hllp.setKey(APPLICATION_PREFIX_CHAR + entity);
 
-                      synchronized(applicationHLLPEstimators) {
-                        applicationHLLPEstimators.put(entity, hllp);
-                      }
+                      applicationHLLPEstimators.put(entity, hllp);
                     } else {
                       old.fuse(hllp);
                     }
@@ -848,22 +913,18 @@ public class ThrottlingManager {
                   // Adjust limit so we account for the error of the estimator
                   limit = (long) Math.ceil(limit * toleranceRatio);
 
-                  Map<String,String> labels = new HashMap<String, String>();
-
                   if (isProducer) {
-                    producerMADSLimits.put(entity, limit);
-                    labels.put(SensisionConstants.SENSISION_LABEL_PRODUCER, entity);
-                    Sensision.event(SensisionConstants.SENSISION_CLASS_CONTINUUM_THROTTLING_GTS_LIMIT, labels, limit);
+                    Throttle throttle = producerThrottle(entity);
+                    throttle.mads = limit;
+                    Sensision.event(SensisionConstants.SENSISION_CLASS_CONTINUUM_THROTTLING_GTS_LIMIT, throttle.labels, limit);
                   } else {
-                    applicationMADSLimits.put(entity, limit);
-                    labels.put(SensisionConstants.SENSISION_LABEL_APPLICATION, entity);
-                    Sensision.event(SensisionConstants.SENSISION_CLASS_CONTINUUM_THROTTLING_GTS_LIMIT_PER_APP, labels, limit);
+                    Throttle throttle = applicationThrottle(entity);
+                    throttle.mads = limit;
+                    Sensision.event(SensisionConstants.SENSISION_CLASS_CONTINUUM_THROTTLING_GTS_LIMIT_PER_APP, throttle.labels, limit);
                   }
                 }
 
                 if (!"".equals(rate)) {
-                  Map<String,String> labels = new HashMap<String, String>();
-
                   double rlimit = Double.parseDouble(rate);
 
                   // If rate is not a positive number, set it to 1.0E-9
@@ -872,19 +933,18 @@ public class ThrottlingManager {
                   }
 
                   if (isProducer) {
-                    producerRateLimiters.put(entity, RateLimiter.create(Math.max(MINIMUM_RATE_LIMIT, rlimit)));
-                    labels.put(SensisionConstants.SENSISION_LABEL_PRODUCER, entity);
-                    Sensision.event(SensisionConstants.SENSISION_CLASS_CONTINUUM_THROTTLING_RATE_LIMIT, labels, rlimit);
+                    Throttle throttle = producerThrottle(entity);
+                    throttle.limiter.set(TokenBucket.create(Math.max(MINIMUM_RATE_LIMIT, rlimit)));
+                    Sensision.event(SensisionConstants.SENSISION_CLASS_CONTINUUM_THROTTLING_RATE_LIMIT, throttle.labels, rlimit);
                   } else {
-                    applicationRateLimiters.put(entity, RateLimiter.create(Math.max(MINIMUM_RATE_LIMIT, rlimit)));
-                    labels.put(SensisionConstants.SENSISION_LABEL_APPLICATION, entity);
-                    Sensision.event(SensisionConstants.SENSISION_CLASS_CONTINUUM_THROTTLING_RATE_LIMIT_PER_APP, labels, rlimit);
+                    Throttle throttle = applicationThrottle(entity);
+                    throttle.limiter.set(TokenBucket.create(Math.max(MINIMUM_RATE_LIMIT, rlimit)));
+                    Sensision.event(SensisionConstants.SENSISION_CLASS_CONTINUUM_THROTTLING_RATE_LIMIT_PER_APP, throttle.labels, rlimit);
                   }
                 } else {
-                  if (isProducer) {
-                    producerRateLimiters.remove(entity);
-                  } else {
-                    applicationRateLimiters.remove(entity);
+                  Throttle throttle = isProducer ? producerThrottles.get(entity) : applicationThrottles.get(entity);
+                  if (null != throttle) {
+                    throttle.limiter.set(null);
                   }
                 }
 
@@ -912,9 +972,9 @@ public class ThrottlingManager {
 
           if (System.currentTimeMillis() - now > rampup) {
             try {
-              for (Map.Entry<String, HyperLogLogPlus> keyAndHllp: producerHLLPEstimators.entrySet()) {
+              for (Map.Entry<String, ConcurrentHyperLogLogPlus> keyAndHllp: producerHLLPEstimators.entrySet()) {
                 String key = keyAndHllp.getKey();
-                HyperLogLogPlus hllp = keyAndHllp.getValue();
+                ConcurrentHyperLogLogPlus hllp = keyAndHllp.getValue();
 
                 if (null == hllp) {
                   continue;
@@ -940,9 +1000,9 @@ public class ThrottlingManager {
                 }
               }
 
-              for (Map.Entry<String, HyperLogLogPlus> keyAndHllp: applicationHLLPEstimators.entrySet()) {
+              for (Map.Entry<String, ConcurrentHyperLogLogPlus> keyAndHllp: applicationHLLPEstimators.entrySet()) {
                 String key = keyAndHllp.getKey();
-                HyperLogLogPlus hllp = keyAndHllp.getValue();
+                ConcurrentHyperLogLogPlus hllp = keyAndHllp.getValue();
 
                 if (null == hllp) {
                   continue;
@@ -1017,12 +1077,12 @@ public class ThrottlingManager {
     }
   }
 
-  public static void fuse(HyperLogLogPlus hllp) throws Exception {
+  public static void fuse(HyperLogLogPlus estimator) throws Exception {
     //
     // Ignore estimators with no keys
     //
 
-    if (null == hllp.getKey()) {
+    if (null == estimator.getKey()) {
       return;
     }
 
@@ -1030,10 +1090,12 @@ public class ThrottlingManager {
     // Ignore expired estimators
     //
 
-    if (hllp.hasExpired()) {
+    if (estimator.hasExpired()) {
       return;
     }
 
+    ConcurrentHyperLogLogPlus hllp = ConcurrentHyperLogLogPlus.fromHyperLogLogPlus(estimator);
+
     boolean isApp = false;
 
     if (hllp.getKey().length() > 0 && hllp.getKey().charAt(0) == APPLICATION_PREFIX_CHAR) {
@@ -1041,7 +1103,7 @@ public class ThrottlingManager {
     }
 
     if (isApp) {
-      HyperLogLogPlus old = applicationHLLPEstimators.get(hllp.getKey().substring(1));
+      ConcurrentHyperLogLogPlus old = applicationHLLPEstimators.get(hllp.getKey().substring(1));
 
       if (null != old && old.hasExpired()) {
         old = null;
@@ -1053,9 +1115,7 @@ public class ThrottlingManager {
           hllp.fuse(old);
         }
 
-        synchronized(applicationHLLPEstimators) {
-          applicationHLLPEstimators.put(hllp.getKey().substring(1), hllp);
-        }
+        applicationHLLPEstimators.put(hllp.getKey().substring(1), hllp);
         Map<String,String> labels = new HashMap<String,String>(1);
         labels.put(SensisionConstants.SENSISION_LABEL_APPLICATION, hllp.getKey().substring(1));
         Sensision.set(SensisionConstants.SENSISION_CLASS_CONTINUUM_GTS_DISTINCT_PER_APP, labels, hllp.cardinality());
@@ -1066,7 +1126,7 @@ public class ThrottlingManager {
         Sensision.set(SensisionConstants.SENSISION_CLASS_CONTINUUM_GTS_DISTINCT_PER_APP, labels, old.cardinality());
       }
     } else {
-      HyperLogLogPlus old = producerHLLPEstimators.get(hllp.getKey());
+      ConcurrentHyperLogLogPlus old = producerHLLPEstimators.get(hllp.getKey());
 
       if (null != old && old.hasExpired()) {
         old = null;
@@ -1078,9 +1138,7 @@ public class ThrottlingManager {
           hllp.fuse(old);
         }
 
-        synchronized(producerHLLPEstimators) {
-          producerHLLPEstimators.put(hllp.getKey(), hllp);
-        }
+        producerHLLPEstimators.put(hllp.getKey(), hllp);
 
         Map<String,String> labels = new HashMap<String,String>(1);
         labels.put(SensisionConstants.SENSISION_LABEL_PRODUCER, hllp.getKey());
@@ -1094,6 +1152,21 @@ public class ThrottlingManager {
     }
   }
 
+  /**
+   * Return the names of the producers or applications which have a rate limiter
+   */
+  private static Set<String> limitedKeys(Map<String,Throttle> throttles) {
+    Set<String> keys = new HashSet<String>();
+
+    for (Map.Entry<String,Throttle> entry: throttles.entrySet()) {
+      if (null != entry.getValue().limiter.get()) {
+        keys.add(entry.getKey());
+      }
+    }
+
+    return keys;
+  }
+
   private static void dumpCurrentConfig() {
     if (null != dir && !producerHLLPEstimators.isEmpty() && !applicationHLLPEstimators.isEmpty()) {
       String filename = "current" + THROTTLING_MANAGER_SUFFIX + ".dump";
@@ -1110,47 +1183,51 @@ public class ThrottlingManager {
         pw.println("### Automatic throttling configuration dumped on " + ISODateTimeFormat.dateTime().print(System.currentTimeMillis()));
         pw.println("###");
 
-        Set<String> keys = producerHLLPEstimators.keySet();
-        keys.addAll(producerRateLimiters.keySet());
+        Set<String> keys = new LinkedHashSet<String>(producerHLLPEstimators.keySet());
+        keys.addAll(limitedKeys(producerThrottles));
 
         for (String key: keys) {
           pw.print(key);
           pw.print(":");
-          Long limit = producerMADSLimits.get(key);
+          Throttle throttle = producerThrottles.get(key);
+          Long limit = null == throttle ? null : throttle.mads;
           if (null != limit) {
             pw.print(limit);
           }
           pw.print(":");
-          RateLimiter limiter = producerRateLimiters.get(key);
+          TokenBucket limiter = null == throttle ? null : throttle.limiter.get();
           if (null != limiter) {
             pw.print(limiter.getRate());
           }
           pw.print(":");
-          if (producerHLLPEstimators.containsKey(key)) {
-            pw.print(new String(OrderPreservingBase64.encode(producerHLLPEstimators.get(key).toBytes()), StandardCharsets.US_ASCII));
+          ConcurrentHyperLogLogPlus estimator = producerHLLPEstimators.get(key);
+          if (null != estimator) {
+            pw.print(new String(OrderPreservingBase64.encode(estimator.toBytes()), StandardCharsets.US_ASCII));
           }
           pw.println(":#");
         }
 
-        keys = applicationHLLPEstimators.keySet();
-        keys.addAll(applicationRateLimiters.keySet());
+        keys = new LinkedHashSet<String>(applicationHLLPEstimators.keySet());
+        keys.addAll(limitedKeys(applicationThrottles));
 
         for (String key: keys) {
           pw.print(APPLICATION_PREFIX_CHAR);
           pw.print(URLEncoder.encode(key, StandardCharsets.UTF_8.name()));
           pw.print(":");
-          Long limit = applicationMADSLimits.get(key);
+          Throttle throttle = applicationThrottles.get(key);
+          Long limit = null == throttle ? null : throttle.mads;
           if (null != limit) {
             pw.print(limit);
           }
           pw.print(":");
-          RateLimiter limiter = applicationRateLimiters.get(key);
+          TokenBucket limiter = null == throttle ? null : throttle.limiter.get();
           if (null != limiter) {
             pw.print(limiter.getRate());
           }
           pw.print(":");
-          if (applicationHLLPEstimators.containsKey(key)) {
-            pw.print(new String(OrderPreservingBase64.encode(applicationHLLPEstimators.get(key).toBytes()), StandardCharsets.US_ASCII));
+          ConcurrentHyperLogLogPlus estimator = applicationHLLPEstimators.get(key);
+          if (null != estimator) {
+            pw.print(new String(OrderPreservingBase64.encode(estimator.toBytes()), StandardCharsets.US_ASCII));
           }
           pw.println(":#");
         }
@@ -0,0 +1,111 @@
+//
+//   Copyright 2024  SenX S.A.S.
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.continuum;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+
+/**
+ * Token bucket rate limiter whose state is a single instant updated with CAS, so
+ * concurrent acquisitions never contend on a lock.
+ *
+ * Permits are granted like Guava's RateLimiter: up to one second of unused permits
+ * are stored, and a request only waits for the permits reserved by the previous
+ * requests, its own permits delaying the requests which follow.
+ */
+final class TokenBucket {
+
+  /**
+   * Maximum duration of unused permits which can be stored
+   */
+  private static final long MAX_BURST_NANOS = TimeUnit.SECONDS.toNanos(1L);
+
+  /**
+   * Upper bound of durations, so instants never overflow
+   */
+  private static final long MAX_NANOS = Long.MAX_VALUE >>> 2;
+
+  /**
+   * Origin of instants, so they remain small positive values
+   */
+  private static final long ORIGIN = System.nanoTime();
+
+  private final double rate;
+
+  private final double nanosPerPermit;
+
+  /**
+   * Instant at which the permits reserved so far will have been produced
+   */
+  private final AtomicLong next;
+
+  private TokenBucket(double rate) {
+    this.rate = rate;
+    this.nanosPerPermit = TimeUnit.SECONDS.toNanos(1L) / rate;
+    this.next = new AtomicLong(now());
+  }
+
+  /**
+   * Create a token bucket producing 'rate' permits per second.
+   */
+  static TokenBucket create(double rate) {
+    if (!(rate > 0.0D) || Double.isInfinite(rate)) {
+      throw new IllegalArgumentException("Rate must be a positive number.");
+    }
+    return new TokenBucket(rate);
+  }
+
+  double getRate() {
+    return this.rate;
+  }
+
+  /**
+   * Acquire 'permits' permits if they can be obtained without waiting more than 'timeout'.
+   *
+   * @return true if the permits were acquired, after waiting for them if needed
+   */
+  boolean tryAcquire(int permits, long timeout, TimeUnit unit) {
+    long timeoutNanos = Math.min(Math.max(unit.toNanos(timeout), 0L), MAX_NANOS);
+    long cost = (long) Math.min(permits * this.nanosPerPermit, MAX_NANOS);
+
+    while (true) {
+      long now = now();
+      long current = this.next.get();
+
+      // Unused permits are only stored for MAX_BURST_NANOS
+      long start = Math.max(current, now - MAX_BURST_NANOS);
+      long wait = start - now;
+
+      if (wait > timeoutNanos) {
+        return false;
+      }
+
+      if (this.next.compareAndSet(current, start + cost)) {
+        if (wait > 0L) {
+          Uninterruptibles.sleepUninterruptibly(wait, TimeUnit.NANOSECONDS);
+        }
+        return true;
+      }
+    }
+  }
+
+  private static long now() {
+    return System.nanoTime() - ORIGIN;
+  }
+}
@@ -17,11 +17,13 @@
 package io.warp10.continuum.egress;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.math.BigInteger;
@@ -29,6 +31,7 @@ import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
 import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -81,6 +84,8 @@ import io.warp10.continuum.gts.GTSEncoder;
 import io.warp10.continuum.gts.GTSHelper;
 import io.warp10.continuum.gts.GTSWrapperHelper;
 import io.warp10.continuum.gts.GeoTimeSerie;
+import io.warp10.continuum.gts.GeoTimeSerie.TYPE;
+import io.warp10.continuum.gts.Varint;
 import io.warp10.continuum.sensision.SensisionConstants;
 import io.warp10.continuum.store.Constants;
 import io.warp10.continuum.store.DirectoryClient;
@@ -112,6 +117,27 @@ public class EgressFetchHandler extends AbstractHandler {
 
   private static final Logger LOG = LoggerFactory.getLogger(EgressFetchHandler.class);
 
+  //
+  // Constants of the 'binary' output format, see binaryDump
+  //
+
+  static final int BINARY_TAG_METADATA = 0x01;
+  static final int BINARY_TAG_BLOCK = 0x02;
+
+  static final int BINARY_TYPE_LONG = 0x01;
+  static final int BINARY_TYPE_DOUBLE = 0x02;
+  static final int BINARY_TYPE_BOOLEAN = 0x03;
+  static final int BINARY_TYPE_STRING = 0x04;
+  static final int BINARY_TYPE_BINARY = 0x05;
+
+  static final int BINARY_FLAG_LOCATIONS = 0x01;
+  static final int BINARY_FLAG_ELEVATIONS = 0x02;
+
+  /**
+   * Maximum number of datapoints per block
+   */
+  static final int BINARY_BLOCK_SIZE = 1024;
+
   private DateTimeFormatter fmt = ISODateTimeFormat.dateTimeParser();
 
   private final StoreClient storeClient;
@@ -975,7 +1001,15 @@ public class EgressFetchHandler extends AbstractHandler {
 
       metas = new ArrayList<Metadata>();
 
-      PrintWriter pw = resp.getWriter();
+      PrintWriter pw = null;
+      OutputStream out = null;
+
+      if ("binary".equals(format)) {
+        resp.setContentType("application/octet-stream");
+        out = resp.getOutputStream();
+      } else {
+        pw = resp.getWriter();
+      }
 
       AtomicReference<Metadata> lastMeta = new AtomicReference<Metadata>(null);
       AtomicLong lastCount = new AtomicLong(0L);
@@ -1064,6 +1098,8 @@ public class EgressFetchHandler extends AbstractHandler {
                 tsvDump(pw, iter, now, count, true, dedup, signed, lastMeta, lastCount, sortMeta, expose);
               } else if ("pack".equals(format)) {
                 packedDump(pw, iter, now, count, dedup, signed, lastMeta, lastCount, maxDecoderLen, suffix, chunksize, sortMeta, expose);
+              } else if ("binary".equals(format)) {
+                binaryDump(out, iter, count, dedup, signed, lastMeta, lastCount, expose);
               } else if ("null".equals(format)) {
                 nullDump(iter);
               } else {
@@ -1072,7 +1108,7 @@ public class EgressFetchHandler extends AbstractHandler {
             } catch (Throwable t) {
               LOG.error("",t);
               Sensision.update(SensisionConstants.CLASS_WARP_FETCH_ERRORS, Sensision.EMPTY_LABELS, 1);
-              if (showErrors) {
+              if (showErrors && null != pw) {
                 pw.println();
                 StringWriter sw = new StringWriter();
                 PrintWriter pw2 = new PrintWriter(sw);
@@ -2105,6 +2141,280 @@ public class EgressFetchHandler extends AbstractHandler {
     lastCount.set(currentCount);
   }
 
+  /**
+   * Dump the data in a streaming binary columnar format.
+   *
+   * The output is a sequence of records, each starting with a tag byte:
+   *
+   * BINARY_TAG_METADATA, emitted once before the first block of each GTS, followed by the
+   * class name, the number of labels and the label names and values. Each string is encoded as the
+   * unsigned varint length of its UTF-8 representation followed by the UTF-8 bytes.
+   *
+   * BINARY_TAG_BLOCK, a block of at most BINARY_BLOCK_SIZE datapoints of the last GTS whose metadata
+   * were emitted. It contains the type of the values (one of the BINARY_TYPE_* constants), a flag byte
+   * (BINARY_FLAG_LOCATIONS and BINARY_FLAG_ELEVATIONS indicate the presence of the corresponding columns),
+   * the unsigned varint number of datapoints and then the columns:
+   *
+   * - the ticks, as zig zag varints, the first one absolute and the others as deltas from the previous tick,
+   * - the locations if present, as zig zag varint deltas from the previous location starting at 0, GeoTimeSerie.NO_LOCATION denoting a datapoint without location,
+   * - the elevations if present, encoded like the locations, GeoTimeSerie.NO_ELEVATION denoting a datapoint without elevation,
+   * - the values, LONG values are encoded like the locations, DOUBLE values as 8 bytes big endian IEEE 754 representations,
+   *   BOOLEAN values as a bitset of ceil(n / 8) bytes, least significant bit first, STRING and BINARY values as their unsigned varint length
+   *   followed by their bytes (UTF-8 for STRING).
+   *
+   * LONG and DOUBLE datapoints are decoded in columns directly from the decoder buffers.
+   */
+  static void binaryDump(OutputStream out, Iterator<GTSDecoder> iter, long count, boolean dedup, boolean signed, AtomicReference<Metadata> lastMeta, AtomicLong lastCount, boolean expose) throws IOException {
+    Metadata lastMetadata = lastMeta.get();
+    long currentCount = lastCount.get();
+
+    long[] ticks = new long[BINARY_BLOCK_SIZE];
+    long[] locations = new long[BINARY_BLOCK_SIZE];
+    long[] elevations = new long[BINARY_BLOCK_SIZE];
+    long[] longs = new long[BINARY_BLOCK_SIZE];
+    double[] doubles = new double[BINARY_BLOCK_SIZE];
+    Object[] objects = new Object[BINARY_BLOCK_SIZE];
+
+    ByteArrayOutputStream block = new ByteArrayOutputStream();
+    byte[] buf = new byte[10];
+
+    while(iter.hasNext()) {
+      GTSDecoder decoder = iter.next();
+
+      if (dedup) {
+        decoder = decoder.dedup();
+      }
+
+      Metadata meta = decoder.getMetadata();
+
+      //
+      // Metadata are emitted lazily so GTS without datapoints are not output
+      //
+
+      boolean emitMetadata = !meta.equals(lastMetadata);
+
+      long toDecodeCount = Long.MAX_VALUE;
+
+      if (count >= 0) {
+        toDecodeCount = emitMetadata ? count : Math.max(0, count - currentCount);
+      }
+
+      long decoded = toDecodeCount;
+
+      int type = 0;
+      int size = 0;
+
+      while (toDecodeCount > 0) {
+        if (BINARY_BLOCK_SIZE == size) {
+          if (emitMetadata) {
+            writeBinaryMetadata(out, block, buf, decoder, signed, expose);
+            emitMetadata = false;
+            lastMetadata = meta;
+            currentCount = 0;
+          }
+          writeBinaryBlock(out, block, buf, type, size, ticks, locations, elevations, longs, doubles, objects);
+          type = 0;
+          size = 0;
+        }
+
+        int max = (int) Math.min(BINARY_BLOCK_SIZE - size, toDecodeCount);
+        int n = 0;
+
+        if (0 == type || BINARY_TYPE_LONG == type) {
+          n = decoder.next(TYPE.LONG, ticks, locations, elevations, longs, null, size, max);
+          if (n > 0) {
+            type = BINARY_TYPE_LONG;
+          }
+        }
+
+        if (0 == n && (0 == type || BINARY_TYPE_DOUBLE == type)) {
+          n = decoder.next(TYPE.DOUBLE, ticks, locations, elevations, null, doubles, size, max);
+          if (n > 0) {
+            type = BINARY_TYPE_DOUBLE;
+          }
+        }
+
+        if (n > 0) {
+          size += n;
+          toDecodeCount -= n;
+          continue;
+        }
+
+        //
+        // The next datapoint is of another type or is encrypted, decode it on its own
+        //
+
+        if (!decoder.next()) {
+          break;
+        }
+
+        Object value = decoder.getBinaryValue();
+        int t;
+
+        if (value instanceof Long) {
+          t = BINARY_TYPE_LONG;
+        } else if (value instanceof Number) {
+          t = BINARY_TYPE_DOUBLE;
+        } else if (value instanceof Boolean) {
+          t = BINARY_TYPE_BOOLEAN;
+        } else if (value instanceof String) {
+          t = BINARY_TYPE_STRING;
+        } else {
+          t = BINARY_TYPE_BINARY;
+        }
+
+        if (0 != type && t != type) {
+          if (emitMetadata) {
+            writeBinaryMetadata(out, block, buf, decoder, signed, expose);
+            emitMetadata = false;
+            lastMetadata = meta;
+            currentCount = 0;
+          }
+          writeBinaryBlock(out, block, buf, type, size, ticks, locations, elevations, longs, doubles, objects);
+          size = 0;
+        }
+
+        type = t;
+
+        ticks[size] = decoder.getTimestamp();
+        locations[size] = decoder.getLocation();
+        elevations[size] = decoder.getElevation();
+
+        if (BINARY_TYPE_LONG == t) {
+          longs[size] = ((Long) value).longValue();
+        } else if (BINARY_TYPE_DOUBLE == t) {
+          doubles[size] = ((Number) value).doubleValue();
+        } else {
+          objects[size] = value;
+        }
+
+        size++;
+        toDecodeCount--;
+      }
+
+      if (size > 0) {
+        if (emitMetadata) {
+          writeBinaryMetadata(out, block, buf, decoder, signed, expose);
+          lastMetadata = meta;
+          currentCount = 0;
+        }
+        writeBinaryBlock(out, block, buf, type, size, ticks, locations, elevations, longs, doubles, objects);
+        Arrays.fill(objects, 0, size, null);
+      }
+
+      if (count >= 0) {
+        currentCount += decoded - toDecodeCount;
+      }
+    }
+
+    lastMeta.set(lastMetadata);
+    lastCount.set(currentCount);
+  }
+
+  private static void writeBinaryMetadata(OutputStream out, ByteArrayOutputStream block, byte[] buf, GTSDecoder decoder, boolean signed, boolean expose) throws IOException {
+    Map<String,String> lbls = new TreeMap<String,String>(decoder.getLabels());
+
+    //
+    // Skip owner/producer labels and any other 'private' labels
+    //
+
+    if (!signed && !Constants.EXPOSE_OWNER_PRODUCER && !expose) {
+      lbls.remove(Constants.PRODUCER_LABEL);
+      lbls.remove(Constants.OWNER_LABEL);
+    }
+
+    block.reset();
+    block.write(BINARY_TAG_METADATA);
+    writeBinaryBytes(block, buf, decoder.getName().getBytes(StandardCharsets.UTF_8));
+    block.write(buf, 0, Varint.encodeUnsignedLongInBuf(lbls.size(), buf));
+
+    for (Entry<String,String> entry: lbls.entrySet()) {
+      writeBinaryBytes(block, buf, entry.getKey().getBytes(StandardCharsets.UTF_8));
+      writeBinaryBytes(block, buf, entry.getValue().getBytes(StandardCharsets.UTF_8));
+    }
+
+    block.writeTo(out);
+  }
+
+  private static void writeBinaryBlock(OutputStream out, ByteArrayOutputStream block, byte[] buf, int type, int n, long[] ticks, long[] locations, long[] elevations, long[] longs, double[] doubles, Object[] objects) throws IOException {
+    int flags = 0;
+
+    for (int i = 0; i < n; i++) {
+      if (GeoTimeSerie.NO_LOCATION != locations[i]) {
+        flags |= BINARY_FLAG_LOCATIONS;
+      }
+      if (GeoTimeSerie.NO_ELEVATION != elevations[i]) {
+        flags |= BINARY_FLAG_ELEVATIONS;
+      }
+    }
+
+    block.reset();
+    block.write(BINARY_TAG_BLOCK);
+    block.write(type);
+    block.write(flags);
+    block.write(buf, 0, Varint.encodeUnsignedLongInBuf(n, buf));
+
+    long last = 0L;
+
+    for (int i = 0; i < n; i++) {
+      block.write(buf, 0, Varint.encodeSignedLongInBuf(ticks[i] - last, buf));
+      last = ticks[i];
+    }
+
+    if (0 != (flags & BINARY_FLAG_LOCATIONS)) {
+      writeBinaryDeltas(block, buf, locations, n);
+    }
+
+    if (0 != (flags & BINARY_FLAG_ELEVATIONS)) {
+      writeBinaryDeltas(block, buf, elevations, n);
+    }
+
+    if (BINARY_TYPE_LONG == type) {
+      writeBinaryDeltas(block, buf, longs, n);
+    } else if (BINARY_TYPE_DOUBLE == type) {
+      for (int i = 0; i < n; i++) {
+        long bits = Double.doubleToRawLongBits(doubles[i]);
+        for (int k = 56; k >= 0; k -= 8) {
+          block.write((int) (bits >>> k));
+        }
+      }
+    } else if (BINARY_TYPE_BOOLEAN == type) {
+      for (int i = 0; i < n; i += 8) {
+        int bits = 0;
+        for (int k = 0; k < 8 && i + k < n; k++) {
+          if (Boolean.TRUE.equals(objects[i + k])) {
+            bits |= 1 << k;
+          }
+        }
+        block.write(bits);
+      }
+    } else if (BINARY_TYPE_STRING == type) {
+      for (int i = 0; i < n; i++) {
+        writeBinaryBytes(block, buf, ((String) objects[i]).getBytes(StandardCharsets.UTF_8));
+      }
+    } else {
+      for (int i = 0; i < n; i++) {
+        writeBinaryBytes(block, buf, (byte[]) objects[i]);
+      }
+    }
+
+    block.writeTo(out);
+  }
+
+  private static void writeBinaryDeltas(ByteArrayOutputStream block, byte[] buf, long[] values, int n) {
+    long last = 0L;
+
+    for (int i = 0; i < n; i++) {
+      block.write(buf, 0, Varint.encodeSignedLongInBuf(values[i] - last, buf));
+      last = values[i];
+    }
+  }
+
+  private static void writeBinaryBytes(ByteArrayOutputStream block, byte[] buf, byte[] bytes) {
+    block.write(buf, 0, Varint.encodeUnsignedLongInBuf(bytes.length, buf));
+    block.write(bytes, 0, bytes.length);
+  }
+
   private void nullDump(GTSDecoderIterator iter) {
     while(iter.hasNext()) {
       GTSDecoder decoder = iter.next();
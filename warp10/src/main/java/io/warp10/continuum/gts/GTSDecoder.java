@@ -62,6 +62,11 @@ public class GTSDecoder {
 
   private TYPE lastType = null;
 
+  /**
+   * Maximum number of datapoints decoded at once in columns by 'decode'
+   */
+  private static final int BULK_DECODE_SIZE = 1024;
+
   /**
    * Base timestamp to use for this decoder
    */
@@ -72,6 +77,11 @@ public class GTSDecoder {
    */
   private long lastTimestamp = 0L;
 
+  /**
+   * Difference between the last two timestamps retrieved from decoder (post call to 'next')
+   */
+  private long lastTimestampDelta = 0L;
+
   /**
    * Last location retrieved from decoder (post call to 'next')
    */
@@ -109,6 +119,7 @@ public class GTSDecoder {
   private boolean lastStringBinary = false;
 
   private long previousLastTimestamp = lastTimestamp;
+  private long previousLastTimestampDelta = lastTimestampDelta;
   private long previousLastGeoXPPoint = lastGeoXPPoint;
   private long previousLastElevation = lastElevation;
   private long previousLastLongValue = lastLongValue;
@@ -297,39 +308,52 @@ public class GTSDecoder {
     // Read timestamp
     //
 
-    switch (tsTypeFlag & GTSEncoder.FLAGS_MASK_TIMESTAMP) {
-      case GTSEncoder.FLAGS_TIMESTAMP_RAW_ABSOLUTE: {
-          ByteOrder order = buffer.order();
-          buffer.order(ByteOrder.BIG_ENDIAN);
-          previousLastTimestamp = lastTimestamp;
-          lastTimestamp = buffer.getLong();
-          buffer.order(order);
-        }
-        break;
-      //case GTSEncoder.FLAGS_TIMESTAMP_ZIGZAG_ABSOLUTE:
-      //  previousLastTimestamp = lastTimestamp;
-      //  lastTimestamp = Varint.decodeSignedLong(buffer);
-      //  break;
-      case GTSEncoder.FLAGS_TIMESTAMP_EQUALS_BASE:
-        previousLastTimestamp = lastTimestamp;
-        lastTimestamp = baseTimestamp;
-        break;
-      case GTSEncoder.FLAGS_TIMESTAMP_ZIGZAG_DELTA_BASE: {
-          long delta = Varint.decodeSignedLong(buffer);
-          previousLastTimestamp = lastTimestamp;
-          lastTimestamp = baseTimestamp + delta;
-        }
-        break;
-      case GTSEncoder.FLAGS_TIMESTAMP_ZIGZAG_DELTA_PREVIOUS: {
-          long delta = Varint.decodeSignedLong(buffer);
+    previousLastTimestampDelta = lastTimestampDelta;
+
+    if (GTSEncoder.FLAGS_TIMESTAMP_DELTA_OF_DELTA == (locElevFlag & GTSEncoder.FLAGS_TIMESTAMP_DELTA_OF_DELTA)) {
+      long deltaOfDelta = 0L;
+      if (GTSEncoder.FLAGS_TIMESTAMP_DELTA_OF_DELTA_ZIGZAG == (tsTypeFlag & GTSEncoder.FLAGS_MASK_TIMESTAMP)) {
+        deltaOfDelta = Varint.decodeSignedLong(buffer);
+      }
+      previousLastTimestamp = lastTimestamp;
+      lastTimestamp = lastTimestamp + lastTimestampDelta + deltaOfDelta;
+    } else {
+      switch (tsTypeFlag & GTSEncoder.FLAGS_MASK_TIMESTAMP) {
+        case GTSEncoder.FLAGS_TIMESTAMP_RAW_ABSOLUTE: {
+            ByteOrder order = buffer.order();
+            buffer.order(ByteOrder.BIG_ENDIAN);
+            previousLastTimestamp = lastTimestamp;
+            lastTimestamp = buffer.getLong();
+            buffer.order(order);
+          }
+          break;
+        //case GTSEncoder.FLAGS_TIMESTAMP_ZIGZAG_ABSOLUTE:
+        //  previousLastTimestamp = lastTimestamp;
+        //  lastTimestamp = Varint.decodeSignedLong(buffer);
+        //  break;
+        case GTSEncoder.FLAGS_TIMESTAMP_EQUALS_BASE:
           previousLastTimestamp = lastTimestamp;
-          lastTimestamp = lastTimestamp + delta;
-        }
-        break;
-      default:
-        throw new RuntimeException("Invalid timestamp format.");
+          lastTimestamp = baseTimestamp;
+          break;
+        case GTSEncoder.FLAGS_TIMESTAMP_ZIGZAG_DELTA_BASE: {
+            long delta = Varint.decodeSignedLong(buffer);
+            previousLastTimestamp = lastTimestamp;
+            lastTimestamp = baseTimestamp + delta;
+          }
+          break;
+        case GTSEncoder.FLAGS_TIMESTAMP_ZIGZAG_DELTA_PREVIOUS: {
+            long delta = Varint.decodeSignedLong(buffer);
+            previousLastTimestamp = lastTimestamp;
+            lastTimestamp = lastTimestamp + delta;
+          }
+          break;
+        default:
+          throw new RuntimeException("Invalid timestamp format.");
+      }
     }
 
+    lastTimestampDelta = lastTimestamp - previousLastTimestamp;
+
     //
     // Read location/elevation
     //
@@ -423,6 +447,19 @@ public class GTSDecoder {
             previousLastBDValue = lastBDValue;
             lastBDValue = null;
             buffer.order(order);
+          } else if (GTSEncoder.FLAGS_DOUBLE_XOR == (tsTypeFlag & GTSEncoder.FLAGS_DOUBLE_XOR)) {
+            int header = buffer.get() & 0xff;
+            int significant = header & 0x0f;
+            int trailing = 8 - (header >>> 4) - significant;
+            long bits = 0L;
+            for (int i = 0; i < significant; i++) {
+              bits = (bits << 8) | (buffer.get() & 0xffL);
+            }
+            bits <<= trailing << 3;
+            previousLastDoubleValue = lastDoubleValue;
+            lastDoubleValue = Double.longBitsToDouble(Double.doubleToRawLongBits(lastDoubleValue) ^ bits);
+            previousLastBDValue = lastBDValue;
+            lastBDValue = null;
           } else {
             int scale = buffer.get();
             long unscaled = Varint.decodeSignedLong(buffer);
@@ -561,7 +598,47 @@ public class GTSDecoder {
         GTSHelper.setValue(gts, getTimestamp(), getLocation(), getElevation(), value, false);
       }
     } else {
-      while(next()) {
+      long[] ticks = null;
+      long[] locations = null;
+      long[] elevations = null;
+      long[] longValues = null;
+      double[] doubleValues = null;
+
+      while(this.buffer.hasRemaining()) {
+        //
+        // Decode runs of LONG or DOUBLE values in columns when they would not be converted
+        //
+
+        int flag = this.buffer.get(this.buffer.position()) & GTSEncoder.FLAGS_MASK_TYPE;
+        TYPE bulk = GTSEncoder.FLAGS_TYPE_LONG == flag ? TYPE.LONG : GTSEncoder.FLAGS_TYPE_DOUBLE == flag ? TYPE.DOUBLE : null;
+
+        if (null != bulk && (TYPE.UNDEFINED == gts.getType() || bulk == gts.getType())) {
+          if (null == ticks) {
+            int size = this.count > 0 ? (int) Math.min(BULK_DECODE_SIZE, this.count) : BULK_DECODE_SIZE;
+            ticks = new long[size];
+            locations = new long[size];
+            elevations = new long[size];
+          }
+          if (TYPE.LONG == bulk && null == longValues) {
+            longValues = new long[ticks.length];
+          } else if (TYPE.DOUBLE == bulk && null == doubleValues) {
+            doubleValues = new double[ticks.length];
+          }
+
+          int n = next(bulk, ticks, locations, elevations, longValues, doubleValues, 0, ticks.length);
+
+          if (0 == n) {
+            break;
+          }
+
+          GTSHelper.setValues(gts, n, ticks, locations, elevations, TYPE.LONG == bulk ? longValues : null, doubleValues);
+          continue;
+        }
+
+        if (!next()) {
+          break;
+        }
+
         GTSHelper.setValue(gts, getTimestamp(), getLocation(), getElevation(), getValue(), false);
       }
     }
@@ -569,6 +646,71 @@ public class GTSDecoder {
     return gts;
   }
 
+  /**
+   * Decode the next datapoints in columns, stopping at the first datapoint whose value is not of the given type.
+   *
+   * @param type Type of the values to decode, either LONG or DOUBLE.
+   * @param ticks Array receiving the ticks.
+   * @param locations Array receiving the locations, may be null.
+   * @param elevations Array receiving the elevations, may be null.
+   * @param longValues Array receiving the values if type is LONG.
+   * @param doubleValues Array receiving the values if type is DOUBLE.
+   * @param offset Index at which to store the first decoded datapoint.
+   * @param n Maximum number of datapoints to decode.
+   *
+   * @return The number of decoded datapoints.
+   */
+  public int next(TYPE type, long[] ticks, long[] locations, long[] elevations, long[] longValues, double[] doubleValues, int offset, int n) {
+    byte expected;
+
+    if (TYPE.LONG == type) {
+      expected = GTSEncoder.FLAGS_TYPE_LONG;
+    } else if (TYPE.DOUBLE == type) {
+      expected = GTSEncoder.FLAGS_TYPE_DOUBLE;
+    } else {
+      throw new IllegalArgumentException("Only LONG and DOUBLE values can be decoded in columns.");
+    }
+
+    int count = 0;
+
+    while (count < n && this.buffer.hasRemaining()) {
+      //
+      // Peek at the flags of the next datapoint, encrypted datapoints have a flag of 0 so they
+      // will be left for 'next' to handle
+      //
+
+      if (expected != (this.buffer.get(this.buffer.position()) & GTSEncoder.FLAGS_MASK_TYPE)) {
+        break;
+      }
+
+      if (!next()) {
+        break;
+      }
+
+      int idx = offset + count;
+
+      ticks[idx] = lastTimestamp;
+
+      if (null != locations) {
+        locations[idx] = lastGeoXPPoint;
+      }
+
+      if (null != elevations) {
+        elevations[idx] = lastElevation;
+      }
+
+      if (TYPE.LONG == type) {
+        longValues[idx] = lastLongValue;
+      } else {
+        doubleValues[idx] = null == lastBDValue ? lastDoubleValue : lastBDValue.doubleValue();
+      }
+
+      count++;
+    }
+
+    return count;
+  }
+
   public GeoTimeSerie decode(TYPE type) {
     return decode(type, false);
   }
@@ -700,6 +842,7 @@ public class GTSDecoder {
 
     encoder.initialize(
       this.previousLastTimestamp,
+      this.previousLastTimestampDelta,
       this.previousLastGeoXPPoint,
       this.previousLastElevation,
       this.previousLastLongValue,
@@ -736,8 +879,9 @@ public class GTSDecoder {
     return this.buffer.remaining();
   }
 
-  void initialize(long initialTimestamp, long initialGeoXPPoint, long initialElevation, long initialLongValue, double initialDoubleValue, BigDecimal initialBDValue, String initialStringValue) {
+  void initialize(long initialTimestamp, long initialTimestampDelta, long initialGeoXPPoint, long initialElevation, long initialLongValue, double initialDoubleValue, BigDecimal initialBDValue, String initialStringValue) {
     this.lastTimestamp = initialTimestamp;
+    this.lastTimestampDelta = initialTimestampDelta;
     this.lastGeoXPPoint = initialGeoXPPoint;
     this.lastElevation = initialElevation;
     this.lastLongValue = initialLongValue;
@@ -750,7 +894,7 @@ public class GTSDecoder {
     return this.count;
   }
 
-  void setCount(long count) {
+  public void setCount(long count) {
     this.count = count;
   }
 
@@ -869,14 +1013,40 @@ public class GTSDecoder {
    */
   public GTSDecoder duplicate() {
     GTSDecoder decoder = new GTSDecoder(this.baseTimestamp, this.wrappingKey, this.buffer.asReadOnlyBuffer());
+    decoder.position = this.position;
+    return copyState(decoder);
+  }
 
+  /**
+   * Duplicate the current GTSDecoder. The copy is backed by a direct buffer,
+   * i.e. outside of the Java heap, containing a copy of the data which remains to be
+   * decoded. Calling duplicate on the copy will not copy the data again, so the copy
+   * can be kept as a template from which decoders are created.
+   */
+  public GTSDecoder duplicateDirect() {
+    //
+    // Copy the data from the start of the last decoded value so getEncoder still works on the copy
+    //
+
+    ByteBuffer bb = this.buffer.duplicate();
+    bb.position(this.position);
+
+    ByteBuffer direct = ByteBuffer.allocateDirect(bb.remaining());
+    direct.put(bb);
+    direct.position(this.buffer.position() - this.position);
+
+    GTSDecoder decoder = new GTSDecoder(this.baseTimestamp, this.wrappingKey, direct);
+    decoder.position = 0;
+    return copyState(decoder);
+  }
+
+  private GTSDecoder copyState(GTSDecoder decoder) {
     decoder.safeSetMetadata(new Metadata(this.getMetadata()));
 
     decoder.consumingNextCalls = this.consumingNextCalls;
     decoder.count = this.count;
     decoder.decodedEncrypted = this.decodedEncrypted;
     decoder.nextCalled = this.nextCalled;
-    decoder.position = this.position;
 
     decoder.previousLastBDValue = this.previousLastBDValue;
     decoder.previousLastDoubleValue = this.previousLastDoubleValue;
@@ -885,8 +1055,10 @@ public class GTSDecoder {
     decoder.previousLastLongValue = this.previousLastLongValue;
     decoder.previousLastStringValue = this.previousLastStringValue;
     decoder.previousLastTimestamp = this.previousLastTimestamp;
+    decoder.previousLastTimestampDelta = this.previousLastTimestampDelta;
 
     decoder.lastTimestamp = this.lastTimestamp;
+    decoder.lastTimestampDelta = this.lastTimestampDelta;
     decoder.lastGeoXPPoint = this.lastGeoXPPoint;
     decoder.lastElevation = this.lastElevation;
     decoder.lastLongValue = this.lastLongValue;
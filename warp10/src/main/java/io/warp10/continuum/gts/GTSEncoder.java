@@ -16,6 +16,8 @@
 
 package io.warp10.continuum.gts;
 
+import io.warp10.WarpConfig;
+import io.warp10.continuum.Configuration;
 import io.warp10.continuum.store.thrift.data.Metadata;
 
 import java.io.ByteArrayOutputStream;
@@ -94,6 +96,16 @@ public class GTSEncoder implements Cloneable {
   static final byte FLAGS_TIMESTAMP_ZIGZAG_DELTA_BASE = 0x40;
   static final byte FLAGS_TIMESTAMP_RAW_ABSOLUTE = 0x60;
 
+  //
+  // Timestamp encoded as the difference between its delta with the previous timestamp and the
+  // previous delta. This is signaled by FLAGS_TIMESTAMP_DELTA_OF_DELTA in the continuation byte, the
+  // timestamp bits of the first flag byte then indicate if the delta of delta follows as a zig zag
+  // varint or if it is 0, i.e. the interval between timestamps repeats, in which case nothing follows.
+  //
+
+  static final byte FLAGS_TIMESTAMP_DELTA_OF_DELTA_ZIGZAG = 0x00;
+  static final byte FLAGS_TIMESTAMP_DELTA_OF_DELTA_ZERO = 0x20;
+
   static final byte FLAGS_TYPE_BOOLEAN = 0x00;
   static final byte FLAGS_TYPE_LONG = 0x08;
   static final byte FLAGS_TYPE_DOUBLE = 0x10;
@@ -121,8 +133,19 @@ public class GTSEncoder implements Cloneable {
 
   static final byte FLAGS_DOUBLE_IEEE754 = 0x04;
 
+  //
+  // Double encoded as the XOR of its IEEE754 representation with that of the previous double value.
+  // The XOR is encoded as a byte containing the number of leading zero bytes (high nibble) and the
+  // number of significant bytes (low nibble), followed by the significant bytes. The trailing zero
+  // bytes are not stored.
+  //
+
+  static final byte FLAGS_DOUBLE_XOR = 0x02;
+
   static final byte FLAGS_VALUE_IDENTICAL = 0x01;
 
+  static final byte FLAGS_TIMESTAMP_DELTA_OF_DELTA = (byte) 0x80;
+
   static final byte FLAGS_LOCATION = 0x40;
   static final byte FLAGS_LOCATION_GEOXPPOINT_ZIGZAG_DELTA = 0x20;
   static final byte FLAGS_LOCATION_IDENTICAL = 0x10;
@@ -132,8 +155,28 @@ public class GTSEncoder implements Cloneable {
   static final byte FLAGS_ELEVATION_DELTA_PREVIOUS = 0x02;
   static final byte FLAGS_ELEVATION_IDENTICAL = 0x01;
 
+  /**
+   * Default for the encoding of DOUBLE values as XOR, disabled unless configured as older decoders cannot read it
+   */
+  private static final boolean DOUBLE_XOR = WarpConfig.isPropertiesSet() && "true".equals(WarpConfig.getProperty(Configuration.WARP_ENCODER_DOUBLE_XOR));
+
+  /**
+   * Default for the delta of delta encoding of timestamps, disabled unless configured as older decoders cannot read it
+   */
+  private static final boolean DELTA_OF_DELTA = WarpConfig.isPropertiesSet() && "true".equals(WarpConfig.getProperty(Configuration.WARP_ENCODER_TIMESTAMP_DELTAOFDELTA));
+
   private boolean readonly = false;
 
+  /**
+   * Flag indicating whether or not DOUBLE values may be encoded as the XOR with the previous value
+   */
+  private boolean useDoubleXor = DOUBLE_XOR;
+
+  /**
+   * Flag indicating whether or not timestamps may be encoded as delta of delta
+   */
+  private boolean useDeltaOfDelta = DELTA_OF_DELTA;
+
   private long baseTimestamp = 0L;
 
   /**
@@ -141,6 +184,11 @@ public class GTSEncoder implements Cloneable {
    */
   private long lastTimestamp = 0L;
 
+  /**
+   * Difference between the timestamps of the last two added measurements.
+   */
+  private long lastTimestampDelta = 0L;
+
   /**
    * GeoXPPoint of last added measurement.
    */
@@ -177,12 +225,13 @@ public class GTSEncoder implements Cloneable {
   private String binaryString = null;
 
   //
-  // The following 7 fields are initial values which are needed
+  // The following 8 fields are initial values which are needed
   // to decode delta encoded values when creating an encoder from
   // a decoder. @see GTSDecoder.getEncoder
   //
 
   private long initialTimestamp = lastTimestamp;
+  private long initialTimestampDelta = lastTimestampDelta;
   private long initialGeoXPPoint = lastGeoXPPoint;
   private long initialElevation = lastElevation;
   private long initialLongValue = lastLongValue;
@@ -215,6 +264,13 @@ public class GTSEncoder implements Cloneable {
   private boolean validLastGeoXPPoint = false;
   private boolean validLastElevation = false;
 
+  /**
+   * Flags indicating whether or not the last timestamp and the last delta between timestamps
+   * are known to the decoder, if so delta of delta encoding can be used.
+   */
+  private boolean validLastTimestamp = false;
+  private boolean validLastTimestampDelta = false;
+
   private boolean noDeltaMetaTimestamp = false;
 
   /**
@@ -278,6 +334,25 @@ public class GTSEncoder implements Cloneable {
     this.wrappingKey = null == key ? null : Arrays.copyOf(key, key.length);
   }
 
+  GTSEncoder(long baseTimestamp, byte[] key, ByteArrayOutputStream stream) {
+    this.baseTimestamp = baseTimestamp;
+    this.stream = stream;
+    this.wrappingKey = null == key ? null : Arrays.copyOf(key, key.length);
+  }
+
+  /**
+   * Allocate the stream which replaces the current one when the encoder is flushed or resized.
+   */
+  ByteArrayOutputStream newStream(int size) {
+    return new ByteArrayOutputStream(size);
+  }
+
+  /**
+   * Called with the stream replaced when the encoder is flushed or resized, it is no longer used by the encoder.
+   */
+  void releaseStream(ByteArrayOutputStream stream) {
+  }
+
   /**
    * Encode an additional value in the GTS.
    *
@@ -297,6 +372,14 @@ public class GTSEncoder implements Cloneable {
   private byte[] buf8 = new byte[10];
   private byte[] buf10 = buf8;
   public synchronized int addValue(long timestamp, long location, long elevation, Object value) throws IOException {
+    return addValueUnlocked(timestamp, location, elevation, value);
+  }
+
+  /**
+   * Encode an additional value without synchronizing on the encoder, the caller must ensure
+   * the encoder is not accessed concurrently.
+   */
+  final int addValueUnlocked(long timestamp, long location, long elevation, Object value) throws IOException {
 
     if (this.readonly) {
       throw new IOException("Encoder is read-only.");
@@ -310,6 +393,9 @@ public class GTSEncoder implements Cloneable {
 
     byte tsTypeFlag = (byte) 0x0;
 
+    // XOR of the double value with the previous one, if FLAGS_DOUBLE_XOR is used
+    long doubleXor = 0L;
+
     if (noDeltaMetaTimestamp) {
       //
       // If timestamp is < 2**48 then its varint encoding fits on less than 8
@@ -408,7 +494,18 @@ public class GTSEncoder implements Cloneable {
               || (Double.isNaN(lastDoubleValue) && Double.isNaN(((Number) value).doubleValue())))) {
         tsTypeFlag |= FLAGS_VALUE_IDENTICAL;
       } else {
-        tsTypeFlag |= FLAGS_DOUBLE_IEEE754;
+        double doubleValue = ((Number) value).doubleValue();
+
+        if (useDoubleXor && validLastDoubleValue && !Double.isNaN(lastDoubleValue) && !Double.isNaN(doubleValue)) {
+          doubleXor = Double.doubleToRawLongBits(lastDoubleValue) ^ Double.doubleToRawLongBits(doubleValue);
+        }
+
+        // Only use the XOR if the header byte and the significant bytes are shorter than the IEEE754 representation
+        if (0L != doubleXor && ((Long.numberOfLeadingZeros(doubleXor) >>> 3) + (Long.numberOfTrailingZeros(doubleXor) >>> 3)) >= 2) {
+          tsTypeFlag |= FLAGS_DOUBLE_XOR;
+        } else {
+          tsTypeFlag |= FLAGS_DOUBLE_IEEE754;
+        }
       }
     } else if (value instanceof BigDecimal) {
       tsTypeFlag |= FLAGS_TYPE_DOUBLE;
@@ -518,6 +615,41 @@ public class GTSEncoder implements Cloneable {
       validLastElevation = false;
     }
 
+    //
+    // Check if encoding the timestamp as a delta of delta would save space. As the delta of delta is
+    // signaled in the continuation byte, this byte must be accounted for if it is not already needed.
+    //
+
+    if (useDeltaOfDelta && validLastTimestampDelta && FLAGS_TIMESTAMP_EQUALS_BASE != (tsTypeFlag & FLAGS_MASK_TIMESTAMP)) {
+      long deltaOfDelta = timestamp - lastTimestamp - lastTimestampDelta;
+
+      int dodSize = 0L == deltaOfDelta ? 0 : zigzagVarintSize(deltaOfDelta);
+
+      if (FLAGS_CONTINUATION != (tsTypeFlag & FLAGS_CONTINUATION)) {
+        dodSize++;
+      }
+
+      int tsSize;
+
+      switch (tsTypeFlag & FLAGS_MASK_TIMESTAMP) {
+        case FLAGS_TIMESTAMP_ZIGZAG_DELTA_BASE:
+          tsSize = zigzagVarintSize(timestamp - baseTimestamp);
+          break;
+        case FLAGS_TIMESTAMP_ZIGZAG_DELTA_PREVIOUS:
+          tsSize = zigzagVarintSize(timestamp - lastTimestamp);
+          break;
+        default:
+          tsSize = 8;
+      }
+
+      if (dodSize < tsSize) {
+        tsTypeFlag &= ~FLAGS_MASK_TIMESTAMP;
+        tsTypeFlag |= 0L == deltaOfDelta ? FLAGS_TIMESTAMP_DELTA_OF_DELTA_ZERO : FLAGS_TIMESTAMP_DELTA_OF_DELTA_ZIGZAG;
+        tsTypeFlag |= FLAGS_CONTINUATION;
+        locElevFlag |= FLAGS_TIMESTAMP_DELTA_OF_DELTA;
+      }
+    }
+
     //
     // Ok, we now have set all the flags, we can start adding to the stream.
     //
@@ -535,49 +667,59 @@ public class GTSEncoder implements Cloneable {
 
     // Write timestamp
 
-    switch (tsTypeFlag & FLAGS_MASK_TIMESTAMP) {
-      case FLAGS_TIMESTAMP_RAW_ABSOLUTE: {
-        byte[] buf = buf8; //new byte[8];
-        //ByteBuffer bb = ByteBuffer.wrap(buf);
-        //bb.order(ByteOrder.BIG_ENDIAN);
-        //bb.putLong(timestamp);
-
-        buf[0] = (byte) ((timestamp >> 56) & 0xff);
-        buf[1] = (byte) ((timestamp >> 48) & 0xff);
-        buf[2] = (byte) ((timestamp >> 40) & 0xff);
-        buf[3] = (byte) ((timestamp >> 32) & 0xff);
-        buf[4] = (byte) ((timestamp >> 24) & 0xff);
-        buf[5] = (byte) ((timestamp >> 16) & 0xff);
-        buf[6] = (byte) ((timestamp >> 8) & 0xff);
-        buf[7] = (byte) (timestamp & 0xff);
-
-        this.stream.write(buf, 0, 8);
-      }
-        break;
-      //case FLAGS_TIMESTAMP_ZIGZAG_ABSOLUTE:
-      //  this.stream.write(Varint.encodeSignedLong(timestamp));
-      //  break;
-      case FLAGS_TIMESTAMP_EQUALS_BASE:
-        // no timestamp encoding
-        break;
-      case FLAGS_TIMESTAMP_ZIGZAG_DELTA_BASE:
-        //BUF10 this.stream.write(Varint.encodeSignedLong(timestamp - baseTimestamp));
-        int l = Varint.encodeSignedLongInBuf(timestamp - baseTimestamp, buf10);
+    if (FLAGS_TIMESTAMP_DELTA_OF_DELTA == (locElevFlag & FLAGS_TIMESTAMP_DELTA_OF_DELTA)) {
+      if (FLAGS_TIMESTAMP_DELTA_OF_DELTA_ZIGZAG == (tsTypeFlag & FLAGS_MASK_TIMESTAMP)) {
+        int l = Varint.encodeSignedLongInBuf(timestamp - lastTimestamp - lastTimestampDelta, buf10);
         this.stream.write(buf10, 0, l);
-        break;
-      case FLAGS_TIMESTAMP_ZIGZAG_DELTA_PREVIOUS:
-        //BUF10 this.stream.write(Varint.encodeSignedLong(timestamp - lastTimestamp));
-        int ll = Varint.encodeSignedLongInBuf(timestamp - lastTimestamp, buf10);
-        this.stream.write(buf10, 0, ll);
-        break;
-      default:
-        throw new RuntimeException("Invalid timestamp format.");
+      }
+    } else {
+      switch (tsTypeFlag & FLAGS_MASK_TIMESTAMP) {
+        case FLAGS_TIMESTAMP_RAW_ABSOLUTE: {
+          byte[] buf = buf8; //new byte[8];
+          //ByteBuffer bb = ByteBuffer.wrap(buf);
+          //bb.order(ByteOrder.BIG_ENDIAN);
+          //bb.putLong(timestamp);
+
+          buf[0] = (byte) ((timestamp >> 56) & 0xff);
+          buf[1] = (byte) ((timestamp >> 48) & 0xff);
+          buf[2] = (byte) ((timestamp >> 40) & 0xff);
+          buf[3] = (byte) ((timestamp >> 32) & 0xff);
+          buf[4] = (byte) ((timestamp >> 24) & 0xff);
+          buf[5] = (byte) ((timestamp >> 16) & 0xff);
+          buf[6] = (byte) ((timestamp >> 8) & 0xff);
+          buf[7] = (byte) (timestamp & 0xff);
+
+          this.stream.write(buf, 0, 8);
+        }
+          break;
+        //case FLAGS_TIMESTAMP_ZIGZAG_ABSOLUTE:
+        //  this.stream.write(Varint.encodeSignedLong(timestamp));
+        //  break;
+        case FLAGS_TIMESTAMP_EQUALS_BASE:
+          // no timestamp encoding
+          break;
+        case FLAGS_TIMESTAMP_ZIGZAG_DELTA_BASE:
+          //BUF10 this.stream.write(Varint.encodeSignedLong(timestamp - baseTimestamp));
+          int l = Varint.encodeSignedLongInBuf(timestamp - baseTimestamp, buf10);
+          this.stream.write(buf10, 0, l);
+          break;
+        case FLAGS_TIMESTAMP_ZIGZAG_DELTA_PREVIOUS:
+          //BUF10 this.stream.write(Varint.encodeSignedLong(timestamp - lastTimestamp));
+          int ll = Varint.encodeSignedLongInBuf(timestamp - lastTimestamp, buf10);
+          this.stream.write(buf10, 0, ll);
+          break;
+        default:
+          throw new RuntimeException("Invalid timestamp format.");
+      }
     }
 
     // Account for timestamp
     this.pessimisticSize += 8;
 
     // Keep track of timestamp
+    lastTimestampDelta = timestamp - lastTimestamp;
+    validLastTimestampDelta = validLastTimestamp;
+    validLastTimestamp = true;
     lastTimestamp = timestamp;
 
     // Write location data
@@ -734,6 +876,27 @@ public class GTSEncoder implements Cloneable {
             lastBDValue = null;
             validLastDoubleValue = true;
             validLastBDValue = false;
+          } else if (FLAGS_DOUBLE_XOR == (tsTypeFlag & FLAGS_DOUBLE_XOR)) {
+            int leading = Long.numberOfLeadingZeros(doubleXor) >>> 3;
+            int trailing = Long.numberOfTrailingZeros(doubleXor) >>> 3;
+            int significant = 8 - leading - trailing;
+
+            byte[] buf = buf8;
+            buf[0] = (byte) ((leading << 4) | significant);
+
+            long bits = doubleXor >>> (trailing << 3);
+
+            for (int i = significant; i > 0; i--) {
+              buf[i] = (byte) (bits & 0xff);
+              bits >>>= 8;
+            }
+
+            this.stream.write(buf, 0, significant + 1);
+            // Keep track of last value
+            lastDoubleValue = ((Number) value).doubleValue();
+            lastBDValue = null;
+            validLastDoubleValue = true;
+            validLastBDValue = false;
           } else {
             BigDecimal dvalue = (BigDecimal) value;
             dvalue = dvalue.stripTrailingZeros();
@@ -766,6 +929,14 @@ public class GTSEncoder implements Cloneable {
     return this.stream.size();
   }
 
+  /**
+   * Return the number of bytes of the zig zag varint encoding of a value.
+   */
+  private static int zigzagVarintSize(long value) {
+    long zigzag = (value << 1) ^ (value >> 63);
+    return (64 - Long.numberOfLeadingZeros(zigzag | 1L) + 6) / 7;
+  }
+
   public void setWrappingKey(byte[] key) {
     if (this.readonly) {
       throw new RuntimeException("Encoder is read-only.");
@@ -901,6 +1072,7 @@ public class GTSEncoder implements Cloneable {
     }
     decoder.initialize(
       this.initialTimestamp,
+      this.initialTimestampDelta,
       this.initialGeoXPPoint,
       this.initialElevation,
       this.initialLongValue,
@@ -965,6 +1137,7 @@ public class GTSEncoder implements Cloneable {
 
     decoder.initialize(
       this.initialTimestamp,
+      this.initialTimestampDelta,
       this.initialGeoXPPoint,
       this.initialElevation,
       this.initialLongValue,
@@ -992,11 +1165,12 @@ public class GTSEncoder implements Cloneable {
    * @param initialBDValue
    * @param initialStringValue
    */
-  synchronized void initialize(long initialTimestamp, long initialGeoXPPoint, long initialElevation, long initialLongValue, double initialDoubleValue, BigDecimal initialBDValue, String initialStringValue) {
+  synchronized void initialize(long initialTimestamp, long initialTimestampDelta, long initialGeoXPPoint, long initialElevation, long initialLongValue, double initialDoubleValue, BigDecimal initialBDValue, String initialStringValue) {
     if (this.readonly) {
       throw new RuntimeException("Encoder is read-only.");
     }
     this.initialTimestamp = initialTimestamp;
+    this.initialTimestampDelta = initialTimestampDelta;
     this.initialGeoXPPoint = initialGeoXPPoint;
     this.initialElevation = initialElevation;
     this.initialLongValue = initialLongValue;
@@ -1015,13 +1189,14 @@ public class GTSEncoder implements Cloneable {
     if (this.readonly) {
       throw new RuntimeException("Encoder is read-only.");
     }
-    this.initialize(encoder.initialTimestamp, encoder.initialGeoXPPoint, encoder.initialElevation, encoder.initialLongValue, encoder.initialDoubleValue, encoder.initialBDValue, encoder.initialStringValue);
+    this.initialize(encoder.initialTimestamp, encoder.initialTimestampDelta, encoder.initialGeoXPPoint, encoder.initialElevation, encoder.initialLongValue, encoder.initialDoubleValue, encoder.initialBDValue, encoder.initialStringValue);
 
     this.baseTimestamp = encoder.baseTimestamp;
     this.count = encoder.count;
     this.pessimisticSize = encoder.pessimisticSize;
 
     this.lastTimestamp = encoder.lastTimestamp;
+    this.lastTimestampDelta = encoder.lastTimestampDelta;
 
     this.lastGeoXPPoint = encoder.lastGeoXPPoint;
     this.lastElevation = encoder.lastElevation;
@@ -1037,6 +1212,12 @@ public class GTSEncoder implements Cloneable {
 
     this.noDeltaMetaTimestamp = encoder.noDeltaMetaTimestamp;
 
+    this.useDoubleXor = encoder.useDoubleXor;
+    this.useDeltaOfDelta = encoder.useDeltaOfDelta;
+
+    this.validLastTimestamp = encoder.validLastTimestamp;
+    this.validLastTimestampDelta = encoder.validLastTimestampDelta;
+
     this.validLastGeoXPPoint = encoder.validLastGeoXPPoint;
     this.validLastElevation = encoder.validLastElevation;
 
@@ -1055,6 +1236,7 @@ public class GTSEncoder implements Cloneable {
     }
     baseTimestamp = baseTS;
     lastTimestamp = 0L;
+    lastTimestampDelta = 0L;
 
     lastGeoXPPoint = GeoTimeSerie.NO_LOCATION;
     lastElevation = GeoTimeSerie.NO_ELEVATION;
@@ -1065,6 +1247,7 @@ public class GTSEncoder implements Cloneable {
     lastStringValue = null;
 
     initialTimestamp = lastTimestamp;
+    initialTimestampDelta = lastTimestampDelta;
     initialGeoXPPoint = lastGeoXPPoint;
     initialElevation = lastElevation;
     initialLongValue = lastLongValue;
@@ -1078,6 +1261,9 @@ public class GTSEncoder implements Cloneable {
 
     noDeltaMetaTimestamp = false;
 
+    validLastTimestamp = false;
+    validLastTimestampDelta = false;
+
     validLastGeoXPPoint = false;
     validLastElevation = false;
 
@@ -1101,9 +1287,11 @@ public class GTSEncoder implements Cloneable {
     int size = size();
 
     if (target > size) {
-      ByteArrayOutputStream out = new ByteArrayOutputStream(target);
+      ByteArrayOutputStream out = newStream(target);
       this.stream.writeTo(out);
+      ByteArrayOutputStream old = this.stream;
       this.stream = out;
+      releaseStream(old);
     }
   }
 
@@ -1154,6 +1342,7 @@ public class GTSEncoder implements Cloneable {
 
       // Copy the last values
       this.lastTimestamp = encoder.lastTimestamp;
+      this.lastTimestampDelta = encoder.lastTimestampDelta;
       this.lastElevation = encoder.lastElevation;
       this.lastGeoXPPoint = encoder.lastGeoXPPoint;
       this.lastLongValue = encoder.lastLongValue;
@@ -1266,6 +1455,8 @@ public class GTSEncoder implements Cloneable {
    */
   public void safeDelta() {
     this.noDeltaMetaTimestamp = true;
+    this.validLastTimestamp = false;
+    this.validLastTimestampDelta = false;
     this.validLastElevation = false;
     this.validLastGeoXPPoint = false;
     this.validLastLongValue = false;
@@ -1274,6 +1465,21 @@ public class GTSEncoder implements Cloneable {
     this.validLastStringValue = false;
   }
 
+  /**
+   * Enable or disable the encoding of DOUBLE values as the XOR with the previous value,
+   * overriding the configured default.
+   */
+  synchronized void setDoubleXor(boolean useDoubleXor) {
+    this.useDoubleXor = useDoubleXor;
+  }
+
+  /**
+   * Enable or disable the delta of delta encoding of timestamps, overriding the configured default.
+   */
+  synchronized void setDeltaOfDelta(boolean useDeltaOfDelta) {
+    this.useDeltaOfDelta = useDeltaOfDelta;
+  }
+
   public synchronized void setCount(long count) {
     this.count = count;
   }
@@ -1283,7 +1489,9 @@ public class GTSEncoder implements Cloneable {
    */
   public synchronized void flush() {
     // We allocate a new stream so we get rid of the potentially large underlying byte array
-    this.stream = new ByteArrayOutputStream();
+    ByteArrayOutputStream old = this.stream;
+    this.stream = newStream(32);
+    releaseStream(old);
     this.safeDelta();
     this.readonly = false;
   }
@@ -1356,6 +1564,9 @@ public class GTSEncoder implements Cloneable {
 
     encoder.setMetadata(this.getMetadata());
 
+    encoder.useDoubleXor = this.useDoubleXor;
+    encoder.useDeltaOfDelta = this.useDeltaOfDelta;
+
     return encoder;
   }
 
@@ -1366,6 +1577,7 @@ public class GTSEncoder implements Cloneable {
     // an unsafe decoder. As we clone this encoder, no unsafe decoder references this clone.
 
     clone.lastTimestamp = this.lastTimestamp;
+    clone.lastTimestampDelta = this.lastTimestampDelta;
 
     clone.lastGeoXPPoint = this.lastGeoXPPoint;
     clone.lastElevation = this.lastElevation;
@@ -1381,6 +1593,7 @@ public class GTSEncoder implements Cloneable {
     clone.binaryString = this.binaryString;
 
     clone.initialTimestamp = this.initialTimestamp;
+    clone.initialTimestampDelta = this.initialTimestampDelta;
     clone.initialGeoXPPoint = this.initialGeoXPPoint;
     clone.initialElevation = this.initialElevation;
     clone.initialLongValue = this.initialLongValue;
@@ -1401,6 +1614,9 @@ public class GTSEncoder implements Cloneable {
 
     clone.noDeltaMetaTimestamp = this.noDeltaMetaTimestamp;
 
+    clone.validLastTimestamp = this.validLastTimestamp;
+    clone.validLastTimestampDelta = this.validLastTimestampDelta;
+
     clone.validLastGeoXPPoint = this.validLastGeoXPPoint;
     clone.validLastElevation = this.validLastElevation;
 
@@ -46,9 +46,13 @@ import java.util.Map.Entry;
 import java.util.PriorityQueue;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -69,6 +73,7 @@ import io.warp10.WarpConfig;
 import io.warp10.WarpHexDecoder;
 import io.warp10.WarpURLDecoder;
 import io.warp10.WarpURLEncoder;
+import io.warp10.continuum.Configuration;
 import io.warp10.continuum.MetadataUtils;
 import io.warp10.continuum.TimeSource;
 import io.warp10.continuum.gts.GeoTimeSerie.TYPE;
@@ -81,6 +86,7 @@ import io.warp10.json.JsonUtils;
 import io.warp10.script.SAXUtils;
 import io.warp10.script.WarpScriptAggregatorFunction;
 import io.warp10.script.WarpScriptAggregatorOnListsFunction;
+import io.warp10.script.WarpScriptArrayAggregatorFunction;
 import io.warp10.script.WarpScriptBinaryOp;
 import io.warp10.script.WarpScriptBucketizerFunction;
 import io.warp10.script.WarpScriptException;
@@ -90,9 +96,11 @@ import io.warp10.script.WarpScriptLib;
 import io.warp10.script.WarpScriptMapperFunction;
 import io.warp10.script.WarpScriptNAryFunction;
 import io.warp10.script.WarpScriptReducerFunction;
+import io.warp10.script.WarpScriptSlidingWindowMapperFunction;
 import io.warp10.script.WarpScriptStack;
 import io.warp10.script.WarpScriptStack.Macro;
 import io.warp10.script.functions.MACROMAPPER;
+import io.warp10.script.functions.STRICTREDUCER;
 import io.warp10.script.functions.TOQUATERNION;
 
 
@@ -118,6 +126,11 @@ public class GTSHelper {
     labelsIdSlowImpl = "true".equals(WarpConfig.getProperty(LABELSID_SLOWIMPL));
   }
 
+  /**
+   * Flag indicating whether mappers supporting it are computed incrementally over sliding windows
+   */
+  private static final boolean mapIncremental = !"false".equals(WarpConfig.getProperty(Configuration.WARPSCRIPT_MAP_INCREMENTAL));
+
   /**
    * Sort the values (and associated locations/elevations) by order of their ticks
    *
@@ -1396,6 +1409,39 @@ public class GTSHelper {
     }
   }
 
+  /**
+   * Return the value at a given index in a GTS instance of type LONG, without boxing it.
+   *
+   * @param gts GeoTimeSerie instance of type LONG from which to extract the value.
+   * @param idx Index at which to read the value, must be less than the size of the GTS.
+   * @return The value at the given index.
+   */
+  public static long longValueAtIndex(GeoTimeSerie gts, int idx) {
+    return gts.longValues[idx];
+  }
+
+  /**
+   * Return the value at a given index in a GTS instance of type DOUBLE, without boxing it.
+   *
+   * @param gts GeoTimeSerie instance of type DOUBLE from which to extract the value.
+   * @param idx Index at which to read the value, must be less than the size of the GTS.
+   * @return The value at the given index.
+   */
+  public static double doubleValueAtIndex(GeoTimeSerie gts, int idx) {
+    return gts.doubleValues[idx];
+  }
+
+  /**
+   * Return the value at a given index in a GTS instance of type BOOLEAN, without boxing it.
+   *
+   * @param gts GeoTimeSerie instance of type BOOLEAN from which to extract the value.
+   * @param idx Index at which to read the value, must be less than the size of the GTS.
+   * @return The value at the given index.
+   */
+  public static boolean booleanValueAtIndex(GeoTimeSerie gts, int idx) {
+    return gts.booleanValues.get(idx);
+  }
+
   /**
    * Return the location in a Geo Time Serie at a given timestamp.
    *
@@ -1737,6 +1783,94 @@ public class GTSHelper {
     return setValue(gts, timestamp, GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, value, false);
   }
 
+  /**
+   * Append datapoints stored in columns to a Geo Time Serie. This is equivalent to calling
+   * setValue without overwriting for each datapoint, but does not box the values when the
+   * type of the values matches that of the GTS.
+   *
+   * @param gts The GTS to append the datapoints to.
+   * @param n Number of datapoints to append.
+   * @param ticks Ticks of the datapoints.
+   * @param locations Locations of the datapoints, or null if they have no location.
+   * @param elevations Elevations of the datapoints, or null if they have no elevation.
+   * @param longValues LONG values of the datapoints, or null if the values are DOUBLE.
+   * @param doubleValues DOUBLE values of the datapoints, used if longValues is null.
+   * @return The number of values in the GTS.
+   */
+  public static final int setValues(GeoTimeSerie gts, int n, long[] ticks, long[] locations, long[] elevations, long[] longValues, double[] doubleValues) {
+    int i = 0;
+
+    //
+    // Let setValue determine the type of the GTS and allocate its arrays
+    //
+
+    while (i < n && (TYPE.UNDEFINED == gts.type || null == gts.ticks)) {
+      setValue(gts, ticks[i], null != locations ? locations[i] : GeoTimeSerie.NO_LOCATION, null != elevations ? elevations[i] : GeoTimeSerie.NO_ELEVATION, null != longValues ? (Object) longValues[i] : (Object) doubleValues[i], false);
+      i++;
+    }
+
+    //
+    // Fall back to setValue if the values need to be converted
+    //
+
+    if ((TYPE.LONG != gts.type || null == longValues) && (TYPE.DOUBLE != gts.type || null != longValues)) {
+      for (; i < n; i++) {
+        setValue(gts, ticks[i], null != locations ? locations[i] : GeoTimeSerie.NO_LOCATION, null != elevations ? elevations[i] : GeoTimeSerie.NO_ELEVATION, null != longValues ? (Object) longValues[i] : (Object) doubleValues[i], false);
+      }
+      return gts.values;
+    }
+
+    for (; i < n; i++) {
+      long timestamp = ticks[i];
+      long location = null != locations ? locations[i] : GeoTimeSerie.NO_LOCATION;
+      long elevation = null != elevations ? elevations[i] : GeoTimeSerie.NO_ELEVATION;
+
+      // Same logic as in setValue
+      if (2 > gts.values) {
+        if (0 == gts.values) {
+          gts.sorted = true;
+          gts.reversed = false;
+        } else {
+          gts.sorted = true;
+          gts.reversed = gts.ticks[0] > timestamp;
+        }
+      } else if (gts.sorted) {
+        if (gts.reversed) {
+          gts.sorted = gts.ticks[gts.values - 1] >= timestamp;
+        } else {
+          gts.sorted = gts.ticks[gts.values - 1] <= timestamp;
+        }
+      }
+
+      if (gts.values >= gts.ticks.length || (null == gts.locations && GeoTimeSerie.NO_LOCATION != location) || (null == gts.elevations && GeoTimeSerie.NO_ELEVATION != elevation)) {
+        // The type is known, the value is not needed
+        provision(gts, null, location, elevation);
+      }
+
+      int idx = gts.values;
+
+      gts.ticks[idx] = timestamp;
+
+      if (null != gts.locations) {
+        gts.locations[idx] = location;
+      }
+
+      if (null != gts.elevations) {
+        gts.elevations[idx] = elevation;
+      }
+
+      if (null != longValues) {
+        gts.longValues[idx] = longValues[i];
+      } else {
+        gts.doubleValues[idx] = doubleValues[i];
+      }
+
+      gts.values++;
+    }
+
+    return gts.values;
+  }
+
   /**
    * Allocate memory so we can add one value to the Geo Time Serie.
    *
@@ -2469,7 +2603,38 @@ public class GTSHelper {
       }
 
 
-      if (aggregator instanceof WarpScriptAggregatorOnListsFunction) {
+      if (aggregator instanceof WarpScriptArrayAggregatorFunction && (TYPE.LONG == gts.type || TYPE.DOUBLE == gts.type)) {
+        // Numeric values and an aggregator which can process slices of the primitive arrays of the GTS,
+        // no copy or boxing is needed.
+
+        long[] longValues = TYPE.LONG == gts.type ? gts.longValues : null;
+        double[] doubleValues = TYPE.DOUBLE == gts.type ? gts.doubleValues : null;
+
+        // iterate on input to find buckets
+        long currentBucketEnd;
+        int currentBucketEndPosition;
+        int currentBucketStartPosition;
+        int count;
+        Object[] aggregated = null;
+        while (i >= 0 && gts.ticks[i] > (lastbucket - bucketspan * bucketcount)) {
+          currentBucketEndPosition = i;
+          currentBucketEnd = gts.ticks[i] + (lastbucket - gts.ticks[i]) % bucketspan;
+          while (i >= 0 && gts.ticks[i] > (currentBucketEnd - bucketspan)) {
+            i--;
+          }
+          currentBucketStartPosition = i + 1;
+
+          count = currentBucketEndPosition - currentBucketStartPosition + 1;
+
+          aggregated = ((WarpScriptArrayAggregatorFunction) aggregator).applyOnArrays(currentBucketEnd, gts.ticks, gts.locations, gts.elevations, longValues, doubleValues, currentBucketStartPosition, count);
+
+          if (null != aggregated[3]) {
+            setValue(bucketized, currentBucketEnd, (long) aggregated[1], (long) aggregated[2], aggregated[3], false);
+          }
+
+          // next bucket
+        }
+      } else if (aggregator instanceof WarpScriptAggregatorOnListsFunction) {
         // Second case: the aggregator is capable to process an array of List instead of an array of array.
         // It uses a special class for lists that saves a memory allocation.
 
@@ -5905,6 +6070,18 @@ public class GTSHelper {
     long lastTick = 0;
     long numbOfMappedDupTick = 0;
 
+    //
+    // If the mapper can be computed incrementally, slide a window over the sorted
+    // GTS instead of extracting a sub GTS for each tick
+    //
+
+    SlidingWindow window = null;
+
+    if (mapIncremental && null == stack && mapper instanceof WarpScriptSlidingWindowMapperFunction && gts.values > 0) {
+      GTSHelper.sort(gts);
+      window = ((WarpScriptSlidingWindowMapperFunction) mapper).slidingWindow(gts, reversed);
+    }
+
     while (idx < nticks) {
 
       if (hasOccurrences && 0 == occurrences) {
@@ -6016,15 +6193,22 @@ public class GTSHelper {
         }
       }
 
-      //
-      // Extract values
-      //
+      Object mapResult = null;
 
-      subgts = GTSHelper.subSerie(gts, start, stop, false, false, subgts);
+      if (null != window) {
+        if (!window.slide(start, stop)) {
+          // The window cannot slide to the requested position, start over with a fresh window
+          window = ((WarpScriptSlidingWindowMapperFunction) mapper).slidingWindow(gts, reversed);
+          window.slide(start, stop);
+        }
+        mapResult = window.get(tick);
+      } else if (null != stack) {
+        //
+        // Extract values
+        //
 
-      Object mapResult = null;
+        subgts = GTSHelper.subSerie(gts, start, stop, false, false, subgts);
 
-      if (null != stack) {
         if (mapper instanceof Macro) {
           subgts.safeSetMetadata(mapped.getMetadata());
           stack.push(subgts);
@@ -6059,90 +6243,106 @@ public class GTSHelper {
         if (!(mapper instanceof WarpScriptMapperFunction)) {
           throw new WarpScriptException("Expected a mapper function.");
         }
+
         //
-        // Mapper functions have 8 parameters
-        //
-        // tick: timestamp we're computing the value for
-        // names: array of names (for reducer compatibility)
-        // labels: array of labels (for reducer compatibility)
-        // ticks: array of ticks being aggregated
-        // locations: array of locations being aggregated
-        // elevations: array of elevations being aggregated
-        // values: array of values being aggregated
-        // window: An array with the window parameters [ prewindow, postwindow, start, stop, tick index ] on which the mapper runs
-        //
-        // 'window' nullity should be checked prior to using to allow mappers to be used as reducers.
-        //
-        // They return an array of 4 values:
-        //
-        // timestamp, location, elevation, value
-        //
-        // timestamp: an indication relative to timestamp (may be the timestamp at which the returned value was observed).
-        //            it is usually not used (the returned value will be set at 'tick') but must be present.
-        // location: location associated with the returned value
-        // elevation: elevation associated with the returned value
-        // value: computed value
+        // Extract values
         //
 
-        Object[] parms = new Object[8];
+        subgts = GTSHelper.subSerie(gts, start, stop, false, false, subgts);
 
-        int i = 0;
-        parms[i++] = tick;
+        if (mapper instanceof WarpScriptArrayAggregatorFunction && (TYPE.LONG == subgts.type || TYPE.DOUBLE == subgts.type)) {
+          //
+          // The mapper can work directly on the arrays of the sub GTS
+          //
 
-        //
-        // All arrays are allocated each time, so we don't risk
-        // having a rogue mapper modify them.
-        //
+          mapResult = ((WarpScriptArrayAggregatorFunction) mapper).applyOnArrays(tick, subgts.ticks, subgts.locations, subgts.elevations,
+              TYPE.LONG == subgts.type ? subgts.longValues : null, TYPE.DOUBLE == subgts.type ? subgts.doubleValues : null, 0, subgts.values);
+        } else {
+          //
+          // Mapper functions have 8 parameters
+          //
+          // tick: timestamp we're computing the value for
+          // names: array of names (for reducer compatibility)
+          // labels: array of labels (for reducer compatibility)
+          // ticks: array of ticks being aggregated
+          // locations: array of locations being aggregated
+          // elevations: array of elevations being aggregated
+          // values: array of values being aggregated
+          // window: An array with the window parameters [ prewindow, postwindow, start, stop, tick index ] on which the mapper runs
+          //
+          // 'window' nullity should be checked prior to using to allow mappers to be used as reducers.
+          //
+          // They return an array of 4 values:
+          //
+          // timestamp, location, elevation, value
+          //
+          // timestamp: an indication relative to timestamp (may be the timestamp at which the returned value was observed).
+          //            it is usually not used (the returned value will be set at 'tick') but must be present.
+          // location: location associated with the returned value
+          // elevation: elevation associated with the returned value
+          // value: computed value
+          //
 
-        parms[i++] = new String[subgts.values];
-        Arrays.fill((Object[]) parms[i - 1], gts.getName());
+          Object[] parms = new Object[8];
 
-        parms[i++] = new Map[subgts.values];
-        Arrays.fill((Object[]) parms[i - 1], labels);
+          int i = 0;
+          parms[i++] = tick;
 
-        parms[i++] = subgts.values > 0 ? Arrays.copyOf(subgts.ticks, subgts.values) : new long[0];
-        if (null != subgts.locations) {
-          parms[i++] = subgts.values > 0 ? Arrays.copyOf(subgts.locations, subgts.values) : new long[0];
-        } else {
-          if (subgts.values > 0) {
-            parms[i++] = new long[subgts.values];
-            Arrays.fill((long[]) parms[i - 1], GeoTimeSerie.NO_LOCATION);
+          //
+          // All arrays are allocated each time, so we don't risk
+          // having a rogue mapper modify them.
+          //
+
+          parms[i++] = new String[subgts.values];
+          Arrays.fill((Object[]) parms[i - 1], gts.getName());
+
+          parms[i++] = new Map[subgts.values];
+          Arrays.fill((Object[]) parms[i - 1], labels);
+
+          parms[i++] = subgts.values > 0 ? Arrays.copyOf(subgts.ticks, subgts.values) : new long[0];
+          if (null != subgts.locations) {
+            parms[i++] = subgts.values > 0 ? Arrays.copyOf(subgts.locations, subgts.values) : new long[0];
           } else {
-            parms[i++] = new long[0];
+            if (subgts.values > 0) {
+              parms[i++] = new long[subgts.values];
+              Arrays.fill((long[]) parms[i - 1], GeoTimeSerie.NO_LOCATION);
+            } else {
+              parms[i++] = new long[0];
+            }
           }
-        }
-        if (null != subgts.elevations) {
-          parms[i++] = subgts.values > 0 ? Arrays.copyOf(subgts.elevations, subgts.values) : new long[0];
-        } else {
-          if (subgts.values > 0) {
-            parms[i++] = new long[subgts.values];
-            Arrays.fill((long[]) parms[i - 1], GeoTimeSerie.NO_ELEVATION);
+          if (null != subgts.elevations) {
+            parms[i++] = subgts.values > 0 ? Arrays.copyOf(subgts.elevations, subgts.values) : new long[0];
           } else {
-            parms[i++] = new long[0];
+            if (subgts.values > 0) {
+              parms[i++] = new long[subgts.values];
+              Arrays.fill((long[]) parms[i - 1], GeoTimeSerie.NO_ELEVATION);
+            } else {
+              parms[i++] = new long[0];
+            }
           }
-        }
-        parms[i++] = new Object[subgts.values];
+          parms[i++] = new Object[subgts.values];
 
-        int tickidx = -1;
+          int tickidx = -1;
 
-        for (int j = 0; j < subgts.values; j++) {
-          ((Object[]) parms[6])[j] = valueAtIndex(subgts, j);
-          // Find the first index of the current tick or the last one in case we map in reverse.
-          // This is because subgts is always sorted but never in reverse.
-          if ((-1 == tickidx || reversed) && tick == tickAtIndex(subgts, j)) {
-            tickidx = j;
+          for (int j = 0; j < subgts.values; j++) {
+            ((Object[]) parms[6])[j] = valueAtIndex(subgts, j);
+            // Find the first index of the current tick or the last one in case we map in reverse.
+            // This is because subgts is always sorted but never in reverse.
+            if ((-1 == tickidx || reversed) && tick == tickAtIndex(subgts, j)) {
+              tickidx = j;
+            }
           }
-        }
 
-        if(reversed) {
-          tickidx -= numbOfMappedDupTick;
-        } else {
-          tickidx += numbOfMappedDupTick;
-        }
+          if(reversed) {
+            tickidx -= numbOfMappedDupTick;
+          } else {
+            tickidx += numbOfMappedDupTick;
+          }
 
-        parms[i++] = new long[] {prewindow, postwindow, start, stop, tickidx};
+          parms[i++] = new long[] {prewindow, postwindow, start, stop, tickidx};
 
-        mapResult = ((WarpScriptMapperFunction) mapper).apply(parms);
+          mapResult = ((WarpScriptMapperFunction) mapper).apply(parms);
+        }
       }
 
       if (mapResult instanceof Map) {
@@ -7026,6 +7226,20 @@ public class GTSHelper {
     }
     //Collections.sort(series[i], METASORT.META_COMPARATOR);
 
+    //
+    // N-ary functions may be applied to the partitions in parallel, filters are always applied sequentially
+    //
+
+    int parallelism = 1;
+
+    if (!(function instanceof WarpScriptFilterFunction) && function instanceof WarpScriptNAryFunction) {
+      parallelism = partitionsParallelism(stack, function, partition.size());
+    }
+
+    List<Callable<GeoTimeSerie>> tasks = new ArrayList<Callable<GeoTimeSerie>>();
+    List<List<GeoTimeSerie>> pending = new ArrayList<List<GeoTimeSerie>>();
+    List<List<GeoTimeSerie>[]> pendingSubseries = new ArrayList<List<GeoTimeSerie>[]>();
+
     try {
       //
       // Loop on each partition
@@ -7041,7 +7255,7 @@ public class GTSHelper {
         // Make N (cardinality of 'series') sublists of GTS instances.
         //
 
-        List<GeoTimeSerie>[] subseries = new List[series.length];
+        final List<GeoTimeSerie>[] subseries = new List[series.length];
         for (int i = 0; i < series.length; i++) {
 
           subseries[i] = new ArrayList<GeoTimeSerie>();
@@ -7091,7 +7305,18 @@ public class GTSHelper {
             }
           }
 
-          if (proceed) {
+          if (proceed && parallelism > 1) {
+            final WarpScriptNAryFunction nary = (WarpScriptNAryFunction) function;
+            final Map<String,String> labels = commonlabels;
+            tasks.add(new Callable<GeoTimeSerie>() {
+              @Override
+              public GeoTimeSerie call() throws Exception {
+                return GTSHelper.applyNAryFunction(nary, labels, subseries);
+              }
+            });
+            pending.add(result);
+            pendingSubseries.add(subseries);
+          } else if (proceed) {
             result.add(GTSHelper.applyNAryFunction((WarpScriptNAryFunction) function, commonlabels, subseries));
           }
         } else {
@@ -7101,6 +7326,27 @@ public class GTSHelper {
         results.put(commonlabels, result);
       }
 
+      if (!tasks.isEmpty()) {
+        //
+        // Sort the GTS instances prior to applying the function in parallel, as
+        // a GTS instance may be part of several partitions
+        //
+
+        for (List<GeoTimeSerie>[] subseries: pendingSubseries) {
+          for (List<GeoTimeSerie> subserie: subseries) {
+            for (GeoTimeSerie gts: subserie) {
+              GTSHelper.sort(gts);
+            }
+          }
+        }
+
+        List<GeoTimeSerie> applied = invokePartitions(tasks, parallelism);
+
+        for (int i = 0; i < applied.size(); i++) {
+          pending.get(i).add(applied.get(i));
+        }
+      }
+
       //
       // Check that all resulting GTS instances were in allgts
       //
@@ -7668,7 +7914,16 @@ public class GTSHelper {
   }
 
   public static List<GeoTimeSerie> reduce(WarpScriptReducerFunction reducer, Collection<GeoTimeSerie> series, Collection<String> bylabels, boolean overrideTick) throws WarpScriptException {
-    Map<Map<String,String>,List<GeoTimeSerie>> unflattened = reduceUnflattened(reducer, series, bylabels, overrideTick);
+    return reduce(reducer, series, bylabels, overrideTick, null);
+  }
+
+  /**
+   * Reduce GTS instances partitioned by labels.
+   *
+   * @param stack Stack whose attributes determine if partitions can be reduced in parallel, may be null.
+   */
+  public static List<GeoTimeSerie> reduce(WarpScriptReducerFunction reducer, Collection<GeoTimeSerie> series, Collection<String> bylabels, boolean overrideTick, WarpScriptStack stack) throws WarpScriptException {
+    Map<Map<String,String>,List<GeoTimeSerie>> unflattened = reduceUnflattened(reducer, series, bylabels, overrideTick, stack);
 
     List<GeoTimeSerie> results = new ArrayList<GeoTimeSerie>();
 
@@ -7684,6 +7939,18 @@ public class GTSHelper {
   }
 
   public static Map<Map<String, String>, List<GeoTimeSerie>> reduceUnflattened(WarpScriptReducerFunction reducer, Collection<GeoTimeSerie> series, Collection<String> bylabels, boolean overrideTick) throws WarpScriptException {
+    return reduceUnflattened(reducer, series, bylabels, overrideTick, null);
+  }
+
+  /**
+   * Reduce GTS instances partitioned by labels.
+   *
+   * If the stack allows it (@see WarpScriptStack#ATTRIBUTE_MAX_PARALLELISM), partitions are reduced in parallel on
+   * a pool shared by all stacks. The results are identical to those of a sequential reduction.
+   *
+   * @param stack Stack whose attributes determine if partitions can be reduced in parallel, may be null.
+   */
+  public static Map<Map<String, String>, List<GeoTimeSerie>> reduceUnflattened(final WarpScriptReducerFunction reducer, Collection<GeoTimeSerie> series, Collection<String> bylabels, final boolean overrideTick, WarpScriptStack stack) throws WarpScriptException {
     //
     // Partition the GTS instances using the given labels
     //
@@ -7692,200 +7959,332 @@ public class GTSHelper {
 
     Map<Map<String,String>,List<GeoTimeSerie>> results = new LinkedHashMap<Map<String,String>, List<GeoTimeSerie>>();
 
+    int parallelism = partitionsParallelism(stack, reducer, partitions.size());
 
-    for (Entry<Map<String, String>, List<GeoTimeSerie>> partitionLabelsAndGtss: partitions.entrySet()) {
-      boolean singleGTSResult = false;
-
-      Map<String, String> partitionLabels = partitionLabelsAndGtss.getKey();
-      List<GeoTimeSerie> partitionSeries = partitionLabelsAndGtss.getValue();
+    if (parallelism > 1) {
+      List<Callable<List<GeoTimeSerie>>> tasks = new ArrayList<Callable<List<GeoTimeSerie>>>(partitions.size());
 
-      //
-      // Extract labels and common labels
-      //
+      for (final Entry<Map<String, String>, List<GeoTimeSerie>> partitionLabelsAndGtss: partitions.entrySet()) {
+        tasks.add(new Callable<List<GeoTimeSerie>>() {
+          @Override
+          public List<GeoTimeSerie> call() throws Exception {
+            return reducePartition(reducer, partitionLabelsAndGtss.getKey(), partitionLabelsAndGtss.getValue(), overrideTick);
+          }
+        });
+      }
 
-      Map[] partlabels = new Map[partitionSeries.size() + 1];
+      List<List<GeoTimeSerie>> reduced = invokePartitions(tasks, parallelism);
 
-      for (int i = 0; i < partitionSeries.size(); i++) {
-        partlabels[i] = partitionSeries.get(i).getLabels();
+      int i = 0;
+      for (Map<String,String> partitionLabels: partitions.keySet()) {
+        results.put(partitionLabels, reduced.get(i++));
       }
+    } else {
+      for (Entry<Map<String, String>, List<GeoTimeSerie>> partitionLabelsAndGtss: partitions.entrySet()) {
+        results.put(partitionLabelsAndGtss.getKey(), reducePartition(reducer, partitionLabelsAndGtss.getKey(), partitionLabelsAndGtss.getValue(), overrideTick));
+      }
+    }
 
-      partlabels[partitionSeries.size()] = Collections.unmodifiableMap(partitionLabelsAndGtss.getKey());
+    return results;
+  }
 
-      //
-      // Determine if result should be bucketized or not.
-      // Result will be bucketized if all GTS instances in the partition are
-      // bucketized, have the same bucketspan and have congruent lastbucket values
-      //
+  /**
+   * Reduce the GTS instances of a partition.
+   *
+   * @return The list of GTS resulting from the reduction of the partition.
+   */
+  private static List<GeoTimeSerie> reducePartition(WarpScriptReducerFunction reducer, Map<String, String> partitionLabels, List<GeoTimeSerie> partitionSeries, boolean overrideTick) throws WarpScriptException {
+    boolean singleGTSResult = false;
 
-      long lastbucket = Long.MIN_VALUE;
-      long startbucket = Long.MAX_VALUE;
-      long bucketspan = 0L;
+    //
+    // Extract labels and common labels
+    //
 
-      for (GeoTimeSerie gts: partitionSeries) {
-        // One GTS instance is not bucketized, result won't be either
-        if (!isBucketized(gts)) {
-          bucketspan = 0L;
-          break;
-        }
-        if (0L == bucketspan) {
-          bucketspan = gts.bucketspan;
-        } else if (bucketspan != gts.bucketspan) {
-          // GTS has a bucketspan which differs from the previous one,
-          // so result won't be bucketized.
-          bucketspan = 0L;
-          break;
-        }
-        if (Long.MIN_VALUE == lastbucket) {
-          lastbucket = gts.lastbucket;
-        }
-        if (lastbucket % bucketspan != gts.lastbucket % gts.bucketspan) {
-          // GTS has a lastbucket value which is not congruent to the other
-          // lastbucket values, so result GTS won't be bucketized.
-          bucketspan = 0L;
-          break;
-        }
+    Map[] partlabels = new Map[partitionSeries.size() + 1];
 
-        //
-        // Update start/end bucket
-        //
+    for (int i = 0; i < partitionSeries.size(); i++) {
+      partlabels[i] = partitionSeries.get(i).getLabels();
+    }
 
-        if (gts.lastbucket > lastbucket) {
-          lastbucket = gts.lastbucket;
-        }
-        if (gts.lastbucket - gts.bucketcount * gts.bucketspan < startbucket) {
-          startbucket = gts.lastbucket - gts.bucketcount * gts.bucketspan;
-        }
-      }
+    partlabels[partitionSeries.size()] = Collections.unmodifiableMap(partitionLabels);
 
-      //
-      // Determine bucketcount if result is to be bucketized
-      // startbucket is the end of the first bucket not considered
-      //
+    //
+    // Determine if result should be bucketized or not.
+    // Result will be bucketized if all GTS instances in the partition are
+    // bucketized, have the same bucketspan and have congruent lastbucket values
+    //
 
-      int bucketcount = 0;
+    long lastbucket = Long.MIN_VALUE;
+    long startbucket = Long.MAX_VALUE;
+    long bucketspan = 0L;
 
-      if (0L != bucketspan) {
-        bucketcount = (int) ((lastbucket - startbucket) / bucketspan);
+    for (GeoTimeSerie gts: partitionSeries) {
+      // One GTS instance is not bucketized, result won't be either
+      if (!isBucketized(gts)) {
+        bucketspan = 0L;
+        break;
+      }
+      if (0L == bucketspan) {
+        bucketspan = gts.bucketspan;
+      } else if (bucketspan != gts.bucketspan) {
+        // GTS has a bucketspan which differs from the previous one,
+        // so result won't be bucketized.
+        bucketspan = 0L;
+        break;
+      }
+      if (Long.MIN_VALUE == lastbucket) {
+        lastbucket = gts.lastbucket;
+      }
+      if (lastbucket % bucketspan != gts.lastbucket % gts.bucketspan) {
+        // GTS has a lastbucket value which is not congruent to the other
+        // lastbucket values, so result GTS won't be bucketized.
+        bucketspan = 0L;
+        break;
       }
 
       //
-      // Create target GTS
+      // Update start/end bucket
       //
 
-      GeoTimeSerie result;
+      if (gts.lastbucket > lastbucket) {
+        lastbucket = gts.lastbucket;
+      }
+      if (gts.lastbucket - gts.bucketcount * gts.bucketspan < startbucket) {
+        startbucket = gts.lastbucket - gts.bucketcount * gts.bucketspan;
+      }
+    }
 
-      if (0L != bucketspan) {
-        result = new GeoTimeSerie(lastbucket, bucketcount, bucketspan, 0);
-      } else {
-        result = new GeoTimeSerie();
+    //
+    // Determine bucketcount if result is to be bucketized
+    // startbucket is the end of the first bucket not considered
+    //
+
+    int bucketcount = 0;
+
+    if (0L != bucketspan) {
+      bucketcount = (int) ((lastbucket - startbucket) / bucketspan);
+    }
+
+    //
+    // Create target GTS
+    //
+
+    GeoTimeSerie result;
+
+    if (0L != bucketspan) {
+      result = new GeoTimeSerie(lastbucket, bucketcount, bucketspan, 0);
+    } else {
+      result = new GeoTimeSerie();
+    }
+
+    result.setName("");
+    result.setLabels(partitionLabels);
+    result.getMetadata().setAttributes(commonAttributes(partitionSeries));
+
+    //
+    // Sort all series in the partition so we can scan their ticks in order
+    //
+
+    String resultName = null;
+
+    for (GeoTimeSerie gts: partitionSeries) {
+      sort(gts, false);
+      if (null == resultName) {
+        resultName = gts.getName();
+      } else if (!resultName.equals(gts.getName())) {
+        resultName = "";
       }
+    }
 
-      result.setName("");
-      result.setLabels(partitionLabels);
-      result.getMetadata().setAttributes(commonAttributes(partitionSeries));
+    result.setName(resultName);
 
-      //
-      // Sort all series in the partition so we can scan their ticks in order
-      //
+    Map<String,GeoTimeSerie> multipleResults = new TreeMap<String,GeoTimeSerie>();
+
+    //
+    // Initialize indices for each serie
+    //
+
+    int[] idx = new int[partitionSeries.size()];
 
-      String resultName = null;
+    //
+    // Initialize names/labels/location/elevation/value arrays
+    //
+
+    long[] ticks = new long[idx.length];
+    String[] names = new String[idx.length];
+    // Allocate 1 more slot for labels so we can store the common labels at the end of the array
+    Map<String,String>[] lbls = Arrays.copyOf(partlabels, partlabels.length);
+
+    long[] locations = new long[idx.length];
+    long[] elevations = new long[idx.length];
+    Object[] values = new Object[idx.length];
+
+    //
+    // Reducers have 7 parameters (similar to those of binary ops and mappers)
+    //
+    // tick for which value is computed
+    // array of ticks
+    // array of names
+    // array of labels
+    // array of locations
+    // array of elevations
+    // array of values
+    //
+
+    Object[] params = new Object[7];
+
+    //
+    // If all GTS in the partition are of the same numeric type and the reducer
+    // supports it, ticks where all GTS have a value are reduced using primitive arrays
+    //
+
+    long[] longValues = null;
+    double[] doubleValues = null;
+
+    if (reducer instanceof WarpScriptArrayAggregatorFunction) {
+      TYPE partitionType = partitionSeries.isEmpty() ? TYPE.UNDEFINED : partitionSeries.get(0).type;
 
       for (GeoTimeSerie gts: partitionSeries) {
-        sort(gts, false);
-        if (null == resultName) {
-          resultName = gts.getName();
-        } else if (!resultName.equals(gts.getName())) {
-          resultName = "";
+        if (partitionType != gts.type) {
+          partitionType = TYPE.UNDEFINED;
+          break;
         }
       }
 
-      result.setName(resultName);
+      if (TYPE.LONG == partitionType) {
+        longValues = new long[idx.length];
+      } else if (TYPE.DOUBLE == partitionType) {
+        doubleValues = new double[idx.length];
+      }
+    }
+
+    //
+    // Entries of the series at the current tick, those of the series without a value at this tick are empty.
+    // Only the entries of the series with a value at the current tick and of those which had a value at the
+    // previous tick are updated. Reducers may modify the arrays they are passed, e.g. MAD sorts the locations
+    // and elevations in place, so they are passed copies of these entries.
+    //
+
+    long[] currentTicks = new long[idx.length];
+    String[] currentNames = new String[idx.length];
+    long[] currentLocations = new long[idx.length];
+    long[] currentElevations = new long[idx.length];
+    Object[] currentValues = new Object[idx.length];
+
+    Arrays.fill(currentTicks, Long.MIN_VALUE);
+    Arrays.fill(currentLocations, GeoTimeSerie.NO_LOCATION);
+    Arrays.fill(currentElevations, GeoTimeSerie.NO_ELEVATION);
+
+    for (int i = 0; i < idx.length; i++) {
+      currentNames[i] = partitionSeries.get(i).getName();
+    }
+
+    //
+    // Merge the ticks of the series using a heap of their indices, ordered by the tick at their current index,
+    // so finding the series with a value at the next tick does not require scanning all the series.
+    //
+
+    TicksHeap heap = new TicksHeap(partitionSeries, idx);
 
-      Map<String,GeoTimeSerie> multipleResults = new TreeMap<String,GeoTimeSerie>();
+    // Indices of the series with a value at the current tick
+    int[] current = new int[idx.length];
+    int ncurrent = 0;
+    // Indices of the series whose entries were set at the previous tick
+    int[] previous = new int[idx.length];
+    int nprevious = 0;
 
+    while(true) {
       //
-      // Initialize indices for each serie
+      // Determine the smallest tick at the given indices
       //
 
-      int[] idx = new int[partitionSeries.size()];
+      long smallest = heap.isEmpty() ? Long.MAX_VALUE : heap.peek();
 
       //
-      // Initialize names/labels/location/elevation/value arrays
+      // No smallest tick, this means we've exhausted all values
       //
 
-      long[] ticks = new long[idx.length];
-      String[] names = new String[idx.length];
-      // Allocate 1 more slot for labels so we can store the common labels at the end of the array
-      Map<String,String>[] lbls = Arrays.copyOf(partlabels, partlabels.length);
-
-      long[] locations = new long[idx.length];
-      long[] elevations = new long[idx.length];
-      Object[] values = new Object[idx.length];
+      if (Long.MAX_VALUE == smallest) {
+        break;
+      }
 
       //
-      // Reducers have 7 parameters (similar to those of binary ops and mappers)
+      // Extract the series whose current tick is 'smallest', they will be put back in the heap
+      // once their index has been advanced
       //
-      // tick for which value is computed
-      // array of ticks
-      // array of names
-      // array of labels
-      // array of locations
-      // array of elevations
-      // array of values
+
+      ncurrent = 0;
+
+      while (!heap.isEmpty() && smallest == heap.peek()) {
+        current[ncurrent++] = heap.poll();
+      }
+
       //
+      // Now fill the locations/elevations/values arrays for all GTS
+      // instances whose current tick is 'smallest'
+      //
+
+      boolean complete = (null != longValues || null != doubleValues) && ncurrent == idx.length;
 
-      Object[] params = new Object[7];
+      Object reducerResult;
 
-      while(true) {
+      if (complete) {
         //
-        // Determine the tick span at the given indices
+        // All GTS have a value at 'smallest', fill the primitive arrays
         //
 
-        long smallest = Long.MAX_VALUE;
-
         for (int i = 0; i < idx.length; i++) {
           GeoTimeSerie gts = partitionSeries.get(i);
-          if (idx[i] < gts.values) {
-            if (gts.ticks[idx[i]] < smallest) {
-              smallest = gts.ticks[idx[i]];
-            }
+          ticks[i] = smallest;
+          locations[i] = null != gts.locations ? gts.locations[idx[i]] : GeoTimeSerie.NO_LOCATION;
+          elevations[i] = null != gts.elevations ? gts.elevations[idx[i]] : GeoTimeSerie.NO_ELEVATION;
+          if (null != longValues) {
+            longValues[i] = gts.longValues[idx[i]];
+          } else {
+            doubleValues[i] = gts.doubleValues[idx[i]];
           }
+          idx[i]++;
+          heap.add(i);
         }
 
+        reducerResult = ((WarpScriptArrayAggregatorFunction) reducer).applyOnArrays(smallest, ticks, locations, elevations, longValues, doubleValues, 0, idx.length);
+      } else {
         //
-        // No smallest tick, this means we've exhausted all values
+        // Clear the entries which were set at the previous tick
         //
 
-        if (Long.MAX_VALUE == smallest) {
-          break;
+        for (int j = 0; j < nprevious; j++) {
+          int i = previous[j];
+          currentTicks[i] = Long.MIN_VALUE;
+          currentLocations[i] = GeoTimeSerie.NO_LOCATION;
+          currentElevations[i] = GeoTimeSerie.NO_ELEVATION;
+          currentValues[i] = null;
         }
 
-        //
-        // Now fill the locations/elevations/values arrays for all GTS
-        // instances whose current tick is 'smallest'
-        //
-
-        for (int i = 0; i < idx.length; i++) {
+        for (int j = 0; j < ncurrent; j++) {
+          int i = current[j];
           GeoTimeSerie gts = partitionSeries.get(i);
-          if (idx[i] < gts.values && smallest == gts.ticks[idx[i]]) {
-            ticks[i] = smallest;
-            names[i] = gts.getName();
-
-            locations[i] = null != gts.locations ? gts.locations[idx[i]] : GeoTimeSerie.NO_LOCATION;
-            elevations[i] = null != gts.elevations ? gts.elevations[idx[i]] : GeoTimeSerie.NO_ELEVATION;
-            values[i] = GTSHelper.valueAtIndex(gts, idx[i]);
-            // Advance idx[i] since it was the smallest tick.
-            idx[i]++;
-          } else {
-            ticks[i] = Long.MIN_VALUE;
-            names[i] = gts.getName();
+          currentTicks[i] = smallest;
 
-            locations[i] = GeoTimeSerie.NO_LOCATION;
-            elevations[i] = GeoTimeSerie.NO_ELEVATION;
-            values[i] = null;
-          }
+          currentLocations[i] = null != gts.locations ? gts.locations[idx[i]] : GeoTimeSerie.NO_LOCATION;
+          currentElevations[i] = null != gts.elevations ? gts.elevations[idx[i]] : GeoTimeSerie.NO_ELEVATION;
+          currentValues[i] = GTSHelper.valueAtIndex(gts, idx[i]);
+          // Advance idx[i] since it was the smallest tick.
+          idx[i]++;
+          heap.add(i);
         }
 
+        int[] tmp = previous;
+        previous = current;
+        nprevious = ncurrent;
+        current = tmp;
+
+        System.arraycopy(currentTicks, 0, ticks, 0, idx.length);
+        System.arraycopy(currentNames, 0, names, 0, idx.length);
+        System.arraycopy(currentLocations, 0, locations, 0, idx.length);
+        System.arraycopy(currentElevations, 0, elevations, 0, idx.length);
+        System.arraycopy(currentValues, 0, values, 0, idx.length);
+
         //
         // Call the reducer for the current tick
         //
@@ -7904,53 +8303,181 @@ public class GTSHelper {
         params[5] = elevations;
         params[6] = values;
 
-        Object reducerResult = reducer.apply(params);
-
-        if (reducerResult instanceof Map) {
-          for (Entry<Object,Object> entry: ((Map<Object,Object>) reducerResult).entrySet()) {
-            GeoTimeSerie gts = multipleResults.get(entry.getKey().toString());
-            if (null == gts) {
-              if (0L != bucketspan) {
-                gts = new GeoTimeSerie(lastbucket, bucketcount, bucketspan, 0);
-              } else {
-                gts = new GeoTimeSerie();
-              }
+        reducerResult = reducer.apply(params);
+      }
 
-              gts.setName(entry.getKey().toString());
-              gts.setLabels(partitionLabels);
-              multipleResults.put(entry.getKey().toString(), gts);
+      if (reducerResult instanceof Map) {
+        for (Entry<Object,Object> entry: ((Map<Object,Object>) reducerResult).entrySet()) {
+          GeoTimeSerie gts = multipleResults.get(entry.getKey().toString());
+          if (null == gts) {
+            if (0L != bucketspan) {
+              gts = new GeoTimeSerie(lastbucket, bucketcount, bucketspan, 0);
+            } else {
+              gts = new GeoTimeSerie();
             }
 
-            Object[] reduced = (Object[]) entry.getValue();
-
-            if (null != reduced[3]) {
-              GTSHelper.setValue(gts, overrideTick ? (long) reduced[0] : smallest, (long) reduced[1], (long) reduced[2], reduced[3], false);
-            }
+            gts.setName(entry.getKey().toString());
+            gts.setLabels(partitionLabels);
+            multipleResults.put(entry.getKey().toString(), gts);
           }
-        } else {
-          Object[] reduced = (Object[]) reducerResult;
-          singleGTSResult = true;
+
+          Object[] reduced = (Object[]) entry.getValue();
+
           if (null != reduced[3]) {
-            GTSHelper.setValue(result, overrideTick ? (long) reduced[0] : smallest, (long) reduced[1], (long) reduced[2], reduced[3], false);
+            GTSHelper.setValue(gts, overrideTick ? (long) reduced[0] : smallest, (long) reduced[1], (long) reduced[2], reduced[3], false);
           }
         }
-
+      } else {
+        Object[] reduced = (Object[]) reducerResult;
+        singleGTSResult = true;
+        if (null != reduced[3]) {
+          GTSHelper.setValue(result, overrideTick ? (long) reduced[0] : smallest, (long) reduced[1], (long) reduced[2], reduced[3], false);
+        }
       }
 
-      if (!results.containsKey(partitionLabels)) {
-        results.put(partitionLabels, new ArrayList<GeoTimeSerie>());
+    }
+
+    List<GeoTimeSerie> results = new ArrayList<GeoTimeSerie>();
+
+    if (singleGTSResult) {
+      results.add(result);
+    }
+
+    if (!multipleResults.isEmpty()) {
+      results.addAll(multipleResults.values());
+    }
+
+    return results;
+  }
+
+  /**
+   * Pool shared by all stacks to evaluate partitions in parallel, created on first use
+   */
+  private static volatile ForkJoinPool partitionsPool = null;
+
+  private static ForkJoinPool getPartitionsPool() {
+    if (null == partitionsPool) {
+      synchronized (GTSHelper.class) {
+        if (null == partitionsPool) {
+          int poolsize = Integer.parseInt(WarpConfig.getProperty(Configuration.WARPSCRIPT_PARALLELISM_POOLSIZE, Integer.toString(Runtime.getRuntime().availableProcessors())));
+          partitionsPool = new ForkJoinPool(Math.max(1, poolsize));
+        }
       }
+    }
+    return partitionsPool;
+  }
 
-      if (singleGTSResult) {
-        results.get(partitionLabels).add(result);
+  /**
+   * Determine how many partitions can be evaluated in parallel on behalf of a stack.
+   * Each partition evaluated in parallel counts as one operation of the stack.
+   *
+   * @param stack Stack on behalf of which the partitions are evaluated, may be null.
+   * @param function Function applied to the partitions.
+   * @param partitions Number of partitions.
+   * @return The number of partitions to evaluate in parallel, 1 if they must be evaluated sequentially.
+   */
+  private static int partitionsParallelism(WarpScriptStack stack, Object function, int partitions) throws WarpScriptException {
+    if (null == stack || partitions < 2) {
+      return 1;
+    }
+
+    Object max = stack.getAttribute(WarpScriptStack.ATTRIBUTE_MAX_PARALLELISM);
+
+    if (!(max instanceof Number) || ((Number) max).longValue() < 2) {
+      return 1;
+    }
+
+    //
+    // Functions wrapping macros use the stack, they must be called sequentially by the thread executing the stack
+    //
+
+    if (function instanceof STRICTREDUCER.StringentReducer) {
+      function = ((STRICTREDUCER.StringentReducer) function).getReducer();
+    }
+
+    if (function instanceof MACROMAPPER.MacroMapperWrapper) {
+      return 1;
+    }
+
+    Object ops = stack.getAttribute(WarpScriptStack.ATTRIBUTE_OPS);
+    Object maxops = stack.getAttribute(WarpScriptStack.ATTRIBUTE_MAX_OPS);
+
+    if (ops instanceof Number && maxops instanceof Number) {
+      long count = ((Number) ops).longValue() + partitions;
+
+      if (count > ((Number) maxops).longValue()) {
+        throw new WarpScriptException("Operation count (" + count + ") exceeded maximum of " + maxops + ". Consider raising the limit or using capabilities.");
       }
 
-      if (!multipleResults.isEmpty()) {
-        results.get(partitionLabels).addAll(multipleResults.values());
+      stack.setAttribute(WarpScriptStack.ATTRIBUTE_OPS, count);
+    }
+
+    return (int) Math.min(partitions, ((Number) max).longValue());
+  }
+
+  /**
+   * Evaluate tasks on the shared partitions pool, at most 'parallelism' of them concurrently.
+   * The calling thread takes part in the evaluation.
+   *
+   * @return The results of the tasks, in the order of the tasks.
+   */
+  private static <T> List<T> invokePartitions(final List<Callable<T>> tasks, int parallelism) throws WarpScriptException {
+    final Object[] results = new Object[tasks.size()];
+    final AtomicInteger next = new AtomicInteger(0);
+    final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+    final CountDownLatch done = new CountDownLatch(results.length);
+
+    Runnable worker = new Runnable() {
+      @Override
+      public void run() {
+        int i;
+        while ((i = next.getAndIncrement()) < results.length) {
+          // Once a task failed, the remaining ones are skipped
+          if (null == error.get()) {
+            try {
+              results[i] = tasks.get(i).call();
+            } catch (Throwable t) {
+              error.compareAndSet(null, t);
+            }
+          }
+          done.countDown();
+        }
       }
+    };
+
+    ForkJoinPool pool = getPartitionsPool();
+
+    for (int i = 1; i < parallelism; i++) {
+      pool.execute(worker);
     }
 
-    return results;
+    worker.run();
+
+    try {
+      done.await();
+    } catch (InterruptedException ie) {
+      error.compareAndSet(null, ie);
+    }
+
+    Throwable t = error.get();
+
+    if (t instanceof WarpScriptException) {
+      throw (WarpScriptException) t;
+    } else if (t instanceof RuntimeException) {
+      throw (RuntimeException) t;
+    } else if (t instanceof Error) {
+      throw (Error) t;
+    } else if (null != t) {
+      throw new WarpScriptException("Error while evaluating partitions.", t);
+    }
+
+    List<T> list = new ArrayList<T>(results.length);
+
+    for (Object result: results) {
+      list.add((T) result);
+    }
+
+    return list;
   }
 
   /**
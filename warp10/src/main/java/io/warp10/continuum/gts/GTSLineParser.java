@@ -0,0 +1,734 @@
+//
+//   Copyright 2024  SenX S.A.S.
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.continuum.gts;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.math.BigDecimal;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.io.input.ReaderInputStream;
+
+import com.geoxp.GeoXPLib;
+
+import io.warp10.WarpURLDecoder;
+import io.warp10.continuum.MetadataUtils;
+import io.warp10.continuum.TimeSource;
+
+/**
+ * Parser of the input format of /update which works directly on the bytes of the input stream.
+ *
+ * Lines are framed in a reusable buffer, timestamps, locations, elevations and the most common
+ * values (LONG, short decimals, BOOLEAN) are parsed without creating intermediate Strings.
+ * When the class name and labels of a line are byte for byte identical to those of the previous
+ * line, the name and labels parsed for the previous line are reused.
+ *
+ * The result of 'parse' is identical to the one of GTSHelper#parse called on the current line,
+ * error offsets are expressed in bytes instead of characters.
+ */
+public class GTSLineParser {
+
+  private static final int DEFAULT_BUFFER_SIZE = 65536;
+
+  private static final double[] POWERS_OF_TEN = new double[] {
+      1.0E0, 1.0E1, 1.0E2, 1.0E3, 1.0E4, 1.0E5, 1.0E6, 1.0E7, 1.0E8, 1.0E9, 1.0E10, 1.0E11,
+      1.0E12, 1.0E13, 1.0E14, 1.0E15, 1.0E16, 1.0E17, 1.0E18, 1.0E19, 1.0E20, 1.0E21, 1.0E22,
+  };
+
+  private final InputStream in;
+  private final Charset charset;
+
+  /**
+   * Flag indicating whether lines should be trimmed like String#trim does
+   */
+  private final boolean trim;
+
+  private byte[] buf;
+
+  /**
+   * Index of the first byte not yet consumed in 'buf'
+   */
+  private int pos = 0;
+
+  /**
+   * Index of the end of the data read in 'buf'
+   */
+  private int limit = 0;
+
+  private boolean eof = false;
+
+  /**
+   * Flag set when the last line ended with a '\r', in which case a following '\n' must be skipped
+   */
+  private boolean skipLF = false;
+
+  /**
+   * Boundaries of the current line in 'buf'
+   */
+  private int start = 0;
+  private int end = 0;
+
+  /**
+   * Class name and labels of the last line for which they were parsed, and the bytes they were parsed from
+   */
+  private byte[] lastKey = new byte[256];
+  private int lastKeyLength = -1;
+  private String lastName = null;
+  private Map<String,String> lastLabels = null;
+  private Map<String,String> lastExtraLabels = null;
+
+  /**
+   * @param in InputStream to read lines from
+   * @param charset Charset of the content of the stream
+   * @param trim Flag indicating whether leading and trailing whitespaces should be stripped from lines
+   */
+  public GTSLineParser(InputStream in, Charset charset, boolean trim) {
+    //
+    // Framing and parsing are done on bytes, so the content must be in a charset in which
+    // the ASCII characters are encoded as single bytes and do not appear in multibyte sequences.
+    //
+
+    if (StandardCharsets.UTF_8.equals(charset) || StandardCharsets.ISO_8859_1.equals(charset) || StandardCharsets.US_ASCII.equals(charset)) {
+      this.in = in;
+      this.charset = charset;
+    } else {
+      this.in = new ReaderInputStream(new InputStreamReader(in, charset), StandardCharsets.UTF_8);
+      this.charset = StandardCharsets.UTF_8;
+    }
+
+    this.trim = trim;
+    this.buf = new byte[DEFAULT_BUFFER_SIZE];
+  }
+
+  /**
+   * Advance to the next line, skipping empty lines and comments.
+   * Lines are terminated by '\n', '\r' or '\r\n' like with BufferedReader#readLine.
+   *
+   * @return true if a line is available, false if the end of the input was reached
+   */
+  public boolean next() throws IOException {
+    while (nextLine()) {
+      if (this.trim) {
+        while (this.start < this.end && (this.buf[this.start] & 0xFF) <= ' ') {
+          this.start++;
+        }
+        while (this.end > this.start && (this.buf[this.end - 1] & 0xFF) <= ' ') {
+          this.end--;
+        }
+      }
+
+      if (this.start == this.end) {
+        continue;
+      }
+
+      // Ignore comments
+      if ('#' == this.buf[this.start]) {
+        continue;
+      }
+
+      return true;
+    }
+
+    return false;
+  }
+
+  private boolean nextLine() throws IOException {
+    int scan = this.pos;
+
+    while (true) {
+      if (this.skipLF && scan < this.limit) {
+        if ('\n' == this.buf[scan]) {
+          scan++;
+          this.pos = scan;
+        }
+        this.skipLF = false;
+      }
+
+      while (scan < this.limit) {
+        byte b = this.buf[scan];
+        if ('\n' == b || '\r' == b) {
+          this.start = this.pos;
+          this.end = scan;
+          this.pos = scan + 1;
+          this.skipLF = '\r' == b;
+          return true;
+        }
+        scan++;
+      }
+
+      if (this.eof) {
+        if (this.pos < this.limit) {
+          this.start = this.pos;
+          this.end = this.limit;
+          this.pos = this.limit;
+          return true;
+        }
+        return false;
+      }
+
+      //
+      // Move the pending bytes to the beginning of the buffer, growing it if it is full
+      //
+
+      int pending = this.limit - this.pos;
+
+      if (pending == this.buf.length) {
+        byte[] newbuf = new byte[this.buf.length << 1];
+        System.arraycopy(this.buf, 0, newbuf, 0, pending);
+        this.buf = newbuf;
+      } else if (this.pos > 0) {
+        System.arraycopy(this.buf, this.pos, this.buf, 0, pending);
+      }
+
+      scan -= this.pos;
+      this.pos = 0;
+      this.limit = pending;
+
+      int len = this.in.read(this.buf, this.limit, this.buf.length - this.limit);
+
+      if (len < 0) {
+        this.eof = true;
+      } else {
+        this.limit += len;
+      }
+    }
+  }
+
+  /**
+   * @return The current line as a String
+   */
+  public String line() {
+    return new String(this.buf, this.start, this.end - this.start, this.charset);
+  }
+
+  public void close() throws IOException {
+    this.in.close();
+  }
+
+  /**
+   * Parse the current line.
+   *
+   * @see GTSHelper#parse(GTSEncoder, String, Map, Long, long, AtomicBoolean, Long, Long, AtomicLong, boolean, long)
+   */
+  public GTSEncoder parse(GTSEncoder encoder, Map<String,String> extraLabels, Long now, long maxValueSize, AtomicBoolean parsedAttributes, Long maxpast, Long maxfuture, AtomicLong ignoredCount, boolean deltaAttributes, long timeshift) throws ParseException, IOException {
+
+    byte[] buf = this.buf;
+    int start = this.start;
+    int end = this.end;
+
+    int tsoffset = 0;
+
+    if ('=' == buf[start]) {
+      if (null == encoder) {
+        throw new ParseException("Invalid continuation.", 0);
+      }
+      tsoffset = 1;
+    }
+
+    int idx = indexOf('/', start + tsoffset);
+
+    if (-1 == idx) {
+      throw new ParseException("Missing timestamp separator.", tsoffset);
+    }
+
+    long timestamp;
+
+    try {
+      if (start + tsoffset == idx) {
+        // No timestamp provided, use 'now'
+        timestamp = null != now ? (long) now : TimeSource.getTime();
+      } else if ('T' == buf[start + tsoffset]) {
+        // Timestamp relative to 'now'
+        timestamp = (null != now ? (long) now : TimeSource.getTime()) + parseLong(start + tsoffset + 1, idx);
+      } else {
+        timestamp = parseLong(start + tsoffset, idx);
+      }
+    } catch (NumberFormatException nfe) {
+      throw new ParseException("Invalid timestamp.", tsoffset);
+    }
+
+    timestamp += timeshift;
+
+    boolean ignored = false;
+
+    if (null != maxpast && timestamp < maxpast) {
+      if (null == ignoredCount) {
+        throw new ParseException("Timestamp " + timestamp + " is too far in the past.", idx - start);
+      } else {
+        ignored = true;
+      }
+    } else if (null != maxfuture && timestamp > maxfuture) {
+      if (null == ignoredCount) {
+        throw new ParseException("Timestamp " + timestamp + " is too far in the future.", idx - start);
+      } else {
+        ignored = true;
+      }
+    }
+
+    // Advance past the '/'
+    idx++;
+
+    int idx2 = indexOf('/', idx);
+
+    if (-1 == idx2) {
+      throw new ParseException("Missing location/elevation separator.", idx - start);
+    }
+
+    long location = GeoTimeSerie.NO_LOCATION;
+
+    if (idx != idx2) {
+      // We have a location (lat:lon)
+      int colon = indexOf(':', idx, idx2);
+      try {
+        if (-1 != colon) {
+          location = GeoXPLib.toGeoXPPoint(parseDouble(idx, colon), parseDouble(colon + 1, idx2));
+        } else {
+          // Parse the location value as a Long
+          location = parseLong(idx, idx2);
+        }
+      } catch (NumberFormatException nfe) {
+        throw new ParseException("Invalid location: '" + decode(idx, idx2) + "'.", idx - start);
+      }
+    }
+
+    // Advance past the second '/'
+    idx = idx2 + 1;
+
+    idx2 = indexOf(' ', idx);
+
+    if (-1 == idx2) {
+      if (0 == tsoffset) {
+        throw new ParseException("Missing GTS name, labels and value.", idx - start);
+      } else {
+        throw new ParseException("Missing value.", idx - start);
+      }
+    }
+
+    long elevation = GeoTimeSerie.NO_ELEVATION;
+
+    if (idx != idx2) {
+      // We have an elevation
+      try {
+        elevation = parseLong(idx, idx2);
+      } catch (NumberFormatException nfe) {
+        throw new ParseException("Invalid elevation: '" + decode(idx, idx2) + "'.", idx - start);
+      }
+    }
+
+    // Advance past the ' '
+    idx = idx2 + 1;
+
+    while (idx < end && ' ' == buf[idx]) {
+      idx++;
+    }
+
+    // If line started with '=', assume there is no class+labels component
+    if (tsoffset > 0) {
+      idx2 = -1;
+    } else {
+      idx2 = indexOf('{', idx);
+    }
+
+    String name = null;
+    Map<String,String> labels = null;
+    Map<String,String> attributes = null;
+
+    boolean reuseLabels = false;
+    boolean sameKey = false;
+
+    if (-1 == idx2) {
+      // If we are over the end of the line, we're missing a value
+      if (idx >= end) {
+        throw new ParseException("Missing value", idx - start);
+      }
+      // No class+labels, assume same class+labels as those in encoder
+      if (null == encoder) {
+        throw new ParseException("Missing or invalid GTS name and labels.", idx - start);
+      }
+      name = encoder.getMetadata().getName();
+      labels = encoder.getMetadata().getLabels();
+      reuseLabels = true;
+    } else {
+      int labelsEnd = indexOf('}', idx2 + 1);
+
+      if (-1 != labelsEnd && extraLabels == this.lastExtraLabels && isLastKey(idx, labelsEnd + 1)) {
+        name = this.lastName;
+        labels = this.lastLabels;
+        sameKey = true;
+      } else {
+        name = WarpURLDecoder.decode(decode(idx, idx2), StandardCharsets.UTF_8);
+
+        if (-1 == labelsEnd) {
+          throw new ParseException("Missing end of labels '}'.", end - start - 1);
+        }
+
+        try {
+          labels = GTSHelper.parseLabels(null != extraLabels ? extraLabels.size() : 0, decode(idx2 + 1, labelsEnd));
+        } catch (ParseException pe) {
+          ParseException newpe = new ParseException("Invalid label definition.", pe.getErrorOffset() + idx2 + 1 - start);
+          newpe.initCause(pe);
+          throw newpe;
+        }
+      }
+
+      int keyStart = idx;
+
+      // Advance past the '}'
+      idx = labelsEnd + 1;
+
+      if (idx < end && '{' == buf[idx]) {
+        idx++;
+        int attrstart = idx;
+        while (idx < end && '}' != buf[idx]) {
+          idx++;
+        }
+        if (null != parsedAttributes) {
+          if (idx >= end) {
+            throw new ParseException("Missing end of attributes '}'.", end - start - 1);
+          }
+          try {
+            attributes = GTSHelper.parseLabels(decode(attrstart, idx));
+          } catch (ParseException pe) {
+            ParseException newpe = new ParseException("Invalid attribute definition.", pe.getErrorOffset() + idx - start);
+            newpe.initCause(pe);
+            throw newpe;
+          }
+          // Set the atomic boolean to true to indicate that attributes were parsed
+          parsedAttributes.set(true);
+        }
+        idx++;
+      }
+
+      while (idx < end && ' ' == buf[idx]) {
+        idx++;
+      }
+
+      if (idx >= end) {
+        throw new ParseException("Missing value.", end - start - 1);
+      }
+
+      //
+      // Add any provided extra labels, the labels reused from the previous line already contain them
+      //
+
+      if (!sameKey) {
+        if (null != extraLabels) {
+          labels.putAll(extraLabels);
+
+          //
+          // Remove labels with null values
+          //
+
+          if (extraLabels.containsValue(null)) {
+            Set<Entry<String,String>> entries = extraLabels.entrySet();
+
+            while (labels.containsValue(null)) {
+              for (Entry<String,String> entry: entries) {
+                if (null == entry.getValue()) {
+                  labels.remove(entry.getKey());
+                }
+              }
+            }
+          }
+        }
+
+        setLastKey(keyStart, labelsEnd + 1);
+        this.lastName = name;
+        this.lastLabels = new HashMap<String,String>(labels);
+        this.lastExtraLabels = extraLabels;
+      }
+    }
+
+    //
+    // Extract value
+    //
+
+    Object value = parseValue(idx, end);
+
+    if (null == value) {
+      throw new ParseException("Unable to parse value '" + decode(idx, end) + "'", idx - start);
+    }
+
+    if ((value instanceof String && value.toString().length() > maxValueSize) || (value instanceof byte[] && ((byte[]) value).length > maxValueSize)) {
+      throw new ParseException("Value too large for GTS " + (null != encoder ? GTSHelper.buildSelector(encoder.getMetadata(), false) : ""), idx - start);
+    }
+
+    // Allocate a new Encoder if need be, with a base timestamp of 0L.
+    if (null == encoder || !name.equals(encoder.getName()) || !labels.equals(encoder.getMetadata().getLabels())) {
+      encoder = new GTSEncoder(0L);
+      encoder.setName(name);
+      // Never share the labels kept for the next lines
+      encoder.getMetadata().setLabels(sameKey ? new HashMap<String,String>(labels) : labels);
+    }
+
+    // Update the attributes if some were parsed
+    if (null != attributes) {
+      if (!deltaAttributes) {
+        encoder.getMetadata().setAttributes(attributes);
+      } else {
+        if (0 == encoder.getMetadata().getAttributesSize()) {
+          encoder.getMetadata().setAttributes(new HashMap<String,String>());
+        }
+        for (Entry<String,String> attr: attributes.entrySet()) {
+          if ("".equals(attr.getValue())) {
+            encoder.getMetadata().getAttributes().remove(attr.getKey());
+          } else {
+            encoder.getMetadata().putToAttributes(attr.getKey(), attr.getValue());
+          }
+        }
+      }
+    }
+
+    if (!ignored) {
+      long pessimisticSize = encoder.getPessimisticSize();
+      encoder.addValue(timestamp, location, elevation, value);
+
+      //
+      // Do a final check to see if the new data point added more than maxValueSize + 30 bytes (2 header + 8 ts + 8 loc + 8 elev + 4 STRING size) to the encoder
+      //
+
+      if (Long.MAX_VALUE != maxValueSize && encoder.getPessimisticSize() - pessimisticSize > maxValueSize + 30) {
+        throw new ParseException("Value too large for GTS " + GTSHelper.buildSelector(encoder.getMetadata(), false), idx - start);
+      }
+    } else {
+      ignoredCount.addAndGet(1);
+    }
+
+    // Check labels/attributes sizes, subtract 6 to account for '// {} '
+    if (idx - start - 6 > MetadataUtils.SIZE_THRESHOLD && !MetadataUtils.validateMetadata(encoder.getMetadata())) {
+      throw new ParseException("Invalid or too large metadata", 0);
+    }
+
+    return encoder;
+  }
+
+  /**
+   * Parse the value spanning [from,to[, handling LONG, short decimal and BOOLEAN values
+   * directly and delegating the other types to GTSHelper#parseValue
+   */
+  private Object parseValue(int from, int to) throws ParseException {
+    byte[] buf = this.buf;
+    byte first = buf[from];
+    int len = to - from;
+
+    if (('0' <= first && first <= '9') || '+' == first || '-' == first || '.' == first) {
+      int i = from;
+      boolean negative = false;
+
+      if ('+' == first || '-' == first) {
+        negative = '-' == first;
+        i++;
+      }
+
+      int digits = 0;
+      int dot = -1;
+      long unscaled = 0L;
+
+      for (; i < to; i++) {
+        byte b = buf[i];
+        if ('0' <= b && b <= '9') {
+          digits++;
+          if (digits > 18) {
+            break;
+          }
+          unscaled = unscaled * 10L + (b - '0');
+        } else if ('.' == b && -1 == dot) {
+          dot = i;
+        } else {
+          break;
+        }
+      }
+
+      if (i == to && digits > 0) {
+        if (-1 == dot) {
+          // Same value as Long.parseLong for at most 18 digits
+          return negative ? -unscaled : unscaled;
+        } else if (len <= 15) {
+          // Same value as new BigDecimal(String) for a plain decimal number
+          return BigDecimal.valueOf(negative ? -unscaled : unscaled, to - dot - 1);
+        }
+      }
+    } else if (1 == len) {
+      if ('t' == first || 'T' == first) {
+        return Boolean.TRUE;
+      } else if ('f' == first || 'F' == first) {
+        return Boolean.FALSE;
+      }
+    } else if (4 == len && equalsIgnoreCase(from, to, "true")) {
+      return Boolean.TRUE;
+    } else if (5 == len && equalsIgnoreCase(from, to, "false")) {
+      return Boolean.FALSE;
+    }
+
+    try {
+      return GTSHelper.parseValue(decode(from, to));
+    } catch (ParseException pe) {
+      // Copy ParseException and shift error offset.
+      ParseException newpe = new ParseException(pe.getMessage(), from - this.start + pe.getErrorOffset());
+      newpe.initCause(pe.getCause());
+      throw newpe;
+    }
+  }
+
+  /**
+   * Parse a long spanning [from,to[ of the buffer with the semantics of Long#parseLong
+   */
+  private long parseLong(int from, int to) {
+    int i = from;
+    boolean negative = false;
+
+    if (i < to && ('-' == this.buf[i] || '+' == this.buf[i])) {
+      negative = '-' == this.buf[i];
+      i++;
+    }
+
+    // Let Long.parseLong handle the errors and the values which could overflow
+    if (i == to || to - i > 18) {
+      return Long.parseLong(decode(from, to));
+    }
+
+    long value = 0L;
+
+    for (; i < to; i++) {
+      int digit = this.buf[i] - '0';
+      if (digit < 0 || digit > 9) {
+        return Long.parseLong(decode(from, to));
+      }
+      value = value * 10L + digit;
+    }
+
+    return negative ? -value : value;
+  }
+
+  /**
+   * Parse a double spanning [from,to[ of the buffer with the semantics of Double#parseDouble.
+   *
+   * Plain decimal numbers with at most 15 digits are computed by dividing their digits, which are
+   * exactly representable, by an exactly representable power of ten, the result is therefore
+   * correctly rounded like the one of Double#parseDouble. Other numbers are handed to Double#parseDouble.
+   */
+  private double parseDouble(int from, int to) {
+    int i = from;
+    boolean negative = false;
+
+    if (i < to && ('-' == this.buf[i] || '+' == this.buf[i])) {
+      negative = '-' == this.buf[i];
+      i++;
+    }
+
+    long mantissa = 0L;
+    int digits = 0;
+    int scale = 0;
+    boolean dot = false;
+
+    for (; i < to; i++) {
+      byte b = this.buf[i];
+      if ('0' <= b && b <= '9') {
+        if (++digits > 15) {
+          return Double.parseDouble(decode(from, to));
+        }
+        mantissa = mantissa * 10L + (b - '0');
+        if (dot) {
+          scale++;
+        }
+      } else if ('.' == b && !dot) {
+        dot = true;
+      } else {
+        return Double.parseDouble(decode(from, to));
+      }
+    }
+
+    if (0 == digits) {
+      return Double.parseDouble(decode(from, to));
+    }
+
+    double d = (double) mantissa / POWERS_OF_TEN[scale];
+
+    return negative ? -d : d;
+  }
+
+  private boolean equalsIgnoreCase(int from, int to, String ascii) {
+    for (int i = from; i < to; i++) {
+      int b = this.buf[i];
+      // Lower case ASCII letters
+      if ('A' <= b && b <= 'Z') {
+        b += 'a' - 'A';
+      }
+      if (b != ascii.charAt(i - from)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private int indexOf(char c, int from) {
+    return indexOf(c, from, this.end);
+  }
+
+  private int indexOf(char c, int from, int to) {
+    byte[] buf = this.buf;
+    for (int i = from; i < to; i++) {
+      if (c == buf[i]) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private String decode(int from, int to) {
+    return new String(this.buf, from, to - from, this.charset);
+  }
+
+  private boolean isLastKey(int from, int to) {
+    int len = to - from;
+
+    if (len != this.lastKeyLength) {
+      return false;
+    }
+
+    byte[] buf = this.buf;
+    byte[] key = this.lastKey;
+
+    for (int i = 0; i < len; i++) {
+      if (key[i] != buf[from + i]) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  private void setLastKey(int from, int to) {
+    int len = to - from;
+
+    if (len > this.lastKey.length) {
+      this.lastKey = new byte[Math.max(len, this.lastKey.length << 1)];
+    }
+
+    System.arraycopy(this.buf, from, this.lastKey, 0, len);
+    this.lastKeyLength = len;
+  }
+}
@@ -0,0 +1,144 @@
+//
+//   Copyright 2024  SenX S.A.S.
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.continuum.gts;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * Unsynchronized ByteArrayOutputStream whose byte arrays are borrowed from a per thread pool.
+ *
+ * The array is returned to the pool of the releasing thread by 'release', after which the
+ * stream is empty and allocates a new array if it is written to again.
+ */
+final class PooledByteArrayOutputStream extends ByteArrayOutputStream {
+
+  /**
+   * Maximum number of arrays kept in the pool of each thread
+   */
+  private static final int POOL_SIZE = 8;
+
+  /**
+   * Arrays larger than this are not returned to the pool
+   */
+  private static final int MAX_POOLED_LENGTH = 1 << 20;
+
+  private static final int MIN_LENGTH = 256;
+
+  private static final byte[] EMPTY = new byte[0];
+
+  private static final ThreadLocal<ArrayDeque<byte[]>> pool = new ThreadLocal<ArrayDeque<byte[]>>() {
+    @Override
+    protected ArrayDeque<byte[]> initialValue() {
+      return new ArrayDeque<byte[]>(POOL_SIZE);
+    }
+  };
+
+  PooledByteArrayOutputStream(int size) {
+    super(0);
+    this.buf = borrow(size);
+  }
+
+  private static byte[] borrow(int size) {
+    byte[] array = pool.get().pollFirst();
+
+    if (null == array || array.length < size) {
+      array = new byte[Math.max(size, MIN_LENGTH)];
+    }
+
+    return array;
+  }
+
+  /**
+   * Return the array backing the stream.
+   */
+  byte[] array() {
+    return this.buf;
+  }
+
+  /**
+   * Return the array of the stream to the pool, the content of the stream is discarded.
+   */
+  void release() {
+    if (this.buf.length > 0 && this.buf.length <= MAX_POOLED_LENGTH) {
+      ArrayDeque<byte[]> arrays = pool.get();
+      if (arrays.size() < POOL_SIZE) {
+        arrays.addFirst(this.buf);
+      }
+    }
+
+    this.buf = EMPTY;
+    this.count = 0;
+  }
+
+  private void ensureCapacity(int capacity) {
+    if (capacity < 0) {
+      throw new OutOfMemoryError();
+    }
+
+    if (capacity > this.buf.length) {
+      int length = this.buf.length << 1;
+
+      // Also covers the overflow of the doubled length
+      if (length < capacity) {
+        length = Math.max(capacity, MIN_LENGTH);
+      }
+
+      this.buf = Arrays.copyOf(this.buf, length);
+    }
+  }
+
+  @Override
+  public void write(int b) {
+    ensureCapacity(this.count + 1);
+    this.buf[this.count++] = (byte) b;
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) {
+    if (off < 0 || len < 0 || off > b.length - len) {
+      throw new IndexOutOfBoundsException();
+    }
+
+    ensureCapacity(this.count + len);
+    System.arraycopy(b, off, this.buf, this.count, len);
+    this.count += len;
+  }
+
+  @Override
+  public void writeTo(OutputStream out) throws IOException {
+    out.write(this.buf, 0, this.count);
+  }
+
+  @Override
+  public void reset() {
+    this.count = 0;
+  }
+
+  @Override
+  public byte[] toByteArray() {
+    return Arrays.copyOf(this.buf, this.count);
+  }
+
+  @Override
+  public int size() {
+    return this.count;
+  }
+}
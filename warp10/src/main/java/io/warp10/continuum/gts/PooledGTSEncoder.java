@@ -0,0 +1,61 @@
+//
+//   Copyright 2024  SenX S.A.S.
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.continuum.gts;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * GTSEncoder for single threaded use. Values are added without synchronization and encoded in a
+ * byte array borrowed from a pool attached to the current thread.
+ *
+ * Decoders returned by 'getUnsafeDecoder' share this byte array instead of copying it. The array is
+ * returned to the pool by 'close', neither the encoder nor such decoders may be used afterwards.
+ * Flushing or resizing the encoder also returns the array it replaces, decoders sharing it may not
+ * be used afterwards either.
+ */
+public class PooledGTSEncoder extends GTSEncoder implements Closeable {
+
+  public PooledGTSEncoder(long baseTimestamp) {
+    this(baseTimestamp, null);
+  }
+
+  public PooledGTSEncoder(long baseTimestamp, byte[] key) {
+    super(baseTimestamp, key, new PooledByteArrayOutputStream(0));
+  }
+
+  @Override
+  public int addValue(long timestamp, long location, long elevation, Object value) throws IOException {
+    return addValueUnlocked(timestamp, location, elevation, value);
+  }
+
+  @Override
+  ByteArrayOutputStream newStream(int size) {
+    return new PooledByteArrayOutputStream(size);
+  }
+
+  @Override
+  void releaseStream(ByteArrayOutputStream stream) {
+    ((PooledByteArrayOutputStream) stream).release();
+  }
+
+  @Override
+  public void close() {
+    releaseStream(this.stream);
+  }
+}
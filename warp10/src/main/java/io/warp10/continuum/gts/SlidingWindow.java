@@ -0,0 +1,298 @@
+//
+//   Copyright 2024  SenX S.A.S.
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.continuum.gts;
+
+import io.warp10.continuum.gts.GeoTimeSerie.TYPE;
+import io.warp10.script.WarpScriptException;
+
+/**
+ * State of a mapper maintained incrementally over a window sliding on a sorted GTS.
+ *
+ * The window covers the indices [lo, hi[ of the GTS. When the window moves, values
+ * which left it are passed to 'remove' and values which entered it are passed to 'add'.
+ * When the window moves forward (non reversed MAP), indices are added and removed in
+ * increasing order, when it moves backward (reversed MAP), they are added and removed
+ * in decreasing order. In both cases the values are removed in the order they were added.
+ *
+ * Implementations must produce the exact same result as the 'apply' method of the mapper
+ * they were created by when called on the content of the window. Sums of doubles cannot
+ * be maintained exactly when values are removed, mappers relying on them must therefore
+ * not provide a window for DOUBLE GTS.
+ */
+public abstract class SlidingWindow {
+
+  private static final Object[] EMPTY_RESULT = new Object[] { Long.MAX_VALUE, GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, null };
+
+  /**
+   * Sorted GTS on which the window slides
+   */
+  private final GeoTimeSerie gts;
+
+  /**
+   * Flag indicating the window slides towards the oldest ticks
+   */
+  protected final boolean reversed;
+
+  /**
+   * First index (inclusive) of the window
+   */
+  private int lo;
+
+  /**
+   * Last index (exclusive) of the window
+   */
+  private int hi;
+
+  protected SlidingWindow(GeoTimeSerie gts, boolean reversed) {
+    this.gts = gts;
+    this.reversed = reversed;
+    this.lo = reversed ? gts.values : 0;
+    this.hi = this.lo;
+  }
+
+  /**
+   * Take into account the value at index 'idx' which entered the window
+   */
+  protected abstract void add(int idx) throws WarpScriptException;
+
+  /**
+   * Forget the value at index 'idx' which left the window
+   */
+  protected abstract void remove(int idx) throws WarpScriptException;
+
+  /**
+   * Compute the result of the mapper for the current, non empty, window.
+   *
+   * @param tick Tick for which the mapper is applied
+   * @return An array of tick, location, elevation and value as produced by WarpScriptMapperFunction#apply
+   */
+  protected abstract Object[] result(long tick) throws WarpScriptException;
+
+  /**
+   * Move the window so it covers the values with a tick in [start, stop].
+   *
+   * @return false if the window cannot reach the requested position by sliding in its direction
+   */
+  final boolean slide(long start, long stop) throws WarpScriptException {
+    int newlo = lowerBound(start);
+    int newhi = Math.max(newlo, upperBound(stop));
+
+    if (newlo == this.lo && newhi == this.hi) {
+      return true;
+    }
+
+    if (!this.reversed) {
+      if (newlo < this.lo || newhi < this.hi) {
+        return false;
+      }
+      for (int i = this.lo; i < Math.min(newlo, this.hi); i++) {
+        remove(i);
+      }
+      for (int i = Math.max(this.hi, newlo); i < newhi; i++) {
+        add(i);
+      }
+    } else {
+      if (newlo > this.lo || newhi > this.hi) {
+        return false;
+      }
+      for (int i = this.hi - 1; i >= Math.max(newhi, this.lo); i--) {
+        remove(i);
+      }
+      for (int i = Math.min(this.lo, newhi) - 1; i >= newlo; i--) {
+        add(i);
+      }
+    }
+
+    this.lo = newlo;
+    this.hi = newhi;
+
+    return true;
+  }
+
+  /**
+   * Return the result of the mapper for the current window
+   */
+  final Object[] get(long tick) throws WarpScriptException {
+    if (this.lo == this.hi) {
+      return EMPTY_RESULT.clone();
+    }
+    return result(tick);
+  }
+
+  /**
+   * Index of the first tick greater or equal to 'tick'
+   */
+  private int lowerBound(long tick) {
+    int low = 0;
+    int high = this.gts.values;
+    long[] ticks = this.gts.ticks;
+
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (ticks[mid] < tick) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+
+    return low;
+  }
+
+  /**
+   * Index of the first tick strictly greater than 'tick'
+   */
+  private int upperBound(long tick) {
+    int low = 0;
+    int high = this.gts.values;
+    long[] ticks = this.gts.ticks;
+
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (ticks[mid] <= tick) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+
+    return low;
+  }
+
+  /**
+   * @return The number of values in the window
+   */
+  protected final int size() {
+    return this.hi - this.lo;
+  }
+
+  /**
+   * @return The index of the oldest value of the window
+   */
+  protected final int firstIndex() {
+    return this.lo;
+  }
+
+  /**
+   * @return The index of the first occurrence of the most recent tick of the window
+   */
+  protected final int lastIndex() {
+    long[] ticks = this.gts.ticks;
+    int idx = this.hi - 1;
+    long last = ticks[idx];
+
+    while (idx > this.lo && last == ticks[idx - 1]) {
+      idx--;
+    }
+
+    return idx;
+  }
+
+  protected final TYPE type() {
+    return this.gts.type;
+  }
+
+  protected final long tick(int idx) {
+    return this.gts.ticks[idx];
+  }
+
+  protected final long location(int idx) {
+    return null == this.gts.locations ? GeoTimeSerie.NO_LOCATION : this.gts.locations[idx];
+  }
+
+  protected final long elevation(int idx) {
+    return null == this.gts.elevations ? GeoTimeSerie.NO_ELEVATION : this.gts.elevations[idx];
+  }
+
+  /**
+   * Value at 'idx' of a LONG GTS
+   */
+  protected final long longValue(int idx) {
+    return this.gts.longValues[idx];
+  }
+
+  /**
+   * Value at 'idx' of a LONG or DOUBLE GTS, as a double
+   */
+  protected final double doubleValue(int idx) {
+    return TYPE.LONG == this.gts.type ? (double) this.gts.longValues[idx] : this.gts.doubleValues[idx];
+  }
+
+  protected final Object value(int idx) {
+    return GTSHelper.valueAtIndex(this.gts, idx);
+  }
+
+  /**
+   * Index of the extremum value of a window, maintained with a monotonic queue.
+   * Ties are resolved in favor of the lowest index, as done by the Min and Max aggregators.
+   */
+  public abstract static class Extremum extends SlidingWindow {
+
+    /**
+     * Candidate indices, in the order they were added. Since each index is added at most
+     * once during the life of the window, no wrap around is needed.
+     */
+    private final int[] queue;
+    private int head = 0;
+    private int tail = 0;
+
+    protected Extremum(GeoTimeSerie gts, boolean reversed) {
+      super(gts, reversed);
+      this.queue = new int[gts.values];
+    }
+
+    /**
+     * Compare the values at two indices
+     *
+     * @return a negative integer, zero or a positive integer as the value at 'idx1' is better than, as good as or worse than the value at 'idx2'
+     */
+    protected abstract int compare(int idx1, int idx2);
+
+    @Override
+    protected final void add(int idx) {
+      //
+      // Discard the candidates which can no longer be the extremum.
+      // When moving forward the candidates have a lower index than 'idx' and therefore win ties,
+      // when moving backward 'idx' wins the ties.
+      //
+
+      while (this.tail > this.head) {
+        int cmp = compare(this.queue[this.tail - 1], idx);
+        if (cmp > 0 || (this.reversed && 0 == cmp)) {
+          this.tail--;
+        } else {
+          break;
+        }
+      }
+      this.queue[this.tail++] = idx;
+    }
+
+    @Override
+    protected final void remove(int idx) {
+      if (this.tail > this.head && idx == this.queue[this.head]) {
+        this.head++;
+      }
+    }
+
+    /**
+     * @return The index of the extremum of the window
+     */
+    protected final int extremum() {
+      return this.queue[this.head];
+    }
+  }
+}
@@ -0,0 +1,146 @@
+//
+//   Copyright 2024  SenX S.A.S.
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.continuum.gts;
+
+import java.util.List;
+
+/**
+ * Binary min heap of the positions of sorted GTS instances in a list, ordered by the tick
+ * at their current index. This is used to merge the ticks of many GTS instances.
+ *
+ * The current indices are maintained by the caller, a GTS must be removed from the heap
+ * before its index is advanced and added back afterwards.
+ */
+class TicksHeap {
+
+  private final GeoTimeSerie[] series;
+
+  /**
+   * Current index of each GTS
+   */
+  private final int[] idx;
+
+  /**
+   * Positions of the GTS in the heap
+   */
+  private final int[] heap;
+
+  /**
+   * Ticks of the GTS in the heap, at their current index
+   */
+  private final long[] ticks;
+
+  private int size = 0;
+
+  /**
+   * @param series Sorted GTS instances to merge.
+   * @param idx Current index of each GTS, only GTS whose index is before their last value are added to the heap.
+   */
+  TicksHeap(List<GeoTimeSerie> series, int[] idx) {
+    this.series = series.toArray(new GeoTimeSerie[series.size()]);
+    this.idx = idx;
+    this.heap = new int[this.series.length];
+    this.ticks = new long[this.series.length];
+
+    for (int i = 0; i < this.series.length; i++) {
+      add(i);
+    }
+  }
+
+  boolean isEmpty() {
+    return 0 == size;
+  }
+
+  /**
+   * Return the smallest tick of the GTS in the heap.
+   */
+  long peek() {
+    return ticks[0];
+  }
+
+  /**
+   * Remove the GTS with the smallest tick from the heap.
+   *
+   * @return The position of the removed GTS.
+   */
+  int poll() {
+    int top = heap[0];
+
+    size--;
+
+    if (size > 0) {
+      siftDown(heap[size], ticks[size]);
+    }
+
+    return top;
+  }
+
+  /**
+   * Add a GTS to the heap if it has a value at its current index.
+   *
+   * @param i Position of the GTS.
+   */
+  void add(int i) {
+    GeoTimeSerie gts = series[i];
+
+    if (idx[i] >= gts.values) {
+      return;
+    }
+
+    long tick = gts.ticks[idx[i]];
+
+    int k = size++;
+
+    while (k > 0) {
+      int parent = (k - 1) >>> 1;
+      if (ticks[parent] <= tick) {
+        break;
+      }
+      heap[k] = heap[parent];
+      ticks[k] = ticks[parent];
+      k = parent;
+    }
+
+    heap[k] = i;
+    ticks[k] = tick;
+  }
+
+  private void siftDown(int i, long tick) {
+    int k = 0;
+    int half = size >>> 1;
+
+    while (k < half) {
+      int child = 2 * k + 1;
+      int right = child + 1;
+
+      if (right < size && ticks[right] < ticks[child]) {
+        child = right;
+      }
+
+      if (tick <= ticks[child]) {
+        break;
+      }
+
+      heap[k] = heap[child];
+      ticks[k] = ticks[child];
+      k = child;
+    }
+
+    heap[k] = i;
+    ticks[k] = tick;
+  }
+}
@@ -30,6 +30,7 @@ import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.math.BigInteger;
 import java.net.URLEncoder;
+import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.text.ParseException;
 import java.util.ArrayList;
@@ -106,6 +107,7 @@ import io.warp10.continuum.egress.EgressFetchHandler;
 import io.warp10.continuum.egress.ThriftDirectoryClient;
 import io.warp10.continuum.gts.GTSEncoder;
 import io.warp10.continuum.gts.GTSHelper;
+import io.warp10.continuum.gts.GTSLineParser;
 import io.warp10.continuum.sensision.SensisionConstants;
 import io.warp10.continuum.store.Constants;
 import io.warp10.continuum.store.DirectoryClient;
@@ -849,13 +851,15 @@ public class Ingress extends AbstractHandler implements Runnable {
           gzipped = true;
         }
 
-        BufferedReader br = null;
+        GTSLineParser parser = null;
 
         if (gzipped) {
           GZIPInputStream is = new GZIPInputStream(request.getInputStream());
-          br = new BufferedReader(new InputStreamReader(is));
+          parser = new GTSLineParser(is, Charset.defaultCharset(), false);
         } else {
-          br = request.getReader();
+          // Use the charset request.getReader() would use
+          Charset charset = null != request.getCharacterEncoding() ? Charset.forName(request.getCharacterEncoding()) : StandardCharsets.ISO_8859_1;
+          parser = new GTSLineParser(request.getInputStream(), charset, false);
         }
 
         Long now = TimeSource.getTime();
@@ -1046,25 +1050,15 @@ public class Ingress extends AbstractHandler implements Runnable {
             hadAttributes.set(false);
           }
 
-          String line = br.readLine();
-
-          if (null == line) {
+          // Empty lines and lines which start with '#' are skipped
+          if (!parser.next()) {
             break;
           }
 
-          if ("".equals(line)) {
-            continue;
-          }
-
-          // Skip lines which start with '#'
-          if ('#' == line.charAt(0)) {
-            continue;
-          }
-
           try {
-            encoder = GTSHelper.parse(lastencoder, line, extraLabels, now, maxsize, hadAttributes, maxpast, maxfuture, ignoredCount, deltaAttributes, timeshift);
+            encoder = parser.parse(lastencoder, extraLabels, now, maxsize, hadAttributes, maxpast, maxfuture, ignoredCount, deltaAttributes, timeshift);
             if (null != this.plugin) {
-              if (!this.plugin.update(this, writeToken, line, encoder)) {
+              if (!this.plugin.update(this, writeToken, parser.line(), encoder)) {
                 hadAttributes.set(false);
                 continue;
               }
@@ -1073,7 +1067,7 @@ public class Ingress extends AbstractHandler implements Runnable {
           } catch (ParseException pe) {
             Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_INGRESS_UPDATE_PARSEERRORS, sensisionLabels, 1);
             httpStatusCode = HttpServletResponse.SC_BAD_REQUEST;
-            throw new IOException("Parse error at index " + pe.getErrorOffset() + " in '" + line + "'", pe);
+            throw new IOException("Parse error at index " + pe.getErrorOffset() + " in '" + parser.line() + "'", pe);
           }
 
           if (encoder != lastencoder || dms.get() + 16 + lastencoder.size() > DATA_MESSAGES_THRESHOLD || FDBUtils.hasCriticalTransactionSize(lastencoder, maxValueSize)) {
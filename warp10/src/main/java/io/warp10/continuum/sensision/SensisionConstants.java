@@ -989,6 +989,31 @@ public class SensisionConstants {
    */
   public static final String SENSISION_CLASS_CONTINUUM_STANDALONE_INMEMORY_GC_DATAPOINTS = "warp.standalone.inmemory.gc.datapoints";
 
+  /**
+   * Number of runs of the LevelDB data blocks compactor
+   */
+  public static final String SENSISION_CLASS_CONTINUUM_STANDALONE_BLOCKS_RUNS = "warp.standalone.blocks.runs";
+
+  /**
+   * Time spent compacting LevelDB data blocks, in ns
+   */
+  public static final String SENSISION_CLASS_CONTINUUM_STANDALONE_BLOCKS_TIME_NANOS = "warp.standalone.blocks.time.nanos";
+
+  /**
+   * Number of datapoints written in LevelDB data blocks
+   */
+  public static final String SENSISION_CLASS_CONTINUUM_STANDALONE_BLOCKS_DATAPOINTS = "warp.standalone.blocks.datapoints";
+
+  /**
+   * Number of rows and data blocks replaced by the LevelDB data blocks compactor
+   */
+  public static final String SENSISION_CLASS_CONTINUUM_STANDALONE_BLOCKS_REPLACED = "warp.standalone.blocks.replaced";
+
+  /**
+   * Number of LevelDB data blocks written
+   */
+  public static final String SENSISION_CLASS_CONTINUUM_STANDALONE_BLOCKS_WRITTEN = "warp.standalone.blocks.written";
+
   /**
    * Number of cached estimators for GTS uniqueness estimation
    */
@@ -1273,6 +1298,21 @@ public class SensisionConstants {
    */
   public static final String SENSISION_CLASS_CONTINUUM_RUNNER_KAFKA_PRODUCER_WAIT_NANOS = "warp.runner.kafka.producer.wait.nanos";
 
+  /**
+   * Number of datagrams received by the UDP plugin in batch mode
+   */
+  public static final String SENSISION_CLASS_PLUGIN_UDP_PACKETS = "warp.plugin.udp.packets";
+
+  /**
+   * Number of batches of datagrams queued by the UDP plugin
+   */
+  public static final String SENSISION_CLASS_PLUGIN_UDP_BATCHES = "warp.plugin.udp.batches";
+
+  /**
+   * Number of datagrams dropped by the UDP plugin because its queues were full
+   */
+  public static final String SENSISION_CLASS_PLUGIN_UDP_DROPPED = "warp.plugin.udp.dropped";
+
   //
   // Labels
   //
@@ -1372,6 +1412,11 @@ public class SensisionConstants {
    */
   public static final String SENSISION_LABEL_FORWARDER = "forwarder";
 
+  /**
+   * Port on which a plugin listens
+   */
+  public static final String SENSISION_LABEL_PORT = "port";
+
   //
   // TTLs (in ms)
   //
@@ -21,6 +21,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.RejectedExecutionException;
@@ -74,6 +75,16 @@ public class ParallelGTSDecoderIteratorWrapper extends GTSDecoderIterator {
     private Thread thread = null;
     private final long creation;
 
+    /**
+     * Set by whoever iterates over 'iterator', either this runnable or the consumer
+     */
+    private final AtomicBoolean claimed = new AtomicBoolean(false);
+
+    /**
+     * Set once the runnable will no longer put decoders in the queue
+     */
+    private volatile boolean finished = false;
+
     private static volatile boolean foo = false;
 
     public GTSDecoderIteratorRunnable(GTSDecoderIterator iterator, LinkedBlockingQueue<GTSDecoder> queue, Semaphore sem, AtomicInteger pendingCounter, AtomicInteger inflightCounter, AtomicBoolean errorFlag, AtomicReference<Throwable> errorThrowable) {
@@ -90,6 +101,15 @@ public class ParallelGTSDecoderIteratorWrapper extends GTSDecoderIterator {
     @Override
     public void run() {
 
+      //
+      // The consumer may have decided to iterate over the decoders itself or closed the iterator
+      //
+
+      if (!this.claimed.compareAndSet(false, true)) {
+        this.pendingCounter.addAndGet(-1);
+        return;
+      }
+
       long waitnanos = System.nanoTime() - this.creation;
 
       if (standalone && !FDBBackend) {
@@ -207,6 +227,8 @@ public class ParallelGTSDecoderIteratorWrapper extends GTSDecoderIterator {
 
         this.thread = null;
 
+        this.finished = true;
+
         // Inflight decrement MUST be done last because close can be called just after this call.
         // This can result in another GTSDecoderIteratorRunnable being interrupted because it uses the same thread.
         this.inflightCounter.addAndGet(-1);
@@ -278,6 +300,21 @@ public class ParallelGTSDecoderIteratorWrapper extends GTSDecoderIterator {
 
   private final LinkedBlockingQueue<GTSDecoder> queue;
 
+  /**
+   * Set when the decoders must be returned in the order of the runnables, each runnable then has its own queue
+   */
+  private final boolean ordered;
+
+  /**
+   * Index of the runnable whose decoders are being returned when ordered
+   */
+  private int current = 0;
+
+  /**
+   * Iterator of the current runnable when it is consumed directly by the caller
+   */
+  private GTSDecoderIterator direct = null;
+
   private int idx = 0;
 
   private static final int MIN_GTS_PERSCANNER;
@@ -293,6 +330,7 @@ public class ParallelGTSDecoderIteratorWrapper extends GTSDecoderIterator {
     //
 
     this.queue = new LinkedBlockingQueue<GTSDecoder>(MAX_INFLIGHT * 4);
+    this.ordered = false;
 
     //
     // Split the Metadata list in chunks which will be retrieved separately
@@ -373,6 +411,7 @@ public class ParallelGTSDecoderIteratorWrapper extends GTSDecoderIterator {
     //
 
     this.queue = new LinkedBlockingQueue<GTSDecoder>(MAX_INFLIGHT * 4);
+    this.ordered = false;
 
     //
     // Split the Metadata list in chunks which will be retrieved separately
@@ -430,6 +469,33 @@ public class ParallelGTSDecoderIteratorWrapper extends GTSDecoderIterator {
     this.pending.set(runnables.size());
   }
 
+  /**
+   * Fetch the results of several requests in parallel and return their decoders in the order of the requests.
+   * This is used when the time range of GTS was split in several requests, so the decoders of the
+   * successive ranges of a GTS are concatenated in order.
+   */
+  public ParallelGTSDecoderIteratorWrapper(StoreClient client, List<FetchRequest> requests) throws IOException {
+    if (!standalone || FDBBackend) {
+      throw new IOException("Incompatible parallel scanner instantiated.");
+    }
+
+    this.queue = null;
+    this.ordered = true;
+
+    for (FetchRequest req: requests) {
+      //
+      // Each request has its own queue and semaphore. A runnable holding the permits of a shared semaphore
+      // while blocked on its full queue would otherwise prevent the runnable being consumed from making progress.
+      //
+
+      LinkedBlockingQueue<GTSDecoder> q = new LinkedBlockingQueue<GTSDecoder>(MAX_INFLIGHT * 4);
+      GTSDecoderIteratorRunnable runnable = new GTSDecoderIteratorRunnable(client.fetch(req), q, new Semaphore(POOLSIZE, true), this.pending, this.inflight, this.errorFlag, this.errorThrowable);
+      runnables.add(runnable);
+    }
+
+    this.pending.set(runnables.size());
+  }
+
   public static int getMinGTSPerScanner() {
     return MIN_GTS_PERSCANNER;
   }
@@ -443,11 +509,30 @@ public class ParallelGTSDecoderIteratorWrapper extends GTSDecoderIterator {
     for (int i = runnables.size() - 1; i >= 0; i--) {
       runnables.get(i).close();
     }
+
+    if (null != this.direct) {
+      this.direct.close();
+      this.direct = null;
+    }
+
+    //
+    // Close the iterators of the runnables which will never run
+    //
+
+    for (GTSDecoderIteratorRunnable runnable: runnables) {
+      if (runnable.claimed.compareAndSet(false, true)) {
+        try { runnable.iterator.close(); } catch (Exception e) {}
+      }
+    }
   }
 
   @Override
   public boolean hasNext() {
 
+    if (this.ordered) {
+      return hasNextOrdered();
+    }
+
     //
     // Wait until the queue has something to offer or there are no more runnables to
     // run or running.
@@ -468,6 +553,18 @@ public class ParallelGTSDecoderIteratorWrapper extends GTSDecoderIterator {
   @Override
   public GTSDecoder next() {
 
+    if (this.ordered) {
+      if (!hasNextOrdered()) {
+        throw new NoSuchElementException();
+      }
+
+      if (null != this.direct) {
+        return this.direct.next();
+      }
+
+      return runnables.get(this.current).queue.poll();
+    }
+
     if (this.errorFlag.get()) {
       throw new RuntimeException("Error in an underlying parallel scanner.", (Throwable) this.errorThrowable.get());
     }
@@ -479,6 +576,53 @@ public class ParallelGTSDecoderIteratorWrapper extends GTSDecoderIterator {
     }
   }
 
+  private boolean hasNextOrdered() {
+    while (this.current < runnables.size()) {
+      if (this.errorFlag.get()) {
+        throw new RuntimeException("Error in an underlying parallel scanner.", (Throwable) this.errorThrowable.get());
+      }
+
+      if (null != this.direct) {
+        if (this.direct.hasNext()) {
+          return true;
+        }
+        try { this.direct.close(); } catch (Exception e) {}
+        this.direct = null;
+        this.current++;
+        continue;
+      }
+
+      GTSDecoderIteratorRunnable runnable = runnables.get(this.current);
+
+      // Check 'finished' before the queue as it is set after the last decoder was put
+      boolean finished = runnable.finished;
+
+      if (!runnable.queue.isEmpty()) {
+        return true;
+      }
+
+      if (finished) {
+        this.current++;
+        continue;
+      }
+
+      //
+      // If the runnable has not started yet, iterate over its decoders from this thread, the executor
+      // could otherwise be busy with runnables waiting for their queues to be consumed.
+      //
+
+      if (runnable.claimed.compareAndSet(false, true)) {
+        this.direct = runnable.iterator;
+        continue;
+      }
+
+      schedule();
+      LockSupport.parkNanos(500000L);
+    }
+
+    return false;
+  }
+
   /**
    * Attempt to schedule one of the runnables
    */
@@ -496,6 +640,15 @@ public class ParallelGTSDecoderIteratorWrapper extends GTSDecoderIterator {
       return;
     }
 
+    //
+    // Skip the runnables consumed directly by the caller
+    //
+
+    while (idx < runnables.size() && runnables.get(idx).claimed.get()) {
+      idx++;
+      this.pending.addAndGet(-1);
+    }
+
     if (idx >= runnables.size()) {
       return;
     }
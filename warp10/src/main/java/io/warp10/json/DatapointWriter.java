@@ -0,0 +1,190 @@
+//
+//   Copyright 2024  SenX S.A.S.
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.json;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.StreamWriteFeature;
+import com.fasterxml.jackson.core.io.NumberOutput;
+import com.geoxp.GeoXPLib;
+import io.warp10.continuum.gts.GeoTimeSerie;
+
+import java.io.IOException;
+
+/**
+ * Writes the datapoints of a GTS values array as raw JSON, formatting the ticks, locations, elevations
+ * and LONG, DOUBLE and BOOLEAN values directly in a per thread buffer which is passed to the generator
+ * in large chunks, instead of issuing several generator calls per datapoint.
+ *
+ * The output is identical to the one produced by the generator. The generator still enforces the
+ * size limit of the underlying writer. Datapoints which cannot be written raw (STRING values, non finite
+ * DOUBLE values) must be written using the generator after a call to beforeValue.
+ */
+class DatapointWriter {
+
+  /**
+   * Size of the per thread buffers, large enough for several datapoints
+   */
+  private static final int BUFFER_SIZE = 8192;
+
+  /**
+   * Maximum length of a datapoint with numeric or boolean value
+   */
+  private static final int MAX_DATAPOINT_LENGTH = 128;
+
+  private static final ThreadLocal<char[]> buffers = new ThreadLocal<char[]>() {
+    @Override
+    protected char[] initialValue() {
+      return new char[BUFFER_SIZE];
+    }
+  };
+
+  private static final char[] TRUE = "true".toCharArray();
+  private static final char[] FALSE = "false".toCharArray();
+
+  private final JsonGenerator gen;
+  private final boolean fastDoubles;
+  private final char[] buf;
+
+  private int len = 0;
+
+  /**
+   * Flag indicating that a value was written in the current array through the generator, so it knows it
+   * needs a separator before the next value it writes itself.
+   */
+  private boolean counted = false;
+
+  /**
+   * Flag indicating that a separator is needed before the next datapoint
+   */
+  private boolean separator = false;
+
+  DatapointWriter(JsonGenerator gen) {
+    this.gen = gen;
+    this.fastDoubles = gen.isEnabled(StreamWriteFeature.USE_FAST_DOUBLE_WRITER);
+    this.buf = buffers.get();
+  }
+
+  /**
+   * Check whether datapoints can be written raw by a generator, pretty printed output goes through the generator.
+   */
+  static boolean isSupported(JsonGenerator gen) {
+    return null == gen.getPrettyPrinter();
+  }
+
+  void write(long tick, long location, long elevation, long value) throws IOException {
+    start(tick, location, elevation);
+    len = NumberOutput.outputLong(value, buf, len);
+    buf[len++] = ']';
+  }
+
+  /**
+   * @return false if the value is not finite and was not written.
+   */
+  boolean write(long tick, long location, long elevation, double value) throws IOException {
+    if (Double.isNaN(value) || Double.isInfinite(value)) {
+      return false;
+    }
+    start(tick, location, elevation);
+    writeDouble(value);
+    buf[len++] = ']';
+    return true;
+  }
+
+  void write(long tick, long location, long elevation, boolean value) throws IOException {
+    start(tick, location, elevation);
+    char[] chars = value ? TRUE : FALSE;
+    System.arraycopy(chars, 0, buf, len, chars.length);
+    len += chars.length;
+    buf[len++] = ']';
+  }
+
+  /**
+   * Must be called before the generator is used to write a datapoint.
+   */
+  void beforeValue() throws IOException {
+    flush();
+    counted = true;
+    separator = true;
+  }
+
+  /**
+   * Pass the buffered datapoints to the generator, must be called before the values array is closed.
+   */
+  void flush() throws IOException {
+    if (0 == len) {
+      return;
+    }
+
+    if (counted) {
+      gen.writeRaw(buf, 0, len);
+    } else {
+      // Let the generator emit the separator needed before the values array if any
+      gen.writeRawValue(buf, 0, len);
+      counted = true;
+    }
+
+    len = 0;
+  }
+
+  private void start(long tick, long location, long elevation) throws IOException {
+    if (len > BUFFER_SIZE - MAX_DATAPOINT_LENGTH) {
+      flush();
+    }
+
+    if (separator) {
+      buf[len++] = ',';
+    }
+    separator = true;
+
+    buf[len++] = '[';
+    len = NumberOutput.outputLong(tick, buf, len);
+    buf[len++] = ',';
+
+    if (GeoTimeSerie.NO_LOCATION != location) {
+      double[] latlon = GeoXPLib.fromGeoXPPoint(location);
+      writeDouble(latlon[0]);
+      buf[len++] = ',';
+      writeDouble(latlon[1]);
+      buf[len++] = ',';
+    }
+
+    if (GeoTimeSerie.NO_ELEVATION != elevation) {
+      len = NumberOutput.outputLong(elevation, buf, len);
+      buf[len++] = ',';
+    }
+  }
+
+  /**
+   * Write a finite double like the generator does. Integral values with a magnitude below 10^7, whose
+   * representation is the integer followed by '.0', are formatted without allocating.
+   */
+  private void writeDouble(double value) {
+    if (value >= 1.0D && value < 1.0E7D || value <= -1.0D && value > -1.0E7D || 0L == Double.doubleToRawLongBits(value)) {
+      long l = (long) value;
+      if (l == value) {
+        len = NumberOutput.outputLong(l, buf, len);
+        buf[len++] = '.';
+        buf[len++] = '0';
+        return;
+      }
+    }
+
+    String s = NumberOutput.toString(value, fastDoubles);
+    s.getChars(0, s.length(), buf, len);
+    len += s.length();
+  }
+}
@@ -42,6 +42,8 @@ public class GTSEncoderSerializer extends StdSerializer<GTSEncoder> {
     gen.writeFieldName(GeoTimeSerieSerializer.FIELD_VALUES);
     gen.writeStartArray();
 
+    DatapointWriter writer = DatapointWriter.isSupported(gen) ? new DatapointWriter(gen) : null;
+
     GTSDecoder decoder = encoder.getUnsafeDecoder(false);
     while (decoder.next()) {
       long ts = decoder.getTimestamp();
@@ -50,6 +52,21 @@ public class GTSEncoderSerializer extends StdSerializer<GTSEncoder> {
       // We do not call getBinaryValue because JSON will also encode byte[] as IS0-8859-1
       Object v = decoder.getValue();
 
+      if (null != writer) {
+        if (v instanceof Long) {
+          writer.write(ts, location, elevation, (long) v);
+          continue;
+        } else if (v instanceof Double) {
+          if (writer.write(ts, location, elevation, (double) v)) {
+            continue;
+          }
+        } else if (v instanceof Boolean) {
+          writer.write(ts, location, elevation, (boolean) v);
+          continue;
+        }
+        writer.beforeValue();
+      }
+
       gen.writeStartArray();
       gen.writeNumber(ts);
       if (GeoTimeSerie.NO_LOCATION != location) {
@@ -76,6 +93,11 @@ public class GTSEncoderSerializer extends StdSerializer<GTSEncoder> {
 
       gen.writeEndArray();
     }
+
+    if (null != writer) {
+      writer.flush();
+    }
+
     gen.writeEndArray();
 
     gen.writeEndObject();
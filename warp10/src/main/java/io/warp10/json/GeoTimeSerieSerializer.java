@@ -43,10 +43,28 @@ public class GeoTimeSerieSerializer extends StdSerializer<GeoTimeSerie> {
     gen.writeFieldName(FIELD_VALUES);
     gen.writeStartArray(gts.size());
 
+    DatapointWriter writer = DatapointWriter.isSupported(gen) ? new DatapointWriter(gen) : null;
+
     for (int i = 0; i < gts.size(); i++) {
       long ts = GTSHelper.tickAtIndex(gts, i);
       long location = GTSHelper.locationAtIndex(gts, i);
       long elevation = GTSHelper.elevationAtIndex(gts, i);
+
+      if (null != writer) {
+        if (GeoTimeSerie.TYPE.LONG == gts.getType()) {
+          writer.write(ts, location, elevation, GTSHelper.longValueAtIndex(gts, i));
+          continue;
+        } else if (GeoTimeSerie.TYPE.DOUBLE == gts.getType()) {
+          if (writer.write(ts, location, elevation, GTSHelper.doubleValueAtIndex(gts, i))) {
+            continue;
+          }
+        } else if (GeoTimeSerie.TYPE.BOOLEAN == gts.getType()) {
+          writer.write(ts, location, elevation, GTSHelper.booleanValueAtIndex(gts, i));
+          continue;
+        }
+        writer.beforeValue();
+      }
+
       Object v = GTSHelper.valueAtIndex(gts, i);
 
       gen.writeStartArray();
@@ -80,6 +98,11 @@ public class GeoTimeSerieSerializer extends StdSerializer<GeoTimeSerie> {
       }
       gen.writeEndArray();
     }
+
+    if (null != writer) {
+      writer.flush();
+    }
+
     gen.writeEndArray();
 
     gen.writeEndObject();
@@ -181,6 +181,7 @@ public class JsonUtils {
     builder.enable(JsonWriteFeature.ESCAPE_NON_ASCII);
     builder.disable(JsonWriteFeature.WRITE_NUMBERS_AS_STRINGS);
     builder.disable(StreamWriteFeature.AUTO_CLOSE_TARGET);
+    builder.enable(StreamWriteFeature.USE_FAST_DOUBLE_WRITER);
 
     //
     // Configure strict mapper
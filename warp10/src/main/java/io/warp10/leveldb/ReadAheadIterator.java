@@ -0,0 +1,322 @@
+//
+//   Copyright 2024  SenX S.A.S.
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.leveldb;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.iq80.leveldb.DBException;
+import org.iq80.leveldb.DBIterator;
+
+import io.warp10.BytesUtils;
+import io.warp10.CustomThreadFactory;
+
+/**
+ * DBIterator reading the next rows in the background while the current ones are consumed.
+ *
+ * Once a row has been returned by next, the following rows are read in batches of 'batchsize' rows
+ * on a background thread, up to an optional limit key, so the disk reads overlap with the processing of the rows.
+ * Seeking discards the rows read in advance. The underlying iterator is never accessed by two threads at once.
+ */
+public class ReadAheadIterator implements DBIterator {
+
+  private final class ReadAhead implements Callable<List<Entry<byte[],byte[]>>> {
+    private final byte[] limit;
+
+    /**
+     * Flag set by the thread which owns the underlying iterator, either the read-ahead thread or the consumer
+     */
+    private final AtomicBoolean claimed = new AtomicBoolean(false);
+
+    private Future<List<Entry<byte[],byte[]>>> future;
+
+    private ReadAhead(byte[] limit) {
+      this.limit = limit;
+    }
+
+    /**
+     * Prevent the read-ahead from starting.
+     *
+     * @return true if it had not started, false if its result must be awaited
+     */
+    private boolean cancel() {
+      if (claimed.compareAndSet(false, true)) {
+        future.cancel(false);
+        return true;
+      }
+      return false;
+    }
+
+    @Override
+    public List<Entry<byte[],byte[]>> call() throws Exception {
+      if (!claimed.compareAndSet(false, true)) {
+        return null;
+      }
+
+      List<Entry<byte[],byte[]>> rows = new ArrayList<Entry<byte[],byte[]>>(batchsize);
+
+      while (rows.size() < batchsize && iter.hasNext()) {
+        // Stop before the first row past the limit so the underlying iterator is positioned on it
+        if (null != limit && BytesUtils.compareTo(iter.peekNext().getKey(), limit) > 0) {
+          break;
+        }
+        rows.add(iter.next());
+      }
+
+      return rows;
+    }
+  }
+
+  private final DBIterator iter;
+
+  /**
+   * Number of rows read by each read-ahead
+   */
+  private final int batchsize;
+
+  private final ExecutorService executor;
+
+  /**
+   * Key of the last row to read in advance, null to read up to the end of the DB
+   */
+  private byte[] limit = null;
+
+  /**
+   * Rows read in advance and not yet consumed
+   */
+  private List<Entry<byte[],byte[]>> rows = null;
+  private int idx = 0;
+
+  /**
+   * Read-ahead in progress, the underlying iterator must not be accessed until it is done
+   */
+  private ReadAhead pending = null;
+
+  public ReadAheadIterator(DBIterator iter, int batchsize, ExecutorService executor) {
+    if (batchsize < 1) {
+      throw new IllegalArgumentException("Read-ahead batch size must be positive.");
+    }
+    this.iter = iter;
+    this.batchsize = batchsize;
+    this.executor = executor;
+  }
+
+  /**
+   * Create an executor for the read-aheads, its idle threads are stopped after one minute.
+   */
+  public static ExecutorService executor(int poolsize) {
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(poolsize, poolsize, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new CustomThreadFactory("Warp LevelDB ReadAhead Thread"));
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+
+  /**
+   * Set the key of the last row to read in advance, this applies to the read-aheads started after the call.
+   */
+  public void setLimit(byte[] limit) {
+    this.limit = limit;
+  }
+
+  @Override
+  public boolean hasNext() {
+    return fill() || iter.hasNext();
+  }
+
+  @Override
+  public Entry<byte[], byte[]> next() {
+    if (fill()) {
+      return rows.get(idx++);
+    }
+
+    Entry<byte[], byte[]> entry = iter.next();
+
+    if (null == limit || BytesUtils.compareTo(entry.getKey(), limit) < 0) {
+      readAhead();
+    }
+
+    return entry;
+  }
+
+  @Override
+  public Entry<byte[], byte[]> peekNext() {
+    if (fill()) {
+      return rows.get(idx);
+    }
+    return iter.peekNext();
+  }
+
+  @Override
+  public boolean hasPrev() {
+    sync();
+    return iter.hasPrev();
+  }
+
+  @Override
+  public Entry<byte[], byte[]> peekPrev() {
+    sync();
+    return iter.peekPrev();
+  }
+
+  @Override
+  public Entry<byte[], byte[]> prev() {
+    sync();
+    return iter.prev();
+  }
+
+  @Override
+  public void seek(byte[] key) {
+    discard();
+    iter.seek(key);
+  }
+
+  @Override
+  public void seekToFirst() {
+    discard();
+    iter.seekToFirst();
+  }
+
+  @Override
+  public void seekToLast() {
+    discard();
+    iter.seekToLast();
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      discard();
+    } finally {
+      iter.close();
+    }
+  }
+
+  private void readAhead() {
+    if (null == pending) {
+      ReadAhead readahead = new ReadAhead(limit);
+      readahead.future = executor.submit(readahead);
+      pending = readahead;
+    }
+  }
+
+  /**
+   * Make sure rows read in advance are available, waiting for the pending read-ahead if needed.
+   *
+   * @return true if there are rows to consume, false if the underlying iterator is at the current position
+   */
+  private boolean fill() {
+    while (null == rows || idx >= rows.size()) {
+      rows = null;
+      idx = 0;
+
+      if (null == pending) {
+        return false;
+      }
+
+      ReadAhead readahead = pending;
+      pending = null;
+
+      // The read-ahead did not start yet, the rows will be read directly
+      if (readahead.cancel()) {
+        return false;
+      }
+
+      rows = await(readahead.future);
+
+      // A full batch means more rows may follow, read them while this batch is consumed
+      if (batchsize == rows.size()) {
+        readAhead();
+      }
+    }
+
+    return true;
+  }
+
+  /**
+   * Position the underlying iterator on the current row, discarding the rows read in advance.
+   */
+  private void sync() {
+    byte[] key = null;
+
+    if (null != rows && idx < rows.size()) {
+      key = rows.get(idx).getKey();
+    }
+
+    if (null != pending) {
+      if (!pending.cancel()) {
+        List<Entry<byte[],byte[]>> next = await(pending.future);
+        if (null == key && !next.isEmpty()) {
+          key = next.get(0).getKey();
+        }
+      }
+      pending = null;
+    }
+
+    rows = null;
+    idx = 0;
+
+    if (null != key) {
+      iter.seek(key);
+    }
+  }
+
+  /**
+   * Discard the rows read in advance, the underlying iterator is about to be repositioned.
+   */
+  private void discard() {
+    rows = null;
+    idx = 0;
+
+    if (null != pending) {
+      ReadAhead readahead = pending;
+      pending = null;
+      if (!readahead.cancel()) {
+        try {
+          readahead.future.get();
+        } catch (InterruptedException ie) {
+          Thread.currentThread().interrupt();
+          throw new DBException("Interrupted while waiting for read-ahead.", ie);
+        } catch (ExecutionException ee) {
+          // Ignore, the iterator is about to be repositioned
+        }
+      }
+    }
+  }
+
+  private static List<Entry<byte[],byte[]>> await(Future<List<Entry<byte[],byte[]>>> future) {
+    try {
+      return future.get();
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+      throw new DBException("Interrupted while waiting for read-ahead.", ie);
+    } catch (ExecutionException ee) {
+      if (ee.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) ee.getCause();
+      }
+      throw new DBException("Error while reading ahead.", ee.getCause());
+    }
+  }
+}
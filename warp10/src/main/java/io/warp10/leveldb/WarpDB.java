@@ -367,8 +367,21 @@ public class WarpDB extends Thread implements DB {
 
   @Override
   public long[] getApproximateSizes(Range... ranges) {
-    throw new RuntimeException("Unsupported operation getApproximateSizes.");
-    //return this.db.getApproximateSizes(ranges);
+    try {
+      mutex.lockInterruptibly();
+      pendingOps.incrementAndGet();
+    } catch (InterruptedException ie) {
+      throw new DBException("Interrupted while acquiring DB mutex.", ie);
+    } finally {
+      if (mutex.isHeldByCurrentThread()) {
+        mutex.unlock();
+      }
+    }
+    try {
+      return this.db.getApproximateSizes(ranges);
+    } finally {
+      this.pendingOps.decrementAndGet();
+    }
   }
 
   @Override
@@ -29,10 +29,14 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
 import java.net.UnknownHostException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
@@ -45,6 +49,7 @@ import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.LockSupport;
 
 public class TCPManager extends Thread {
@@ -58,6 +63,8 @@ public class TCPManager extends Thread {
   private static final int DEFAULT_TCP_BACKLOG = 0;
   private static final Charset DEFAULT_CHARSET = StandardCharsets.UTF_8;
   private static final int DEFAULT_SOCKETREADTIMEOUT = 0;
+  private static final int DEFAULT_SELECTORS = 0;
+  private static final int DEFAULT_READBUFFERSIZE = 65536;
 
   private static final String PARAM_MODE = "mode";
   private static final String PARAM_RETRY = "retry";
@@ -74,6 +81,17 @@ public class TCPManager extends Thread {
   private static final String PARAM_CHARSET = "charset";
   private static final String PARAM_SOCKETREADTIMEOUT = "socketReadTimeout";
 
+  /**
+   * Number of selector threads handling the connections in non blocking mode (server mode only).
+   * When 0, each connection is handled by its own thread.
+   */
+  private static final String PARAM_SELECTORS = "selectors";
+
+  /**
+   * Size of the direct buffer used by each selector thread to read from the connections
+   */
+  private static final String PARAM_READBUFFERSIZE = "readBufferSize";
+
   private final long retry;
   private final Macro macro;
   private final Macro partitioner;
@@ -84,6 +102,7 @@ public class TCPManager extends Thread {
   private final int parallelism;
   private final int port;
   private final int socketReadTimeout;
+  private final int maxConnections;
 
   private Thread[] executors;
 
@@ -99,6 +118,15 @@ public class TCPManager extends Thread {
 
   private Socket clientSocket;
 
+  private ServerSocketChannel serverChannel;
+
+  private TCPSelector[] selectors;
+
+  /**
+   * Number of connections currently handled by the selectors
+   */
+  private final AtomicInteger connections = new AtomicInteger(0);
+
   public TCPManager(Path p) throws Exception {
     //
     // Read content of mc2 file
@@ -150,10 +178,13 @@ public class TCPManager extends Thread {
     parallelism = ((Number) config.getOrDefault(PARAM_PARALLELISM, 1)).intValue();
     timeout = ((Number) config.getOrDefault(PARAM_TIMEOUT, 0L)).longValue();
     maxMessages = ((Number) config.getOrDefault(PARAM_MAXMESSAGES, DEFAULT_MAXMESSAGES)).intValue();
-    int maxConnections = ((Number) config.getOrDefault(PARAM_MAXCONNECTIONS, DEFAULT_MAXCONNECTIONS)).intValue();
+    maxConnections = ((Number) config.getOrDefault(PARAM_MAXCONNECTIONS, DEFAULT_MAXCONNECTIONS)).intValue();
     charset = String.valueOf(config.getOrDefault(PARAM_CHARSET, DEFAULT_CHARSET.name()));
     socketReadTimeout = ((Number) config.getOrDefault(PARAM_SOCKETREADTIMEOUT, DEFAULT_SOCKETREADTIMEOUT)).intValue();
 
+    int nselectors = ((Number) config.getOrDefault(PARAM_SELECTORS, DEFAULT_SELECTORS)).intValue();
+    int readBufferSize = ((Number) config.getOrDefault(PARAM_READBUFFERSIZE, DEFAULT_READBUFFERSIZE)).intValue();
+
     int qsize = ((Number) config.getOrDefault(PARAM_QSIZE, DEFAULT_QSIZE)).intValue();
 
     if (null == partitioner) {
@@ -169,7 +200,16 @@ public class TCPManager extends Thread {
     initExecutors();
 
     // Create server or client socket
-    if ("server".equals(mode)) {
+    if ("server".equals(mode) && nselectors > 0) {
+      serverChannel = ServerSocketChannel.open();
+      serverChannel.bind(new InetSocketAddress(InetAddress.getByName(host), port), tcpBacklog);
+      serverSocket = serverChannel.socket();
+
+      selectors = new TCPSelector[nselectors];
+      for (int i = 0; i < nselectors; i++) {
+        selectors[i] = new TCPSelector(port, i, partitioner, queues, charset, socketReadTimeout, readBufferSize, connections);
+      }
+    } else if ("server".equals(mode)) {
       serverSocket = new ServerSocket(port, tcpBacklog, InetAddress.getByName(host));
     } else if (!"client".equals(mode)) {
       throw new RuntimeException("Mode must be either server or client.");
@@ -243,6 +283,11 @@ public class TCPManager extends Thread {
 
   @Override
   public void run() {
+    if (null != selectors) {
+      runSelectors();
+      return;
+    }
+
     while (!done) {
       try {
         if (null != serverSocket) {
@@ -282,9 +327,51 @@ public class TCPManager extends Thread {
     }
   }
 
+  /**
+   * Accept connections and hand them over to the selector threads in a round robin fashion.
+   */
+  private void runSelectors() {
+    int next = 0;
+
+    while (!done) {
+      try {
+        SocketChannel channel = serverChannel.accept();
+
+        // If there are too many connections, immediately close this one.
+        if (connections.incrementAndGet() > maxConnections) {
+          connections.decrementAndGet();
+          channel.close();
+          continue;
+        }
+
+        selectors[next].add(channel);
+        next = (next + 1) % selectors.length;
+      } catch (ClosedChannelException cce) {
+        // Closed socket
+      } catch (IOException e) {
+        LOG.error("Caught exception while receiving message", e);
+      }
+    }
+
+    for (TCPSelector selector: selectors) {
+      selector.end();
+    }
+    try {
+      serverChannel.close();
+    } catch (Exception e) {
+    }
+  }
+
   public void end() {
     done = true;
 
+    if (null != selectors) {
+      for (TCPSelector selector: selectors) {
+        selector.end();
+        selector.interrupt();
+      }
+    }
+
     if (null != serverSocket) {
       try {
         serverSocket.close();
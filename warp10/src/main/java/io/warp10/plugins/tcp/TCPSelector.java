@@ -0,0 +1,337 @@
+//
+//   Copyright 2024  SenX S.A.S.
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+package io.warp10.plugins.tcp;
+
+import io.warp10.script.MemoryWarpScriptStack;
+import io.warp10.script.WarpScriptStack;
+import io.warp10.script.WarpScriptStack.Macro;
+import io.warp10.script.WarpScriptStackRegistry;
+import io.warp10.warp.sdk.AbstractWarp10Plugin;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Thread reading text lines from many non blocking connections using a Selector.
+ *
+ * Lines are framed like BufferedReader.readLine does, i.e. they are terminated by
+ * '\n', '\r' or "\r\n", and are dispatched to the queues exactly as TCPClient does.
+ * Bytes are read in a direct buffer shared by all the connections of the selector,
+ * only the incomplete lines are kept per connection.
+ */
+public class TCPSelector extends Thread {
+
+  private static final Logger LOG = LoggerFactory.getLogger(TCPSelector.class);
+
+  private final Selector selector;
+
+  /**
+   * Connections accepted but not yet registered with the selector
+   */
+  private final ConcurrentLinkedQueue<SocketChannel> pending = new ConcurrentLinkedQueue<SocketChannel>();
+
+  private final Macro partitioner;
+  private final LinkedBlockingQueue<List<Object>>[] queues;
+  private final Charset charset;
+  private final int socketReadTimeout;
+
+  /**
+   * Number of open connections, shared by all the selectors of a TCPManager
+   */
+  private final AtomicInteger connections;
+
+  private final ByteBuffer buffer;
+
+  /**
+   * Buffer used to decode the lines fully contained in the direct buffer
+   */
+  private byte[] scratch = new byte[256];
+
+  private final MemoryWarpScriptStack stack;
+
+  private volatile boolean done = false;
+
+  private static final class Connection {
+    private final String remoteHost;
+    private final int remotePort;
+
+    /**
+     * Bytes of the current line which were received in previous reads
+     */
+    private byte[] line = null;
+    private int len = 0;
+
+    /**
+     * Flag indicating that the previous line ended with '\r' so a '\n' must be ignored
+     */
+    private boolean skipLF = false;
+
+    private long lastRead;
+
+    private Connection(Socket socket) {
+      this.remoteHost = socket.getInetAddress().getHostAddress();
+      this.remotePort = socket.getPort();
+      this.lastRead = System.currentTimeMillis();
+    }
+
+    private void append(ByteBuffer buffer, int from, int to) {
+      int n = to - from;
+
+      if (null == line) {
+        line = new byte[Math.max(256, n)];
+      } else if (len + n > line.length) {
+        line = Arrays.copyOf(line, Math.max(len + n, line.length << 1));
+      }
+
+      for (int i = from; i < to; i++) {
+        line[len++] = buffer.get(i);
+      }
+    }
+  }
+
+  TCPSelector(int port, int index, Macro partitioner, LinkedBlockingQueue<List<Object>>[] queues, String charset, int socketReadTimeout, int bufferSize, AtomicInteger connections) throws IOException {
+    this.selector = Selector.open();
+    this.partitioner = partitioner;
+    this.queues = queues;
+    this.charset = Charset.forName(charset);
+    this.socketReadTimeout = socketReadTimeout;
+    this.connections = connections;
+    this.buffer = ByteBuffer.allocateDirect(bufferSize);
+
+    this.stack = new MemoryWarpScriptStack(AbstractWarp10Plugin.getExposedStoreClient(), AbstractWarp10Plugin.getExposedDirectoryClient(), new Properties());
+    this.stack.setAttribute(WarpScriptStack.ATTRIBUTE_NAME, "[Warp10TCPPlugin " + port + " #" + index + "]");
+    this.stack.maxLimits();
+
+    setDaemon(true);
+    setName("[TCP Selector on port " + port + " #" + index + "]");
+    start();
+  }
+
+  /**
+   * Hand over a newly accepted connection to this selector.
+   */
+  void add(SocketChannel channel) {
+    pending.add(channel);
+    selector.wakeup();
+  }
+
+  @Override
+  public void run() {
+    try {
+      while (!done) {
+        // When a read timeout is set, wake up regularly to close the idle connections
+        selector.select(socketReadTimeout);
+
+        SocketChannel channel;
+
+        while (null != (channel = pending.poll())) {
+          try {
+            channel.configureBlocking(false);
+            channel.register(selector, SelectionKey.OP_READ, new Connection(channel.socket()));
+          } catch (IOException ioe) {
+            close(channel);
+          }
+        }
+
+        Iterator<SelectionKey> iter = selector.selectedKeys().iterator();
+
+        while (iter.hasNext()) {
+          SelectionKey key = iter.next();
+          iter.remove();
+
+          if (key.isValid() && key.isReadable()) {
+            read(key);
+          }
+        }
+
+        if (socketReadTimeout > 0) {
+          expire();
+        }
+      }
+    } catch (InterruptedException ie) {
+      // Exit
+    } catch (IOException ioe) {
+      LOG.error("Caught exception in TCP selector.", ioe);
+    } finally {
+      for (SelectionKey key: selector.keys()) {
+        close(key);
+      }
+      try {
+        selector.close();
+      } catch (IOException ioe) {
+      }
+      SocketChannel channel;
+      while (null != (channel = pending.poll())) {
+        close(channel);
+      }
+      WarpScriptStackRegistry.unregister(stack);
+    }
+  }
+
+  private void read(SelectionKey key) throws InterruptedException {
+    SocketChannel channel = (SocketChannel) key.channel();
+    Connection conn = (Connection) key.attachment();
+
+    buffer.clear();
+
+    int n;
+
+    try {
+      n = channel.read(buffer);
+    } catch (IOException ioe) {
+      LOG.error("Problem when receiving text line from tcp on port " + conn.remotePort, ioe);
+      close(key);
+      return;
+    }
+
+    if (n < 0) {
+      // End of stream, the last line may not be terminated
+      if (conn.len > 0) {
+        dispatch(conn, new String(conn.line, 0, conn.len, charset));
+      }
+      close(key);
+      return;
+    }
+
+    conn.lastRead = System.currentTimeMillis();
+
+    buffer.flip();
+
+    int start = buffer.position();
+    int limit = buffer.limit();
+
+    for (int i = start; i < limit; i++) {
+      byte b = buffer.get(i);
+
+      if (conn.skipLF) {
+        conn.skipLF = false;
+        if ('\n' == b) {
+          start = i + 1;
+          continue;
+        }
+      }
+
+      if ('\n' != b && '\r' != b) {
+        continue;
+      }
+
+      String line;
+
+      if (0 == conn.len) {
+        int len = i - start;
+        if (len > scratch.length) {
+          scratch = new byte[Math.max(len, scratch.length << 1)];
+        }
+        for (int j = 0; j < len; j++) {
+          scratch[j] = buffer.get(start + j);
+        }
+        line = new String(scratch, 0, len, charset);
+      } else {
+        conn.append(buffer, start, i);
+        line = new String(conn.line, 0, conn.len, charset);
+        conn.len = 0;
+        conn.line = null;
+      }
+
+      dispatch(conn, line);
+
+      conn.skipLF = '\r' == b;
+      start = i + 1;
+    }
+
+    if (start < limit) {
+      conn.append(buffer, start, limit);
+    }
+  }
+
+  private void dispatch(Connection conn, String line) throws InterruptedException {
+    int queueIndex = 0;
+
+    try {
+      // Apply the partitioning macro if it is defined
+      if (null != this.partitioner) {
+        this.stack.clear();
+        this.stack.push(conn.remoteHost);
+        this.stack.push((long) conn.remotePort);
+        this.stack.push(line);
+        this.stack.exec(this.partitioner);
+        int seq = ((Number) this.stack.pop()).intValue();
+        queueIndex = seq % queues.length;
+      }
+    } catch (Exception e) {
+      LOG.error("Partitioner failed.", e);
+      return;
+    }
+
+    ArrayList<Object> msg = new ArrayList<Object>();
+    msg.add(conn.remoteHost);
+    msg.add(conn.remotePort);
+    msg.add(line);
+
+    this.queues[queueIndex].put(msg);
+  }
+
+  private void expire() {
+    long now = System.currentTimeMillis();
+
+    for (SelectionKey key: selector.keys()) {
+      Connection conn = (Connection) key.attachment();
+
+      if (key.isValid() && now - conn.lastRead >= socketReadTimeout) {
+        Socket socket = ((SocketChannel) key.channel()).socket();
+        LOG.info("Socket timed out. Remote:" + conn.remoteHost + ":" + conn.remotePort + ". Local:" + socket.getLocalAddress().getHostName() + ":" + socket.getLocalPort());
+        close(key);
+      }
+    }
+  }
+
+  private void close(SelectionKey key) {
+    if (!key.isValid()) {
+      return;
+    }
+    key.cancel();
+    close((SocketChannel) key.channel());
+  }
+
+  private void close(SocketChannel channel) {
+    try {
+      channel.close();
+    } catch (IOException ioe) {
+    }
+    connections.decrementAndGet();
+  }
+
+  public void end() {
+    done = true;
+    selector.wakeup();
+  }
+}
@@ -15,12 +15,14 @@
 //
 package io.warp10.plugins.udp;
 
+import io.warp10.continuum.sensision.SensisionConstants;
 import io.warp10.script.MemoryWarpScriptStack;
 import io.warp10.script.WarpScriptKillException;
 import io.warp10.script.WarpScriptStack;
 import io.warp10.script.WarpScriptStack.Macro;
 import io.warp10.script.WarpScriptStackRegistry;
 import io.warp10.script.WarpScriptStopException;
+import io.warp10.sensision.Sensision;
 import io.warp10.warp.sdk.AbstractWarp10Plugin;
 
 import org.slf4j.Logger;
@@ -32,11 +34,19 @@ import java.io.InputStream;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
 import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
@@ -49,6 +59,14 @@ public class UDPConsumer extends Thread {
 
   private static final int DEFAULT_QSIZE = 1024;
   private static final int DEFAULT_MAXMESSAGES = 1;
+  private static final int DEFAULT_BATCHSIZE = 0;
+  private static final long DEFAULT_BATCHTIMEOUT = 100L;
+  private static final int DEFAULT_RINGSIZE = 32;
+
+  /**
+   * Maximum size of a UDP payload
+   */
+  private static final int MAX_DATAGRAM_SIZE = 65507;
 
   private static final String PARAM_MACRO = "macro";
   private static final String PARAM_PARALLELISM = "parallelism";
@@ -59,12 +77,31 @@ public class UDPConsumer extends Thread {
   private static final String PARAM_TIMEOUT = "timeout";
   private static final String PARAM_MAXMESSAGES = "maxMessages";
 
+  /**
+   * Maximum number of datagrams per batch. When strictly positive, datagrams are grouped in batches
+   * which are each passed as a single list to the macro. Batches which cannot be queued are dropped.
+   */
+  private static final String PARAM_BATCHSIZE = "batchSize";
+
+  /**
+   * Maximum time (in ms) a datagram can wait in an incomplete batch before the batch is queued
+   */
+  private static final String PARAM_BATCHTIMEOUT = "batchTimeout";
+
+  /**
+   * Number of direct buffers in which datagrams are received in batch mode before being dispatched
+   */
+  private static final String PARAM_RINGSIZE = "ringSize";
+
   private final MemoryWarpScriptStack stack;
   private final Macro macro;
   private final Macro partitioner;
   private final String host;
   private final long timeout;
   private final int maxMessages;
+  private final int batchSize;
+  private final long batchTimeout;
+  private final int ringSize;
 
   private final int parallelism;
   private final int port;
@@ -79,6 +116,10 @@ public class UDPConsumer extends Thread {
 
   private DatagramSocket socket;
 
+  private DatagramChannel channel;
+
+  private Selector selector;
+
   public UDPConsumer(Path p) throws Exception {
     //
     // Read content of mc2 file
@@ -128,6 +169,10 @@ public class UDPConsumer extends Thread {
     this.timeout = ((Number) config.getOrDefault(PARAM_TIMEOUT, 0L)).longValue();
     this.maxMessages = ((Number) config.getOrDefault(PARAM_MAXMESSAGES, DEFAULT_MAXMESSAGES)).intValue();
 
+    this.batchSize = ((Number) config.getOrDefault(PARAM_BATCHSIZE, DEFAULT_BATCHSIZE)).intValue();
+    this.batchTimeout = ((Number) config.getOrDefault(PARAM_BATCHTIMEOUT, DEFAULT_BATCHTIMEOUT)).longValue();
+    this.ringSize = Math.max(1, ((Number) config.getOrDefault(PARAM_RINGSIZE, DEFAULT_RINGSIZE)).intValue());
+
     int qsize = ((Number) config.getOrDefault(PARAM_QSIZE, DEFAULT_QSIZE)).intValue();
 
     if (null == this.partitioner) {
@@ -143,7 +188,16 @@ public class UDPConsumer extends Thread {
     //
     // Create UDP socket
     //
-    this.socket = new DatagramSocket(this.port, InetAddress.getByName(this.host));
+    if (this.batchSize > 0) {
+      this.channel = DatagramChannel.open();
+      this.socket = this.channel.socket();
+      this.socket.bind(new InetSocketAddress(InetAddress.getByName(this.host), this.port));
+      this.channel.configureBlocking(false);
+      this.selector = Selector.open();
+      this.channel.register(this.selector, SelectionKey.OP_READ);
+    } else {
+      this.socket = new DatagramSocket(this.port, InetAddress.getByName(this.host));
+    }
     this.socket.setReceiveBufferSize(Integer.MAX_VALUE); // Set SO_RCVBUF to /proc/sys/net/core/rmem_max
 
     this.setDaemon(true);
@@ -170,6 +224,14 @@ public class UDPConsumer extends Thread {
           try {
             while (true) {
               try {
+                if (batchSize > 0) {
+                  List<Object> batch = timeout > 0 ? queue.poll(timeout, TimeUnit.MILLISECONDS) : queue.take();
+                  stack.clear();
+                  stack.push(batch);
+                  stack.exec(macro);
+                  continue;
+                }
+
                 List<List<Object>> msgs = new ArrayList<List<Object>>();
 
                 if (timeout > 0) {
@@ -213,6 +275,11 @@ public class UDPConsumer extends Thread {
       executors[i].start();
     }
 
+    if (this.batchSize > 0) {
+      receiveBatches();
+      return;
+    }
+
     while (!done) {
       try {
 
@@ -255,6 +322,155 @@ public class UDPConsumer extends Thread {
 
   }
 
+  /**
+   * Receive datagrams in batch mode.
+   *
+   * All the datagrams available on the socket are received, up to ringSize at a time, in a ring of
+   * direct buffers before being partitioned. Each queue is fed batches of at most batchSize messages,
+   * an incomplete batch is queued once its oldest message is batchTimeout ms old. The queues are never
+   * waited upon, when a batch cannot be queued its messages are dropped and counted.
+   */
+  private void receiveBatches() {
+    ByteBuffer[] ring = new ByteBuffer[this.ringSize];
+    SocketAddress[] senders = new SocketAddress[this.ringSize];
+
+    for (int i = 0; i < ring.length; i++) {
+      ring[i] = ByteBuffer.allocateDirect(MAX_DATAGRAM_SIZE);
+    }
+
+    List<Object>[] batches = new List[this.queues.length];
+    long[] deadlines = new long[this.queues.length];
+
+    Map<String,String> labels = new HashMap<String,String>();
+    labels.put(SensisionConstants.SENSISION_LABEL_PORT, Integer.toString(this.port));
+
+    try {
+      while (!done) {
+        //
+        // Wait for datagrams or for the deadline of the oldest incomplete batch
+        //
+
+        long wait = 0L;
+
+        for (int q = 0; q < batches.length; q++) {
+          if (null != batches[q]) {
+            long remaining = Math.max(1L, deadlines[q] - System.currentTimeMillis());
+            wait = 0L == wait ? remaining : Math.min(wait, remaining);
+          }
+        }
+
+        this.selector.select(wait);
+        this.selector.selectedKeys().clear();
+
+        //
+        // Drain the socket
+        //
+
+        while (!done) {
+          int n = 0;
+
+          while (n < ring.length) {
+            ring[n].clear();
+            senders[n] = this.channel.receive(ring[n]);
+            if (null == senders[n]) {
+              break;
+            }
+            ring[n].flip();
+            n++;
+          }
+
+          if (0 == n) {
+            break;
+          }
+
+          Sensision.update(SensisionConstants.SENSISION_CLASS_PLUGIN_UDP_PACKETS, labels, n);
+
+          long now = System.currentTimeMillis();
+
+          for (int i = 0; i < n; i++) {
+            byte[] payload = new byte[ring[i].remaining()];
+            ring[i].get(payload);
+
+            InetSocketAddress sender = (InetSocketAddress) senders[i];
+            senders[i] = null;
+
+            int queueIndex = 0;
+
+            String host = sender.getAddress().getHostAddress();
+
+            try {
+              // Apply the partitioning macro if it is defined
+              if (null != this.partitioner) {
+                this.stack.clear();
+                this.stack.push(host);
+                this.stack.push((long) sender.getPort());
+                this.stack.push(payload);
+                this.stack.exec(this.partitioner);
+                int seq = ((Number) this.stack.pop()).intValue();
+                queueIndex = seq % this.parallelism;
+              }
+            } catch (Exception e) {
+              // Ignore exceptions
+              continue;
+            }
+
+            ArrayList<Object> msg = new ArrayList<Object>();
+            msg.add(host);
+            msg.add(sender.getPort());
+            msg.add(payload);
+
+            if (null == batches[queueIndex]) {
+              batches[queueIndex] = new ArrayList<Object>(this.batchSize);
+              deadlines[queueIndex] = now + this.batchTimeout;
+            }
+
+            batches[queueIndex].add(msg);
+
+            if (batches[queueIndex].size() >= this.batchSize) {
+              flush(batches, queueIndex, labels);
+            }
+          }
+
+          if (n < ring.length) {
+            break;
+          }
+        }
+
+        //
+        // Queue the expired batches
+        //
+
+        long now = System.currentTimeMillis();
+
+        for (int q = 0; q < batches.length; q++) {
+          if (null != batches[q] && now >= deadlines[q]) {
+            flush(batches, q, labels);
+          }
+        }
+      }
+    } catch (ClosedChannelException cce) {
+      // Closed socket
+    } catch (Exception e) {
+      LOG.error("Caught exception while receiving message", e);
+    } finally {
+      try {
+        this.selector.close();
+      } catch (Exception e) {
+      }
+    }
+  }
+
+  private void flush(List<Object>[] batches, int queueIndex, Map<String,String> labels) {
+    List<Object> batch = batches[queueIndex];
+    batches[queueIndex] = null;
+
+    if (this.queues[queueIndex].offer(batch)) {
+      Sensision.update(SensisionConstants.SENSISION_CLASS_PLUGIN_UDP_BATCHES, labels, 1);
+    } else {
+      Sensision.update(SensisionConstants.SENSISION_CLASS_PLUGIN_UDP_DROPPED, labels, batch.size());
+    }
+  }
+
   public void end() {
     this.done = true;
     try {
@@ -262,6 +478,10 @@ public class UDPConsumer extends Thread {
     } catch (Exception e) {
     }
 
+    if (null != this.selector) {
+      this.selector.wakeup();
+    }
+
     for (Thread t: this.executors) {
       t.interrupt();
     }
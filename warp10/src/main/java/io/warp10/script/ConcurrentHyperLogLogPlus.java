@@ -0,0 +1,532 @@
+//
+//   Copyright 2024  SenX S.A.S.
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.script;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+/**
+ * HyperLogLog+ cardinality estimator which can be updated and queried concurrently without locking.
+ *
+ * In the SPARSE mode, the largest rho of each index of length p' is kept in an open addressing table
+ * updated with CAS. When the table fills up, the estimator switches to the NORMAL mode, where the 6 bits
+ * registers are packed by 10 in the longs of an AtomicLongArray and raised with CAS. Updates performed
+ * on the SPARSE table while the switch is in progress are also applied to the registers by the threads
+ * which performed them, so no update is lost.
+ *
+ * The SPARSE table switches to the NORMAL mode after a fixed number of indices (3/4 of m/8, i.e. 1536
+ * for p=14) whereas HyperLogLogPlus switches when its compressed sparse list grows above 3/4 of m bytes,
+ * so estimates are those of HyperLogLogPlus only while both estimators are in the same mode. Estimators
+ * are serialized as HyperLogLogPlus instances with the same mode and content.
+ */
+public class ConcurrentHyperLogLogPlus {
+
+  private static final int REGISTERS_PER_LONG = 10;
+
+  private static final long RHO_MASK = 0x3fL;
+
+  /**
+   * Minimum number of slots of the SPARSE table
+   */
+  private static final int MIN_SPARSE_CAPACITY = 16;
+
+  private final int p;
+  private final int pprime;
+  private final int m;
+  private final int mprime;
+
+  private final int _64minusp;
+  private final int _64minuspprime;
+  private final long pmask;
+  private final long pprimemask;
+
+  /**
+   * Registers, null while in SPARSE mode
+   */
+  private final AtomicReference<AtomicLongArray> registers = new AtomicReference<AtomicLongArray>();
+
+  /**
+   * SPARSE table, each non 0 slot contains an index of length p' shifted by 6 bits and its rho.
+   * Set to null once the NORMAL mode is fully initialized.
+   */
+  private volatile AtomicIntegerArray sparse;
+
+  /**
+   * Number of used slots in the SPARSE table
+   */
+  private final AtomicInteger sparseCount = new AtomicInteger();
+
+  /**
+   * Number of used slots above which the estimator switches to NORMAL mode
+   */
+  private final int sparseThreshold;
+
+  private long initTime;
+  private long expiry;
+
+  private String key = null;
+
+  public ConcurrentHyperLogLogPlus(int p, int pprime) {
+
+    setInitTime(System.currentTimeMillis());
+
+    // Same constraints as HyperLogLogPlus so estimators can be converted
+    if (pprime < 4 || pprime > 25) {
+      throw new RuntimeException("p' MUST be in [4,25].");
+    }
+    if (p < 4 || p > pprime || p > 18) {
+      throw new RuntimeException("p MUST be in [4,p'], with an enforced hard limit of 18.");
+    }
+
+    this.p = p;
+    this.pprime = pprime;
+    this.m = 1 << p;
+    this.mprime = 1 << pprime;
+    this._64minusp = 64 - p;
+    this._64minuspprime = 64 - pprime;
+    this.pmask = (1L << _64minusp) - 1;
+    this.pprimemask = (1L << _64minuspprime) - 1;
+
+    //
+    // Size the SPARSE table so it uses less memory than the registers
+    //
+
+    int capacity = Math.max(this.m >>> 3, MIN_SPARSE_CAPACITY);
+    this.sparseThreshold = capacity - (capacity >>> 2);
+
+    if (this.p == this.pprime) {
+      this.registers.set(new AtomicLongArray(words(this.m)));
+      this.sparse = null;
+    } else {
+      this.sparse = new AtomicIntegerArray(capacity);
+    }
+  }
+
+  public long getInitTime() {
+    return this.initTime;
+  }
+
+  public void setInitTime(long instant) {
+    this.initTime = instant;
+
+    //
+    // Compute expiry time, we compute the timestamp of the first day of the month following the current one
+    //
+
+    DateTime dt = new DateTime(this.initTime, DateTimeZone.UTC);
+    this.expiry = new DateTime(dt.getYear(), dt.getMonthOfYear(), 1, 0, 0, DateTimeZone.UTC).plusMonths(1).getMillis();
+  }
+
+  public boolean hasExpired() {
+    return System.currentTimeMillis() > expiry;
+  }
+
+  public int getP() {
+    return this.p;
+  }
+
+  public int getPPrime() {
+    return this.pprime;
+  }
+
+  public String getKey() {
+    return this.key;
+  }
+
+  public void setKey(String key) {
+    this.key = key;
+  }
+
+  public boolean isSparse() {
+    return null == this.registers.get();
+  }
+
+  /**
+   * Check if 'x' would modify the cardinality estimation
+   */
+  public boolean isNew(long x) {
+    AtomicLongArray regs = this.registers.get();
+
+    if (null == regs) {
+      AtomicIntegerArray table = this.sparse;
+
+      if (null != table) {
+        int entry = sparseEntry(x);
+        int current = lookup(table, entry >>> 6);
+        return (current & RHO_MASK) < (entry & RHO_MASK);
+      }
+
+      // The SPARSE table is only cleared after the registers were set
+      regs = this.registers.get();
+    }
+
+    return getRho(regs, (int) (x >>> _64minusp)) < rho(x & pmask, p);
+  }
+
+  public void aggregate(long x) {
+    AtomicLongArray regs = this.registers.get();
+
+    if (null == regs) {
+      if (addSparse(sparseEntry(x))) {
+        return;
+      }
+      regs = this.registers.get();
+    }
+
+    setRho(regs, (int) (x >>> _64minusp), rho(x & pmask, p));
+  }
+
+  /**
+   * Compute the estimated cardinality
+   */
+  public long cardinality() {
+    AtomicLongArray regs = this.registers.get();
+
+    if (null == regs) {
+      return Math.round(HyperLogLogPlus.linearCounting(mprime, mprime - sparseCount.get()));
+    }
+
+    double E = 0.0D;
+    int V = 0;
+
+    for (int i = 0; i < this.m; i++) {
+      int rho = getRho(regs, i);
+      E = E + 1.0D / (1L << rho);
+      if (0 == rho) {
+        V++;
+      }
+    }
+
+    return HyperLogLogPlus.estimate(this.p, E, V);
+  }
+
+  /**
+   * Switch to NORMAL mode. Threads which lose the race to install the registers return
+   * while the winner is still copying the SPARSE table.
+   */
+  public void toNormal() {
+    if (null != this.registers.get()) {
+      return;
+    }
+
+    AtomicIntegerArray table = this.sparse;
+
+    // The SPARSE table is only cleared after the registers were set
+    if (null == table) {
+      return;
+    }
+
+    //
+    // Fill the registers before publishing them so readers never see
+    // a partial estimate, then copy the values which were added meanwhile.
+    //
+
+    AtomicLongArray regs = new AtomicLongArray(words(this.m));
+
+    copySparse(table, regs);
+
+    if (!this.registers.compareAndSet(null, regs)) {
+      return;
+    }
+
+    copySparse(table, regs);
+
+    this.sparse = null;
+  }
+
+  /**
+   * Merge estimates from another estimator
+   */
+  public void fuse(ConcurrentHyperLogLogPlus other) throws IOException {
+
+    if (null == other) {
+      return;
+    }
+
+    if (this.p != other.p) {
+      throw new IOException("Can't fuse estimators with different prefix length.");
+    }
+
+    AtomicLongArray others = other.registers.get();
+
+    //
+    // Estimators in SPARSE mode with the same 'pprime' are fused by adding the entries of 'other'
+    //
+
+    if (null == others && this.pprime == other.pprime) {
+      AtomicIntegerArray table = other.sparse;
+
+      if (null != table) {
+        for (int i = 0; i < table.length(); i++) {
+          int entry = table.get(i);
+          if (0 != entry && !addSparse(entry)) {
+            setRho(this.registers.get(), normalIndex(entry), normalRho(entry));
+          }
+        }
+      }
+
+      // 'other' may have switched to NORMAL mode while its table was read
+      others = other.registers.get();
+
+      if (null == others) {
+        return;
+      }
+    }
+
+    if (null == others) {
+      other.toNormal();
+      others = other.registers.get();
+    }
+
+    this.toNormal();
+
+    AtomicLongArray regs = this.registers.get();
+
+    for (int i = 0; i < this.m; i++) {
+      setRho(regs, i, getRho(others, i));
+    }
+  }
+
+  /**
+   * Convert this estimator into an HyperLogLogPlus with the same content
+   */
+  public HyperLogLogPlus toHyperLogLogPlus() throws IOException {
+    HyperLogLogPlus hllp = new HyperLogLogPlus(this.p, this.pprime);
+
+    hllp.setInitTime(this.initTime);
+    hllp.setKey(this.key);
+
+    AtomicLongArray regs = this.registers.get();
+
+    if (null == regs) {
+      AtomicIntegerArray table = this.sparse;
+
+      if (null != table) {
+        //
+        // Aggregate a hash yielding the index and rho of each entry
+        //
+
+        for (int i = 0; i < table.length(); i++) {
+          int entry = table.get(i);
+          if (0 == entry) {
+            continue;
+          }
+          long hash = ((long) (entry >>> 6)) << _64minuspprime;
+          int rho = (int) (entry & RHO_MASK);
+          if (rho <= _64minuspprime) {
+            hash |= 1L << (_64minuspprime - rho);
+          }
+          hllp.aggregate(hash);
+        }
+      }
+
+      regs = this.registers.get();
+
+      if (null == regs) {
+        return hllp;
+      }
+    }
+
+    hllp.toNormal();
+
+    for (int i = 0; i < this.m; i++) {
+      hllp.setRho(i, (byte) getRho(regs, i));
+    }
+
+    return hllp;
+  }
+
+  /**
+   * Create an estimator in NORMAL mode with the content of an HyperLogLogPlus.
+   * The HyperLogLogPlus is itself converted to NORMAL mode.
+   */
+  public static ConcurrentHyperLogLogPlus fromHyperLogLogPlus(HyperLogLogPlus hllp) throws IOException {
+    hllp.toNormal();
+
+    ConcurrentHyperLogLogPlus chllp = new ConcurrentHyperLogLogPlus(hllp.getP(), hllp.getPPrime());
+    chllp.setInitTime(hllp.getInitTime());
+    chllp.setKey(hllp.getKey());
+    chllp.toNormal();
+
+    AtomicLongArray regs = chllp.registers.get();
+
+    for (int i = 0; i < chllp.m; i++) {
+      setRho(regs, i, hllp.getRho(i));
+    }
+
+    return chllp;
+  }
+
+  public byte[] toBytes() throws IOException {
+    return toHyperLogLogPlus().toBytes();
+  }
+
+  public static ConcurrentHyperLogLogPlus fromBytes(byte[] bytes) throws IOException, ClassNotFoundException {
+    return fromHyperLogLogPlus(HyperLogLogPlus.fromBytes(bytes));
+  }
+
+  /**
+   * Add an entry to the SPARSE table.
+   *
+   * @return true if the entry was added and the estimator is still in SPARSE mode,
+   *         false if the caller must also apply the entry to the registers
+   */
+  private boolean addSparse(int entry) {
+    AtomicIntegerArray table = this.sparse;
+
+    if (null == table || !insert(table, entry)) {
+      toNormal();
+      return false;
+    }
+
+    if (sparseCount.get() > sparseThreshold) {
+      toNormal();
+    }
+
+    return null == this.registers.get();
+  }
+
+  /**
+   * Insert an entry in the SPARSE table, keeping the largest rho for its index.
+   *
+   * @return false if the table is full
+   */
+  private boolean insert(AtomicIntegerArray table, int entry) {
+    int index = entry >>> 6;
+    int mask = table.length() - 1;
+    int slot = hash(index) & mask;
+
+    for (int i = 0; i <= mask; i++) {
+      int current = table.get(slot);
+
+      if (0 == current) {
+        if (table.compareAndSet(slot, 0, entry)) {
+          sparseCount.incrementAndGet();
+          return true;
+        }
+        current = table.get(slot);
+      }
+
+      if ((current >>> 6) == index) {
+        while ((current & RHO_MASK) < (entry & RHO_MASK)) {
+          if (table.compareAndSet(slot, current, entry)) {
+            break;
+          }
+          current = table.get(slot);
+        }
+        return true;
+      }
+
+      slot = (slot + 1) & mask;
+    }
+
+    return false;
+  }
+
+  /**
+   * Return the entry of the SPARSE table for 'index' or 0 if there is none
+   */
+  private static int lookup(AtomicIntegerArray table, int index) {
+    int mask = table.length() - 1;
+    int slot = hash(index) & mask;
+
+    for (int i = 0; i <= mask; i++) {
+      int current = table.get(slot);
+
+      if (0 == current || (current >>> 6) == index) {
+        return current;
+      }
+
+      slot = (slot + 1) & mask;
+    }
+
+    return 0;
+  }
+
+  private void copySparse(AtomicIntegerArray table, AtomicLongArray regs) {
+    for (int i = 0; i < table.length(); i++) {
+      int entry = table.get(i);
+      if (0 != entry) {
+        setRho(regs, normalIndex(entry), normalRho(entry));
+      }
+    }
+  }
+
+  private static int hash(int index) {
+    int h = index * 0x9e3779b9;
+    return h ^ (h >>> 16);
+  }
+
+  /**
+   * Encode 'x' as its index of length p' shifted by 6 bits and the rho of its remaining bits
+   */
+  private int sparseEntry(long x) {
+    return ((int) (x >>> _64minuspprime) << 6) | rho(x & pprimemask, pprime);
+  }
+
+  private int normalIndex(int entry) {
+    return (entry >>> 6) >>> (pprime - p);
+  }
+
+  private int normalRho(int entry) {
+    int bits = (entry >>> 6) & ((1 << (pprime - p)) - 1);
+
+    if (0 != bits) {
+      return Integer.numberOfLeadingZeros(bits) - (32 - (pprime - p)) + 1;
+    } else {
+      return (pprime - p) + (int) (entry & RHO_MASK);
+    }
+  }
+
+  /**
+   * Compute the rank of the first 1 bit of 'w', which contains 64 - 'prefix' bits
+   */
+  private static int rho(long w, int prefix) {
+    return Long.numberOfLeadingZeros((w << prefix) | (1L << (prefix - 1))) + 1;
+  }
+
+  private static int words(int m) {
+    return (m + REGISTERS_PER_LONG - 1) / REGISTERS_PER_LONG;
+  }
+
+  private static int getRho(AtomicLongArray regs, int idx) {
+    return (int) ((regs.get(idx / REGISTERS_PER_LONG) >>> ((idx % REGISTERS_PER_LONG) * 6)) & RHO_MASK);
+  }
+
+  private static void setRho(AtomicLongArray regs, int idx, int rho) {
+    int word = idx / REGISTERS_PER_LONG;
+    int shift = (idx % REGISTERS_PER_LONG) * 6;
+
+    while (true) {
+      long current = regs.get(word);
+
+      if (((current >>> shift) & RHO_MASK) >= rho) {
+        return;
+      }
+
+      if (regs.compareAndSet(word, current, (current & ~(RHO_MASK << shift)) | ((long) rho << shift))) {
+        return;
+      }
+    }
+  }
+}
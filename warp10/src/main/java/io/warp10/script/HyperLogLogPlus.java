@@ -49,7 +49,7 @@ public class HyperLogLogPlus {
   /**
    * rawEstimateData from http://goo.gl/iU8Ig
    */
-  double[][] rawEstimateData = {
+  static final double[][] rawEstimateData = {
     // precision 4
     { 11, 11.717, 12.207, 12.7896, 13.2882, 13.8204, 14.3772, 14.9342, 15.5202, 16.161, 16.7722, 17.4636, 18.0396, 18.6766, 19.3566, 20.0454, 20.7936, 21.4856, 22.2666, 22.9946, 23.766, 24.4692, 25.3638, 26.0764, 26.7864, 27.7602, 28.4814, 29.433, 30.2926, 31.0664, 31.9996, 32.7956, 33.5366, 34.5894, 35.5738, 36.2698, 37.3682, 38.0544, 39.2342, 40.0108, 40.7966, 41.9298, 42.8704, 43.6358, 44.5194, 45.773, 46.6772, 47.6174, 48.4888, 49.3304, 50.2506, 51.4996, 52.3824, 53.3078, 54.3984, 55.5838, 56.6618, 57.2174, 58.3514, 59.0802, 60.1482, 61.0376, 62.3598, 62.8078, 63.9744, 64.914, 65.781, 67.1806, 68.0594, 68.8446, 69.7928, 70.8248, 71.8324, 72.8598, 73.6246, 74.7014, 75.393, 76.6708, 77.2394, },
     // precision 5
@@ -85,7 +85,7 @@ public class HyperLogLogPlus {
   /**
    * biasData from http://goo.gl/iU8Ig
    */
-  double[][] biasData = {
+  static final double[][] biasData = {
     // precision 4
     { 10, 9.717, 9.207, 8.7896, 8.2882, 7.8204, 7.3772, 6.9342, 6.5202, 6.161, 5.7722, 5.4636, 5.0396, 4.6766, 4.3566, 4.0454, 3.7936, 3.4856, 3.2666, 2.9946, 2.766, 2.4692, 2.3638, 2.0764, 1.7864, 1.7602, 1.4814, 1.433, 1.2926, 1.0664, 0.999600000000001, 0.7956, 0.5366, 0.589399999999998, 0.573799999999999, 0.269799999999996, 0.368200000000002, 0.0544000000000011, 0.234200000000001, 0.0108000000000033, -0.203400000000002, -0.0701999999999998, -0.129600000000003, -0.364199999999997, -0.480600000000003, -0.226999999999997, -0.322800000000001, -0.382599999999996, -0.511200000000002, -0.669600000000003, -0.749400000000001, -0.500399999999999, -0.617600000000003, -0.6922, -0.601599999999998, -0.416200000000003, -0.338200000000001, -0.782600000000002, -0.648600000000002, -0.919800000000002, -0.851799999999997, -0.962400000000002, -0.6402, -1.1922, -1.0256, -1.086, -1.21899999999999, -0.819400000000002, -0.940600000000003, -1.1554, -1.2072, -1.1752, -1.16759999999999, -1.14019999999999, -1.3754, -1.29859999999999, -1.607, -1.3292, -1.7606, },
     // precision 5
@@ -200,7 +200,7 @@ public class HyperLogLogPlus {
    * Thresholds for correcting bias
    * @see <a href="https://docs.google.com/document/d/1gyjfMHy43U9OWBXxfaeG-3MjGzejW1dlpyMwEYAAWEI/view?fullscreen#">https://docs.google.com/document/d/1gyjfMHy43U9OWBXxfaeG-3MjGzejW1dlpyMwEYAAWEI/view?fullscreen#</a>
    */
-  private static final int[] THRESHOLDS = new int[] { 10, 20, 40, 80, 220, 400, 900, 1800, 3100, 6500, 11500, 20000, 50000, 120000, 350000 };
+  static final int[] THRESHOLDS = new int[] { 10, 20, 40, 80, 220, 400, 900, 1800, 3100, 6500, 11500, 20000, 50000, 120000, 350000 };
 
   private long initTime;
   private long expiry;
@@ -393,24 +393,7 @@ public class HyperLogLogPlus {
           }
         }
 
-        E = 1.0D / E;
-        E = alpha[this.p - 4] * this.m * this.m * E;
-
-        double Eprime = (E <= 5 * this.m) ? E - estimateBias(E, this.p) : E;
-
-        double H;
-
-        if (0 != V) {
-          H = linearCounting(this.m, V);
-        } else {
-          H = Eprime;
-        }
-
-        if ((p <= 18 && H <= THRESHOLDS[this.p - 4]) || (p > 18 && E <= 5 * this.m)) {
-          return Math.round(H);
-        } else {
-          return Math.round(Eprime);
-        }
+        return estimate(this.p, E, V);
 
       case SPARSE:
         merge();
@@ -420,6 +403,36 @@ public class HyperLogLogPlus {
     }
   }
 
+  /**
+   * Compute the estimated cardinality from the registers of an estimator in NORMAL mode.
+   *
+   * @param p Prefix length of the estimator
+   * @param E Sum of 2^-rho over all registers
+   * @param V Number of registers whose rho is 0
+   */
+  static long estimate(int p, double E, int V) {
+    int m = 1 << p;
+
+    E = 1.0D / E;
+    E = alpha[p - 4] * m * m * E;
+
+    double Eprime = (E <= 5 * m) ? E - estimateBias(E, p) : E;
+
+    double H;
+
+    if (0 != V) {
+      H = linearCounting(m, V);
+    } else {
+      H = Eprime;
+    }
+
+    if ((p <= 18 && H <= THRESHOLDS[p - 4]) || (p > 18 && E <= 5 * m)) {
+      return Math.round(H);
+    } else {
+      return Math.round(Eprime);
+    }
+  }
+
   public byte setRho(int idx, byte rho) {
     // Read current value of rho
     byte current = getRho(idx);
@@ -512,7 +525,7 @@ public class HyperLogLogPlus {
     }
   }
 
-  private double estimateBias(double E, int p) {
+  private static double estimateBias(double E, int p) {
 
     //
     // For 'p' above 18 there is no bias
@@ -555,7 +568,7 @@ public class HyperLogLogPlus {
     return biasTotal / k;
   }
 
-  private double linearCounting(int m, int V) {
+  static double linearCounting(int m, int V) {
     return m * Math.log((double) m / (double) V);
   }
 
@@ -178,6 +178,11 @@ public class MemoryWarpScriptStack implements WarpScriptStack, Progressable {
 
   private final boolean unshadow;
 
+  /**
+   * Should macros be executed from their compiled form?
+   */
+  private final boolean compile;
+
   private final long creationTime = System.currentTimeMillis();
 
   public static class StackContext extends WarpScriptStack.StackContext {
@@ -211,6 +216,7 @@ public class MemoryWarpScriptStack implements WarpScriptStack, Progressable {
     }
 
     this.unshadow = "true".equals(properties.getProperty(Configuration.WARPSCRIPT_DEF_UNSHADOW));
+    this.compile = "true".equals(properties.getProperty(Configuration.WARPSCRIPT_MACRO_COMPILE));
 
     if (init) {
       setAttribute(WarpScriptStack.ATTRIBUTE_DEBUG_DEPTH, 0);
@@ -229,6 +235,7 @@ public class MemoryWarpScriptStack implements WarpScriptStack, Progressable {
       setAttribute(WarpScriptStack.ATTRIBUTE_MAX_PIXELS, Long.parseLong(properties.getProperty(Configuration.WARPSCRIPT_MAX_PIXELS, Long.toString(WarpScriptStack.DEFAULT_MAX_PIXELS))));
       setAttribute(WarpScriptStack.ATTRIBUTE_MAX_GEOCELLS, Long.parseLong(properties.getProperty(Configuration.WARPSCRIPT_MAX_GEOCELLS, Integer.toString(WarpScriptStack.DEFAULT_MAX_GEOCELLS))));
       setAttribute(WarpScriptStack.ATTRIBUTE_JSON_MAXSIZE, Long.parseLong(properties.getProperty(Configuration.WARPSCRIPT_MAX_JSON, Long.toString(WarpScriptStack.DEFAULT_MAX_JSON))));
+      setAttribute(WarpScriptStack.ATTRIBUTE_MAX_PARALLELISM, Long.parseLong(properties.getProperty(Configuration.WARPSCRIPT_MAX_PARALLELISM, Integer.toString(WarpScriptStack.DEFAULT_MAX_PARALLELISM))));
 
       //
       // Set hard limits
@@ -245,6 +252,7 @@ public class MemoryWarpScriptStack implements WarpScriptStack, Progressable {
       setAttribute(WarpScriptStack.ATTRIBUTE_GTS_LIMIT_HARD, Long.parseLong(properties.getProperty(Configuration.WARPSCRIPT_MAX_GTS_HARD, Long.toString(WarpScriptStack.DEFAULT_GTS_LIMIT))));
       setAttribute(WarpScriptStack.ATTRIBUTE_MAX_GEOCELLS_HARD, Long.parseLong(properties.getProperty(Configuration.WARPSCRIPT_MAX_GEOCELLS_HARD, Long.toString(WarpScriptStack.DEFAULT_MAX_GEOCELLS))));
       setAttribute(WarpScriptStack.ATTRIBUTE_JSON_MAXSIZE_HARD, Long.parseLong(properties.getProperty(Configuration.WARPSCRIPT_MAX_JSON_HARD, Long.toString(WarpScriptStack.DEFAULT_MAX_JSON))));
+      setAttribute(WarpScriptStack.ATTRIBUTE_MAX_PARALLELISM_HARD, Long.parseLong(properties.getProperty(Configuration.WARPSCRIPT_MAX_PARALLELISM_HARD, Integer.toString(WarpScriptStack.DEFAULT_MAX_PARALLELISM))));
 
       //
       // Set top level section name
@@ -394,6 +402,16 @@ public class MemoryWarpScriptStack implements WarpScriptStack, Progressable {
     elements[offset + size++] = o;
   }
 
+  /**
+   * Push 'count' elements of 'statements' starting at 'from', the caller
+   * must have checked that they fit within maxdepth
+   */
+  private void push(Object[] statements, int from, int count) throws WarpScriptException {
+    ensureCapacity(count);
+    System.arraycopy(statements, from, elements, offset + size, count);
+    size += count;
+  }
+
   @Override
   public void swap() throws WarpScriptException, EmptyStackException, IndexOutOfBoundsException {
     if (0 == size) {
@@ -1179,7 +1197,49 @@ public class MemoryWarpScriptStack implements WarpScriptStack, Progressable {
       // Notify progress
       progress();
 
-      for (i = 0; i < n; i++) {
+      if (this.compile) {
+        Macro.Compiled compiled = macro.compile();
+
+        Object[] statements = compiled.statements;
+        int[] functions = compiled.functions;
+
+        n = statements.length;
+
+        //
+        // Each function is preceded by a run of constants, the operation count is
+        // incremented once for the run, so functions see the same count as when
+        // interpreting the macro. Signals can only be handled by functions, so they
+        // are checked before each function and once the last constants were pushed.
+        //
+
+        for (int f = 0; f < functions.length; f++) {
+          int next = functions[f];
+
+          if (next > i && offset + size + next - i <= this.maxdepth) {
+            incOps(next - i);
+            push(statements, i, next - i);
+            i = next;
+          } else {
+            // The run exceeds maxdepth, push its constants one at a time so the op count,
+            // the stack and the statement reported in the error are those of the interpreted path
+            for (; i < next; i++) {
+              incOps();
+              push(statements[i]);
+            }
+          }
+
+          if (i < n) {
+            handleSignal();
+            incOps();
+            ((WarpScriptStackFunction) statements[i]).apply(this);
+            i++;
+          }
+        }
+
+        handleSignal();
+      }
+
+      for (; i < n; i++) {
         handleSignal();
 
         Object stmt = macro.get(i);
@@ -1528,6 +1588,15 @@ public class MemoryWarpScriptStack implements WarpScriptStack, Progressable {
     this.currentops++;
   }
 
+  /**
+   * Increment the operation count by 'ops'
+   *
+   * @throws WarpScriptException
+   */
+  public void incOps(long ops) throws WarpScriptException {
+    this.currentops += ops;
+  }
+
   public void checkOps() throws WarpScriptException {
     if (this.currentops > this.maxops) {
       Sensision.update(SensisionConstants.SENSISION_CLASS_WARPSCRIPT_OPSCOUNT_EXCEEDED, Sensision.EMPTY_LABELS, 1);
@@ -1730,6 +1799,11 @@ public class MemoryWarpScriptStack implements WarpScriptStack, Progressable {
         parentStack.incOps();
       }
 
+      @Override
+      public void incOps(long ops) throws WarpScriptException {
+        parentStack.incOps(ops);
+      }
+
       @Override
       public void checkOps() throws WarpScriptException {
         parentStack.checkOps();
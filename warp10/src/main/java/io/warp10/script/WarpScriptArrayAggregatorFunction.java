@@ -0,0 +1,46 @@
+//
+//   Copyright 2024  SenX S.A.S.
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.script;
+
+/**
+ * Aggregator which can be applied directly on slices of primitive arrays
+ * of numeric values, without the boxing and copying needed by the array of
+ * arrays passed to WarpScriptAggregatorFunction#apply.
+ *
+ * BUCKETIZE, MAP and REDUCE call applyOnArrays instead of apply when the
+ * values to aggregate are all non null and either all LONG or all DOUBLE.
+ *
+ * The arrays are views on the data being aggregated, implementations MUST NOT
+ * modify them nor keep references to them.
+ *
+ * Functions relying on the window parameters or on the names and labels
+ * passed to apply should not implement this interface.
+ */
+public interface WarpScriptArrayAggregatorFunction extends WarpScriptAggregatorFunction {
+  /**
+   * @param tick Tick for which the aggregation is computed
+   * @param ticks Array of ticks
+   * @param locations Array of locations, null if there are no locations
+   * @param elevations Array of elevations, null if there are no elevations
+   * @param longValues Array of values if they are of type LONG, null otherwise
+   * @param doubleValues Array of values if they are of type DOUBLE, null otherwise
+   * @param offset Index of the first element to aggregate in the arrays
+   * @param length Number of elements to aggregate
+   * @return An array with the same content as the one returned by apply
+   */
+  public Object[] applyOnArrays(long tick, long[] ticks, long[] locations, long[] elevations, long[] longValues, double[] doubleValues, int offset, int length) throws WarpScriptException;
+}
@@ -394,6 +394,7 @@ import io.warp10.script.functions.MAXGEOCELLS;
 import io.warp10.script.functions.MAXGTS;
 import io.warp10.script.functions.MAXJSON;
 import io.warp10.script.functions.MAXLONG;
+import io.warp10.script.functions.MAXPARALLELISM;
 import io.warp10.script.functions.MAXLOOP;
 import io.warp10.script.functions.MAXOPS;
 import io.warp10.script.functions.MAXPIXELS;
@@ -1187,6 +1188,7 @@ public class WarpScriptLib {
   public static final String MAXLOOP = "MAXLOOP";
   public static final String MAXBUCKETS = "MAXBUCKETS";
   public static final String MAXGEOCELLS = "MAXGEOCELLS";
+  public static final String MAXPARALLELISM = "MAXPARALLELISM";
   public static final String MAXPIXELS = "MAXPIXELS";
   public static final String MAXRECURSION = "MAXRECURSION";
   public static final String OPS = "OPS";
@@ -2041,6 +2043,7 @@ public class WarpScriptLib {
     addNamedWarpScriptFunction(new MAXLOOP(MAXLOOP));
     addNamedWarpScriptFunction(new MAXBUCKETS(MAXBUCKETS));
     addNamedWarpScriptFunction(new MAXGEOCELLS(MAXGEOCELLS));
+    addNamedWarpScriptFunction(new MAXPARALLELISM(MAXPARALLELISM));
     addNamedWarpScriptFunction(new MAXPIXELS(MAXPIXELS));
     addNamedWarpScriptFunction(new MAXRECURSION(MAXRECURSION));
     addNamedWarpScriptFunction(new OPS(OPS));
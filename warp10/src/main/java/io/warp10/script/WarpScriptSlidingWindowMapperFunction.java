@@ -0,0 +1,35 @@
+//
+//   Copyright 2024  SenX S.A.S.
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.script;
+
+import io.warp10.continuum.gts.GeoTimeSerie;
+import io.warp10.continuum.gts.SlidingWindow;
+
+/**
+ * Mapper which can update its result incrementally when the window
+ * it is applied on slides, instead of being applied on a copy of each window.
+ */
+public interface WarpScriptSlidingWindowMapperFunction extends WarpScriptMapperFunction {
+  /**
+   * Create a window sliding on a GTS
+   *
+   * @param gts Sorted GTS the window will slide on
+   * @param reversed Flag indicating whether the window moves towards older ticks
+   * @return a new SlidingWindow or null if the mapper cannot be computed incrementally on this GTS
+   */
+  public SlidingWindow slidingWindow(GeoTimeSerie gts, boolean reversed) throws WarpScriptException;
+}
@@ -16,11 +16,13 @@
 
 package io.warp10.script;
 
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.RandomAccess;
 import java.util.concurrent.atomic.AtomicLong;
 
 import io.warp10.continuum.store.DirectoryClient;
@@ -62,6 +64,7 @@ public interface WarpScriptStack {
   public static final int DEFAULT_MAX_SYMBOLS = 64;
   public static final long DEFAULT_MAX_PIXELS = 1000000L;
   public static final long DEFAULT_MAX_JSON = 20L * 1024L * 1024L; // 20MB
+  public static final int DEFAULT_MAX_PARALLELISM = 1;
   public static final long DEFAULT_REGISTERS = 256;
 
   public static final String MACRO_START = "<%";
@@ -225,6 +228,12 @@ public interface WarpScriptStack {
   public static final String ATTRIBUTE_MAX_GEOCELLS = "stack.maxgeocells";
   public static final String ATTRIBUTE_MAX_GEOCELLS_HARD = "stack.maxgeocells.hard";
 
+  /**
+   * Maximum number of partitions evaluated in parallel by REDUCE and APPLY
+   */
+  public static final String ATTRIBUTE_MAX_PARALLELISM = "stack.maxparallelism";
+  public static final String ATTRIBUTE_MAX_PARALLELISM_HARD = "stack.maxparallelism.hard";
+
   /**
    * Current number of operations performed on this stack
    */
@@ -361,6 +370,32 @@ public interface WarpScriptStack {
     private int size = 0;
     private Object[] statements = new Object[16];
 
+    /**
+     * Compiled form of the macro, reset whenever the statements are modified
+     */
+    private Compiled compiled = null;
+
+    /**
+     * Compiled form of a macro, in which the statements are split in runs of constants
+     * each followed by a function.
+     */
+    public static final class Compiled {
+      /**
+       * Statements of the macro when it was compiled
+       */
+      public final Object[] statements;
+
+      /**
+       * Indices of the statements which are functions, followed by the number of statements
+       */
+      public final int[] functions;
+
+      private Compiled(Object[] statements, int[] functions) {
+        this.statements = statements;
+        this.functions = functions;
+      }
+    }
+
     public boolean isExpired() {
       return (Long.MIN_VALUE != this.expiry) && (this.expiry < System.currentTimeMillis());
     }
@@ -372,6 +407,7 @@ public interface WarpScriptStack {
     public void add(Object o) {
       ensureCapacity(1);
       statements[size++] = o;
+      compiled = null;
     }
 
     public Object get(int idx) {
@@ -385,11 +421,81 @@ public interface WarpScriptStack {
     public void setSize(int size) {
       if (size < this.size && size >= 0) {
         this.size = size;
+        this.compiled = null;
       }
     }
 
+    /**
+     * Return a view of the statements of the macro, statements can be replaced through this view.
+     */
     public List<Object> statements() {
-      return Arrays.asList(this.statements).subList(0, size);
+      return new Statements();
+    }
+
+    private final class Statements extends AbstractList<Object> implements RandomAccess {
+      private final int size = Macro.this.size;
+
+      @Override
+      public Object get(int index) {
+        if (index >= this.size) {
+          throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + this.size);
+        }
+        return statements[index];
+      }
+
+      @Override
+      public Object set(int index, Object element) {
+        if (index >= this.size) {
+          throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + this.size);
+        }
+        Object previous = statements[index];
+        statements[index] = element;
+        compiled = null;
+        return previous;
+      }
+
+      @Override
+      public int size() {
+        return this.size;
+      }
+    }
+
+    /**
+     * Return the compiled form of this macro, computing it if the macro was modified since it was last compiled.
+     */
+    public Compiled compile() {
+      Compiled compiled = this.compiled;
+
+      if (null != compiled) {
+        return compiled;
+      }
+
+      Object[] stmts = Arrays.copyOf(this.statements, this.size);
+
+      int nfunctions = 0;
+
+      for (Object stmt: stmts) {
+        if (stmt instanceof WarpScriptStackFunction) {
+          nfunctions++;
+        }
+      }
+
+      int[] functions = new int[nfunctions + 1];
+
+      nfunctions = 0;
+
+      for (int i = 0; i < stmts.length; i++) {
+        if (stmts[i] instanceof WarpScriptStackFunction) {
+          functions[nfunctions++] = i;
+        }
+      }
+
+      functions[nfunctions] = stmts.length;
+
+      compiled = new Compiled(stmts, functions);
+      this.compiled = compiled;
+
+      return compiled;
     }
 
     public void addAll(Macro macro) {
@@ -399,6 +505,7 @@ public interface WarpScriptStack {
 
       System.arraycopy(macro.statements, 0, this.statements, size, n);
       size += n;
+      compiled = null;
     }
 
     public void setSecure(boolean secure) {
@@ -644,6 +751,7 @@ public interface WarpScriptStack {
   String CAPABILITY_MAXJSON = "maxjson";
   String CAPABILITY_MAXLOOP = "maxloop";
   String CAPABILITY_MAXOPS = "maxops";
+  String CAPABILITY_MAXPARALLELISM = "maxparallelism";
   String CAPABILITY_MAXPIXELS = "maxpixels";
   String CAPABILITY_MAXRECURSION = "maxrecursion";
   String CAPABILITY_MAXSYMBOLS = "maxsymbols";
@@ -17,17 +17,19 @@
 package io.warp10.script.aggregator;
 
 import io.warp10.continuum.gts.GeoTimeSerie;
+import io.warp10.continuum.gts.SlidingWindow;
 import io.warp10.script.NamedWarpScriptFunction;
+import io.warp10.script.WarpScriptArrayAggregatorFunction;
 import io.warp10.script.WarpScriptBucketizerFunction;
-import io.warp10.script.WarpScriptMapperFunction;
 import io.warp10.script.WarpScriptReducerFunction;
+import io.warp10.script.WarpScriptSlidingWindowMapperFunction;
 import io.warp10.script.WarpScriptException;
 
 /**
  * Return the number of measures with elevation and location from
  * the latest measure.
  */
-public class Count extends NamedWarpScriptFunction implements WarpScriptMapperFunction, WarpScriptBucketizerFunction, WarpScriptReducerFunction {
+public class Count extends NamedWarpScriptFunction implements WarpScriptSlidingWindowMapperFunction, WarpScriptBucketizerFunction, WarpScriptReducerFunction, WarpScriptArrayAggregatorFunction {
   
   private final boolean omitNulls;
   
@@ -71,4 +73,48 @@ public class Count extends NamedWarpScriptFunction implements WarpScriptMapperFu
     
     return new Object[] { tick, location, elevation, count };    
   }
+
+  @Override
+  public SlidingWindow slidingWindow(GeoTimeSerie gts, boolean reversed) {
+    //
+    // GTS cannot contain null values so the window size is the count
+    //
+
+    return new SlidingWindow(gts, reversed) {
+      @Override
+      protected void add(int idx) {}
+
+      @Override
+      protected void remove(int idx) {}
+
+      @Override
+      protected Object[] result(long tick) {
+        int idx = lastIndex();
+        return new Object[] { tick, location(idx), elevation(idx), (long) size() };
+      }
+    };
+  }
+
+  @Override
+  public Object[] applyOnArrays(long tick, long[] ticks, long[] locations, long[] elevations, long[] longValues, double[] doubleValues, int offset, int length) {
+    if (0 == length) {
+      return new Object[] { Long.MAX_VALUE, GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, null };
+    }
+
+    // Location and elevation of the latest measure
+    int latest = -1;
+    long timestamp = Long.MIN_VALUE;
+
+    for (int i = offset; i < offset + length; i++) {
+      if (ticks[i] > timestamp) {
+        latest = i;
+        timestamp = ticks[i];
+      }
+    }
+
+    long location = -1 == latest || null == locations ? GeoTimeSerie.NO_LOCATION : locations[latest];
+    long elevation = -1 == latest || null == elevations ? GeoTimeSerie.NO_ELEVATION : elevations[latest];
+
+    return new Object[] { tick, location, elevation, (long) length };
+  }
 }
@@ -17,16 +17,18 @@
 package io.warp10.script.aggregator;
 
 import io.warp10.continuum.gts.GeoTimeSerie;
+import io.warp10.continuum.gts.SlidingWindow;
 import io.warp10.script.NamedWarpScriptFunction;
+import io.warp10.script.WarpScriptArrayAggregatorFunction;
 import io.warp10.script.WarpScriptBucketizerFunction;
-import io.warp10.script.WarpScriptMapperFunction;
 import io.warp10.script.WarpScriptReducerFunction;
+import io.warp10.script.WarpScriptSlidingWindowMapperFunction;
 import io.warp10.script.WarpScriptException;
 
 /**
  * Retain the first measurement of the interval
  */
-public class First extends NamedWarpScriptFunction implements WarpScriptMapperFunction, WarpScriptBucketizerFunction, WarpScriptReducerFunction {
+public class First extends NamedWarpScriptFunction implements WarpScriptSlidingWindowMapperFunction, WarpScriptBucketizerFunction, WarpScriptReducerFunction, WarpScriptArrayAggregatorFunction {
   
   public First(String name) {
     super(name);
@@ -54,4 +56,39 @@ public class First extends NamedWarpScriptFunction implements WarpScriptMapperFu
     
     return new Object[] { ticks[idx], locations[idx], elevations[idx], values[idx] };
   }
+
+  @Override
+  public SlidingWindow slidingWindow(GeoTimeSerie gts, boolean reversed) {
+    return new SlidingWindow(gts, reversed) {
+      @Override
+      protected void add(int idx) {}
+
+      @Override
+      protected void remove(int idx) {}
+
+      @Override
+      protected Object[] result(long tick) {
+        int idx = firstIndex();
+        return new Object[] { tick(idx), location(idx), elevation(idx), value(idx) };
+      }
+    };
+  }
+
+  @Override
+  public Object[] applyOnArrays(long tick, long[] ticks, long[] locations, long[] elevations, long[] longValues, double[] doubleValues, int offset, int length) {
+    if (0 == length) {
+      return new Object[] { Long.MAX_VALUE, GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, null };
+    }
+
+    long first = Long.MAX_VALUE;
+    int idx = offset;
+    for (int i = offset; i < offset + length; i++) {
+      if (ticks[i] < first) {
+        first = ticks[i];
+        idx = i;
+      }
+    }
+
+    return new Object[] { ticks[idx], null == locations ? GeoTimeSerie.NO_LOCATION : locations[idx], null == elevations ? GeoTimeSerie.NO_ELEVATION : elevations[idx], null != longValues ? (Object) longValues[idx] : (Object) doubleValues[idx] };
+  }
 }
@@ -17,16 +17,19 @@
 package io.warp10.script.aggregator;
 
 import io.warp10.continuum.gts.GeoTimeSerie;
+import io.warp10.continuum.gts.GeoTimeSerie.TYPE;
+import io.warp10.continuum.gts.SlidingWindow;
 import io.warp10.script.NamedWarpScriptFunction;
+import io.warp10.script.WarpScriptArrayAggregatorFunction;
 import io.warp10.script.WarpScriptBucketizerFunction;
-import io.warp10.script.WarpScriptMapperFunction;
 import io.warp10.script.WarpScriptReducerFunction;
+import io.warp10.script.WarpScriptSlidingWindowMapperFunction;
 import io.warp10.script.WarpScriptException;
 
 /**
  * Retain the measurement with the highest value and timestamp
  */
-public class Max extends NamedWarpScriptFunction implements WarpScriptMapperFunction, WarpScriptBucketizerFunction, WarpScriptReducerFunction {
+public class Max extends NamedWarpScriptFunction implements WarpScriptSlidingWindowMapperFunction, WarpScriptBucketizerFunction, WarpScriptReducerFunction, WarpScriptArrayAggregatorFunction {
   
   private final boolean ignoreNulls;
   
@@ -137,4 +140,64 @@ public class Max extends NamedWarpScriptFunction implements WarpScriptMapperFunc
     
     return new Object[] { ticks[idx], locations[idx], elevations[idx], value };
   }
+
+  @Override
+  public SlidingWindow slidingWindow(GeoTimeSerie gts, boolean reversed) {
+    if (TYPE.LONG == gts.getType()) {
+      return new SlidingWindow.Extremum(gts, reversed) {
+        @Override
+        protected int compare(int idx1, int idx2) {
+          return Long.compare(longValue(idx2), longValue(idx1));
+        }
+
+        @Override
+        protected Object[] result(long tick) {
+          int idx = extremum();
+          return new Object[] { tick(idx), location(idx), elevation(idx), longValue(idx) };
+        }
+      };
+    } else if (TYPE.DOUBLE == gts.getType()) {
+      return new SlidingWindow.Extremum(gts, reversed) {
+        @Override
+        protected int compare(int idx1, int idx2) {
+          return Double.compare(doubleValue(idx2), doubleValue(idx1));
+        }
+
+        @Override
+        protected Object[] result(long tick) {
+          int idx = extremum();
+          return new Object[] { tick(idx), location(idx), elevation(idx), doubleValue(idx) };
+        }
+      };
+    } else {
+      return null;
+    }
+  }
+
+  @Override
+  public Object[] applyOnArrays(long tick, long[] ticks, long[] locations, long[] elevations, long[] longValues, double[] doubleValues, int offset, int length) {
+    if (0 == length) {
+      return new Object[] { Long.MAX_VALUE, GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, null };
+    }
+
+    int idx = offset;
+
+    if (null != longValues) {
+      for (int i = offset + 1; i < offset + length; i++) {
+        int cmp = Long.compare(longValues[idx], longValues[i]);
+        if (cmp < 0 || (0 == cmp && ticks[i] < ticks[idx])) {
+          idx = i;
+        }
+      }
+    } else {
+      for (int i = offset + 1; i < offset + length; i++) {
+        int cmp = Double.compare(doubleValues[idx], doubleValues[i]);
+        if (cmp < 0 || (0 == cmp && ticks[i] < ticks[idx])) {
+          idx = i;
+        }
+      }
+    }
+
+    return new Object[] { ticks[idx], null == locations ? GeoTimeSerie.NO_LOCATION : locations[idx], null == elevations ? GeoTimeSerie.NO_ELEVATION : elevations[idx], null != longValues ? (Object) longValues[idx] : (Object) doubleValues[idx] };
+  }
 }
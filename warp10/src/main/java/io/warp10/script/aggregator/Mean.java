@@ -18,10 +18,12 @@ package io.warp10.script.aggregator;
 
 import io.warp10.continuum.gts.GeoTimeSerie;
 import io.warp10.continuum.gts.GeoTimeSerie.TYPE;
+import io.warp10.continuum.gts.SlidingWindow;
 import io.warp10.script.NamedWarpScriptFunction;
+import io.warp10.script.WarpScriptArrayAggregatorFunction;
 import io.warp10.script.WarpScriptBucketizerFunction;
-import io.warp10.script.WarpScriptMapperFunction;
 import io.warp10.script.WarpScriptReducerFunction;
+import io.warp10.script.WarpScriptSlidingWindowMapperFunction;
 import io.warp10.script.WarpScriptException;
 
 import com.geoxp.GeoXPLib;
@@ -31,7 +33,7 @@ import com.geoxp.GeoXPLib;
  * The returned location will be the centroid of all locations.
  * The returned elevation will be the average of all elevations.
  */
-public class Mean extends NamedWarpScriptFunction implements WarpScriptMapperFunction, WarpScriptBucketizerFunction, WarpScriptReducerFunction {
+public class Mean extends NamedWarpScriptFunction implements WarpScriptSlidingWindowMapperFunction, WarpScriptBucketizerFunction, WarpScriptReducerFunction, WarpScriptArrayAggregatorFunction {
   
   private final boolean ignoreNulls;
   
@@ -141,4 +143,149 @@ public class Mean extends NamedWarpScriptFunction implements WarpScriptMapperFun
     
     return new Object[] { ticks[0] + (ticksum / ticks.length), meanlocation, meanelevation, meanvalue };
   }
+
+  @Override
+  public SlidingWindow slidingWindow(GeoTimeSerie gts, boolean reversed) {
+    // Sums of doubles depend on the order of the additions, they are recomputed on each window
+    if (TYPE.LONG != gts.getType()) {
+      return null;
+    }
+
+    return new SlidingWindow(gts, reversed) {
+      private long suml = 0L;
+      // Sum of ticks, the sum of the offsets to the first tick is derived from it, overflows cancel out
+      private long ticksum = 0L;
+      private long latitudes = 0L;
+      private long longitudes = 0L;
+      private int locationcount = 0;
+      private long elev = 0L;
+      private int elevationcount = 0;
+
+      @Override
+      protected void add(int idx) {
+        ticksum += tick(idx);
+
+        long location = location(idx);
+        if (GeoTimeSerie.NO_LOCATION != location) {
+          long[] xy = GeoXPLib.xyFromGeoXPPoint(location);
+          latitudes += xy[0];
+          longitudes += xy[1];
+          locationcount++;
+        }
+
+        long elevation = elevation(idx);
+        if (GeoTimeSerie.NO_ELEVATION != elevation) {
+          elev += elevation;
+          elevationcount++;
+        }
+
+        suml += longValue(idx);
+      }
+
+      @Override
+      protected void remove(int idx) {
+        ticksum -= tick(idx);
+
+        long location = location(idx);
+        if (GeoTimeSerie.NO_LOCATION != location) {
+          long[] xy = GeoXPLib.xyFromGeoXPPoint(location);
+          latitudes -= xy[0];
+          longitudes -= xy[1];
+          locationcount--;
+        }
+
+        long elevation = elevation(idx);
+        if (GeoTimeSerie.NO_ELEVATION != elevation) {
+          elev -= elevation;
+          elevationcount--;
+        }
+
+        suml -= longValue(idx);
+      }
+
+      @Override
+      protected Object[] result(long tick) {
+        int n = size();
+        long first = tick(firstIndex());
+
+        long meanlocation = GeoTimeSerie.NO_LOCATION;
+        long meanelevation = GeoTimeSerie.NO_ELEVATION;
+
+        if (locationcount > 0) {
+          meanlocation = GeoXPLib.toGeoXPPoint(latitudes / locationcount, longitudes / locationcount);
+        }
+
+        if (elevationcount > 0) {
+          meanelevation = elev / elevationcount;
+        }
+
+        return new Object[] { first + ((ticksum - n * first) / n), meanlocation, meanelevation, suml / (double) n };
+      }
+    };
+  }
+
+  @Override
+  public Object[] applyOnArrays(long tick, long[] ticks, long[] locations, long[] elevations, long[] longValues, double[] doubleValues, int offset, int length) {
+    if (0 == length) {
+      return new Object[] { Long.MAX_VALUE, GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, null };
+    }
+
+    long suml = null != longValues ? longValues[offset] : 0L;
+    double sumd = null != doubleValues ? doubleValues[offset] : 0.0D;
+    long ticksum = 0L;
+    long latitudes = 0L;
+    long longitudes = 0L;
+    int locationcount = 0;
+    long elev = 0L;
+    int elevationcount = 0;
+
+    for (int i = offset; i < offset + length; i++) {
+      ticksum += ticks[i] - ticks[offset];
+
+      if (null != locations && GeoTimeSerie.NO_LOCATION != locations[i]) {
+        long[] xy = GeoXPLib.xyFromGeoXPPoint(locations[i]);
+        latitudes += xy[0];
+        longitudes += xy[1];
+        locationcount++;
+      }
+
+      if (null != elevations && GeoTimeSerie.NO_ELEVATION != elevations[i]) {
+        elev += elevations[i];
+        elevationcount++;
+      }
+
+      if (i == offset) {
+        continue;
+      }
+
+      if (null != longValues) {
+        suml = suml + longValues[i];
+      } else {
+        sumd = sumd + doubleValues[i];
+      }
+    }
+
+    long meanlocation = GeoTimeSerie.NO_LOCATION;
+    long meanelevation = GeoTimeSerie.NO_ELEVATION;
+
+    if (locationcount > 0) {
+      latitudes = latitudes / locationcount;
+      longitudes = longitudes / locationcount;
+      meanlocation = GeoXPLib.toGeoXPPoint(latitudes, longitudes);
+    }
+
+    if (elevationcount > 0) {
+      meanelevation = elev / elevationcount;
+    }
+
+    Object meanvalue;
+
+    if (null != longValues) {
+      meanvalue = suml / (double) length;
+    } else {
+      meanvalue = sumd / length;
+    }
+
+    return new Object[] { ticks[offset] + (ticksum / length), meanlocation, meanelevation, meanvalue };
+  }
 }
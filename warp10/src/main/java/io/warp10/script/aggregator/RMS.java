@@ -19,6 +19,7 @@ package io.warp10.script.aggregator;
 import io.warp10.continuum.gts.GeoTimeSerie;
 import io.warp10.continuum.gts.GeoTimeSerie.TYPE;
 import io.warp10.script.NamedWarpScriptFunction;
+import io.warp10.script.WarpScriptArrayAggregatorFunction;
 import io.warp10.script.WarpScriptBucketizerFunction;
 import io.warp10.script.WarpScriptMapperFunction;
 import io.warp10.script.WarpScriptReducerFunction;
@@ -29,7 +30,7 @@ import io.warp10.script.WarpScriptException;
  * returns elevation and location from the latest measure.
  * Computation is done with doubles. If longs, result is casted to long at the end.
  */
-public class RMS extends NamedWarpScriptFunction implements WarpScriptMapperFunction, WarpScriptBucketizerFunction, WarpScriptReducerFunction {
+public class RMS extends NamedWarpScriptFunction implements WarpScriptMapperFunction, WarpScriptBucketizerFunction, WarpScriptReducerFunction, WarpScriptArrayAggregatorFunction {
 
   private final boolean ignoreNulls;
 
@@ -116,4 +117,31 @@ public class RMS extends NamedWarpScriptFunction implements WarpScriptMapperFunc
     return new Object[]{tick, location, elevation, meanvalue};
   }
 
+  @Override
+  public Object[] applyOnArrays(long tick, long[] ticks, long[] locations, long[] elevations, long[] longValues, double[] doubleValues, int offset, int length) {
+    if (0 == length) {
+      return new Object[] { Long.MAX_VALUE, GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, null };
+    }
+
+    // Location and elevation of the latest measure
+    int latest = -1;
+    long timestamp = Long.MIN_VALUE;
+
+    double sqsumd = 0.0D;
+
+    for (int i = offset; i < offset + length; i++) {
+      if (ticks[i] > timestamp) {
+        latest = i;
+        timestamp = ticks[i];
+      }
+      sqsumd += Math.pow(null != longValues ? (double) longValues[i] : doubleValues[i], 2);
+    }
+
+    long location = -1 == latest || null == locations ? GeoTimeSerie.NO_LOCATION : locations[latest];
+    long elevation = -1 == latest || null == elevations ? GeoTimeSerie.NO_ELEVATION : elevations[latest];
+
+    double rms = Math.sqrt(sqsumd / length);
+
+    return new Object[] { tick, location, elevation, null != longValues ? (Object) (long) rms : (Object) rms };
+  }
 }
@@ -18,7 +18,7 @@ package io.warp10.script.aggregator;
 
 import io.warp10.continuum.gts.GeoTimeSerie;
 import io.warp10.script.NamedWarpScriptFunction;
-import io.warp10.script.WarpScriptAggregatorFunction;
+import io.warp10.script.WarpScriptArrayAggregatorFunction;
 import io.warp10.script.WarpScriptBucketizerFunction;
 import io.warp10.script.WarpScriptMapperFunction;
 import io.warp10.script.WarpScriptReducerFunction;
@@ -26,10 +26,10 @@ import io.warp10.script.WarpScriptStackFunction;
 import io.warp10.script.WarpScriptException;
 import io.warp10.script.WarpScriptStack;
 
-public class StandardDeviation extends NamedWarpScriptFunction implements WarpScriptMapperFunction, WarpScriptReducerFunction, WarpScriptBucketizerFunction {
+public class StandardDeviation extends NamedWarpScriptFunction implements WarpScriptMapperFunction, WarpScriptReducerFunction, WarpScriptBucketizerFunction, WarpScriptArrayAggregatorFunction {
   
   private final boolean forbidNulls;
-  private final WarpScriptAggregatorFunction variance;
+  private final WarpScriptArrayAggregatorFunction variance;
   private final boolean useBessel;
 
   public StandardDeviation(String name, boolean useBessel, boolean forbidNulls) {
@@ -93,4 +93,17 @@ public class StandardDeviation extends NamedWarpScriptFunction implements WarpSc
   public String toString() {
     return Boolean.toString(this.useBessel) + " " + this.getName();
   }
+
+  @Override
+  public Object[] applyOnArrays(long tick, long[] ticks, long[] locations, long[] elevations, long[] longValues, double[] doubleValues, int offset, int length) throws WarpScriptException {
+    Object[] var = variance.applyOnArrays(tick, ticks, locations, elevations, longValues, doubleValues, offset, length);
+
+    if (4 != var.length || !(var[3] instanceof Number)) {
+      return new Object[] { Long.MAX_VALUE, GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, null };
+    }
+
+    var[3] = Math.sqrt(((Number) var[3]).doubleValue());
+
+    return var;
+  }
 }
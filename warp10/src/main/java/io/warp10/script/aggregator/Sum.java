@@ -18,17 +18,19 @@ package io.warp10.script.aggregator;
 
 import io.warp10.continuum.gts.GeoTimeSerie;
 import io.warp10.continuum.gts.GeoTimeSerie.TYPE;
+import io.warp10.continuum.gts.SlidingWindow;
 import io.warp10.script.NamedWarpScriptFunction;
+import io.warp10.script.WarpScriptArrayAggregatorFunction;
 import io.warp10.script.WarpScriptBucketizerFunction;
-import io.warp10.script.WarpScriptMapperFunction;
 import io.warp10.script.WarpScriptReducerFunction;
+import io.warp10.script.WarpScriptSlidingWindowMapperFunction;
 import io.warp10.script.WarpScriptException;
 
 /**
  * Return the sum of measures with elevation and location from
  * the latest measure.
  */
-public class Sum extends NamedWarpScriptFunction implements WarpScriptMapperFunction, WarpScriptBucketizerFunction, WarpScriptReducerFunction {
+public class Sum extends NamedWarpScriptFunction implements WarpScriptSlidingWindowMapperFunction, WarpScriptBucketizerFunction, WarpScriptReducerFunction, WarpScriptArrayAggregatorFunction {
   
   private final boolean ignoreNulls;
   
@@ -110,4 +112,66 @@ public class Sum extends NamedWarpScriptFunction implements WarpScriptMapperFunc
     
     return new Object[] { 0L, location, elevation, sum };    
   }
+
+  @Override
+  public SlidingWindow slidingWindow(GeoTimeSerie gts, boolean reversed) {
+    if (TYPE.LONG == gts.getType()) {
+      return new SlidingWindow(gts, reversed) {
+        private long sum = 0L;
+
+        @Override
+        protected void add(int idx) {
+          sum += longValue(idx);
+        }
+
+        @Override
+        protected void remove(int idx) {
+          sum -= longValue(idx);
+        }
+
+        @Override
+        protected Object[] result(long tick) {
+          int idx = lastIndex();
+          return new Object[] { 0L, location(idx), elevation(idx), sum };
+        }
+      };
+    } else {
+      // Sums of doubles depend on the order of the additions, they are recomputed on each window
+      return null;
+    }
+  }
+
+  @Override
+  public Object[] applyOnArrays(long tick, long[] ticks, long[] locations, long[] elevations, long[] longValues, double[] doubleValues, int offset, int length) {
+    if (0 == length) {
+      return new Object[] { Long.MAX_VALUE, GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, null };
+    }
+
+    // Location and elevation of the latest measure
+    int latest = -1;
+    long timestamp = Long.MIN_VALUE;
+
+    long suml = null != longValues ? longValues[offset] : 0L;
+    double sumd = null != doubleValues ? doubleValues[offset] : 0.0D;
+
+    for (int i = offset; i < offset + length; i++) {
+      if (ticks[i] > timestamp) {
+        latest = i;
+        timestamp = ticks[i];
+      }
+      if (i == offset) {
+        continue;
+      }
+      if (null != longValues) {
+        suml = suml + longValues[i];
+      } else {
+        sumd = sumd + doubleValues[i];
+      }
+    }
+
+    long location = -1 == latest || null == locations ? GeoTimeSerie.NO_LOCATION : locations[latest];
+    long elevation = -1 == latest || null == elevations ? GeoTimeSerie.NO_ELEVATION : elevations[latest];
+
+    return new Object[] { 0L, location, elevation, null != longValues ? (Object) suml : (Object) sumd };
+  }
 }
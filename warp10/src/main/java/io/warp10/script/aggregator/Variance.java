@@ -19,6 +19,7 @@ package io.warp10.script.aggregator;
 import io.warp10.continuum.gts.GeoTimeSerie;
 import io.warp10.continuum.gts.GeoTimeSerie.TYPE;
 import io.warp10.script.NamedWarpScriptFunction;
+import io.warp10.script.WarpScriptArrayAggregatorFunction;
 import io.warp10.script.WarpScriptBucketizerFunction;
 import io.warp10.script.WarpScriptMapperFunction;
 import io.warp10.script.WarpScriptReducerFunction;
@@ -26,7 +27,7 @@ import io.warp10.script.WarpScriptStackFunction;
 import io.warp10.script.WarpScriptException;
 import io.warp10.script.WarpScriptStack;
 
-public class Variance extends NamedWarpScriptFunction implements WarpScriptMapperFunction, WarpScriptReducerFunction, WarpScriptBucketizerFunction {
+public class Variance extends NamedWarpScriptFunction implements WarpScriptMapperFunction, WarpScriptReducerFunction, WarpScriptBucketizerFunction, WarpScriptArrayAggregatorFunction {
   
   private final boolean useBessel;
   private final boolean forbidNulls;
@@ -141,7 +142,10 @@ public class Variance extends NamedWarpScriptFunction implements WarpScriptMappe
     // @see <a href="http://en.wikipedia.org/wiki/Variance">http://en.wikipedia.org/wiki/Variance</a>
     //
     
-    int n = nticks;
+    return new Object[] { 0L, location, elevation, variance(sum, sumsq, nticks) };
+  }
+
+  private double variance(double sum, double sumsq, int n) {
     double variance = (sumsq / (double) n) - (sum * sum) / (((double) n) * ((double) n));
     
     //
@@ -153,11 +157,45 @@ public class Variance extends NamedWarpScriptFunction implements WarpScriptMappe
       variance = variance * ((double) n) / (((double) n) - 1.0D);
     }
     
-    return new Object[] { 0L, location, elevation, variance };
+    return variance;
   }
   
   @Override
   public String toString() {
     return Boolean.toString(this.useBessel) + " " + this.getName();
   }
+
+  @Override
+  public Object[] applyOnArrays(long tick, long[] ticks, long[] locations, long[] elevations, long[] longValues, double[] doubleValues, int offset, int length) {
+    if (0 == length) {
+      return new Object[] { Long.MAX_VALUE, GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, null };
+    }
+
+    // Location and elevation of the latest measure
+    int latest = -1;
+    long timestamp = Long.MIN_VALUE;
+
+    double sum = 0.0D;
+    double sumsq = 0.0D;
+
+    for (int i = offset; i < offset + length; i++) {
+      if (ticks[i] > timestamp) {
+        latest = i;
+        timestamp = ticks[i];
+      }
+      double v = null != longValues ? (double) longValues[i] : doubleValues[i];
+      if (i == offset) {
+        sum = v;
+        sumsq = sum * sum;
+      } else {
+        sum += v;
+        sumsq += v * v;
+      }
+    }
+
+    long location = -1 == latest || null == locations ? GeoTimeSerie.NO_LOCATION : locations[latest];
+    long elevation = -1 == latest || null == elevations ? GeoTimeSerie.NO_ELEVATION : elevations[latest];
+
+    return new Object[] { 0L, location, elevation, variance(sum, sumsq, length) };
+  }
 }
@@ -18,6 +18,7 @@ package io.warp10.script.aggregator;
 
 import io.warp10.continuum.gts.GeoTimeSerie;
 import io.warp10.script.NamedWarpScriptFunction;
+import io.warp10.script.WarpScriptArrayAggregatorFunction;
 import io.warp10.script.WarpScriptBucketizerFunction;
 import io.warp10.script.WarpScriptException;
 import io.warp10.script.WarpScriptMapperFunction;
@@ -28,7 +29,7 @@ import io.warp10.script.WarpScriptReducerFunction;
  * This implements Welford's algorithm for numerical stability, see
  * https://www.johndcook.com/blog/2008/09/26/comparing-three-methods-of-computing-standard-deviation/
  */
-public class VarianceWelford extends NamedWarpScriptFunction implements WarpScriptMapperFunction, WarpScriptReducerFunction, WarpScriptBucketizerFunction {
+public class VarianceWelford extends NamedWarpScriptFunction implements WarpScriptMapperFunction, WarpScriptReducerFunction, WarpScriptBucketizerFunction, WarpScriptArrayAggregatorFunction {
 
   private final boolean useBessel;
   private final boolean forbidNulls;
@@ -117,4 +118,47 @@ public class VarianceWelford extends NamedWarpScriptFunction implements WarpScri
   public String toString() {
     return Boolean.toString(this.useBessel) + " " + this.getName();
   }
+
+  @Override
+  public Object[] applyOnArrays(long tick, long[] ticks, long[] locations, long[] elevations, long[] longValues, double[] doubleValues, int offset, int length) {
+    if (0 == length) {
+      return new Object[] { Long.MAX_VALUE, GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, null };
+    }
+
+    // Location and elevation of the latest measure
+    int latest = -1;
+    long timestamp = Long.MIN_VALUE;
+
+    double m = 0.0D;
+    double s = 0.0D;
+
+    for (int i = offset; i < offset + length; i++) {
+      if (ticks[i] > timestamp) {
+        latest = i;
+        timestamp = ticks[i];
+      }
+      double x = null != longValues ? (double) longValues[i] : doubleValues[i];
+      if (i == offset) {
+        m = x;
+        s = 0.0D;
+      } else {
+        double mnew = m + (x - m) / (i - offset + 1);
+        s = s + (x - m) * (x - mnew);
+        m = mnew;
+      }
+    }
+
+    long location = -1 == latest || null == locations ? GeoTimeSerie.NO_LOCATION : locations[latest];
+    long elevation = -1 == latest || null == elevations ? GeoTimeSerie.NO_ELEVATION : elevations[latest];
+
+    double variance;
+
+    if (length > 1 && useBessel) {
+      variance = s / (length - 1);
+    } else {
+      variance = s / length;
+    }
+
+    return new Object[] { 0L, location, elevation, variance };
+  }
 }
@@ -104,9 +104,9 @@ public class REDUCE extends NamedWarpScriptFunction implements WarpScriptStackFu
     }    
 
     if (this.flatten) {
-      stack.push(GTSHelper.reduce((WarpScriptReducerFunction) params.get(reducerIndex), series, bylabels, overrideTick));
+      stack.push(GTSHelper.reduce((WarpScriptReducerFunction) params.get(reducerIndex), series, bylabels, overrideTick, stack));
     } else {
-      stack.push(GTSHelper.reduceUnflattened((WarpScriptReducerFunction) params.get(reducerIndex), series, bylabels, overrideTick));
+      stack.push(GTSHelper.reduceUnflattened((WarpScriptReducerFunction) params.get(reducerIndex), series, bylabels, overrideTick, stack));
     }
     return stack;
   }
@@ -33,7 +33,7 @@ public class STRICTREDUCER extends NamedWarpScriptFunction implements WarpScript
     super(name);
   }
   
-  private static final class StringentReducer extends NamedWarpScriptFunction implements WarpScriptReducerFunction {
+  public static final class StringentReducer extends NamedWarpScriptFunction implements WarpScriptReducerFunction {
     
     private final WarpScriptReducerFunction reducer;
     
@@ -41,6 +41,10 @@ public class STRICTREDUCER extends NamedWarpScriptFunction implements WarpScript
       super(name);
       this.reducer = reducer;
     }
+
+    public WarpScriptReducerFunction getReducer() {
+      return this.reducer;
+    }
     
     @Override
     public Object apply(Object[] args) throws WarpScriptException {
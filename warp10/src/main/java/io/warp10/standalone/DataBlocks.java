@@ -0,0 +1,327 @@
+//
+//   Copyright 2024  SenX S.A.S.
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.standalone;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import io.warp10.BytesUtils;
+import io.warp10.continuum.gts.GTSDecoder;
+import io.warp10.continuum.gts.GTSEncoder;
+import io.warp10.continuum.store.Constants;
+import io.warp10.crypto.CryptoUtils;
+
+/**
+ * Layout of the compacted data blocks of the LevelDB backend.
+ *
+ * The time axis of each GTS is divided in buckets of a fixed span. The datapoints of a cold bucket are
+ * rewritten in one or more blocks whose keys are the row key of the first timestamp after the bucket
+ * followed by the reversed timestamp of the most recent datapoint of the block. Blocks therefore sort
+ * right before the rows of their bucket, which may still contain datapoints written after the compaction.
+ *
+ * A block value is a flags byte, the oldest and most recent timestamps of the block and the datapoints
+ * encoded by a GTSEncoder, possibly compressed and then encrypted.
+ *
+ * The span of the buckets is stored under SPAN_KEY when the first block is written, as blocks can no longer
+ * be read correctly if it is modified.
+ */
+final class DataBlocks {
+
+  /**
+   * Length of a row key, prefix, class id, labels id and reversed timestamp
+   */
+  static final int ROW_KEY_LENGTH = Constants.FDB_RAW_DATA_KEY_PREFIX.length + 8 + 8 + 8;
+
+  /**
+   * Length of a block key, row key of the end of the bucket followed by the reversed most recent timestamp of the block
+   */
+  static final int BLOCK_KEY_LENGTH = ROW_KEY_LENGTH + 8;
+
+  /**
+   * Length of the part of the keys which identifies a GTS
+   */
+  static final int GTS_PREFIX_LENGTH = Constants.FDB_RAW_DATA_KEY_PREFIX.length + 8 + 8;
+
+  private static final int FLAG_COMPRESSED = 0x01;
+  private static final int FLAG_ENCRYPTED = 0x02;
+
+  private static final int HEADER_LENGTH = 1 + 8 + 8;
+
+  /**
+   * Key of the span of the buckets, it sorts after the LevelDB end marker so it is never reached by scans
+   */
+  static final byte[] SPAN_KEY = new byte[] { (byte) 0xFF, 'b', 'l', 'o', 'c', 'k', 's', '.', 's', 'p', 'a', 'n' };
+
+  static final class Datapoint {
+    final long timestamp;
+    final long location;
+    final long elevation;
+    final Object value;
+
+    Datapoint(GTSDecoder decoder) {
+      this.timestamp = decoder.getTimestamp();
+      this.location = decoder.getLocation();
+      this.elevation = decoder.getElevation();
+      this.value = decoder.getBinaryValue();
+    }
+  }
+
+  /**
+   * Virtual row holding a datapoint of a block. The datapoint is added as is to the fetched encoders,
+   * its value is only encoded as a regular row value if requested.
+   */
+  static final class Row implements Entry<byte[],byte[]> {
+    private final byte[] key;
+    private final Datapoint datapoint;
+    private final byte[] aesKey;
+
+    /**
+     * Share of the size of the block attributed to the datapoint
+     */
+    private final int size;
+
+    private byte[] value = null;
+
+    Row(byte[] key, Datapoint datapoint, byte[] aesKey, int size) {
+      this.key = key;
+      this.datapoint = datapoint;
+      this.aesKey = aesKey;
+      this.size = size;
+    }
+
+    @Override
+    public byte[] getKey() {
+      return this.key;
+    }
+
+    @Override
+    public byte[] getValue() {
+      if (null == this.value) {
+        try {
+          this.value = row(this.datapoint, this.aesKey);
+        } catch (IOException ioe) {
+          throw new RuntimeException(ioe);
+        }
+      }
+      return this.value;
+    }
+
+    @Override
+    public byte[] setValue(byte[] value) {
+      throw new UnsupportedOperationException();
+    }
+
+    Datapoint getDatapoint() {
+      return this.datapoint;
+    }
+
+    int size() {
+      return this.size;
+    }
+  }
+
+  private DataBlocks() {}
+
+  static boolean isRowKey(byte[] key) {
+    return ROW_KEY_LENGTH == key.length && hasPrefix(key);
+  }
+
+  static boolean isBlockKey(byte[] key) {
+    return BLOCK_KEY_LENGTH == key.length && hasPrefix(key);
+  }
+
+  private static boolean hasPrefix(byte[] key) {
+    return 0 == BytesUtils.compareTo(key, 0, Constants.FDB_RAW_DATA_KEY_PREFIX.length, Constants.FDB_RAW_DATA_KEY_PREFIX, 0, Constants.FDB_RAW_DATA_KEY_PREFIX.length);
+  }
+
+  static boolean sameGTS(byte[] key, byte[] other) {
+    return 0 == BytesUtils.compareTo(key, 0, GTS_PREFIX_LENGTH, other, 0, GTS_PREFIX_LENGTH);
+  }
+
+  /**
+   * Return the timestamp of a row key.
+   */
+  static long timestamp(byte[] rowkey) {
+    return Long.MAX_VALUE - ByteBuffer.wrap(rowkey, GTS_PREFIX_LENGTH, 8).order(ByteOrder.BIG_ENDIAN).getLong();
+  }
+
+  /**
+   * Return the end of the bucket of a block key.
+   */
+  static long bucketEnd(byte[] blockkey) {
+    return timestamp(blockkey) - 1L;
+  }
+
+  /**
+   * Return the last timestamp of the bucket containing a timestamp, Long.MAX_VALUE for the last bucket which is never compacted.
+   */
+  static long bucketEnd(long timestamp, long span) {
+    long remaining = span - 1L - Math.floorMod(timestamp, span);
+
+    if (timestamp > Long.MAX_VALUE - remaining) {
+      return Long.MAX_VALUE;
+    }
+
+    return timestamp + remaining;
+  }
+
+  /**
+   * Build a row key for the GTS of another key.
+   */
+  static byte[] rowKey(byte[] key, long timestamp) {
+    byte[] rowkey = Arrays.copyOf(key, ROW_KEY_LENGTH);
+    ByteBuffer.wrap(rowkey, GTS_PREFIX_LENGTH, 8).order(ByteOrder.BIG_ENDIAN).putLong(Long.MAX_VALUE - timestamp);
+    return rowkey;
+  }
+
+  /**
+   * Build the key of the first block of a bucket, which is also the key of the row of the first timestamp after the bucket.
+   */
+  static byte[] bucketKey(byte[] key, long bucketEnd) {
+    return rowKey(key, bucketEnd + 1L);
+  }
+
+  static byte[] blockKey(byte[] key, long bucketEnd, long newest) {
+    byte[] blockkey = Arrays.copyOf(bucketKey(key, bucketEnd), BLOCK_KEY_LENGTH);
+    ByteBuffer.wrap(blockkey, ROW_KEY_LENGTH, 8).order(ByteOrder.BIG_ENDIAN).putLong(Long.MAX_VALUE - newest);
+    return blockkey;
+  }
+
+  /**
+   * Return the oldest timestamp of a block.
+   */
+  static long oldest(byte[] block) {
+    return ByteBuffer.wrap(block, 1, 8).order(ByteOrder.BIG_ENDIAN).getLong();
+  }
+
+  /**
+   * Return the most recent timestamp of a block.
+   */
+  static long newest(byte[] block) {
+    return ByteBuffer.wrap(block, 9, 8).order(ByteOrder.BIG_ENDIAN).getLong();
+  }
+
+  static boolean isCompressed(byte[] block) {
+    return 0 != (block[0] & FLAG_COMPRESSED);
+  }
+
+  /**
+   * Encode datapoints sorted by decreasing timestamps in a block.
+   */
+  static byte[] encode(List<Datapoint> datapoints, boolean compress, byte[] aesKey) throws IOException {
+    GTSEncoder encoder = new GTSEncoder(0L);
+
+    for (Datapoint datapoint: datapoints) {
+      encoder.addValue(datapoint.timestamp, datapoint.location, datapoint.elevation, datapoint.value);
+    }
+
+    byte[] payload = encoder.getBytes();
+
+    int flags = 0;
+
+    if (compress) {
+      ByteArrayOutputStream baos = new ByteArrayOutputStream(payload.length);
+      OutputStream out = new GZIPOutputStream(baos);
+      out.write(payload);
+      out.close();
+      payload = baos.toByteArray();
+      flags |= FLAG_COMPRESSED;
+    }
+
+    if (null != aesKey) {
+      payload = CryptoUtils.wrap(aesKey, payload);
+      flags |= FLAG_ENCRYPTED;
+    }
+
+    ByteBuffer bb = ByteBuffer.allocate(HEADER_LENGTH + payload.length).order(ByteOrder.BIG_ENDIAN);
+    bb.put((byte) flags);
+    bb.putLong(datapoints.get(datapoints.size() - 1).timestamp);
+    bb.putLong(datapoints.get(0).timestamp);
+    bb.put(payload);
+
+    return bb.array();
+  }
+
+  /**
+   * Return a decoder for the datapoints of a block.
+   */
+  static GTSDecoder decode(byte[] block, byte[] aesKey) throws IOException {
+    int flags = block[0];
+
+    byte[] payload = Arrays.copyOfRange(block, HEADER_LENGTH, block.length);
+
+    if (0 != (flags & FLAG_ENCRYPTED)) {
+      if (null == aesKey) {
+        throw new IOException("Encrypted data block but no key was configured.");
+      }
+      payload = CryptoUtils.unwrap(aesKey, payload);
+      if (null == payload) {
+        throw new IOException("Unable to decrypt data block.");
+      }
+    }
+
+    if (0 != (flags & FLAG_COMPRESSED)) {
+      InputStream in = new GZIPInputStream(new ByteArrayInputStream(payload));
+      ByteArrayOutputStream baos = new ByteArrayOutputStream(payload.length * 4);
+      byte[] buf = new byte[8192];
+      int len;
+      while ((len = in.read(buf)) >= 0) {
+        baos.write(buf, 0, len);
+      }
+      in.close();
+      payload = baos.toByteArray();
+    }
+
+    return new GTSDecoder(0L, ByteBuffer.wrap(payload));
+  }
+
+  static byte[] span(long span) {
+    return ByteBuffer.allocate(8).order(ByteOrder.BIG_ENDIAN).putLong(span).array();
+  }
+
+  static long span(byte[] value) {
+    return ByteBuffer.wrap(value).order(ByteOrder.BIG_ENDIAN).getLong();
+  }
+
+  /**
+   * Encode a datapoint as a row value, as StandaloneStoreClient.store does.
+   */
+  static byte[] row(Datapoint datapoint, byte[] aesKey) throws IOException {
+    GTSEncoder encoder = new GTSEncoder(datapoint.timestamp, aesKey);
+    encoder.addValue(datapoint.timestamp, datapoint.location, datapoint.elevation, datapoint.value);
+    return encoder.getBytes();
+  }
+
+  /**
+   * Decode the datapoint of a row value.
+   */
+  static Datapoint datapoint(byte[] rowkey, byte[] value, byte[] aesKey) {
+    GTSDecoder decoder = new GTSDecoder(timestamp(rowkey), aesKey, ByteBuffer.wrap(value));
+    decoder.next();
+    return new Datapoint(decoder);
+  }
+}
@@ -0,0 +1,363 @@
+//
+//   Copyright 2024  SenX S.A.S.
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.standalone;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReadWriteLock;
+
+import org.iq80.leveldb.DBIterator;
+import org.iq80.leveldb.ReadOptions;
+import org.iq80.leveldb.WriteBatch;
+import org.iq80.leveldb.WriteOptions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.warp10.continuum.TimeSource;
+import io.warp10.continuum.gts.GTSDecoder;
+import io.warp10.continuum.sensision.SensisionConstants;
+import io.warp10.continuum.store.Constants;
+import io.warp10.leveldb.WarpDB;
+import io.warp10.sensision.Sensision;
+
+/**
+ * Thread periodically rewriting the rows of the cold buckets of each GTS in data blocks.
+ *
+ * Buckets are compacted from the most recent cold one backwards, the compaction of a GTS stops at the first
+ * bucket which only contains blocks. Rows written later in older compacted buckets are merged at read time.
+ *
+ * Each bucket is compacted while holding the write lock of the store client, so no row of the bucket can be
+ * written between the moment it is read and the moment it is deleted.
+ */
+class DataBlocksCompactor extends Thread {
+
+  private static final Logger LOG = LoggerFactory.getLogger(DataBlocksCompactor.class);
+
+  private final WarpDB db;
+  private final ReadWriteLock lock;
+  private final byte[] aesKey;
+
+  private final long span;
+  private final long age;
+  private final long period;
+  private final int maxsize;
+  private final int minrows;
+  private final boolean compress;
+
+  /**
+   * Number of datapoints written in blocks during the current run
+   */
+  private long datapoints = 0L;
+
+  /**
+   * Number of rows and blocks replaced during the current run
+   */
+  private long replaced = 0L;
+
+  /**
+   * Number of blocks written during the current run
+   */
+  private long blocks = 0L;
+
+  /**
+   * Set once the span was stored under DataBlocks.SPAN_KEY
+   */
+  private boolean spanStored;
+
+  DataBlocksCompactor(WarpDB db, ReadWriteLock lock, byte[] aesKey, long span, long age, long period, int maxsize, int minrows, boolean compress) {
+    this.db = db;
+    this.lock = lock;
+    this.aesKey = aesKey;
+    this.span = span;
+    this.age = age;
+    this.period = period;
+    this.maxsize = maxsize;
+    this.minrows = minrows;
+    this.compress = compress;
+
+    this.spanStored = null != db.get(DataBlocks.SPAN_KEY);
+
+    setDaemon(true);
+    setName("[LevelDB Data Blocks Compactor]");
+    start();
+  }
+
+  @Override
+  public void run() {
+    while (true) {
+      LockSupport.parkNanos(period * 1000000L);
+
+      long nano = System.nanoTime();
+
+      datapoints = 0L;
+      replaced = 0L;
+      blocks = 0L;
+
+      try {
+        compact();
+      } catch (Throwable t) {
+        LOG.error("Error while compacting data blocks.", t);
+      }
+
+      Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_STANDALONE_BLOCKS_RUNS, Sensision.EMPTY_LABELS, 1);
+      Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_STANDALONE_BLOCKS_TIME_NANOS, Sensision.EMPTY_LABELS, System.nanoTime() - nano);
+
+      if (blocks > 0) {
+        Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_STANDALONE_BLOCKS_DATAPOINTS, Sensision.EMPTY_LABELS, datapoints);
+        Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_STANDALONE_BLOCKS_REPLACED, Sensision.EMPTY_LABELS, replaced);
+        Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_STANDALONE_BLOCKS_WRITTEN, Sensision.EMPTY_LABELS, blocks);
+      }
+    }
+  }
+
+  /**
+   * Compact the cold buckets of all GTS.
+   */
+  synchronized void compact() throws IOException {
+    long cold = TimeSource.getTime() - age;
+
+    long coldStart = cold - Math.floorMod(cold, span);
+
+    if (Long.MIN_VALUE == coldStart) {
+      return;
+    }
+
+    // End of the most recent bucket which only contains cold datapoints
+    long coldEnd = coldStart - 1L;
+
+    byte[] key = next(Constants.FDB_RAW_DATA_KEY_PREFIX);
+
+    while (null != key) {
+      compact(key, coldEnd);
+
+      // Skip to the next GTS, past all the row and block keys of the current one
+      byte[] after = Arrays.copyOf(key, DataBlocks.BLOCK_KEY_LENGTH + 1);
+      Arrays.fill(after, DataBlocks.GTS_PREFIX_LENGTH, after.length, (byte) 0xFF);
+
+      key = next(after);
+    }
+  }
+
+  /**
+   * Compact the cold buckets of a GTS, most recent first.
+   */
+  private void compact(byte[] gts, long end) throws IOException {
+    while (true) {
+      long start = end < Long.MIN_VALUE + span - 1L ? Long.MIN_VALUE : end - span + 1L;
+
+      long[] counts = scan(gts, end, start);
+
+      long rows = counts[0];
+      long nblocks = counts[1];
+
+      if (0 == rows && 0 == nblocks) {
+        // Empty bucket, jump to the bucket of the next older key of the GTS
+        if (Long.MIN_VALUE == counts[2]) {
+          return;
+        }
+        end = counts[2];
+        continue;
+      }
+
+      if (0 == rows) {
+        // The older buckets were compacted already
+        return;
+      }
+
+      if (nblocks > 0 || rows >= minrows) {
+        lock.writeLock().lock();
+        try {
+          compact(gts, end, start);
+        } finally {
+          lock.writeLock().unlock();
+        }
+      }
+
+      if (Long.MIN_VALUE == start) {
+        return;
+      }
+
+      end = start - 1L;
+    }
+  }
+
+  /**
+   * Count the rows and blocks of a bucket.
+   *
+   * @return The number of rows, the number of blocks and the end of the bucket of the next older key of the GTS, Long.MIN_VALUE if there is none.
+   */
+  private long[] scan(byte[] gts, long end, long start) throws IOException {
+    long[] counts = new long[] { 0L, 0L, Long.MIN_VALUE };
+
+    DBIterator iter = db.iterator(new ReadOptions().fillCache(false));
+
+    try {
+      byte[] bucket = DataBlocks.bucketKey(gts, end);
+
+      iter.seek(bucket);
+
+      // The row of the first timestamp after the bucket, if any, is ignored
+      while (iter.hasNext()) {
+        byte[] key = iter.next().getKey();
+
+        if (!DataBlocks.sameGTS(key, gts)) {
+          break;
+        }
+
+        if (DataBlocks.isBlockKey(key) && DataBlocks.bucketEnd(key) == end) {
+          counts[1]++;
+        } else if (DataBlocks.isRowKey(key) && DataBlocks.timestamp(key) <= end && DataBlocks.timestamp(key) >= start) {
+          counts[0]++;
+          // Blocks sort before rows, there is no need to count all the rows
+          if (counts[0] >= minrows) {
+            break;
+          }
+        } else if (DataBlocks.isRowKey(key) && DataBlocks.timestamp(key) < start) {
+          counts[2] = DataBlocks.bucketEnd(DataBlocks.timestamp(key), span);
+          break;
+        } else if (DataBlocks.isBlockKey(key) && DataBlocks.bucketEnd(key) < end) {
+          counts[2] = DataBlocks.bucketEnd(key);
+          break;
+        } else if (!DataBlocks.isRowKey(key) && !DataBlocks.isBlockKey(key)) {
+          break;
+        }
+      }
+    } finally {
+      iter.close();
+    }
+
+    return counts;
+  }
+
+  /**
+   * Rewrite the blocks and rows of a bucket as new blocks.
+   * The iterator is created after the write lock was acquired so it sees all the rows of the bucket.
+   */
+  private void compact(byte[] gts, long end, long start) throws IOException {
+    TreeMap<Long,DataBlocks.Datapoint> merged = new TreeMap<Long,DataBlocks.Datapoint>(Collections.<Long>reverseOrder());
+
+    WriteBatch batch = db.createWriteBatchUnlocked();
+
+    try {
+      DBIterator iter = db.iterator(new ReadOptions().fillCache(false));
+
+      try {
+        byte[] bucket = DataBlocks.bucketKey(gts, end);
+
+        iter.seek(bucket);
+
+        if (iter.hasNext() && Arrays.equals(iter.peekNext().getKey(), bucket)) {
+          iter.next();
+        }
+
+        while (iter.hasNext()) {
+          Entry<byte[],byte[]> entry = iter.peekNext();
+          byte[] key = entry.getKey();
+
+          if (!DataBlocks.isBlockKey(key) || !DataBlocks.sameGTS(key, gts) || DataBlocks.bucketEnd(key) != end) {
+            break;
+          }
+
+          GTSDecoder decoder = DataBlocks.decode(entry.getValue(), aesKey);
+
+          while (decoder.next()) {
+            DataBlocks.Datapoint datapoint = new DataBlocks.Datapoint(decoder);
+            merged.put(datapoint.timestamp, datapoint);
+          }
+
+          batch.delete(key);
+          replaced++;
+          iter.next();
+        }
+
+        // Rows take precedence over the datapoints of the blocks
+        while (iter.hasNext()) {
+          Entry<byte[],byte[]> entry = iter.peekNext();
+          byte[] key = entry.getKey();
+
+          if (!DataBlocks.isRowKey(key) || !DataBlocks.sameGTS(key, gts) || DataBlocks.timestamp(key) < start) {
+            break;
+          }
+
+          merged.put(DataBlocks.timestamp(key), DataBlocks.datapoint(key, entry.getValue(), aesKey));
+
+          batch.delete(key);
+          replaced++;
+          iter.next();
+        }
+      } finally {
+        iter.close();
+      }
+
+      if (merged.isEmpty()) {
+        return;
+      }
+
+      List<DataBlocks.Datapoint> datapoints = new ArrayList<DataBlocks.Datapoint>(merged.values());
+
+      for (int i = 0; i < datapoints.size(); i += maxsize) {
+        List<DataBlocks.Datapoint> block = datapoints.subList(i, Math.min(datapoints.size(), i + maxsize));
+        batch.put(DataBlocks.blockKey(gts, end, block.get(0).timestamp), DataBlocks.encode(block, compress, aesKey));
+        blocks++;
+      }
+
+      this.datapoints += datapoints.size();
+
+      // Record the span along with the first blocks
+      if (!spanStored) {
+        batch.put(DataBlocks.SPAN_KEY, DataBlocks.span(span));
+      }
+
+      db.writeUnlocked(batch, new WriteOptions().sync(true));
+
+      spanStored = true;
+    } finally {
+      batch.close();
+    }
+  }
+
+  /**
+   * Return the first row or block key at or after a key, null if there is none.
+   */
+  private byte[] next(byte[] from) throws IOException {
+    DBIterator iter = db.iterator(new ReadOptions().fillCache(false));
+
+    try {
+      iter.seek(from);
+
+      if (!iter.hasNext()) {
+        return null;
+      }
+
+      byte[] key = iter.peekNext().getKey();
+
+      if (!DataBlocks.isRowKey(key) && !DataBlocks.isBlockKey(key)) {
+        return null;
+      }
+
+      return key;
+    } finally {
+      iter.close();
+    }
+  }
+}
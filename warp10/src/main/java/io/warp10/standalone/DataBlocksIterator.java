@@ -0,0 +1,363 @@
+//
+//   Copyright 2024  SenX S.A.S.
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.standalone;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+import org.iq80.leveldb.DBException;
+import org.iq80.leveldb.DBIterator;
+
+import io.warp10.BytesUtils;
+import io.warp10.continuum.gts.GTSDecoder;
+
+/**
+ * DBIterator presenting the datapoints of the compacted data blocks as regular rows.
+ *
+ * When a bucket containing blocks is reached, its blocks and the rows written after its compaction are
+ * merged in memory, the rows taking precedence, and returned in key order. Elsewhere the rows are returned
+ * as is. Seeking to a row key first looks for the blocks of the bucket of the row, which sort before it.
+ *
+ * The iterator is never positioned inside a bucket containing blocks unless this bucket is in memory.
+ */
+class DataBlocksIterator implements DBIterator {
+
+  private final DBIterator iter;
+  private final long span;
+  private final byte[] aesKey;
+
+  /**
+   * Merged rows of the bucket being iterated over if it contains blocks, the underlying iterator is positioned after the bucket
+   */
+  private List<Entry<byte[],byte[]>> rows = null;
+  private int idx = 0;
+
+  /**
+   * Key of the first block of the bucket in memory
+   */
+  private byte[] first = null;
+
+  /**
+   * Last bucket known not to contain blocks
+   */
+  private byte[] noblocks = null;
+
+  DataBlocksIterator(DBIterator iter, long span, byte[] aesKey) {
+    this.iter = iter;
+    this.span = span;
+    this.aesKey = aesKey;
+  }
+
+  @Override
+  public boolean hasNext() {
+    if (null != rows) {
+      if (idx < rows.size()) {
+        return true;
+      }
+      rows = null;
+    }
+
+    return iter.hasNext();
+  }
+
+  @Override
+  public Entry<byte[], byte[]> next() {
+    if (null != rows) {
+      if (idx < rows.size()) {
+        return rows.get(idx++);
+      }
+      rows = null;
+    }
+
+    if (iter.hasNext() && DataBlocks.isBlockKey(iter.peekNext().getKey())) {
+      load();
+      return rows.get(idx++);
+    }
+
+    return iter.next();
+  }
+
+  @Override
+  public Entry<byte[], byte[]> peekNext() {
+    if (null != rows) {
+      if (idx < rows.size()) {
+        return rows.get(idx);
+      }
+      rows = null;
+    }
+
+    if (iter.hasNext() && DataBlocks.isBlockKey(iter.peekNext().getKey())) {
+      load();
+      return rows.get(idx);
+    }
+
+    return iter.peekNext();
+  }
+
+  @Override
+  public boolean hasPrev() {
+    if (null != rows) {
+      if (idx > 0) {
+        return true;
+      }
+      leave();
+    }
+
+    return iter.hasPrev();
+  }
+
+  @Override
+  public Entry<byte[], byte[]> prev() {
+    if (null != rows) {
+      if (idx > 0) {
+        return rows.get(--idx);
+      }
+      leave();
+    }
+
+    Entry<byte[], byte[]> entry = iter.prev();
+    byte[] key = entry.getKey();
+
+    if (DataBlocks.isBlockKey(key)) {
+      // The iterator was positioned right after the bucket
+      enter(Arrays.copyOf(key, DataBlocks.ROW_KEY_LENGTH));
+      load();
+      idx = rows.size() - 1;
+      return rows.get(idx);
+    }
+
+    if (!DataBlocks.isRowKey(key)) {
+      return entry;
+    }
+
+    //
+    // Check if the row belongs to a bucket containing blocks
+    //
+
+    long end = DataBlocks.bucketEnd(DataBlocks.timestamp(key), span);
+
+    if (Long.MAX_VALUE != end) {
+      byte[] bucket = DataBlocks.bucketKey(key, end);
+
+      if (null == noblocks || !Arrays.equals(bucket, noblocks)) {
+        if (enter(bucket)) {
+          load();
+          // If the row was merged with the blocks, the datapoints of the blocks older than the row come before it
+          if (BytesUtils.compareTo(rows.get(rows.size() - 1).getKey(), key) >= 0) {
+            idx = rows.size() - 1;
+            return rows.get(idx);
+          }
+          // The row is older than the datapoints of the blocks
+          rows = null;
+        }
+        iter.seek(key);
+      }
+    }
+
+    return entry;
+  }
+
+  @Override
+  public Entry<byte[], byte[]> peekPrev() {
+    Entry<byte[], byte[]> entry = prev();
+    next();
+    return entry;
+  }
+
+  @Override
+  public void seek(byte[] key) {
+    if (DataBlocks.isRowKey(key)) {
+      long end = DataBlocks.bucketEnd(DataBlocks.timestamp(key), span);
+
+      if (Long.MAX_VALUE != end) {
+        byte[] bucket = DataBlocks.bucketKey(key, end);
+
+        //
+        // Reuse the bucket in memory if the key falls inside it, as 'timestep' seeks for each datapoint
+        //
+
+        if (null != rows && 0 == BytesUtils.compareTo(first, 0, DataBlocks.ROW_KEY_LENGTH, bucket, 0, DataBlocks.ROW_KEY_LENGTH)) {
+          idx = position(key);
+          if (idx < rows.size()) {
+            return;
+          }
+          // The key is after the rows of the bucket, the underlying iterator is positioned right after them
+          rows = null;
+          iter.seek(key);
+          return;
+        }
+
+        rows = null;
+
+        if ((null == noblocks || !Arrays.equals(bucket, noblocks)) && enter(bucket)) {
+          load();
+          idx = position(key);
+          if (idx < rows.size()) {
+            return;
+          }
+          // The key is after the rows of the bucket
+          rows = null;
+        }
+      }
+    }
+
+    rows = null;
+    iter.seek(key);
+  }
+
+  @Override
+  public void seekToFirst() {
+    rows = null;
+    iter.seekToFirst();
+  }
+
+  @Override
+  public void seekToLast() {
+    rows = null;
+    iter.seekToLast();
+
+    // Make sure we are not positioned inside a bucket containing blocks
+    if (iter.hasNext() && DataBlocks.isRowKey(iter.peekNext().getKey())) {
+      seek(iter.peekNext().getKey());
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    rows = null;
+    iter.close();
+  }
+
+  /**
+   * Return the index of the first row in memory whose key is greater than or equal to 'key'.
+   */
+  private int position(byte[] key) {
+    int low = 0;
+    int high = rows.size();
+
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (BytesUtils.compareTo(rows.get(mid).getKey(), key) < 0) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+
+    return low;
+  }
+
+  /**
+   * Position the underlying iterator at the first block of a bucket.
+   *
+   * @param bucket Key of the bucket, i.e. row key of the first timestamp after the bucket.
+   * @return true if the bucket contains blocks.
+   */
+  private boolean enter(byte[] bucket) {
+    iter.seek(bucket);
+
+    // Skip the row of the first timestamp after the bucket
+    if (iter.hasNext() && Arrays.equals(iter.peekNext().getKey(), bucket)) {
+      iter.next();
+    }
+
+    if (iter.hasNext()) {
+      byte[] key = iter.peekNext().getKey();
+      if (DataBlocks.isBlockKey(key) && 0 == BytesUtils.compareTo(key, 0, DataBlocks.ROW_KEY_LENGTH, bucket, 0, DataBlocks.ROW_KEY_LENGTH)) {
+        return true;
+      }
+    }
+
+    noblocks = bucket;
+
+    return false;
+  }
+
+  /**
+   * Position the underlying iterator before the bucket in memory and discard it.
+   */
+  private void leave() {
+    iter.seek(first);
+    rows = null;
+  }
+
+  /**
+   * Merge the blocks of the bucket at the current position with the rows written after its compaction.
+   * The datapoints of the blocks are kept decoded in DataBlocks.Row instances.
+   */
+  private void load() {
+    first = iter.peekNext().getKey();
+
+    TreeMap<Long,Entry<byte[],byte[]>> entries = new TreeMap<Long,Entry<byte[],byte[]>>(Collections.<Long>reverseOrder());
+
+    long oldest = Long.MAX_VALUE;
+
+    List<DataBlocks.Datapoint> datapoints = new ArrayList<DataBlocks.Datapoint>();
+
+    try {
+      while (iter.hasNext()) {
+        byte[] key = iter.peekNext().getKey();
+
+        if (!DataBlocks.isBlockKey(key) || 0 != BytesUtils.compareTo(key, 0, DataBlocks.ROW_KEY_LENGTH, first, 0, DataBlocks.ROW_KEY_LENGTH)) {
+          break;
+        }
+
+        byte[] block = iter.next().getValue();
+
+        oldest = Math.min(oldest, DataBlocks.oldest(block));
+
+        GTSDecoder decoder = DataBlocks.decode(block, aesKey);
+
+        datapoints.clear();
+
+        while (decoder.next()) {
+          datapoints.add(new DataBlocks.Datapoint(decoder));
+        }
+
+        int size = datapoints.isEmpty() ? 0 : Math.max(1, block.length / datapoints.size());
+
+        for (DataBlocks.Datapoint datapoint: datapoints) {
+          entries.put(datapoint.timestamp, new DataBlocks.Row(DataBlocks.rowKey(key, datapoint.timestamp), datapoint, aesKey, size));
+        }
+      }
+    } catch (IOException ioe) {
+      throw new DBException("Unable to decode data block.", ioe);
+    }
+
+    //
+    // Rows written after the compaction of the bucket and which sort after its blocks
+    //
+
+    while (iter.hasNext()) {
+      byte[] key = iter.peekNext().getKey();
+
+      if (!DataBlocks.isRowKey(key) || !DataBlocks.sameGTS(key, first) || DataBlocks.timestamp(key) < oldest) {
+        break;
+      }
+
+      entries.put(DataBlocks.timestamp(key), iter.next());
+    }
+
+    rows = new ArrayList<Entry<byte[],byte[]>>(entries.values());
+    idx = 0;
+  }
+}
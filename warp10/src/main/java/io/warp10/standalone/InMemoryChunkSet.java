@@ -16,15 +16,17 @@
 
 package io.warp10.standalone;
 
+import java.io.DataOutput;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.BitSet;
 import java.util.Comparator;
 import java.util.List;
 import java.util.PriorityQueue;
 import java.util.Random;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import io.warp10.CapacityExtractorOutputStream;
 import io.warp10.continuum.TimeSource;
@@ -41,24 +43,109 @@ public class InMemoryChunkSet {
   private static final int ENCODER_MAX_WASTED = 1024;
 
   /**
-   * Chunks, organized in a ring. A given timestamp will lead to a specific chunk in the ring
+   * A chunk of the ring.
+   *
+   * Appends to a chunk are done while holding the monitor of the chunk, readers only
+   * take the monitor of the encoder for the time needed to extract a decoder from it. The decoder
+   * wraps the bytes encoded so far, which later appends do not modify, so readers can then
+   * scan the chunk without blocking writers.
+   *
+   * A chunk can also be held off heap, in which case its content is immutable. Such a chunk must
+   * be replaced by an on heap copy before it can be appended to.
    */
-  private final GTSEncoder[] chunks;
+  private static final class Chunk {
+    /**
+     * Encoder of an on heap chunk, null if the chunk is off heap
+     */
+    private final GTSEncoder encoder;
+
+    /**
+     * Decoder backed by a direct buffer from which the decoders of an off heap chunk are duplicated,
+     * null if the chunk is on heap
+     */
+    private final GTSDecoder offheap;
+
+    /**
+     * End timestamp of the chunk
+     */
+    private final long end;
+
+    /**
+     * Last timestamp encountered in the chunk, guarded by the monitor of the chunk
+     */
+    private long lasttimestamp;
+
+    /**
+     * Flag indicating if timestamps are increasingly monotonic. It is cleared before
+     * the first out of order datapoint is appended, so a reader checking it after extracting
+     * a decoder never considers a non chronological content as chronological.
+     */
+    private volatile boolean chronological;
+
+    /**
+     * Flag set once the chunk has been removed from the ring, appends must then be retried
+     * on the chunk which replaced it. Set and checked while holding the monitor of the chunk.
+     */
+    private boolean retired = false;
+
+    private Chunk(GTSEncoder encoder, long end, long lasttimestamp, boolean chronological) {
+      this(encoder, null, end, lasttimestamp, chronological);
+    }
 
-  /**
-   * End timestamp of each chunk
-   */
-  private final long[] chunkends;
+    private Chunk(GTSEncoder encoder, GTSDecoder offheap, long end, long lasttimestamp, boolean chronological) {
+      this.encoder = encoder;
+      this.offheap = offheap;
+      this.end = end;
+      this.lasttimestamp = lasttimestamp;
+      this.chronological = chronological;
+    }
 
-  /**
-   * Flags indicating if timestamps are increasingly monotonic
-   */
-  private final BitSet chronological;
+    /**
+     * Return a decoder over a snapshot of the content of the chunk
+     */
+    private GTSDecoder decoder() {
+      if (null != this.offheap) {
+        return this.offheap.duplicate();
+      }
+      return this.encoder.getUnsafeDecoder(false);
+    }
+
+    private long getCount() {
+      return null != this.encoder ? this.encoder.getCount() : this.offheap.getCount();
+    }
+
+    private int size() {
+      return null != this.encoder ? this.encoder.size() : this.offheap.getBuffer().remaining();
+    }
+
+    /**
+     * Return an off heap copy of this on heap chunk, must be called while holding the monitor of the chunk
+     */
+    private Chunk offHeap() {
+      return new Chunk(null, this.encoder.getUnsafeDecoder(false).duplicateDirect(), this.end, this.lasttimestamp, this.chronological);
+    }
+
+    /**
+     * Return an on heap copy of this off heap chunk
+     */
+    private Chunk onHeap() throws IOException {
+      GTSDecoder decoder = this.offheap.duplicate();
+      GTSEncoder encoder = new GTSEncoder(0L);
+
+      while (decoder.next()) {
+        encoder.addValue(decoder.getTimestamp(), decoder.getLocation(), decoder.getElevation(), decoder.getBinaryValue());
+      }
+
+      return new Chunk(encoder, this.end, this.lasttimestamp, this.chronological);
+    }
+  }
 
   /**
-   * Last timestamp encountered in a chunk
+   * Chunks, organized in a ring. A given timestamp will lead to a specific chunk in the ring.
+   * Chunks are created, replaced and removed with atomic operations on their slot, no lock
+   * is held across chunks.
    */
-  private final long[] lasttimestamp;
+  private final AtomicReferenceArray<Chunk> chunks;
 
   /**
    * Length of chunks in time units
@@ -75,14 +162,21 @@ public class InMemoryChunkSet {
    */
   private final boolean ephemeral;
 
+  /**
+   * Should non current chunks be moved off heap when optimized?
+   */
+  private final boolean offheap;
+
   private static final Random prng = new Random();
 
   public InMemoryChunkSet(int chunkcount, long chunklen, boolean ephemeral) {
-    this.chunks = new GTSEncoder[chunkcount];
-    this.chunkends = new long[chunkcount];
-    this.chronological = new BitSet(chunkcount);
-    this.lasttimestamp = new long[chunkcount];
+    this(chunkcount, chunklen, ephemeral, false);
+  }
+
+  public InMemoryChunkSet(int chunkcount, long chunklen, boolean ephemeral, boolean offheap) {
+    this.chunks = new AtomicReferenceArray<Chunk>(chunkcount);
     this.ephemeral = ephemeral;
+    this.offheap = offheap;
     if (ephemeral) {
       this.chunklen = Long.MAX_VALUE;
       this.chunkcount = 1;
@@ -110,9 +204,10 @@ public class InMemoryChunkSet {
         return false;
       }
 
-      // Reset the encoder
-      chunks[0] = new GTSEncoder(decoder.getBaseTimestamp());
-      chunks[0].addValue(decoder.getTimestamp(), decoder.getLocation(), decoder.getElevation(), decoder.getBinaryValue());
+      // Replace the encoder
+      GTSEncoder chunkEncoder = new GTSEncoder(decoder.getBaseTimestamp());
+      chunkEncoder.addValue(decoder.getTimestamp(), decoder.getLocation(), decoder.getElevation(), decoder.getBinaryValue());
+      this.chunks.set(0, new Chunk(chunkEncoder, 0L, 0L, false));
       return true;
     }
 
@@ -126,7 +221,7 @@ public class InMemoryChunkSet {
 
     int lastchunk = -1;
 
-    GTSEncoder chunkEncoder = null;
+    Chunk chunk = null;
 
     boolean stored = false;
 
@@ -142,34 +237,65 @@ public class InMemoryChunkSet {
       int chunkid = chunk(timestamp);
 
       if (chunkid != lastchunk) {
-        synchronized(this.chunks) {
-          // Is the chunk non existent or has expired?
-          if (null == this.chunks[chunkid] || this.chunkends[chunkid] < firstChunkStart) {
-            long end = chunkEnd(timestamp);
-            this.chunks[chunkid] = new GTSEncoder(0L);
-            this.lasttimestamp[chunkid] = end - this.chunklen;
-            this.chronological.set(chunkid);
-            this.chunkends[chunkid] = end;
-          }
+        chunk = currentChunk(chunkid, timestamp, firstChunkStart);
+        lastchunk = chunkid;
+      }
 
-          chunkEncoder = this.chunks[chunkid];
-        }
+      while (true) {
+        synchronized(chunk) {
+          if (!chunk.retired && null != chunk.encoder) {
+            if (timestamp < chunk.lasttimestamp) {
+              chunk.chronological = false;
+            }
+            chunk.lasttimestamp = timestamp;
 
-        lastchunk = chunkid;
+            chunk.encoder.addValue(timestamp, decoder.getLocation(), decoder.getElevation(), decoder.getBinaryValue());
+            stored = true;
+            break;
+          }
+        }
+        // The chunk was replaced or removed concurrently or moved off heap, retry with the current one
+        chunk = currentChunk(chunkid, timestamp, firstChunkStart);
       }
+    }
 
-      synchronized(this.chunks[chunkid]) {
-        if (timestamp < this.lasttimestamp[chunkid]) {
-          this.chronological.set(chunkid, false);
+    return stored;
+  }
+
+  /**
+   * Return the on heap chunk at 'chunkid', replacing it with a new chunk for 'timestamp'
+   * if it does not exist or has expired, or with an on heap copy if it is off heap.
+   */
+  private Chunk currentChunk(int chunkid, long timestamp, long firstChunkStart) throws IOException {
+    while (true) {
+      Chunk chunk = this.chunks.get(chunkid);
+      Chunk newchunk;
+
+      // Is the chunk non existent or has expired?
+      if (null != chunk && chunk.end >= firstChunkStart) {
+        if (null != chunk.encoder) {
+          return chunk;
         }
-        this.lasttimestamp[chunkid] = timestamp;
+        // Late data for an off heap chunk, bring the chunk back on heap, it will be moved off heap again by 'optimize'
+        newchunk = chunk.onHeap();
+      } else {
+        long end = chunkEnd(timestamp);
+        newchunk = new Chunk(new GTSEncoder(0L), end, end - this.chunklen, true);
+      }
 
-        chunkEncoder.addValue(timestamp, decoder.getLocation(), decoder.getElevation(), decoder.getBinaryValue());
-        stored = true;
+      if (this.chunks.compareAndSet(chunkid, chunk, newchunk)) {
+        if (null != chunk) {
+          retire(chunk);
+        }
+        return newchunk;
       }
     }
+  }
 
-    return stored;
+  private static void retire(Chunk chunk) {
+    synchronized(chunk) {
+      chunk.retired = true;
+    }
   }
 
   /**
@@ -242,16 +368,136 @@ public class InMemoryChunkSet {
   public List<GTSDecoder> getDecoders() {
     List<GTSDecoder> decoders = new ArrayList<GTSDecoder>();
 
-    synchronized (this.chunks) {
-      for (int i = 0; i < this.chunks.length; i++) {
-        if (null == this.chunks[i]) {
+    for (int i = 0; i < this.chunks.length(); i++) {
+      Chunk chunk = this.chunks.get(i);
+      if (null == chunk) {
+        continue;
+      }
+      decoders.add(chunk.decoder());
+    }
+
+    return decoders;
+  }
+
+  /**
+   * Write the chunks of this set to a snapshot. Each chunk is written as its end timestamp, last timestamp,
+   * chronological flag, base timestamp, count and encoded content, preceded by the number of chunks.
+   *
+   * @param out Output to write the chunks to
+   * @return The number of datapoints written
+   */
+  long writeTo(DataOutput out) throws IOException {
+    List<Chunk> snapshot = new ArrayList<Chunk>(this.chunkcount);
+    List<GTSDecoder> decoders = new ArrayList<GTSDecoder>(this.chunkcount);
+    long[] lasttimestamps = new long[this.chunkcount];
+
+    for (int i = 0; i < this.chunks.length(); i++) {
+      Chunk chunk = this.chunks.get(i);
+      if (null == chunk) {
+        continue;
+      }
+      synchronized(chunk) {
+        lasttimestamps[snapshot.size()] = chunk.lasttimestamp;
+        decoders.add(chunk.decoder());
+        snapshot.add(chunk);
+      }
+    }
+
+    out.writeInt(snapshot.size());
+
+    long datapoints = 0L;
+
+    for (int i = 0; i < snapshot.size(); i++) {
+      GTSDecoder decoder = decoders.get(i);
+      ByteBuffer bb = decoder.getBuffer();
+      byte[] data = new byte[bb.remaining()];
+      bb.get(data);
+
+      out.writeLong(snapshot.get(i).end);
+      out.writeLong(lasttimestamps[i]);
+      out.writeBoolean(snapshot.get(i).chronological);
+      out.writeLong(decoder.getBaseTimestamp());
+      out.writeLong(decoder.getCount());
+      out.writeInt(data.length);
+      out.write(data);
+
+      datapoints += decoder.getCount();
+    }
+
+    return datapoints;
+  }
+
+  /**
+   * Read chunks written by writeTo. When 'adopt' is true, the chunks are installed in the ring
+   * as is, this is only possible if this set has the same chunk count, length and ephemeral
+   * flag as the one which was written. Otherwise or if the slot of a chunk is already in use,
+   * the datapoints are stored as if they were ingested.
+   *
+   * If this set keeps non current chunks off heap and 'in' is a direct buffer, typically a mapped
+   * file, the adopted chunks are backed by 'in' itself, their content is only paged in when read.
+   *
+   * Chunks which have expired are skipped.
+   *
+   * @param in Buffer positioned at the start of the chunks, its position is advanced past them
+   * @param adopt Flag indicating whether chunks can be installed as is
+   * @return The number of datapoints read
+   */
+  long readFrom(ByteBuffer in, boolean adopt) throws IOException {
+    long now = TimeSource.getTime();
+    long firstChunkStart = chunkEnd(now) - (chunkcount * chunklen) + 1;
+
+    int n = in.getInt();
+
+    long datapoints = 0L;
+
+    for (int i = 0; i < n; i++) {
+      long end = in.getLong();
+      long lasttimestamp = in.getLong();
+      boolean chronological = 0 != in.get();
+      long base = in.getLong();
+      long count = in.getLong();
+      int length = in.getInt();
+
+      ByteBuffer data = in.slice();
+      data.limit(length);
+      in.position(in.position() + length);
+
+      if (!this.ephemeral && end < firstChunkStart) {
+        continue;
+      }
+
+      datapoints += count;
+
+      int chunkid = this.ephemeral ? 0 : chunk(end);
+
+      if (adopt && null == this.chunks.get(chunkid)) {
+        Chunk chunk;
+
+        if (this.offheap && data.isDirect()) {
+          GTSDecoder decoder = new GTSDecoder(base, data);
+          decoder.setCount(count);
+          chunk = new Chunk(null, decoder, end, lasttimestamp, chronological);
+        } else {
+          chunk = new Chunk(adoptEncoder(base, count, data), end, lasttimestamp, chronological);
+        }
+
+        if (this.chunks.compareAndSet(chunkid, null, chunk)) {
           continue;
         }
-        decoders.add(this.chunks[i].getUnsafeDecoder(false));
       }
+
+      store(adoptEncoder(base, count, data));
     }
 
-    return decoders;
+    return datapoints;
+  }
+
+  private static GTSEncoder adoptEncoder(long base, long count, ByteBuffer data) {
+    byte[] bytes = new byte[data.remaining()];
+    data.duplicate().get(bytes);
+    GTSEncoder encoder = new GTSEncoder(base, null, bytes);
+    encoder.setCount(count);
+    return encoder;
   }
 
   public GTSEncoder fetchEncoder(long now, long then, long count, long skip, double sample, long preBoundary, long postBoundary) throws IOException {
@@ -307,24 +553,16 @@ public class InMemoryChunkSet {
       for (int i = 0; i < this.chunkcount; i++) {
         int chunk = (nowchunk + i) % this.chunkcount;
 
-        GTSDecoder chunkDecoder = null;
-
-        synchronized(this.chunks) {
-          // Ignore a given chunk if it is before 'now'
-          if (this.chunkends[chunk] <= now) {
-            continue;
-          }
+        Chunk slot = this.chunks.get(chunk);
 
-          // Extract a decoder to scan the chunk
-          if (null != this.chunks[chunk]) {
-            chunkDecoder = this.chunks[chunk].getUnsafeDecoder(false);
-          }
-        }
-
-        if (null == chunkDecoder) {
+        // Ignore a given chunk if it is before 'now'
+        if (null == slot || slot.end <= now) {
           continue;
         }
 
+        // Extract a decoder to scan the chunk
+        GTSDecoder chunkDecoder = slot.decoder();
+
         // Add datapoints from the decoder
 
         while (chunkDecoder.next()) {
@@ -373,26 +611,22 @@ public class InMemoryChunkSet {
     for (int i = 0; i < this.chunkcount; i++) {
       int chunk = (nowchunk - i) % this.chunkcount;
 
-      GTSDecoder chunkDecoder = null;
-
-      boolean boundaryOnly = false;
-
-      synchronized(this.chunks) {
-        // Ignore a given chunk if it does not intersect our current range
-        if (this.chunkends[chunk] < firstTimestamp || (this.chunkends[chunk] - this.chunklen) >= now) {
-          boundaryOnly = true;
-        }
+      Chunk slot = this.chunks.get(chunk);
 
-        // Extract a decoder to scan the chunk
-        if (null != this.chunks[chunk] && !(boundaryOnly && null == boundary)) {
-          chunkDecoder = this.chunks[chunk].getUnsafeDecoder(false);
-        }
+      if (null == slot) {
+        continue;
       }
 
-      if (null == chunkDecoder) {
+      // Ignore a given chunk if it does not intersect our current range
+      boolean boundaryOnly = slot.end < firstTimestamp || (slot.end - this.chunklen) >= now;
+
+      if (boundaryOnly && null == boundary) {
         continue;
       }
 
+      // Extract a decoder to scan the chunk
+      GTSDecoder chunkDecoder = slot.decoder();
+
       long nvalues = count >= 0 ? count : Long.MAX_VALUE;
 
       // Merge the data from chunkDecoder which is in the requested range in 'encoder'
@@ -510,24 +744,16 @@ public class InMemoryChunkSet {
       for (int i = 0; i < this.chunkcount; i++) {
         int chunk = (nowchunk + i) % this.chunkcount;
 
-        GTSDecoder chunkDecoder = null;
-
-        synchronized(this.chunks) {
-          // Ignore a given chunk if it is before 'now'
-          if (this.chunkends[chunk] <= now) {
-            continue;
-          }
+        Chunk slot = this.chunks.get(chunk);
 
-          // Extract a decoder to scan the chunk
-          if (null != this.chunks[chunk]) {
-            chunkDecoder = this.chunks[chunk].getUnsafeDecoder(false);
-          }
-        }
-
-        if (null == chunkDecoder) {
+        // Ignore a given chunk if it is before 'now'
+        if (null == slot || slot.end <= now) {
           continue;
         }
 
+        // Extract a decoder to scan the chunk
+        GTSDecoder chunkDecoder = slot.decoder();
+
         // Add datapoints from the decoder
 
         while (chunkDecoder.next()) {
@@ -566,28 +792,18 @@ public class InMemoryChunkSet {
 
       int chunk = (nowchunk - i) % this.chunkcount;
 
-      GTSDecoder chunkDecoder = null;
-      boolean inorder = true;
-      long chunkEnd = -1;
-
-      synchronized(this.chunks) {
-        // Ignore a given chunk if it is after 'now'
-        if (this.chunkends[chunk] - this.chunklen >= now) {
-          continue;
-        }
-
-        // Extract a decoder to scan the chunk
-        if (null != this.chunks[chunk]) {
-          chunkDecoder = this.chunks[chunk].getUnsafeDecoder(false);
-          inorder = this.chronological.get(chunk);
-          chunkEnd = this.chunkends[chunk];
-        }
-      }
+      Chunk slot = this.chunks.get(chunk);
 
-      if (null == chunkDecoder) {
+      // Ignore a given chunk if it is after 'now'
+      if (null == slot || slot.end - this.chunklen >= now) {
         continue;
       }
 
+      // Extract a decoder to scan the chunk, the chronological flag must be read after the decoder
+      GTSDecoder chunkDecoder = slot.decoder();
+      boolean inorder = slot.chronological;
+      long chunkEnd = slot.end;
+
       // We now have a chunk, we will treat it differently depending if
       // it is in chronological order or not
 
@@ -756,9 +972,10 @@ public class InMemoryChunkSet {
   public long getCount() {
     long count = 0L;
 
-    for (GTSEncoder encoder: chunks) {
-      if (null != encoder) {
-        count += encoder.getCount();
+    for (int i = 0; i < this.chunks.length(); i++) {
+      Chunk chunk = this.chunks.get(i);
+      if (null != chunk) {
+        count += chunk.getCount();
       }
     }
 
@@ -771,9 +988,10 @@ public class InMemoryChunkSet {
   public long getSize() {
     long size = 0L;
 
-    for (GTSEncoder encoder: chunks) {
-      if (null != encoder) {
-        size += encoder.size();
+    for (int i = 0; i < this.chunks.length(); i++) {
+      Chunk chunk = this.chunks.get(i);
+      if (null != chunk) {
+        size += chunk.size();
       }
     }
 
@@ -794,16 +1012,15 @@ public class InMemoryChunkSet {
     long cutoff = chunkEnd(now) - this.chunkcount * this.chunklen;
     int dropped = 0;
     long droppedDatapoints = 0L;
-    synchronized(this.chunks) {
-      for (int i = 0; i < this.chunks.length; i++) {
-        if (null == this.chunks[i]) {
-          continue;
-        }
-        if (this.chunkends[i] <= cutoff) {
-          droppedDatapoints += this.chunks[i].getCount();
-          this.chunks[i] = null;
-          dropped++;
-        }
+    for (int i = 0; i < this.chunks.length(); i++) {
+      Chunk chunk = this.chunks.get(i);
+      if (null == chunk) {
+        continue;
+      }
+      if (chunk.end <= cutoff && this.chunks.compareAndSet(i, chunk, null)) {
+        retire(chunk);
+        droppedDatapoints += chunk.getCount();
+        dropped++;
       }
     }
 
@@ -813,7 +1030,8 @@ public class InMemoryChunkSet {
   }
 
   /**
-   * Optimize all non current chunks by shrinking their buffers.
+   * Optimize all non current chunks by shrinking their buffers, or by moving them
+   * off heap if the chunk set was configured to do so.
    *
    * @param now
    */
@@ -827,19 +1045,33 @@ public class InMemoryChunkSet {
 
     long reclaimed = 0L;
 
-    synchronized(this.chunks) {
-      for (int i = 0; i < this.chunks.length; i++) {
-        if (null == this.chunks[i] || i == currentChunk) {
+    for (int i = 0; i < this.chunks.length(); i++) {
+      Chunk chunk = this.chunks.get(i);
+      if (null == chunk || null == chunk.encoder || i == currentChunk) {
+        continue;
+      }
+
+      // Only the chunk being optimized is locked
+      synchronized(chunk) {
+        if (chunk.retired) {
           continue;
         }
-        int size = this.chunks[i].size();
+
+        int size = chunk.encoder.size();
 
         try {
-          this.chunks[i].writeTo(out);
+          chunk.encoder.writeTo(out);
           int capacity = out.getCapacity();
 
-          if (capacity > size) {
-            this.chunks[i].resize(size);
+          if (this.offheap) {
+            // The heap buffer is released once no reader uses it anymore
+            if (this.chunks.compareAndSet(i, chunk, chunk.offHeap())) {
+              chunk.retired = true;
+              allocation.addAndGet(size);
+              reclaimed += capacity;
+            }
+          } else if (capacity > size) {
+            chunk.encoder.resize(size);
             allocation.addAndGet(size);
             reclaimed += (capacity - size);
           }
@@ -860,37 +1092,60 @@ public class InMemoryChunkSet {
   public long delete(long start, long end) {
     long count = 0L;
 
-    for (int i = 0; i < chunks.length; i++) {
-      if (null == chunks[i] || !this.ephemeral && (chunkends[i] < start || chunkends[i] >= end + chunklen)) {
-        continue;
+    for (int i = 0; i < chunks.length(); i++) {
+      count += delete(i, start, end);
+    }
+
+    return count;
+  }
+
+  /**
+   * Delete datapoints of the chunk at 'chunkid' whose timestamp is >= start and <= end
+   *
+   * @return The number of deleted datapoints
+   */
+  private long delete(int chunkid, long start, long end) {
+    while (true) {
+      Chunk chunk = chunks.get(chunkid);
+      if (null == chunk || !this.ephemeral && (chunk.end < start || chunk.end >= end + chunklen)) {
+        return 0L;
       }
-      synchronized(chunks[i]) {
-        GTSEncoder encoder = new GTSEncoder();
-        GTSDecoder decoder = chunks[i].getUnsafeDecoder(false);
-        boolean deleted = false;
-        while (decoder.next()) {
-          if (decoder.getTimestamp() >= start && decoder.getTimestamp() <= end) {
-            deleted = true;
-            count++;
-            continue;
+      synchronized(chunk) {
+        // A retired chunk was replaced concurrently, retry on the chunk which replaced it
+        if (!chunk.retired) {
+          GTSEncoder encoder = new GTSEncoder();
+          GTSDecoder decoder = chunk.decoder();
+          long deleted = 0L;
+          while (decoder.next()) {
+            if (decoder.getTimestamp() >= start && decoder.getTimestamp() <= end) {
+              deleted++;
+              continue;
+            }
+            try {
+              encoder.addValue(decoder.getTimestamp(), decoder.getLocation(), decoder.getElevation(), decoder.getBinaryValue());
+            } catch (IOException ioe) {
+              throw new RuntimeException("Error while deleting data.", ioe);
+            }
           }
-          try {
-            encoder.addValue(decoder.getTimestamp(), decoder.getLocation(), decoder.getElevation(), decoder.getBinaryValue());
-          } catch (IOException ioe) {
-            throw new RuntimeException("Error while deleting data.", ioe);
+
+          if (0L == deleted) {
+            return 0L;
           }
-        }
-        // Replace the encoder if datapoints were deleted
-        if (deleted) {
-          if (this.ephemeral) {
-            chunks[i] = null;
-          } else {
-            chunks[i] = encoder;
+
+          //
+          // Replace the chunk, appends waiting on the old chunk will be retried on the new one.
+          // The replacement fails if the chunk was replaced without taking its monitor, e.g. by an on heap
+          // copy of an off heap chunk receiving late data, the datapoints are then deleted from the copy.
+          //
+
+          Chunk newchunk = this.ephemeral ? null : new Chunk(encoder, chunk.end, chunk.lasttimestamp, chunk.chronological);
+
+          if (chunks.compareAndSet(chunkid, chunk, newchunk)) {
+            chunk.retired = true;
+            return deleted;
           }
         }
       }
     }
-
-    return count;
   }
 }
@@ -0,0 +1,205 @@
+//
+//   Copyright 2024  SenX S.A.S.
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.standalone;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.warp10.continuum.store.Directory;
+
+/**
+ * Inverted index of the labels of the GTS of a class, mapping label names and values
+ * to the labelsIds of the GTS having those labels.
+ *
+ * Modifications must be serialized by the caller, lookups can be done concurrently with them.
+ */
+class LabelsIndex {
+
+  /**
+   * Label name to label value to labelsIds of the GTS with this label value
+   */
+  private final Map<String,ConcurrentSkipListMap<String,Set<Long>>> postings = new ConcurrentHashMap<String,ConcurrentSkipListMap<String,Set<Long>>>();
+
+  /**
+   * Label name to number of GTS having this label
+   */
+  private final Map<String,AtomicLong> counts = new ConcurrentHashMap<String,AtomicLong>();
+
+  /**
+   * Number of GTS in the class
+   */
+  private final AtomicLong size = new AtomicLong(0L);
+
+  /**
+   * Names of the indexed labels, null if all labels are indexed
+   */
+  private final Set<String> names;
+
+  LabelsIndex(Set<String> names) {
+    this.names = names;
+  }
+
+  void add(long labelsId, Map<String,String> labels) {
+    size.incrementAndGet();
+
+    for (Entry<String,String> entry: labels.entrySet()) {
+      String name = entry.getKey();
+
+      if (null != this.names && !this.names.contains(name)) {
+        continue;
+      }
+
+      ConcurrentSkipListMap<String,Set<Long>> values = postings.get(name);
+
+      if (null == values) {
+        values = new ConcurrentSkipListMap<String,Set<Long>>();
+        postings.put(name, values);
+        counts.put(name, new AtomicLong(0L));
+      }
+
+      Set<Long> ids = values.get(entry.getValue());
+
+      if (null == ids) {
+        ids = ConcurrentHashMap.newKeySet();
+        values.put(entry.getValue(), ids);
+      }
+
+      if (ids.add(labelsId)) {
+        counts.get(name).incrementAndGet();
+      }
+    }
+  }
+
+  void remove(long labelsId, Map<String,String> labels) {
+    size.decrementAndGet();
+
+    for (Entry<String,String> entry: labels.entrySet()) {
+      String name = entry.getKey();
+
+      ConcurrentSkipListMap<String,Set<Long>> values = postings.get(name);
+
+      if (null == values) {
+        continue;
+      }
+
+      Set<Long> ids = values.get(entry.getValue());
+
+      if (null != ids && ids.remove(labelsId)) {
+        counts.get(name).decrementAndGet();
+        if (ids.isEmpty()) {
+          values.remove(entry.getValue());
+        }
+      }
+    }
+  }
+
+  /**
+   * Return the labelsIds of the GTS which can match selectors on label values, sorted using Directory.ID_COMPARATOR.
+   *
+   * Selectors on labels which are not indexed or which some GTS of the class do not have, and which could therefore be
+   * satisfied by an attribute, are ignored. The returned GTS must still be checked against all the selectors.
+   *
+   * @param names Names of the labels
+   * @param values Expected values or prefixes of the values of the labels
+   * @param prefixes Flags indicating whether each value is a prefix or an exact value
+   * @return The labelsIds of the candidate GTS or null if none of the selectors could be used
+   */
+  List<Long> candidates(List<String> names, List<String> values, List<Boolean> prefixes) {
+    List<Set<Long>> sets = new ArrayList<Set<Long>>(names.size());
+
+    long gts = size.get();
+
+    for (int i = 0; i < names.size(); i++) {
+      String name = names.get(i);
+
+      if (null != this.names && !this.names.contains(name)) {
+        continue;
+      }
+
+      AtomicLong count = counts.get(name);
+      ConcurrentSkipListMap<String,Set<Long>> postings = this.postings.get(name);
+
+      if (null == count || null == postings || count.get() != gts) {
+        continue;
+      }
+
+      Set<Long> ids;
+
+      if (prefixes.get(i)) {
+        String prefix = values.get(i);
+        ids = new HashSet<Long>();
+        for (Entry<String,Set<Long>> entry: postings.tailMap(prefix).entrySet()) {
+          if (!entry.getKey().startsWith(prefix)) {
+            break;
+          }
+          ids.addAll(entry.getValue());
+        }
+      } else {
+        ids = postings.get(values.get(i));
+      }
+
+      if (null == ids || ids.isEmpty()) {
+        return new ArrayList<Long>();
+      }
+
+      sets.add(ids);
+    }
+
+    if (sets.isEmpty()) {
+      return null;
+    }
+
+    //
+    // Intersect the sets, starting with the smallest one
+    //
+
+    Set<Long> smallest = sets.get(0);
+
+    for (Set<Long> set: sets) {
+      if (set.size() < smallest.size()) {
+        smallest = set;
+      }
+    }
+
+    List<Long> ids = new ArrayList<Long>(smallest.size());
+
+    for (Long id: smallest) {
+      boolean match = true;
+      for (Set<Long> set: sets) {
+        if (set != smallest && !set.contains(id)) {
+          match = false;
+          break;
+        }
+      }
+      if (match) {
+        ids.add(id);
+      }
+    }
+
+    Collections.sort(ids, Directory.ID_COMPARATOR);
+
+    return ids;
+  }
+}
@@ -116,6 +116,7 @@ public class StandaloneAcceleratedStoreClient implements StoreClient {
     WarpConfig.setProperty(Configuration.IN_MEMORY_EPHEMERAL, WarpConfig.getProperty(Configuration.ACCELERATOR_EPHEMERAL));
     WarpConfig.setProperty(Configuration.STANDALONE_MEMORY_GC_PERIOD, WarpConfig.getProperty(Configuration.ACCELERATOR_GC_PERIOD));
     WarpConfig.setProperty(Configuration.STANDALONE_MEMORY_GC_MAXALLOC, WarpConfig.getProperty(Configuration.ACCELERATOR_GC_MAXALLOC));
+    WarpConfig.setProperty(Configuration.STANDALONE_MEMORY_OFFHEAP, WarpConfig.getProperty(Configuration.ACCELERATOR_OFFHEAP));
 
     WarpConfig.setProperty(Configuration.STANDALONE_MEMORY_STORE_LOAD, null);
     WarpConfig.setProperty(Configuration.STANDALONE_MEMORY_STORE_DUMP, null);
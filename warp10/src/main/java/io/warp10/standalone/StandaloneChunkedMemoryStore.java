@@ -16,18 +16,42 @@
 
 package io.warp10.standalone;
 
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.math.BigInteger;
 import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.LockSupport;
 
+import org.apache.commons.io.output.CountingOutputStream;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.BytesWritable;
@@ -73,6 +97,19 @@ public class StandaloneChunkedMemoryStore extends Thread implements StoreClient
 
   private static final Logger LOG = LoggerFactory.getLogger(StandaloneChunkedMemoryStore.class);
 
+  /**
+   * Magic bytes at the start and end of a snapshot
+   */
+  private static final byte[] SNAPSHOT_MAGIC = "W10SNAP1".getBytes(StandardCharsets.US_ASCII);
+
+  private static final int SNAPSHOT_HEADER_SIZE = SNAPSHOT_MAGIC.length + 8 + 4 + 1;
+  private static final int SNAPSHOT_FOOTER_SIZE = 8 + 4 + SNAPSHOT_MAGIC.length;
+
+  /**
+   * Maximum size of the segments a snapshot is mapped in, unless a single record is larger
+   */
+  private static final long SNAPSHOT_MAX_SEGMENT = 1L << 30;
+
   private final Map<BigInteger,InMemoryChunkSet> series;
 
   private final List<StandalonePlasmaHandlerInterface> plasmaHandlers = new ArrayList<StandalonePlasmaHandlerInterface>();
@@ -93,6 +130,11 @@ public class StandaloneChunkedMemoryStore extends Thread implements StoreClient
 
   private final boolean ephemeral;
 
+  /**
+   * Should non current chunks be moved off heap?
+   */
+  private final boolean offheap;
+
   private final long[] classKeyLongs;
   private final long[] labelsKeyLongs;
 
@@ -111,6 +153,8 @@ public class StandaloneChunkedMemoryStore extends Thread implements StoreClient
       this.ephemeral = false;
     }
 
+    this.offheap = "true".equals(properties.getProperty(io.warp10.continuum.Configuration.STANDALONE_MEMORY_OFFHEAP));
+
     this.labelsKeyLongs = SipHashInline.getKey(keystore.getKey(KeyStore.SIPHASH_LABELS));
     this.classKeyLongs = SipHashInline.getKey(keystore.getKey(KeyStore.SIPHASH_CLASS));
 
@@ -277,7 +321,7 @@ public class StandaloneChunkedMemoryStore extends Thread implements StoreClient
       //
 
       if (null == chunkset) {
-        chunkset = new InMemoryChunkSet(this.chunkcount, this.chunkspan, this.ephemeral);
+        chunkset = new InMemoryChunkSet(this.chunkcount, this.chunkspan, this.ephemeral, this.offheap);
         this.series.put(clslbls, chunkset);
       }
     }
@@ -479,6 +523,11 @@ public class StandaloneChunkedMemoryStore extends Thread implements StoreClient
       return;
     }
 
+    if ("true".equals(properties.getProperty(io.warp10.continuum.Configuration.STANDALONE_MEMORY_STORE_DUMP_SNAPSHOT))) {
+      dumpSnapshot(path);
+      return;
+    }
+
     long nano = System.nanoTime();
     int gts = 0;
     long chunks = 0;
@@ -570,6 +619,11 @@ public class StandaloneChunkedMemoryStore extends Thread implements StoreClient
 
   private void load(String path) throws IOException {
 
+    if (isSnapshot(path)) {
+      loadSnapshot(path);
+      return;
+    }
+
     long nano = System.nanoTime();
     long chunks = 0;
     long datapoints = 0;
@@ -640,6 +694,284 @@ public class StandaloneChunkedMemoryStore extends Thread implements StoreClient
     System.out.println("Loaded " + chunks + " chunks (" + datapoints + " datapoints, " + bytes + " bytes) in " + (nano / 1000000.0D) + " ms.");
   }
 
+  /**
+   * Dump the memory store as a snapshot which can be memory mapped by loadSnapshot.
+   *
+   * The snapshot starts with a header containing SNAPSHOT_MAGIC, the chunk length, chunk count and ephemeral
+   * flag of the store. It is followed by one record per GTS made of the length of its serialized Metadata, the
+   * serialized Metadata and the chunks as written by InMemoryChunkSet#writeTo. An index of the offsets of the
+   * records is then written, followed by a footer containing the offset of the index, the number of records and
+   * SNAPSHOT_MAGIC.
+   *
+   * The snapshot is written to a temporary file which is then atomically renamed, so a file currently mapped
+   * by a store which loaded it is never modified.
+   */
+  private void dumpSnapshot(String path) throws IOException {
+    long nano = System.nanoTime();
+    int gts = 0;
+    long datapoints = 0;
+
+    File file = new File(path);
+    File tmp = new File(path + ".tmp");
+
+    TSerializer serializer = ThriftUtils.getTSerializer();
+
+    System.out.println("Dumping memory snapshot to '" + path + "'.");
+
+    CountingOutputStream counter = new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1024 * 1024));
+    DataOutputStream out = new DataOutputStream(counter);
+
+    List<Long> offsets = new ArrayList<Long>();
+
+    try {
+      out.write(SNAPSHOT_MAGIC);
+      out.writeLong(this.chunkspan);
+      out.writeInt(this.chunkcount);
+      out.writeBoolean(this.ephemeral);
+
+      for (Entry<BigInteger,InMemoryChunkSet> entry: this.series.entrySet()) {
+        Metadata metadata = this.directoryClient.getMetadataById(entry.getKey());
+
+        if (null == metadata) {
+          continue;
+        }
+
+        gts++;
+        offsets.add(counter.getByteCount());
+
+        byte[] data = serializer.serialize(metadata);
+        out.writeInt(data.length);
+        out.write(data);
+
+        datapoints += entry.getValue().writeTo(out);
+      }
+
+      long index = counter.getByteCount();
+
+      for (long offset: offsets) {
+        out.writeLong(offset);
+      }
+
+      out.writeLong(index);
+      out.writeInt(offsets.size());
+      out.write(SNAPSHOT_MAGIC);
+    } catch (IOException ioe) {
+      LOG.error("Error writing the dump.", ioe);
+      throw ioe;
+    } catch (Exception e) {
+      LOG.error("Error writing the dump.", e);
+      throw new IOException(e);
+    } finally {
+      out.close();
+    }
+
+    Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+    nano = System.nanoTime() - nano;
+
+    System.out.println("Dumped " + gts + " GTS (" + datapoints + " datapoints, " + file.length() + " bytes) in " + (nano / 1000000.0D) + " ms.");
+  }
+
+  /**
+   * Check whether the file at 'path' is a snapshot
+   */
+  private static boolean isSnapshot(String path) throws IOException {
+    File file = new File(path);
+
+    if (!file.isFile() || file.length() < SNAPSHOT_MAGIC.length) {
+      return false;
+    }
+
+    byte[] magic = new byte[SNAPSHOT_MAGIC.length];
+
+    try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+      in.readFully(magic);
+    }
+
+    return Arrays.equals(SNAPSHOT_MAGIC, magic);
+  }
+
+  /**
+   * Load a snapshot written by dumpSnapshot.
+   *
+   * The file is mapped in read only segments of at most SNAPSHOT_MAX_SEGMENT bytes containing whole records. The
+   * records are then loaded in parallel. If the chunk length, chunk count and ephemeral flag of the snapshot match
+   * those of the store, the encoded chunks are adopted as is, otherwise their datapoints are stored as if they were
+   * ingested.
+   */
+  private void loadSnapshot(String path) throws IOException {
+    final long nano = System.nanoTime();
+
+    final boolean failsafe = "true".equals(properties.getProperty(io.warp10.continuum.Configuration.STANDALONE_MEMORY_STORE_LOAD_FAILSAFE));
+    int nthreads = Integer.parseInt(properties.getProperty(io.warp10.continuum.Configuration.STANDALONE_MEMORY_STORE_LOAD_NTHREADS, Integer.toString(Runtime.getRuntime().availableProcessors())));
+
+    System.out.println("Loading snapshot '" + path + "' back in memory.");
+
+    final long[] offsets;
+    final List<MappedByteBuffer> segments = new ArrayList<MappedByteBuffer>();
+    final List<Long> segmentStarts = new ArrayList<Long>();
+    final boolean adopt;
+
+    try (FileChannel channel = FileChannel.open(new File(path).toPath(), StandardOpenOption.READ)) {
+      long size = channel.size();
+
+      if (size < SNAPSHOT_HEADER_SIZE + SNAPSHOT_FOOTER_SIZE) {
+        throw new IOException("Truncated snapshot.");
+      }
+
+      MappedByteBuffer header = channel.map(MapMode.READ_ONLY, 0, SNAPSHOT_HEADER_SIZE);
+      header.position(SNAPSHOT_MAGIC.length);
+      long chunkspan = header.getLong();
+      int chunkcount = header.getInt();
+      boolean ephemeral = 0 != header.get();
+
+      adopt = this.ephemeral == ephemeral && (ephemeral || (this.chunkspan == chunkspan && this.chunkcount == chunkcount));
+
+      MappedByteBuffer footer = channel.map(MapMode.READ_ONLY, size - SNAPSHOT_FOOTER_SIZE, SNAPSHOT_FOOTER_SIZE);
+      long index = footer.getLong();
+      int n = footer.getInt();
+      byte[] magic = new byte[SNAPSHOT_MAGIC.length];
+      footer.get(magic);
+
+      if (!Arrays.equals(SNAPSHOT_MAGIC, magic) || index + 8L * n != size - SNAPSHOT_FOOTER_SIZE) {
+        throw new IOException("Truncated snapshot.");
+      }
+
+      offsets = new long[n + 1];
+      LongBuffer lb = channel.map(MapMode.READ_ONLY, index, 8L * n).asLongBuffer();
+      lb.get(offsets, 0, n);
+      offsets[n] = index;
+
+      //
+      // Map segments made of whole records
+      //
+
+      int i = 0;
+
+      while (i < n) {
+        long start = offsets[i];
+        int j = i + 1;
+
+        while (j < n && offsets[j + 1] - start <= SNAPSHOT_MAX_SEGMENT) {
+          j++;
+        }
+
+        if (offsets[j] - start > Integer.MAX_VALUE) {
+          throw new IOException("Snapshot record too large.");
+        }
+
+        segmentStarts.add(start);
+        segments.add(channel.map(MapMode.READ_ONLY, start, offsets[j] - start));
+        i = j;
+      }
+    } catch (FileNotFoundException | NoSuchFileException e) {
+      LOG.warn("File '" + path + "' was not found, skipping.");
+      return;
+    } catch (IOException ioe) {
+      if (!failsafe) {
+        throw ioe;
+      } else {
+        LOG.error("Ignoring exception " + ioe.getMessage() + ".");
+        return;
+      }
+    }
+
+    //
+    // Load the records in parallel, each task handling a range of records
+    //
+
+    final int nrecords = offsets.length - 1;
+    final AtomicLong datapoints = new AtomicLong(0L);
+    final AtomicInteger loaded = new AtomicInteger(0);
+
+    ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, nthreads));
+
+    List<Future<?>> futures = new ArrayList<Future<?>>();
+
+    int batch = Math.max(1, nrecords / (Math.max(1, nthreads) * 4));
+
+    for (int from = 0; from < nrecords; from += batch) {
+      final int first = from;
+      final int last = Math.min(nrecords, from + batch);
+
+      futures.add(executor.submit(new Callable<Void>() {
+        @Override
+        public Void call() throws Exception {
+          TDeserializer deserializer = ThriftUtils.getTDeserializer();
+
+          int segment = Collections.binarySearch(segmentStarts, offsets[first]);
+
+          if (segment < 0) {
+            // Index of the segment starting before the record
+            segment = -segment - 2;
+          }
+
+          for (int i = first; i < last; i++) {
+            while (segment + 1 < segmentStarts.size() && segmentStarts.get(segment + 1) <= offsets[i]) {
+              segment++;
+            }
+
+            ByteBuffer record = segments.get(segment).duplicate();
+            record.position((int) (offsets[i] - segmentStarts.get(segment)));
+            record.limit((int) (offsets[i + 1] - segmentStarts.get(segment)));
+
+            try {
+              byte[] data = new byte[record.getInt()];
+              record.get(data);
+              Metadata metadata = new Metadata();
+              deserializer.deserialize(metadata, data);
+
+              byte[] bytes = new byte[16];
+              GTSHelper.fillGTSIds(bytes, 0, metadata.getClassId(), metadata.getLabelsId());
+              BigInteger clslbls = new BigInteger(bytes);
+
+              InMemoryChunkSet chunkset;
+
+              synchronized (series) {
+                chunkset = series.get(clslbls);
+
+                if (null == chunkset) {
+                  chunkset = new InMemoryChunkSet(chunkcount, chunkspan, ephemeral, offheap);
+                  series.put(clslbls, chunkset);
+                }
+              }
+
+              datapoints.addAndGet(chunkset.readFrom(record, adopt));
+              loaded.incrementAndGet();
+
+              if (null != directoryClient) {
+                directoryClient.register(metadata);
+              }
+            } catch (Exception e) {
+              if (!failsafe) {
+                throw e;
+              } else {
+                LOG.error("Ignoring exception " + e.getMessage() + ".");
+              }
+            }
+          }
+
+          return null;
+        }
+      }));
+    }
+
+    executor.shutdown();
+
+    try {
+      for (Future<?> future: futures) {
+        future.get();
+      }
+    } catch (InterruptedException ie) {
+      throw new IOException(ie);
+    } catch (ExecutionException ee) {
+      executor.shutdownNow();
+      throw new IOException(ee.getCause());
+    }
+
+    System.out.println("Loaded " + loaded.get() + " GTS (" + datapoints.get() + " datapoints" + (adopt ? "" : ", re-encoded") + ") in " + ((System.nanoTime() - nano) / 1000000.0D) + " ms.");
+  }
+
   public void setDirectoryClient(StandaloneDirectoryClient directoryClient) {
     this.directoryClient = directoryClient;
   }
@@ -35,9 +35,12 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
 import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
@@ -167,6 +170,31 @@ public class StandaloneDirectoryClient implements DirectoryClient {
 
   private static final Map<BigInteger,Metadata> metadatasById = new MapMaker().concurrencyLevel(64).makeMap();
 
+  /**
+   * Maps of class name to inverted index of labels
+   */
+  private static final Map<String,LabelsIndex> labelsIndexes = new ConcurrentHashMap<String,LabelsIndex>();
+
+  /**
+   * Is the labels index enabled?
+   */
+  private final boolean indexLabels;
+
+  /**
+   * Names of the labels to index, null if all labels are indexed
+   */
+  private final Set<String> indexedLabels;
+
+  /**
+   * Maximum number of tasks a find can be split into, 1 means finds are not parallelized
+   */
+  private final int findParallelism;
+
+  /**
+   * Pool in which the tasks of parallel finds are run
+   */
+  private final ForkJoinPool findPool;
+
   private long activityWindow = 0L;
 
   public static interface ShardFilter {
@@ -187,6 +215,10 @@ public class StandaloneDirectoryClient implements DirectoryClient {
     this.fdbContext = null;
     this.fdbRetryLimit = 0;
     this.useFDB = false;
+    this.indexLabels = false;
+    this.indexedLabels = null;
+    this.findParallelism = 1;
+    this.findPool = null;
   }
 
   public StandaloneDirectoryClient(Object db, final KeyStore keystore) {
@@ -205,6 +237,30 @@ public class StandaloneDirectoryClient implements DirectoryClient {
 
     this.initNThreads = Integer.parseInt(WarpConfig.getProperty(Configuration.DIRECTORY_INIT_NTHREADS, DIRECTORY_INIT_NTHREADS_DEFAULT));
 
+    String indexed = WarpConfig.getProperty(Configuration.DIRECTORY_INDEX_LABELS, "").trim();
+
+    if ("*".equals(indexed)) {
+      this.indexLabels = true;
+      this.indexedLabels = null;
+    } else if (!indexed.isEmpty()) {
+      this.indexLabels = true;
+      this.indexedLabels = new HashSet<String>();
+      for (String label: indexed.split(",")) {
+        this.indexedLabels.add(label.trim());
+      }
+    } else {
+      this.indexLabels = false;
+      this.indexedLabels = null;
+    }
+
+    this.findParallelism = Math.max(1, Integer.parseInt(WarpConfig.getProperty(Configuration.DIRECTORY_FIND_PARALLELISM, "1")));
+
+    if (this.findParallelism > 1) {
+      this.findPool = new ForkJoinPool(Integer.parseInt(WarpConfig.getProperty(Configuration.DIRECTORY_FIND_POOLSIZE, Integer.toString(Runtime.getRuntime().availableProcessors()))));
+    } else {
+      this.findPool = null;
+    }
+
     if (db instanceof DB) {
       this.db = (DB) db;
       this.fdbContext = null;
@@ -379,6 +435,7 @@ public class StandaloneDirectoryClient implements DirectoryClient {
               synchronized(metadatasForClassName) {
                 if (!metadatasForClassName.containsKey(labelsId)) {
                   metadatasForClassName.put(labelsId, metadata);
+                  index(metadata.getName(), labelsId, null, metadata);
 
                   //
                   // Store Metadata under 'id'
@@ -490,18 +547,56 @@ public class StandaloneDirectoryClient implements DirectoryClient {
     }
   }
 
+  /**
+   * Selector of a find request, once its class pattern has been applied
+   */
+  private static final class Selector {
+    private boolean hasActiveAfter;
+    private long activeAfter;
+    private boolean hasQuietAfter;
+    private long quietAfter;
+
+    /**
+     * Labels which must be absent, null if absent labels are not supported
+     */
+    private List<String> missingLabels;
+
+    /**
+     * Names of the labels to check, with their expected value or the pattern they must match
+     */
+    private final List<String> labelNames = new ArrayList<String>();
+    private final List<String> labelValues = new ArrayList<String>();
+    private final List<Pattern> labelRegexps = new ArrayList<Pattern>();
+
+    /**
+     * Selectors which can be resolved using the labels index
+     */
+    private final List<String> indexNames = new ArrayList<String>();
+    private final List<String> indexValues = new ArrayList<String>();
+    private final List<Boolean> indexPrefixes = new ArrayList<Boolean>();
+
+    /**
+     * Build the patterns to check the labels against, SmartPattern instances cannot be shared among threads
+     */
+    private List<SmartPattern> patterns() {
+      List<SmartPattern> patterns = new ArrayList<SmartPattern>(this.labelNames.size());
+      for (int i = 0; i < this.labelNames.size(); i++) {
+        if (null != this.labelRegexps.get(i)) {
+          patterns.add(new SmartPattern(this.labelRegexps.get(i)));
+        } else {
+          patterns.add(new SmartPattern(this.labelValues.get(i)));
+        }
+      }
+      return patterns;
+    }
+  }
+
   @Override
   public List<Metadata> find(DirectoryRequest request) {
 
     List<String> classExpr = request.getClassSelectors();
     List<Map<String,String>> labelsExpr = request.getLabelsSelectors();
 
-    boolean hasActiveAfter = request.isSetActiveAfter();
-    long activeAfter = request.getActiveAfter();
-
-    boolean hasQuietAfter = request.isSetQuietAfter();
-    long quietAfter = request.getQuietAfter();
-
     //
     // Build patterns from expressions
     //
@@ -517,7 +612,6 @@ public class StandaloneDirectoryClient implements DirectoryClient {
     }
 
     Set<String> classNames = null;
-    List<String> missingLabels = Constants.ABSENT_LABEL_SUPPORT ? new ArrayList<String>() : null;
 
     for (int i = 0; i < classExpr.size(); i++) {
 
@@ -530,28 +624,44 @@ public class StandaloneDirectoryClient implements DirectoryClient {
         classSmartPattern = new SmartPattern(Pattern.compile(classExpr.get(i).substring(1)));
       }
 
-      Map<String,SmartPattern> labelPatterns = new LinkedHashMap<String,SmartPattern>();
+      Selector selector = new Selector();
 
-      if (null != missingLabels) {
-        missingLabels.clear();
-      }
+      selector.hasActiveAfter = request.isSetActiveAfter();
+      selector.activeAfter = request.getActiveAfter();
+      selector.hasQuietAfter = request.isSetQuietAfter();
+      selector.quietAfter = request.getQuietAfter();
+      selector.missingLabels = Constants.ABSENT_LABEL_SUPPORT ? new ArrayList<String>() : null;
 
       if (null != labelsExpr.get(i)) {
         for (Entry<String,String> entry: labelsExpr.get(i).entrySet()) {
           String label = entry.getKey();
           String expr = entry.getValue();
-          Pattern pattern;
 
-          if (null != missingLabels && ("=".equals(expr) || "".equals(expr))) {
-            missingLabels.add(label);
+          if (null != selector.missingLabels && ("=".equals(expr) || "".equals(expr))) {
+            selector.missingLabels.add(label);
             continue;
           }
 
+          selector.labelNames.add(label);
+
           if (expr.startsWith("=") || !expr.startsWith("~")) {
-            labelPatterns.put(label, new SmartPattern(expr.startsWith("=") ? expr.substring(1) : expr));
+            String value = expr.startsWith("=") ? expr.substring(1) : expr;
+            selector.labelValues.add(value);
+            selector.labelRegexps.add(null);
+            if (this.indexLabels) {
+              selector.indexNames.add(label);
+              selector.indexValues.add(value);
+              selector.indexPrefixes.add(false);
+            }
           } else {
-            pattern = Pattern.compile(expr.substring(1));
-            labelPatterns.put(label,  new SmartPattern(pattern));
+            selector.labelValues.add(null);
+            selector.labelRegexps.add(Pattern.compile(expr.substring(1)));
+            String prefix = this.indexLabels ? literalPrefix(expr.substring(1)) : null;
+            if (null != prefix) {
+              selector.indexNames.add(label);
+              selector.indexValues.add(prefix);
+              selector.indexPrefixes.add(true);
+            }
           }
         }
       }
@@ -566,20 +676,18 @@ public class StandaloneDirectoryClient implements DirectoryClient {
         classNames = metadatas.keySet();
       }
 
-      //
-      // Create arrays to check the labels, this is to speed up discard
-      //
-
-      List<String> labelNames = new ArrayList<String>(labelPatterns.size());
-      List<SmartPattern> labelSmartPatterns = new ArrayList<SmartPattern>(labelPatterns.size());
-      String[] labelValues = null;
-
-      for(Entry<String,SmartPattern> entry: labelPatterns.entrySet()) {
-        labelNames.add(entry.getKey());
-        labelSmartPatterns.add(entry.getValue());
+      if (this.findParallelism > 1) {
+        List<String> matchingClassNames = new ArrayList<String>();
+        for (String className: classNames) {
+          if (classSmartPattern.matches(className)) {
+            matchingClassNames.add(className);
+          }
+        }
+        findParallel(matchingClassNames, selector, requestedMetadatas);
+        continue;
       }
 
-      labelValues = new String[labelNames.size()];
+      List<SmartPattern> labelSmartPatterns = selector.patterns();
 
       //
       // Loop over the class names to find matches. They are expected to be sorted by classid using CLASS_COMPARATOR
@@ -596,129 +704,277 @@ public class StandaloneDirectoryClient implements DirectoryClient {
 
           // Check for nullity because of possible concurrent unregistration.
           if(null != metadatasForClassname) {
-            for (Metadata metadata: metadatasForClassname.values()) {
+            find(className, candidates(className, metadatasForClassname, selector), selector, labelSmartPatterns, requestedMetadatas);
+          }
+        }
+      }
+    }
 
-              //
-              // Check activity
-              //
+    List<Metadata> metas = null;
+    if (requestedMetadatas instanceof List) {
+      metas = (List<Metadata>) requestedMetadatas;
+    } else {
+      metas = new ArrayList<Metadata>(requestedMetadatas);
+    }
+    return metas;
+  }
 
-              if (hasActiveAfter && metadata.getLastActivity() < activeAfter) {
-                continue;
-              }
+  /**
+   * Add to 'results' the Metadata of the given classes which match 'selector', splitting the work in at most
+   * findParallelism tasks run in findPool. The results are added in the same order as if they were searched
+   * sequentially.
+   *
+   * The classes are split in contiguous ranges, if there are fewer classes than tasks, the Metadata of each class
+   * are also split in ranges of labelsIds, labelsIds being uniformly distributed.
+   */
+  private void findParallel(List<String> classNames, final Selector selector, Collection<Metadata> results) {
+    if (classNames.isEmpty()) {
+      return;
+    }
 
-              if (hasQuietAfter && metadata.getLastActivity() >= quietAfter) {
-                continue;
-              }
+    //
+    // A single class whose Metadata can be narrowed using the index is searched sequentially
+    //
 
+    if (1 == classNames.size()) {
+      String className = classNames.get(0);
+      Map<Long,Metadata> metadatasForClassname = metadatas.get(className);
+      if (null == metadatasForClassname) {
+        return;
+      }
+      Collection<Metadata> candidates = candidates(className, metadatasForClassname, selector);
+      // candidates returns a List only when the index was used
+      if (candidates instanceof List) {
+        find(className, candidates, selector, selector.patterns(), results);
+        return;
+      }
+    }
 
-              boolean exclude = false;
+    //
+    // Split the classes in ranges of labelsIds, units are ordered like a sequential search
+    //
 
-              if (null != missingLabels) {
-                for (String missing: missingLabels) {
-                  // If the Metadata contain one of the missing labels, exclude the entry
-                  if (null != metadata.getLabels().get(missing)) {
-                    exclude = true;
-                    break;
-                  }
-                }
-                // Check attributes
-                if (!exclude && metadata.getAttributesSize() > 0) {
-                  for (String missing: missingLabels) {
-                    // If the Metadata contain one of the missing labels, exclude the entry
-                    if (null != metadata.getAttributes().get(missing)) {
-                      exclude = true;
-                      break;
-                    }
-                  }
-                }
-                if (exclude) {
-                  continue;
-                }
-              }
+    final List<String> unitClassNames = new ArrayList<String>();
+    final List<long[]> unitRanges = new ArrayList<long[]>();
 
-              int idx = 0;
+    int splits = classNames.size() >= this.findParallelism ? 1 : (this.findParallelism + classNames.size() - 1) / classNames.size();
+    long step = Long.divideUnsigned(-1L, splits);
 
-              for (String labelName: labelNames) {
-                //
-                // Immediately exclude metadata which do not contain one of the
-                // labels for which we have patterns either in labels or in attributes
-                //
+    for (String className: classNames) {
+      for (int k = 0; k < splits; k++) {
+        unitClassNames.add(className);
+        // The last range has no upper bound, this is indicated by a 'to' of 0
+        unitRanges.add(new long[] { step * k, k == splits - 1 ? 0L : step * (k + 1) });
+      }
+    }
 
-                String labelValue = metadata.getLabels().get(labelName);
+    int units = unitClassNames.size();
+    int tasks = Math.min(units, this.findParallelism);
 
-                if (null == labelValue) {
-                  labelValue = metadata.getAttributes().get(labelName);
-                  if (null == labelValue) {
-                    exclude = true;
-                    break;
-                  }
-                }
+    List<Future<List<Metadata>>> futures = new ArrayList<Future<List<Metadata>>>(tasks);
 
-                labelValues[idx++] = labelValue;
-              }
+    for (int t = 0; t < tasks; t++) {
+      final int first = (int) ((long) units * t / tasks);
+      final int last = (int) ((long) units * (t + 1) / tasks);
 
-              // If we did not collect enough label/attribute values, exclude the GTS
-              if (idx < labelNames.size()) {
-                exclude = true;
-              }
+      futures.add(findPool.submit(new Callable<List<Metadata>>() {
+        @Override
+        public List<Metadata> call() throws Exception {
+          List<Metadata> found = new ArrayList<Metadata>();
+          List<SmartPattern> labelSmartPatterns = selector.patterns();
 
-              if (exclude) {
-                continue;
-              }
+          for (int u = first; u < last; u++) {
+            String className = unitClassNames.get(u);
+            Map<Long,Metadata> metadatasForClassname = metadatas.get(className);
 
-              //
-              // Check if the label value matches, if not, exclude the GTS
-              //
+            // Check for nullity because of possible concurrent unregistration.
+            if (null == metadatasForClassname) {
+              continue;
+            }
 
-              for (int j = 0; j < labelNames.size(); j++) {
-                if (!labelSmartPatterns.get(j).matches(labelValues[j])) {
-                  exclude = true;
-                  break;
-                }
-              }
+            long[] range = unitRanges.get(u);
 
-              if (exclude) {
-                continue;
+            if (metadatasForClassname instanceof ConcurrentNavigableMap && !(0L == range[0] && 0L == range[1])) {
+              ConcurrentNavigableMap<Long,Metadata> map = (ConcurrentNavigableMap<Long,Metadata>) metadatasForClassname;
+              if (0L == range[1]) {
+                metadatasForClassname = map.tailMap(range[0], true);
+              } else {
+                metadatasForClassname = map.subMap(range[0], true, range[1], false);
               }
+            }
 
-              //
-              // We have a match, rebuild metadata
-              //
-              // FIXME(hbs): include a 'safe' mode to expose the internal Metadata instances?
-              //
+            find(className, candidates(className, metadatasForClassname, selector), selector, labelSmartPatterns, found);
+          }
 
-              Metadata meta = new Metadata();
-              meta.setName(className);
-              meta.setLabels(Collections.unmodifiableMap(metadata.getLabels()));
-              meta.setAttributes(Collections.unmodifiableMap(metadata.getAttributes()));
-              // 128BITS
-              if (metadata.isSetClassId()) {
-                meta.setClassId(metadata.getClassId());
-              } else {
-                meta.setClassId(GTSHelper.classId(classKey, meta.getName()));
-              }
-              if (metadata.isSetLabelsId()) {
-                meta.setLabelsId(metadata.getLabelsId());
-              } else {
-                meta.setLabelsId(GTSHelper.labelsId(labelsKey, meta.getLabels()));
-              }
+          return found;
+        }
+      }));
+    }
 
-              meta.setLastActivity(metadata.getLastActivity());
-              requestedMetadatas.add(meta);
+    try {
+      for (Future<List<Metadata>> future: futures) {
+        results.addAll(future.get());
+      }
+    } catch (InterruptedException ie) {
+      throw new RuntimeException(ie);
+    } catch (ExecutionException ee) {
+      throw new RuntimeException(ee.getCause());
+    }
+  }
+
+  /**
+   * Return the Metadata of a class which need to be checked against a selector, narrowing them using
+   * the labels index if possible. The Metadata are returned in the iteration order of 'metadatasForClassname'.
+   */
+  private Collection<Metadata> candidates(String className, Map<Long,Metadata> metadatasForClassname, Selector selector) {
+    if (selector.indexNames.isEmpty()) {
+      return metadatasForClassname.values();
+    }
+
+    LabelsIndex index = labelsIndexes.get(className);
+    List<Long> ids = null != index ? index.candidates(selector.indexNames, selector.indexValues, selector.indexPrefixes) : null;
+
+    if (null == ids) {
+      return metadatasForClassname.values();
+    }
+
+    List<Metadata> candidates = new ArrayList<Metadata>(ids.size());
+
+    for (Long id: ids) {
+      Metadata metadata = metadatasForClassname.get(id);
+      // Check for nullity because of possible concurrent unregistration.
+      if (null != metadata) {
+        candidates.add(metadata);
+      }
+    }
+
+    return candidates;
+  }
+
+  /**
+   * Add to 'results' the Metadata of class 'className' from 'candidates' which match 'selector'
+   */
+  private void find(String className, Collection<Metadata> candidates, Selector selector, List<SmartPattern> labelSmartPatterns, Collection<Metadata> results) {
+    List<String> missingLabels = selector.missingLabels;
+    List<String> labelNames = selector.labelNames;
+
+    //
+    // Create arrays to check the labels, this is to speed up discard
+    //
+
+    String[] labelValues = new String[labelNames.size()];
+
+    for (Metadata metadata: candidates) {
+
+      //
+      // Check activity
+      //
+
+      if (selector.hasActiveAfter && metadata.getLastActivity() < selector.activeAfter) {
+        continue;
+      }
+
+      if (selector.hasQuietAfter && metadata.getLastActivity() >= selector.quietAfter) {
+        continue;
+      }
+
+
+      boolean exclude = false;
+
+      if (null != missingLabels) {
+        for (String missing: missingLabels) {
+          // If the Metadata contain one of the missing labels, exclude the entry
+          if (null != metadata.getLabels().get(missing)) {
+            exclude = true;
+            break;
+          }
+        }
+        // Check attributes
+        if (!exclude && metadata.getAttributesSize() > 0) {
+          for (String missing: missingLabels) {
+            // If the Metadata contain one of the missing labels, exclude the entry
+            if (null != metadata.getAttributes().get(missing)) {
+              exclude = true;
+              break;
             }
           }
         }
+        if (exclude) {
+          continue;
+        }
       }
-    }
 
-    List<Metadata> metas = null;
-    if (requestedMetadatas instanceof List) {
-      metas = (List<Metadata>) requestedMetadatas;
-    } else {
-      metas = new ArrayList<Metadata>(requestedMetadatas);
+      int idx = 0;
+
+      for (String labelName: labelNames) {
+        //
+        // Immediately exclude metadata which do not contain one of the
+        // labels for which we have patterns either in labels or in attributes
+        //
+
+        String labelValue = metadata.getLabels().get(labelName);
+
+        if (null == labelValue) {
+          labelValue = metadata.getAttributes().get(labelName);
+          if (null == labelValue) {
+            exclude = true;
+            break;
+          }
+        }
+
+        labelValues[idx++] = labelValue;
+      }
+
+      // If we did not collect enough label/attribute values, exclude the GTS
+      if (idx < labelNames.size()) {
+        exclude = true;
+      }
+
+      if (exclude) {
+        continue;
+      }
+
+      //
+      // Check if the label value matches, if not, exclude the GTS
+      //
+
+      for (int j = 0; j < labelNames.size(); j++) {
+        if (!labelSmartPatterns.get(j).matches(labelValues[j])) {
+          exclude = true;
+          break;
+        }
+      }
+
+      if (exclude) {
+        continue;
+      }
+
+      //
+      // We have a match, rebuild metadata
+      //
+      // FIXME(hbs): include a 'safe' mode to expose the internal Metadata instances?
+      //
+
+      Metadata meta = new Metadata();
+      meta.setName(className);
+      meta.setLabels(Collections.unmodifiableMap(metadata.getLabels()));
+      meta.setAttributes(Collections.unmodifiableMap(metadata.getAttributes()));
+      // 128BITS
+      if (metadata.isSetClassId()) {
+        meta.setClassId(metadata.getClassId());
+      } else {
+        meta.setClassId(GTSHelper.classId(classKey, meta.getName()));
+      }
+      if (metadata.isSetLabelsId()) {
+        meta.setLabelsId(metadata.getLabelsId());
+      } else {
+        meta.setLabelsId(GTSHelper.labelsId(labelsKey, meta.getLabels()));
+      }
+
+      meta.setLastActivity(metadata.getLastActivity());
+      results.add(meta);
     }
-    return metas;
-  };
+  }
 
   public boolean register(Metadata metadata) throws IOException {
 
@@ -827,10 +1083,12 @@ public class StandaloneDirectoryClient implements DirectoryClient {
       if (!metadatas.get(metadata.getName()).containsKey(labelsId)) {
         return;
       }
-      metadatas.get(metadata.getName()).remove(labelsId);
+      Metadata removed = metadatas.get(metadata.getName()).remove(labelsId);
+      index(metadata.getName(), labelsId, removed, null);
       if (metadatas.get(metadata.getName()).isEmpty()) {
         metadatas.remove(metadata.getName());
         classids.remove(metadata.getName());
+        labelsIndexes.remove(metadata.getName());
       }
     }
 
@@ -1098,9 +1356,14 @@ public class StandaloneDirectoryClient implements DirectoryClient {
           classids.put(metadata.getName(), metadata.getClassId());
           metadatas.put(metadata.getName(), new ConcurrentSkipListMap<Long, Metadata>(Directory.ID_COMPARATOR));
         }
-        if (null == metadatas.get(metadata.getName()).put(labelsId, metadata)) {
+        Metadata previous = metadatas.get(metadata.getName()).put(labelsId, metadata);
+        if (null == previous) {
           Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_DIRECTORY_GTS, Sensision.EMPTY_LABELS, 1);
           Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_DIRECTORY_GTS_PERAPP, sensisionLabels, 1);
+          index(metadata.getName(), labelsId, null, metadata);
+        } else if (!previous.getLabels().equals(metadata.getLabels())) {
+          // labelsId collision, the labels of the GTS changed
+          index(metadata.getName(), labelsId, previous, metadata);
         }
       }
       //
@@ -1117,6 +1380,62 @@ public class StandaloneDirectoryClient implements DirectoryClient {
     }
   }
 
+  /**
+   * Update the labels index of a class when a GTS is replaced, added (previous is null) or removed (current is null).
+   * Calls for a given class must be serialized.
+   */
+  private void index(String className, long labelsId, Metadata previous, Metadata current) {
+    if (!this.indexLabels) {
+      return;
+    }
+
+    LabelsIndex index = labelsIndexes.get(className);
+
+    if (null == index) {
+      if (null == current) {
+        return;
+      }
+      index = labelsIndexes.computeIfAbsent(className, k -> new LabelsIndex(this.indexedLabels));
+    }
+
+    if (null != previous) {
+      index.remove(labelsId, previous.getLabels());
+    }
+
+    if (null != current) {
+      index.add(labelsId, current.getLabels());
+    }
+  }
+
+  /**
+   * Return the literal prefix of a regular expression of the form 'prefix.*', or null if the expression is not of this form.
+   */
+  private static String literalPrefix(String regexp) {
+    if (regexp.startsWith("^")) {
+      regexp = regexp.substring(1);
+    }
+
+    if (regexp.endsWith(".*$")) {
+      regexp = regexp.substring(0, regexp.length() - 3);
+    } else if (regexp.endsWith(".*")) {
+      regexp = regexp.substring(0, regexp.length() - 2);
+    } else {
+      return null;
+    }
+
+    if (regexp.isEmpty()) {
+      return null;
+    }
+
+    for (int i = 0; i < regexp.length(); i++) {
+      if ("\\.[]{}()<>*+-=!?^$|".indexOf(regexp.charAt(i)) >= 0) {
+        return null;
+      }
+    }
+
+    return regexp;
+  }
+
   public Metadata getMetadataById(BigInteger id) {
     return this.metadatasById.get(id);
   }
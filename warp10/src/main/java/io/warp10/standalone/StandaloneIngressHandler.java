@@ -22,6 +22,8 @@ import java.io.FileDescriptor;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.text.ParseException;
 import java.util.HashMap;
 import java.util.Map;
@@ -53,6 +55,7 @@ import io.warp10.continuum.Tokens;
 import io.warp10.continuum.WarpException;
 import io.warp10.continuum.gts.GTSEncoder;
 import io.warp10.continuum.gts.GTSHelper;
+import io.warp10.continuum.gts.GTSLineParser;
 import io.warp10.continuum.ingress.Ingress;
 import io.warp10.continuum.sensision.SensisionConstants;
 import io.warp10.continuum.store.Constants;
@@ -377,13 +380,15 @@ public class StandaloneIngressHandler extends AbstractHandler {
           gzipped = true;
         }
 
-        BufferedReader br = null;
+        GTSLineParser parser = null;
 
         if (gzipped) {
           GZIPInputStream is = new GZIPInputStream(request.getInputStream());
-          br = new BufferedReader(new InputStreamReader(is));
+          parser = new GTSLineParser(is, Charset.defaultCharset(), true);
         } else {
-          br = request.getReader();
+          // Use the charset request.getReader() would use
+          Charset charset = null != request.getCharacterEncoding() ? Charset.forName(request.getCharacterEncoding()) : StandardCharsets.ISO_8859_1;
+          parser = new GTSLineParser(request.getInputStream(), charset, true);
         }
 
         //
@@ -575,24 +580,12 @@ public class StandaloneIngressHandler extends AbstractHandler {
             hadAttributes.set(false);
           }
 
-          String line = br.readLine();
-
-          if (null == line) {
-            break;
-          }
-
-          line = line.trim();
-
-          if (0 == line.length()) {
-            continue;
-          }
-
           //
-          // Ignore comments
+          // Advance to the next line, empty lines and comments are skipped
           //
 
-          if ('#' == line.charAt(0)) {
-            continue;
+          if (!parser.next()) {
+            break;
           }
 
           //
@@ -609,9 +602,9 @@ public class StandaloneIngressHandler extends AbstractHandler {
           count++;
 
           try {
-            encoder = GTSHelper.parse(lastencoder, line, extraLabels, now, maxsize, hadAttributes, maxpast, maxfuture, ignoredCount, deltaAttributes, timeshift);
+            encoder = parser.parse(lastencoder, extraLabels, now, maxsize, hadAttributes, maxpast, maxfuture, ignoredCount, deltaAttributes, timeshift);
             if (null != this.plugin) {
-              if (!this.plugin.update(this, writeToken, line, encoder)) {
+              if (!this.plugin.update(this, writeToken, parser.line(), encoder)) {
                 hadAttributes.set(false);
                 continue;
               }
@@ -620,7 +613,7 @@ public class StandaloneIngressHandler extends AbstractHandler {
           } catch (ParseException pe) {
             Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_STANDALONE_UPDATE_PARSEERRORS, sensisionLabels, 1);
             httpStatusCode = HttpServletResponse.SC_BAD_REQUEST;
-            throw new IOException("Parse error at index " + pe.getErrorOffset() + " in '" + line + "'", pe);
+            throw new IOException("Parse error at index " + pe.getErrorOffset() + " in '" + parser.line() + "'", pe);
           }
 
           if (encoder != lastencoder || lastencoder.size() > ENCODER_SIZE_THRESHOLD || (isFDBStore && FDBUtils.hasCriticalTransactionSize(lastencoder, maxValueSize))) {
@@ -699,7 +692,7 @@ public class StandaloneIngressHandler extends AbstractHandler {
           }
         } while (true);
 
-        br.close();
+        parser.close();
 
         if (null != lastencoder && lastencoder.size() > 0) {
           // 128BITS
@@ -16,6 +16,7 @@
 package io.warp10.standalone;
 
 import java.io.IOException;
+import java.util.List;
 
 import io.warp10.continuum.gts.GTSEncoder;
 import io.warp10.continuum.store.GTSDecoderIterator;
@@ -45,6 +46,13 @@ public class StandaloneParallelStoreClientWrapper implements StoreClient {
   @Override
   public GTSDecoderIterator fetch(FetchRequest req) throws IOException {
     if (req.isParallelScanners() && ParallelGTSDecoderIteratorWrapper.useParallelScanners()) {
+      if (parent instanceof StandaloneStoreClient) {
+        // Split the time ranges of the largest GTS when there are too few GTS to keep the scanners busy
+        List<FetchRequest> requests = ((StandaloneStoreClient) parent).splitFetch(req);
+        if (null != requests) {
+          return new ParallelGTSDecoderIteratorWrapper(parent, requests);
+        }
+      }
       return new ParallelGTSDecoderIteratorWrapper(parent, req);
     } else {
       return parent.fetch(req);
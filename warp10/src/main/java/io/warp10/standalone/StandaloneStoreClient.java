@@ -27,9 +27,14 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Properties;
 import java.util.Random;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.iq80.leveldb.DBIterator;
+import org.iq80.leveldb.Range;
 import org.iq80.leveldb.ReadOptions;
 import org.iq80.leveldb.WriteBatch;
 import org.iq80.leveldb.WriteOptions;
@@ -42,6 +47,7 @@ import io.warp10.continuum.gts.GTSDecoder;
 import io.warp10.continuum.gts.GTSEncoder;
 import io.warp10.continuum.gts.GTSHelper;
 import io.warp10.continuum.gts.MetadataIdComparator;
+import io.warp10.continuum.gts.PooledGTSEncoder;
 import io.warp10.continuum.sensision.SensisionConstants;
 import io.warp10.continuum.store.Constants;
 import io.warp10.continuum.store.GTSDecoderIterator;
@@ -49,6 +55,7 @@ import io.warp10.continuum.store.StoreClient;
 import io.warp10.continuum.store.thrift.data.FetchRequest;
 import io.warp10.continuum.store.thrift.data.Metadata;
 import io.warp10.crypto.KeyStore;
+import io.warp10.leveldb.ReadAheadIterator;
 import io.warp10.leveldb.WarpDB;
 import io.warp10.quasar.token.thrift.data.ReadToken;
 import io.warp10.quasar.token.thrift.data.WriteToken;
@@ -81,6 +88,45 @@ public class StandaloneStoreClient implements StoreClient {
   private final boolean syncwrites;
   private final double syncrate;
   private final int blockcacheThreshold;
+  private final long blockcacheSizeThreshold;
+
+  /**
+   * Approximate size of the data of a GTS above which its time range is split, 0 to disable range splitting
+   */
+  private final long rangeSplitMinSize;
+  private final int rangeSplitMaxScanners;
+
+  /**
+   * Maximum number of bisections performed when splitting the time range of a GTS
+   */
+  private static final int MAX_RANGESPLIT_BISECTIONS = 256;
+
+  /**
+   * Span of the buckets compacted in data blocks, 0 if data blocks are disabled
+   */
+  private final long blocksSpan;
+
+  /**
+   * Lock held in write mode by the data blocks compactor while it rewrites a bucket, and in read mode when writing or deleting rows
+   */
+  private final ReadWriteLock blocksLock;
+
+  /**
+   * Lock serializing the deletes when data blocks are enabled, as deletes rewrite the data blocks
+   */
+  private final ReentrantLock blocksDeleteLock;
+
+  private final DataBlocksCompactor blocksCompactor;
+
+  /**
+   * Number of rows read in advance during fetches
+   */
+  private final int readaheadRows;
+
+  /**
+   * Executor for the read-aheads, null if read-ahead is disabled
+   */
+  private final ExecutorService readaheadExecutor;
   
   protected StandaloneStoreClient() {
     MAX_ENCODER_SIZE = 0;
@@ -91,6 +137,15 @@ public class StandaloneStoreClient implements StoreClient {
     this.syncwrites = false;
     this.syncrate = 0.0;
     this.blockcacheThreshold = 0;
+    this.blockcacheSizeThreshold = 0L;
+    this.rangeSplitMinSize = 0L;
+    this.rangeSplitMaxScanners = 0;
+    this.blocksSpan = 0L;
+    this.blocksLock = null;
+    this.blocksDeleteLock = null;
+    this.blocksCompactor = null;
+    this.readaheadRows = 0;
+    this.readaheadExecutor = null;
     this.perThreadWriteBatch = null;
     this.perThreadWriteBatchSize = null;
     DELETE_FILLCACHE = Boolean.valueOf(WarpConfig.getProperty(Configuration.LEVELDB_DELETE_FILLCACHE, Boolean.toString(DEFAULT_DELETE_FILLCACHE)));
@@ -102,6 +157,9 @@ public class StandaloneStoreClient implements StoreClient {
     this.keystore = keystore;
     this.plasmaHandlers = new ArrayList<StandalonePlasmaHandlerInterface>();
     this.blockcacheThreshold = Integer.parseInt(properties.getProperty(Configuration.LEVELDB_BLOCKCACHE_GTS_THRESHOLD, "0"));
+    this.blockcacheSizeThreshold = Long.parseLong(properties.getProperty(Configuration.LEVELDB_BLOCKCACHE_SIZE_THRESHOLD, "0"));
+    this.rangeSplitMinSize = Long.parseLong(properties.getProperty(Configuration.STANDALONE_PARALLELSCANNERS_RANGESPLIT_MINSIZE, "0"));
+    this.rangeSplitMaxScanners = Integer.parseInt(properties.getProperty(Configuration.STANDALONE_PARALLELSCANNERS_MAX_PARALLEL_SCANNERS, "16"));
     MAX_ENCODER_SIZE = Long.valueOf(properties.getProperty(Configuration.STANDALONE_MAX_ENCODER_SIZE, DEFAULT_MAX_ENCODER_SIZE));
     MAX_DELETE_BATCHSIZE = Integer.parseInt(properties.getProperty(Configuration.STANDALONE_MAX_DELETE_BATCHSIZE, Integer.toString(DEFAULT_MAX_DELETE_BATCHSIZE)));
     DELETE_FILLCACHE = Boolean.valueOf(properties.getProperty(Configuration.LEVELDB_DELETE_FILLCACHE, Boolean.toString(DEFAULT_DELETE_FILLCACHE)));
@@ -109,6 +167,45 @@ public class StandaloneStoreClient implements StoreClient {
 
     syncrate = Math.min(1.0D, Math.max(0.0D, Double.parseDouble(properties.getProperty(Configuration.LEVELDB_DATA_SYNCRATE, "1.0"))));
     syncwrites = 0.0 < syncrate && syncrate < 1.0 ;
+
+    this.readaheadRows = Integer.parseInt(properties.getProperty(Configuration.LEVELDB_READAHEAD_ROWS, "0"));
+    int readaheadPoolsize = Integer.parseInt(properties.getProperty(Configuration.LEVELDB_READAHEAD_POOLSIZE, "4"));
+
+    if (this.readaheadRows > 0 && readaheadPoolsize > 0) {
+      this.readaheadExecutor = ReadAheadIterator.executor(readaheadPoolsize);
+    } else {
+      this.readaheadExecutor = null;
+    }
+
+    this.blocksSpan = Long.parseLong(properties.getProperty(Configuration.LEVELDB_BLOCKS_SPAN, "0"));
+    this.blocksLock = new ReentrantReadWriteLock();
+    this.blocksDeleteLock = new ReentrantLock();
+
+    //
+    // Blocks written with another span would no longer be found
+    //
+
+    byte[] span = db.get(DataBlocks.SPAN_KEY);
+
+    if (null != span && DataBlocks.span(span) != this.blocksSpan) {
+      throw new RuntimeException("Data blocks were written with '" + Configuration.LEVELDB_BLOCKS_SPAN + "' set to " + DataBlocks.span(span) + ", it cannot be set to " + this.blocksSpan + ".");
+    }
+
+    if (this.blocksSpan > 0) {
+      long age = Long.parseLong(properties.getProperty(Configuration.LEVELDB_BLOCKS_AGE, Long.toString(30L * 86400L * Constants.TIME_UNITS_PER_S)));
+      long period = Long.parseLong(properties.getProperty(Configuration.LEVELDB_BLOCKS_PERIOD, "3600000"));
+      int maxsize = Integer.parseInt(properties.getProperty(Configuration.LEVELDB_BLOCKS_MAXSIZE, "100000"));
+      int minrows = Integer.parseInt(properties.getProperty(Configuration.LEVELDB_BLOCKS_MINROWS, "16"));
+      boolean compress = Boolean.parseBoolean(properties.getProperty(Configuration.LEVELDB_BLOCKS_COMPRESS, "true"));
+
+      this.blocksCompactor = new DataBlocksCompactor(db, this.blocksLock, keystore.getKey(KeyStore.AES_LEVELDB_DATA), this.blocksSpan, age, period, maxsize, minrows, compress);
+    } else {
+      this.blocksCompactor = null;
+    }
+  }
+
+  DataBlocksCompactor getBlocksCompactor() {
+    return this.blocksCompactor;
   }
 
   @Override
@@ -182,7 +279,39 @@ public class StandaloneStoreClient implements StoreClient {
       }
     }
 
-    final DBIterator iterator = db.iterator(options);
+    //
+    // Do not fill the block cache either when the time based fetch would scan too much data
+    //
+
+    if (options.fillCache() && this.blockcacheSizeThreshold > 0 && -1L == count && then <= now) {
+      Range[] ranges = new Range[metadatas.size()];
+      for (int i = 0; i < ranges.length; i++) {
+        ranges[i] = dataRange(metadatas.get(i), then, now);
+      }
+      long size = 0L;
+      for (long sz: db.getApproximateSizes(ranges)) {
+        size += sz;
+      }
+      if (size >= this.blockcacheSizeThreshold) {
+        options = new ReadOptions();
+        options.fillCache(false);
+      }
+    }
+
+    //
+    // Read rows in advance unless we will seek for each datapoint because of 'timestep'
+    //
+
+    final ReadAheadIterator readahead = null != this.readaheadExecutor && !hasTimestep ? new ReadAheadIterator(db.iterator(options), this.readaheadRows, this.readaheadExecutor) : null;
+
+    DBIterator dbiterator = null != readahead ? readahead : db.iterator(options);
+
+    // Present the datapoints of the data blocks as rows
+    if (this.blocksSpan > 0) {
+      dbiterator = new DataBlocksIterator(dbiterator, this.blocksSpan, keystore.getKey(KeyStore.AES_LEVELDB_DATA));
+    }
+
+    final DBIterator iterator = dbiterator;
 
     Map<String,String> labels = new HashMap<String,String>();
 
@@ -305,10 +434,8 @@ public class StandaloneStoreClient implements StoreClient {
           basets <<= 8; basets |= (k[i++] & 0xFFL);
           basets = Long.MAX_VALUE - basets;
 
-          GTSDecoder decoder = new GTSDecoder(basets, keystore.getKey(KeyStore.AES_LEVELDB_DATA), ByteBuffer.wrap(kv.getValue()));
-          decoder.next();
           try {
-            encoder.addValue(decoder.getTimestamp(), decoder.getLocation(), decoder.getElevation(), decoder.getBinaryValue());
+            addValue(encoder, basets, kv);
             postBoundary--;
             if (0 == postBoundary) {
               if (nvalues > 0) {
@@ -359,10 +486,8 @@ public class StandaloneStoreClient implements StoreClient {
                 basets <<= 8; basets |= (k[i++] & 0xFFL);
                 basets = Long.MAX_VALUE - basets;
 
-                GTSDecoder decoder = new GTSDecoder(basets, keystore.getKey(KeyStore.AES_LEVELDB_DATA), ByteBuffer.wrap(kv.getValue()));
-                decoder.next();
                 try {
-                  encoder.addValue(decoder.getTimestamp(), decoder.getLocation(), decoder.getElevation(), decoder.getBinaryValue());
+                  addValue(encoder, basets, kv);
                   preBoundary--;
                 } catch (IOException ioe) {
                   throw new RuntimeException(ioe);
@@ -387,8 +512,6 @@ public class StandaloneStoreClient implements StoreClient {
 
             long basets = Long.MAX_VALUE - bb.getLong();
 
-            byte[] v = kv.getValue();
-
             //
             // Skip datapoints
             //
@@ -463,16 +586,14 @@ public class StandaloneStoreClient implements StoreClient {
               continue;
             }
 
-            valueBytes += v.length;
+            valueBytes += kv instanceof DataBlocks.Row ? ((DataBlocks.Row) kv).size() : kv.getValue().length;
             keyBytes += kv.getKey().length;
             datapoints++;
 
             nvalues--;
 
-            GTSDecoder decoder = new GTSDecoder(basets, keystore.getKey(KeyStore.AES_LEVELDB_DATA), ByteBuffer.wrap(kv.getValue()));
-            decoder.next();
             try {
-              encoder.addValue(decoder.getTimestamp(), decoder.getLocation(), decoder.getElevation(), decoder.getBinaryValue());
+              addValue(encoder, basets, kv);
             } catch (IOException ioe) {
               throw new RuntimeException(ioe);
             }
@@ -590,6 +711,11 @@ public class StandaloneStoreClient implements StoreClient {
             System.arraycopy(startrow, 0, rowbuf, 0, rowbuf.length);
           }
 
+          // Do not read ahead past the time range, the pre boundary is read directly
+          if (null != readahead) {
+            readahead.setLimit(stoprow);
+          }
+
           //
           // Reset number of values retrieved since we just skipped to a new GTS.
           // If 'timespan' is negative this is the opposite of the number of values to retrieve
@@ -617,6 +743,192 @@ public class StandaloneStoreClient implements StoreClient {
     };
   }
 
+  /**
+   * Split a time based fetch request into requests which can be run in parallel and whose results,
+   * concatenated in order, are those of the original request.
+   *
+   * The time range of each GTS whose data, according to the approximate sizes reported by LevelDB, is larger
+   * than twice the configured size is split into sub-ranges of similar sizes. The other GTS are grouped.
+   *
+   * @return The list of requests or null if the time range of no GTS was split
+   */
+  public List<FetchRequest> splitFetch(FetchRequest req) {
+    if (this.rangeSplitMinSize <= 0L || null == this.db) {
+      return null;
+    }
+
+    List<Metadata> metadatas = req.getMetadatas();
+
+    // When there are enough GTS the parallel scanners are already kept busy
+    if (metadatas.isEmpty() || metadatas.size() >= this.rangeSplitMaxScanners) {
+      return null;
+    }
+
+    // Only plain time based requests can be split
+    if (-1L != req.getCount() || req.getSkip() > 0L || req.getStep() > 1L || req.getTimestep() > 1L || (req.getSample() > 0.0D && req.getSample() < 1.0D)) {
+      return null;
+    }
+
+    long now = req.getNow();
+    long then = req.getThents();
+
+    if (then >= now) {
+      return null;
+    }
+
+    //
+    // Sort the GTS like fetch does so they are returned in the same order
+    //
+
+    List<Metadata> sorted = new ArrayList<Metadata>(metadatas);
+    Collections.sort(sorted, MetadataIdComparator.COMPARATOR);
+
+    List<FetchRequest> requests = new ArrayList<FetchRequest>();
+    List<Metadata> metas = new ArrayList<Metadata>();
+    boolean split = false;
+
+    for (Metadata metadata: sorted) {
+      List<long[]> ranges = splitRange(metadata, then, now);
+
+      if (null == ranges) {
+        metas.add(metadata);
+        continue;
+      }
+
+      split = true;
+
+      if (!metas.isEmpty()) {
+        requests.add(subFetch(req, metas, then, now, req.getPreBoundary(), req.getPostBoundary()));
+        metas = new ArrayList<Metadata>();
+      }
+
+      //
+      // The datapoints are fetched from the most recent one, the post boundary is fetched
+      // with the most recent range and the pre boundary with the oldest one
+      //
+
+      for (int i = 0; i < ranges.size(); i++) {
+        List<Metadata> single = new ArrayList<Metadata>(1);
+        single.add(metadata);
+        long[] range = ranges.get(i);
+        requests.add(subFetch(req, single, range[0], range[1], ranges.size() - 1 == i ? req.getPreBoundary() : 0L, 0 == i ? req.getPostBoundary() : 0L));
+      }
+    }
+
+    if (!split) {
+      return null;
+    }
+
+    if (!metas.isEmpty()) {
+      requests.add(subFetch(req, metas, then, now, req.getPreBoundary(), req.getPostBoundary()));
+    }
+
+    return requests;
+  }
+
+  /**
+   * Split [then,now] into sub-ranges of similar approximate sizes by repeatedly bisecting the largest one.
+   * Each sub-range keeps track of the part of its time range which contains data so sparse GTS can be
+   * split without producing empty sub-ranges.
+   *
+   * @return The sub-ranges as {start, end}, from the most recent to the oldest, or null if the range was not split
+   */
+  private List<long[]> splitRange(Metadata metadata, long then, long now) {
+    long total = this.db.getApproximateSizes(dataRange(metadata, then, now))[0];
+
+    if (total < 2L * this.rangeSplitMinSize) {
+      return null;
+    }
+
+    long target = Math.max(this.rangeSplitMinSize, total / this.rangeSplitMaxScanners);
+
+    // Sub-ranges as {start, end, data start, data end, approximate size}
+    List<long[]> ranges = new ArrayList<long[]>();
+    ranges.add(new long[] { then, now, then, now, total });
+
+    for (int i = 0; i < MAX_RANGESPLIT_BISECTIONS && ranges.size() < this.rangeSplitMaxScanners; i++) {
+      int largest = 0;
+
+      for (int j = 1; j < ranges.size(); j++) {
+        if (ranges.get(j)[4] > ranges.get(largest)[4]) {
+          largest = j;
+        }
+      }
+
+      long[] range = ranges.get(largest);
+
+      if (range[4] < 2L * target || range[2] == range[3]) {
+        break;
+      }
+
+      // Midpoint of the data range, computed without overflowing
+      long mid = (range[2] >> 1) + (range[3] >> 1) + (range[2] & range[3] & 1L);
+
+      long[] sizes = this.db.getApproximateSizes(dataRange(metadata, mid + 1, range[3]), dataRange(metadata, range[2], mid));
+
+      if (0L == sizes[0] && 0L == sizes[1]) {
+        // The approximate sizes are too coarse to split further
+        break;
+      } else if (0L == sizes[0]) {
+        range[3] = mid;
+      } else if (0L == sizes[1]) {
+        range[2] = mid + 1;
+      } else {
+        ranges.set(largest, new long[] { mid + 1, range[1], mid + 1, range[3], sizes[0] });
+        ranges.add(largest + 1, new long[] { range[0], mid, range[2], mid, sizes[1] });
+      }
+    }
+
+    if (ranges.size() < 2) {
+      return null;
+    }
+
+    List<long[]> result = new ArrayList<long[]>(ranges.size());
+
+    for (long[] range: ranges) {
+      result.add(new long[] { range[0], range[1] });
+    }
+
+    return result;
+  }
+
+  /**
+   * Range of the rows of a GTS with timestamps in ]start,end], which is the best approximation of [start,end]
+   * as the row keys contain the reversed timestamps.
+   */
+  private static Range dataRange(Metadata metadata, long start, long end) {
+    byte[] begin = new byte[Constants.FDB_RAW_DATA_KEY_PREFIX.length + 8 + 8 + 8];
+    ByteBuffer bb = ByteBuffer.wrap(begin).order(ByteOrder.BIG_ENDIAN);
+    bb.put(Constants.FDB_RAW_DATA_KEY_PREFIX);
+    bb.putLong(metadata.getClassId());
+    bb.putLong(metadata.getLabelsId());
+    bb.putLong(Long.MAX_VALUE - end);
+
+    byte[] limit = new byte[begin.length];
+    bb = ByteBuffer.wrap(limit).order(ByteOrder.BIG_ENDIAN);
+    bb.put(Constants.FDB_RAW_DATA_KEY_PREFIX);
+    bb.putLong(metadata.getClassId());
+    bb.putLong(metadata.getLabelsId());
+    bb.putLong(Long.MAX_VALUE - start);
+
+    return new Range(begin, limit);
+  }
+
+  private static FetchRequest subFetch(FetchRequest req, List<Metadata> metas, long then, long now, long preBoundary, long postBoundary) {
+    // Remove Metadatas from FetchRequest otherwise new FetchRequest(req) will do a deep copy
+    List<Metadata> lm = req.getMetadatas();
+    req.unsetMetadatas();
+    FetchRequest freq = new FetchRequest(req);
+    // Restore Metadatas
+    req.setMetadatas(lm);
+    freq.setMetadatas(metas);
+    freq.setThents(then);
+    freq.setNow(now);
+    freq.setPreBoundary(preBoundary);
+    freq.setPostBoundary(postBoundary);
+    return freq;
+  }
+
   private ThreadLocal<WriteBatch> perThreadWriteBatch = new ThreadLocal<WriteBatch>() {
     protected WriteBatch initialValue() {
       return db.createWriteBatch();
@@ -653,7 +965,17 @@ public class StandaloneStoreClient implements StoreClient {
           options = new WriteOptions().sync(Math.random() < syncrate);
         }
 
-        this.db.write(batch, options);
+        // Prevent the data blocks from being rewritten concurrently
+        if (this.blocksSpan > 0) {
+          this.blocksLock.readLock().lock();
+        }
+        try {
+          this.db.write(batch, options);
+        } finally {
+          if (this.blocksSpan > 0) {
+            this.blocksLock.readLock().unlock();
+          }
+        }
         size.set(0L);
         perThreadWriteBatch.remove();
         written = true;
@@ -678,24 +1000,32 @@ public class StandaloneStoreClient implements StoreClient {
       return;
     }
 
-    GTSDecoder decoder = encoder.getDecoder();
+    // The encoder is not modified while it is stored, so its content does not need to be copied
+    GTSDecoder decoder = encoder.getUnsafeDecoder(false);
 
     List<byte[][]> kvs = new ArrayList<byte[][]>();
 
-    while(decoder.next()) {
-      ByteBuffer bb = ByteBuffer.wrap(new byte[Constants.FDB_RAW_DATA_KEY_PREFIX.length + 8 + 8 + 8]).order(ByteOrder.BIG_ENDIAN);
-      bb.put(Constants.FDB_RAW_DATA_KEY_PREFIX);
-      bb.putLong(encoder.getClassId());
-      bb.putLong(encoder.getLabelsId());
-      bb.putLong(Long.MAX_VALUE - decoder.getTimestamp());
+    // Encoder of the row values, reset for each datapoint
+    PooledGTSEncoder enc = new PooledGTSEncoder(0L, this.keystore.getKey(KeyStore.AES_LEVELDB_DATA));
 
-      GTSEncoder enc = new GTSEncoder(decoder.getTimestamp(), this.keystore.getKey(KeyStore.AES_LEVELDB_DATA));
+    try {
+      while(decoder.next()) {
+        ByteBuffer bb = ByteBuffer.wrap(new byte[Constants.FDB_RAW_DATA_KEY_PREFIX.length + 8 + 8 + 8]).order(ByteOrder.BIG_ENDIAN);
+        bb.put(Constants.FDB_RAW_DATA_KEY_PREFIX);
+        bb.putLong(encoder.getClassId());
+        bb.putLong(encoder.getLabelsId());
+        bb.putLong(Long.MAX_VALUE - decoder.getTimestamp());
 
-      enc.addValue(decoder.getTimestamp(), decoder.getLocation(), decoder.getElevation(), decoder.getBinaryValue());
+        enc.reset(decoder.getTimestamp());
 
-      byte[] value = enc.getBytes();
+        enc.addValue(decoder.getTimestamp(), decoder.getLocation(), decoder.getElevation(), decoder.getBinaryValue());
 
-      kvs.add(new byte[][] { bb.array(), value });
+        byte[] value = enc.getBytes();
+
+        kvs.add(new byte[][] { bb.array(), value });
+      }
+    } finally {
+      enc.close();
     }
 
     store(kvs);
@@ -730,6 +1060,12 @@ public class StandaloneStoreClient implements StoreClient {
 
     WriteBatch batch = null;
 
+    // Prevent the data blocks from being rewritten concurrently
+    if (this.blocksSpan > 0) {
+      this.blocksLock.readLock().lock();
+      this.blocksDeleteLock.lock();
+    }
+
     try {
       ReadOptions roptions = new ReadOptions();
       roptions.fillCache(DELETE_FILLCACHE);
@@ -749,7 +1085,17 @@ public class StandaloneStoreClient implements StoreClient {
       bb.putLong(metadata.getLabelsId());
       bb.putLong(Long.MAX_VALUE - end);
 
-      iterator.seek(bend);
+      //
+      // The data blocks of the bucket containing 'end' sort before 'bend'
+      //
+
+      long bucketEnd = this.blocksSpan > 0 ? DataBlocks.bucketEnd(end, this.blocksSpan) : Long.MAX_VALUE;
+
+      if (Long.MAX_VALUE != bucketEnd) {
+        iterator.seek(DataBlocks.bucketKey(bend, bucketEnd));
+      } else {
+        iterator.seek(bend);
+      }
 
       byte[] bstart = new byte[bend.length];
       bb = ByteBuffer.wrap(bstart).order(ByteOrder.BIG_ENDIAN);
@@ -772,24 +1118,30 @@ public class StandaloneStoreClient implements StoreClient {
       while (iterator.hasNext()) {
         Entry<byte[],byte[]> entry = iterator.next();
 
-        if (BytesUtils.compareTo(entry.getKey(), bend) >= 0 && BytesUtils.compareTo(entry.getKey(), bstart) <= 0) {
+        if (this.blocksSpan > 0 && DataBlocks.isBlockKey(entry.getKey()) && BytesUtils.compareTo(entry.getKey(), bstart) <= 0) {
+          count += delete(batch, entry.getKey(), entry.getValue(), start, end);
+        } else if (BytesUtils.compareTo(entry.getKey(), bend) < 0) {
+          // Row more recent than 'end' in the bucket of 'end'
+          continue;
+        } else if (BytesUtils.compareTo(entry.getKey(), bstart) <= 0) {
           batch.delete(entry.getKey());
-          batchsize++;
-
-          if (MAX_DELETE_BATCHSIZE <= batchsize) {
-            if (syncwrites) {
-              options = new WriteOptions().sync(Math.random() < syncrate);
-            }
-            this.db.writeUnlocked(batch, options);
-            batch.close();
-            batch = this.db.createWriteBatchUnlocked();
-            batchsize = 0;
-          }
           //this.db.delete(entry.getKey());
           count++;
         } else {
           break;
         }
+
+        batchsize++;
+
+        if (MAX_DELETE_BATCHSIZE <= batchsize) {
+          if (syncwrites) {
+            options = new WriteOptions().sync(Math.random() < syncrate);
+          }
+          this.db.writeUnlocked(batch, options);
+          batch.close();
+          batch = this.db.createWriteBatchUnlocked();
+          batchsize = 0;
+        }
       }
 
       if (batchsize > 0) {
@@ -815,7 +1167,62 @@ public class StandaloneStoreClient implements StoreClient {
         } catch (Throwable t) {
         }
       }
+      if (this.blocksSpan > 0) {
+        this.blocksDeleteLock.unlock();
+        this.blocksLock.readLock().unlock();
+      }
+    }
+  }
+
+  /**
+   * Remove the datapoints between start and end from a data block.
+   *
+   * @return The number of datapoints removed.
+   */
+  private long delete(WriteBatch batch, byte[] key, byte[] block, long start, long end) throws IOException {
+    if (DataBlocks.oldest(block) > end || DataBlocks.newest(block) < start) {
+      return 0L;
+    }
+
+    byte[] aesKey = this.keystore.getKey(KeyStore.AES_LEVELDB_DATA);
+
+    GTSDecoder decoder = DataBlocks.decode(block, aesKey);
+
+    List<DataBlocks.Datapoint> datapoints = new ArrayList<DataBlocks.Datapoint>();
+
+    long count = 0L;
+
+    while (decoder.next()) {
+      if (decoder.getTimestamp() >= start && decoder.getTimestamp() <= end) {
+        count++;
+      } else {
+        datapoints.add(new DataBlocks.Datapoint(decoder));
+      }
     }
+
+    if (datapoints.isEmpty()) {
+      batch.delete(key);
+    } else if (count > 0) {
+      // The key of the block is kept, blocks of a bucket do not overlap so their order is preserved
+      batch.put(key, DataBlocks.encode(datapoints, DataBlocks.isCompressed(block), aesKey));
+    }
+
+    return count;
+  }
+
+  /**
+   * Add the datapoint of a row to an encoder. The virtual rows of the data blocks hold their datapoint already decoded.
+   */
+  private void addValue(GTSEncoder encoder, long basets, Entry<byte[],byte[]> kv) throws IOException {
+    if (kv instanceof DataBlocks.Row) {
+      DataBlocks.Datapoint datapoint = ((DataBlocks.Row) kv).getDatapoint();
+      encoder.addValue(datapoint.timestamp, datapoint.location, datapoint.elevation, datapoint.value);
+      return;
+    }
+
+    GTSDecoder decoder = new GTSDecoder(basets, keystore.getKey(KeyStore.AES_LEVELDB_DATA), ByteBuffer.wrap(kv.getValue()));
+    decoder.next();
+    encoder.addValue(decoder.getTimestamp(), decoder.getLocation(), decoder.getElevation(), decoder.getBinaryValue());
   }
 
   public void addPlasmaHandler(StandalonePlasmaHandlerInterface plasmaHandler) {
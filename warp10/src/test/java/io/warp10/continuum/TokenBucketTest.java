@@ -0,0 +1,140 @@
+//
+//   Copyright 2024  SenX S.A.S.
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.continuum;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TokenBucketTest {
+
+  private static long elapsedMillis(long start) {
+    return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+  }
+
+  @Test
+  public void testCreate() throws Exception {
+    Assert.assertEquals(12.5D, TokenBucket.create(12.5D).getRate(), 0.0D);
+
+    for (double rate: new double[] { 0.0D, -1.0D, Double.NaN, Double.POSITIVE_INFINITY }) {
+      try {
+        TokenBucket.create(rate);
+        Assert.fail("Rate " + rate + " was accepted.");
+      } catch (IllegalArgumentException iae) {
+      }
+    }
+  }
+
+  @Test
+  public void testBurst() throws Exception {
+    TokenBucket bucket = TokenBucket.create(10.0D);
+
+    // Only one second of unused permits is stored
+    Thread.sleep(1500L);
+
+    Assert.assertTrue(bucket.tryAcquire(10, 0L, TimeUnit.MILLISECONDS));
+    // The stored permits were all used but a request only waits for the previous ones
+    Assert.assertTrue(bucket.tryAcquire(1, 0L, TimeUnit.MILLISECONDS));
+    Assert.assertFalse(bucket.tryAcquire(1, 0L, TimeUnit.MILLISECONDS));
+  }
+
+  @Test
+  public void testWaitForPreviousRequests() throws Exception {
+    TokenBucket bucket = TokenBucket.create(10.0D);
+
+    // The first request is granted immediately, the next ones wait for its 500ms of permits
+    long start = System.nanoTime();
+    Assert.assertTrue(bucket.tryAcquire(5, 0L, TimeUnit.MILLISECONDS));
+    Assert.assertFalse(bucket.tryAcquire(1, 0L, TimeUnit.MILLISECONDS));
+    Assert.assertTrue(bucket.tryAcquire(1, 1L, TimeUnit.SECONDS));
+    Assert.assertTrue(elapsedMillis(start) >= 450L);
+
+    // The previous request reserved 100ms more
+    start = System.nanoTime();
+    Assert.assertTrue(bucket.tryAcquire(1, 1L, TimeUnit.SECONDS));
+    Assert.assertTrue(elapsedMillis(start) >= 50L);
+  }
+
+  @Test
+  public void testTimeout() throws Exception {
+    TokenBucket bucket = TokenBucket.create(10.0D);
+
+    Assert.assertTrue(bucket.tryAcquire(10, 0L, TimeUnit.MILLISECONDS));
+
+    // The permits are available in one second, refused requests do not wait nor reserve permits
+    long start = System.nanoTime();
+    Assert.assertFalse(bucket.tryAcquire(1, 500L, TimeUnit.MILLISECONDS));
+    Assert.assertFalse(bucket.tryAcquire(100, 500L, TimeUnit.MILLISECONDS));
+    Assert.assertTrue(elapsedMillis(start) < 500L);
+
+    Assert.assertTrue(bucket.tryAcquire(1, 2L, TimeUnit.SECONDS));
+    long elapsed = elapsedMillis(start);
+    Assert.assertTrue(elapsed >= 900L && elapsed < 1500L);
+  }
+
+  @Test
+  public void testConcurrentAcquire() throws Exception {
+    final int threads = 8;
+    final int requests = 100;
+    final double rate = 1000.0D;
+
+    final TokenBucket bucket = TokenBucket.create(rate);
+    final AtomicInteger granted = new AtomicInteger();
+    final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+
+    List<Thread> acquirers = new ArrayList<Thread>();
+
+    for (int t = 0; t < threads; t++) {
+      acquirers.add(new Thread() {
+        @Override
+        public void run() {
+          try {
+            for (int i = 0; i < requests; i++) {
+              if (bucket.tryAcquire(1, 10L, TimeUnit.SECONDS)) {
+                granted.incrementAndGet();
+              }
+            }
+          } catch (Throwable th) {
+            error.compareAndSet(null, th);
+          }
+        }
+      });
+    }
+
+    long start = System.nanoTime();
+
+    for (Thread t: acquirers) {
+      t.start();
+    }
+    for (Thread t: acquirers) {
+      t.join();
+    }
+
+    if (null != error.get()) {
+      throw new AssertionError(error.get());
+    }
+
+    // All the permits are granted, no faster than the rate as none were stored
+    Assert.assertEquals(threads * requests, granted.get());
+    Assert.assertTrue(elapsedMillis(start) >= (long) ((threads * requests - 1) * 1000.0D / rate) - 10L);
+  }
+}
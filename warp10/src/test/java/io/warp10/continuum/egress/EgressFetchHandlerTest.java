@@ -19,9 +19,13 @@ package io.warp10.continuum.egress;
 import java.io.ByteArrayOutputStream;
 import java.io.PrintWriter;
 import java.io.StringReader;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
@@ -31,11 +35,15 @@ import org.junit.BeforeClass;
 import org.junit.Test;
 import static java.util.Collections.singleton;
 import static java.util.Collections.singletonMap;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 
 import io.warp10.WarpConfig;
 import io.warp10.continuum.gts.GTSDecoder;
 import io.warp10.continuum.gts.GTSEncoder;
+import io.warp10.continuum.gts.GeoTimeSerie;
+import io.warp10.continuum.gts.Varint;
 import io.warp10.continuum.store.thrift.data.Metadata;
 
 public class EgressFetchHandlerTest {
@@ -63,6 +71,165 @@ public class EgressFetchHandlerTest {
     assertEquals(expect.trim(), json);
   }
 
+  @Test
+  public void testBinaryDump() throws Exception {
+    Map<String,String> labels = new HashMap<String,String>();
+    labels.put("foo", "bar");
+    labels.put(".owner", "6d9bbc0b-2af8-4053-a287-5d6b95405af0");
+
+    GTSEncoder gts = new GTSEncoder();
+    gts.getMetadata().setName("my.class").setLabels(labels);
+
+    for (int i = 0; i < 3000; i++) {
+      long location = 0 == i % 7 ? GeoTimeSerie.NO_LOCATION : i * 1000L;
+      long elevation = 0 == i % 5 ? i : GeoTimeSerie.NO_ELEVATION;
+      Object value;
+
+      if (i < 1500) {
+        value = (long) (i * (0 == i % 2 ? 1 : -3));
+      } else if (i < 2500) {
+        value = i / 7.0D;
+      } else if (i < 2600) {
+        value = 0 == i % 3;
+      } else if (i < 2700) {
+        value = "v" + i;
+      } else if (i < 2800) {
+        value = new byte[] { (byte) i, 42 };
+      } else {
+        value = 0 == i % 2 ? (Object) (long) i : (Object) (i + 0.5D);
+      }
+
+      gts.addValue(i * 10L, location, elevation, value);
+    }
+
+    //
+    // Dump all the datapoints
+    //
+
+    List<Object[]> points = readBinaryDump(binaryDump(gts, -1), "my.class{foo=bar}");
+
+    assertEquals(3000, points.size());
+
+    GTSDecoder decoder = gts.getDecoder(true);
+    int i = 0;
+
+    while (decoder.next()) {
+      Object[] point = points.get(i++);
+      assertEquals(decoder.getTimestamp(), point[0]);
+      assertEquals(decoder.getLocation(), point[1]);
+      assertEquals(decoder.getElevation(), point[2]);
+
+      Object value = decoder.getBinaryValue();
+
+      if (value instanceof byte[]) {
+        assertArrayEquals((byte[]) value, (byte[]) point[3]);
+      } else if (value instanceof BigDecimal) {
+        assertEquals(((BigDecimal) value).doubleValue(), point[3]);
+      } else {
+        assertEquals(value, point[3]);
+      }
+    }
+
+    //
+    // Dump only the first datapoints
+    //
+
+    points = readBinaryDump(binaryDump(gts, 1234), "my.class{foo=bar}");
+
+    assertEquals(1234, points.size());
+    assertEquals(12330L, points.get(1233)[0]);
+  }
+
+  private byte[] binaryDump(GTSEncoder gts, long count) throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Iterator<GTSDecoder> iter = singleton(gts.getDecoder()).iterator();
+    EgressFetchHandler.binaryDump(out, iter, count, false, false, new AtomicReference<Metadata>(null), new AtomicLong(0), false);
+    return out.toByteArray();
+  }
+
+  private List<Object[]> readBinaryDump(byte[] data, String expectedMeta) {
+    ByteBuffer bb = ByteBuffer.wrap(data);
+    List<Object[]> points = new ArrayList<Object[]>();
+
+    assertEquals(EgressFetchHandler.BINARY_TAG_METADATA, bb.get());
+
+    StringBuilder sb = new StringBuilder(readString(bb));
+    long nlabels = Varint.decodeUnsignedLong(bb);
+    sb.append("{");
+    for (int i = 0; i < nlabels; i++) {
+      sb.append(0 == i ? "" : ",").append(readString(bb)).append("=").append(readString(bb));
+    }
+    sb.append("}");
+    assertEquals(expectedMeta, sb.toString());
+
+    while (bb.hasRemaining()) {
+      assertEquals(EgressFetchHandler.BINARY_TAG_BLOCK, bb.get());
+
+      int type = bb.get();
+      int flags = bb.get();
+      int n = (int) Varint.decodeUnsignedLong(bb);
+
+      long[] ticks = readDeltas(bb, n);
+      long[] locations = 0 != (flags & EgressFetchHandler.BINARY_FLAG_LOCATIONS) ? readDeltas(bb, n) : null;
+      long[] elevations = 0 != (flags & EgressFetchHandler.BINARY_FLAG_ELEVATIONS) ? readDeltas(bb, n) : null;
+
+      long[] longs = EgressFetchHandler.BINARY_TYPE_LONG == type ? readDeltas(bb, n) : null;
+      byte[] bits = null;
+
+      if (EgressFetchHandler.BINARY_TYPE_BOOLEAN == type) {
+        bits = new byte[(n + 7) / 8];
+        bb.get(bits);
+      }
+
+      for (int i = 0; i < n; i++) {
+        Object value;
+
+        if (EgressFetchHandler.BINARY_TYPE_LONG == type) {
+          value = longs[i];
+        } else if (EgressFetchHandler.BINARY_TYPE_DOUBLE == type) {
+          value = Double.longBitsToDouble(bb.getLong());
+        } else if (EgressFetchHandler.BINARY_TYPE_BOOLEAN == type) {
+          value = 0 != (bits[i / 8] & (1 << (i % 8)));
+        } else if (EgressFetchHandler.BINARY_TYPE_STRING == type) {
+          value = readString(bb);
+        } else {
+          value = readBytes(bb);
+        }
+
+        points.add(new Object[] {
+          ticks[i],
+          null == locations ? GeoTimeSerie.NO_LOCATION : locations[i],
+          null == elevations ? GeoTimeSerie.NO_ELEVATION : elevations[i],
+          value
+        });
+      }
+    }
+
+    assertFalse(bb.hasRemaining());
+
+    return points;
+  }
+
+  private static long[] readDeltas(ByteBuffer bb, int n) {
+    long[] values = new long[n];
+    long last = 0L;
+    for (int i = 0; i < n; i++) {
+      last += Varint.decodeSignedLong(bb);
+      values[i] = last;
+    }
+    return values;
+  }
+
+  private static byte[] readBytes(ByteBuffer bb) {
+    byte[] bytes = new byte[(int) Varint.decodeUnsignedLong(bb)];
+    bb.get(bytes);
+    return bytes;
+  }
+
+  private static String readString(ByteBuffer bb) {
+    return new String(readBytes(bb), StandardCharsets.UTF_8);
+  }
+
   private String jsonDumpWithExpose(boolean expose) throws Exception {
     Map<String,String> labels = new HashMap<String,String>();
     labels.put("foo", "bar");
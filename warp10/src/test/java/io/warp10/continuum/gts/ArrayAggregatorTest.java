@@ -0,0 +1,395 @@
+//
+//   Copyright 2024  SenX S.A.S.
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.continuum.gts;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import io.warp10.WarpConfig;
+import io.warp10.continuum.Configuration;
+import io.warp10.script.WarpScriptArrayAggregatorFunction;
+import io.warp10.script.WarpScriptBucketizerFunction;
+import io.warp10.script.WarpScriptException;
+import io.warp10.script.WarpScriptReducerFunction;
+import io.warp10.script.aggregator.Count;
+import io.warp10.script.aggregator.First;
+import io.warp10.script.aggregator.Last;
+import io.warp10.script.aggregator.MAD;
+import io.warp10.script.aggregator.Max;
+import io.warp10.script.aggregator.Mean;
+import io.warp10.script.aggregator.Min;
+import io.warp10.script.aggregator.RMS;
+import io.warp10.script.aggregator.StandardDeviation;
+import io.warp10.script.aggregator.Sum;
+import io.warp10.script.aggregator.Variance;
+import io.warp10.script.aggregator.VarianceWelford;
+
+public class ArrayAggregatorTest {
+
+  private static final WarpScriptArrayAggregatorFunction[] AGGREGATORS = new WarpScriptArrayAggregatorFunction[] {
+      new Count("count", false),
+      new First("first"),
+      new Last("last"),
+      new Min("min", true),
+      new Max("max", true),
+      new Mean("mean", false),
+      new Sum("sum", true),
+      new RMS("rms", false),
+      new Variance("var", true, false),
+      new VarianceWelford("var.welford", true, false),
+      new StandardDeviation("sd", false, false),
+  };
+
+  @BeforeClass
+  public static void loadConfig() throws Exception {
+    StringReader reader = new StringReader(
+        Configuration.WARP_TIME_UNITS + "=us\n" +
+        "labelsid.slowimpl=true"
+    );
+    WarpConfig.safeSetProperties(reader);
+  }
+
+  /**
+   * Aggregator hiding the array support of the aggregator it wraps
+   */
+  private static class Legacy implements WarpScriptBucketizerFunction, WarpScriptReducerFunction {
+    private final WarpScriptArrayAggregatorFunction aggregator;
+
+    public Legacy(WarpScriptArrayAggregatorFunction aggregator) {
+      this.aggregator = aggregator;
+    }
+
+    @Override
+    public Object apply(Object[] args) throws WarpScriptException {
+      return this.aggregator.apply(args);
+    }
+  }
+
+  private static GeoTimeSerie generate(Random random, int n, boolean doubles) {
+    GeoTimeSerie gts = new GeoTimeSerie();
+
+    for (int i = 0; i < n; i++) {
+      long tick = random.nextInt(n) * 10L;
+      long location = random.nextBoolean() ? GeoTimeSerie.NO_LOCATION : random.nextLong() >>> 1;
+      long elevation = random.nextBoolean() ? GeoTimeSerie.NO_ELEVATION : random.nextInt(1000);
+      Object value = doubles ? (Object) (random.nextGaussian() * 1000.0D) : (Object) (long) random.nextInt(100);
+      GTSHelper.setValue(gts, tick, location, elevation, value, false);
+    }
+
+    return gts;
+  }
+
+  private static void assertSameGTS(GeoTimeSerie expected, GeoTimeSerie actual) {
+    Assert.assertEquals(GTSHelper.nvalues(expected), GTSHelper.nvalues(actual));
+
+    for (int i = 0; i < GTSHelper.nvalues(expected); i++) {
+      Assert.assertEquals(GTSHelper.tickAtIndex(expected, i), GTSHelper.tickAtIndex(actual, i));
+      Assert.assertEquals(GTSHelper.locationAtIndex(expected, i), GTSHelper.locationAtIndex(actual, i));
+      Assert.assertEquals(GTSHelper.elevationAtIndex(expected, i), GTSHelper.elevationAtIndex(actual, i));
+      Assert.assertEquals(GTSHelper.valueAtIndex(expected, i), GTSHelper.valueAtIndex(actual, i));
+    }
+  }
+
+  @Test
+  public void testBucketize() throws Exception {
+    Random random = new Random(42L);
+
+    for (boolean doubles: new boolean[] { false, true }) {
+      GeoTimeSerie gts = generate(random, 1000, doubles);
+
+      for (WarpScriptArrayAggregatorFunction aggregator: AGGREGATORS) {
+        GeoTimeSerie expected = GTSHelper.bucketize(gts, 100L, 0, 0L, new Legacy(aggregator), Long.MAX_VALUE, null);
+        GeoTimeSerie actual = GTSHelper.bucketize(gts, 100L, 0, 0L, aggregator, Long.MAX_VALUE, null);
+        assertSameGTS(expected, actual);
+      }
+    }
+  }
+
+  @Test
+  public void testReduce() throws Exception {
+    Random random = new Random(42L);
+
+    for (boolean doubles: new boolean[] { false, true }) {
+      List<GeoTimeSerie> series = new ArrayList<GeoTimeSerie>();
+
+      for (int i = 0; i < 10; i++) {
+        GeoTimeSerie gts = generate(random, 100, doubles);
+        gts.setName("test");
+        series.add(GTSHelper.dedup(gts));
+      }
+
+      for (WarpScriptArrayAggregatorFunction aggregator: AGGREGATORS) {
+        List<GeoTimeSerie> expected = GTSHelper.reduce(new Legacy(aggregator), series, null);
+        List<GeoTimeSerie> actual = GTSHelper.reduce((WarpScriptReducerFunction) aggregator, series, null);
+
+        Assert.assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+          assertSameGTS(expected.get(i), actual.get(i));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testReduceWideSparse() throws Exception {
+    Random random = new Random(42L);
+
+    List<GeoTimeSerie> series = new ArrayList<GeoTimeSerie>();
+
+    // Expected count and sum per tick
+    Map<Long,long[]> expected = new TreeMap<Long,long[]>();
+
+    for (int i = 0; i < 2000; i++) {
+      GeoTimeSerie gts = new GeoTimeSerie();
+      gts.setName("test");
+
+      // All series have values at the first and last ticks, other ticks are sparse and misaligned
+      for (int j = 0; j < 20; j++) {
+        long tick = 0 == j ? 0L : 19 == j ? 1000000L : 1L + random.nextInt(999999);
+        GTSHelper.setValue(gts, tick, (long) random.nextInt(100));
+      }
+
+      gts = GTSHelper.dedup(gts);
+
+      for (int j = 0; j < GTSHelper.nvalues(gts); j++) {
+        long[] countsum = expected.get(GTSHelper.tickAtIndex(gts, j));
+        if (null == countsum) {
+          countsum = new long[2];
+          expected.put(GTSHelper.tickAtIndex(gts, j), countsum);
+        }
+        countsum[0]++;
+        countsum[1] += ((Number) GTSHelper.valueAtIndex(gts, j)).longValue();
+      }
+
+      series.add(gts);
+    }
+
+    WarpScriptReducerFunction[] reducers = new WarpScriptReducerFunction[] { new Count("count", true), new Legacy(new Count("count", true)), new Sum("sum", true), new Legacy(new Sum("sum", true)) };
+
+    for (int r = 0; r < reducers.length; r++) {
+      List<GeoTimeSerie> reduced = GTSHelper.reduce(reducers[r], series, null);
+
+      Assert.assertEquals(1, reduced.size());
+
+      GeoTimeSerie gts = reduced.get(0);
+
+      Assert.assertEquals(expected.size(), GTSHelper.nvalues(gts));
+
+      int i = 0;
+      for (Map.Entry<Long,long[]> entry: expected.entrySet()) {
+        Assert.assertEquals(entry.getKey().longValue(), GTSHelper.tickAtIndex(gts, i));
+        long value = ((Number) GTSHelper.valueAtIndex(gts, i)).longValue();
+        // Counts then sums
+        Assert.assertEquals(entry.getValue()[r / 2], value);
+        i++;
+      }
+    }
+  }
+
+  /**
+   * Reducers may modify the arrays they are passed, MAD sorts the locations and elevations,
+   * each tick must nevertheless only see the entries of the series with a value at this tick.
+   */
+  @Test
+  public void testReduceSparseModifyingReducer() throws Exception {
+    Random random = new Random(42L);
+
+    List<GeoTimeSerie> series = new ArrayList<GeoTimeSerie>();
+
+    for (int i = 0; i < 8; i++) {
+      GeoTimeSerie gts = new GeoTimeSerie();
+      gts.setName("test");
+
+      for (long tick = 0; tick < 50; tick++) {
+        if (random.nextInt(3) > 0) {
+          continue;
+        }
+        long location = random.nextBoolean() ? GeoTimeSerie.NO_LOCATION : random.nextLong() >>> 1;
+        long elevation = random.nextBoolean() ? GeoTimeSerie.NO_ELEVATION : random.nextInt(1000);
+        GTSHelper.setValue(gts, tick, location, elevation, (long) random.nextInt(100), false);
+      }
+
+      series.add(gts);
+    }
+
+    MAD mad = new MAD("mad");
+
+    List<GeoTimeSerie> reduced = GTSHelper.reduce(mad, series, null);
+
+    Assert.assertEquals(1, reduced.size());
+
+    GeoTimeSerie gts = reduced.get(0);
+
+    int idx = 0;
+
+    for (long tick = 0; tick < 50; tick++) {
+      //
+      // Apply MAD on fresh arrays only containing the entries of the series with a value at 'tick'
+      //
+
+      int n = series.size();
+      String[] names = new String[n];
+      Map<String,String>[] labels = new Map[n + 1];
+      long[] ticks = new long[n];
+      long[] locations = new long[n];
+      long[] elevations = new long[n];
+      Object[] values = new Object[n];
+      boolean found = false;
+
+      for (int i = 0; i < n; i++) {
+        GeoTimeSerie serie = series.get(i);
+        names[i] = serie.getName();
+        labels[i] = serie.getLabels();
+        ticks[i] = Long.MIN_VALUE;
+        locations[i] = GeoTimeSerie.NO_LOCATION;
+        elevations[i] = GeoTimeSerie.NO_ELEVATION;
+
+        for (int j = 0; j < GTSHelper.nvalues(serie); j++) {
+          if (tick == GTSHelper.tickAtIndex(serie, j)) {
+            ticks[i] = tick;
+            locations[i] = GTSHelper.locationAtIndex(serie, j);
+            elevations[i] = GTSHelper.elevationAtIndex(serie, j);
+            values[i] = GTSHelper.valueAtIndex(serie, j);
+            found = true;
+          }
+        }
+      }
+
+      if (!found) {
+        continue;
+      }
+
+      Object[] expected = (Object[]) mad.apply(new Object[] { tick, names, labels, ticks, locations, elevations, values });
+
+      Assert.assertEquals(tick, GTSHelper.tickAtIndex(gts, idx));
+      Assert.assertEquals(expected[1], GTSHelper.locationAtIndex(gts, idx));
+      Assert.assertEquals(expected[2], GTSHelper.elevationAtIndex(gts, idx));
+      Assert.assertEquals(expected[3], GTSHelper.valueAtIndex(gts, idx));
+      idx++;
+    }
+
+    Assert.assertEquals(idx, GTSHelper.nvalues(gts));
+  }
+
+  /**
+   * Reducer checking it is only passed the entries of the series with a value at the current tick,
+   * then moving and overwriting all the entries of the arrays it was passed.
+   */
+  private static class ScramblingReducer implements WarpScriptReducerFunction {
+    private final Map<String,GeoTimeSerie> series = new HashMap<String,GeoTimeSerie>();
+    private int calls = 0;
+
+    public ScramblingReducer(List<GeoTimeSerie> series) {
+      for (GeoTimeSerie gts: series) {
+        this.series.put(gts.getName(), gts);
+      }
+    }
+
+    @Override
+    public Object apply(Object[] args) throws WarpScriptException {
+      long tick = (long) args[0];
+      String[] names = (String[]) args[1];
+      long[] ticks = (long[]) args[3];
+      long[] locations = (long[]) args[4];
+      long[] elevations = (long[]) args[5];
+      Object[] values = (Object[]) args[6];
+
+      Assert.assertEquals(this.series.size(), new HashSet<String>(Arrays.asList(names)).size());
+
+      int count = 0;
+
+      for (int i = 0; i < names.length; i++) {
+        GeoTimeSerie gts = this.series.get(names[i]);
+
+        Assert.assertNotNull(gts);
+
+        int j = 0;
+        while (j < GTSHelper.nvalues(gts) && GTSHelper.tickAtIndex(gts, j) != tick) {
+          j++;
+        }
+
+        if (j < GTSHelper.nvalues(gts)) {
+          Assert.assertEquals(tick, ticks[i]);
+          Assert.assertEquals(GTSHelper.locationAtIndex(gts, j), locations[i]);
+          Assert.assertEquals(GTSHelper.elevationAtIndex(gts, j), elevations[i]);
+          Assert.assertEquals(GTSHelper.valueAtIndex(gts, j), values[i]);
+          count++;
+        } else {
+          Assert.assertEquals(Long.MIN_VALUE, ticks[i]);
+          Assert.assertEquals(GeoTimeSerie.NO_LOCATION, locations[i]);
+          Assert.assertEquals(GeoTimeSerie.NO_ELEVATION, elevations[i]);
+          Assert.assertNull(values[i]);
+        }
+      }
+
+      for (int i = 0; i < names.length; i++) {
+        names[i] = names[names.length - 1 - i];
+        ticks[i] = tick;
+        locations[i] = i;
+        elevations[i] = i;
+        values[i] = (long) i;
+      }
+
+      this.calls++;
+
+      return new Object[] { tick, GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, (long) count };
+    }
+  }
+
+  @Test
+  public void testReduceSparseScramblingReducer() throws Exception {
+    Random random = new Random(42L);
+
+    List<GeoTimeSerie> series = new ArrayList<GeoTimeSerie>();
+
+    for (int i = 0; i < 20; i++) {
+      GeoTimeSerie gts = new GeoTimeSerie();
+      gts.setName("test" + i);
+
+      for (long tick = 0; tick < 100; tick++) {
+        // Some ticks have all the series, most only have a few of them
+        if (0 != tick % 10 && random.nextInt(4) > 0) {
+          continue;
+        }
+        long location = random.nextBoolean() ? GeoTimeSerie.NO_LOCATION : random.nextLong() >>> 1;
+        long elevation = random.nextBoolean() ? GeoTimeSerie.NO_ELEVATION : random.nextInt(1000);
+        GTSHelper.setValue(gts, tick, location, elevation, (long) random.nextInt(100), false);
+      }
+
+      series.add(gts);
+    }
+
+    ScramblingReducer reducer = new ScramblingReducer(series);
+
+    List<GeoTimeSerie> reduced = GTSHelper.reduce(reducer, series, null);
+
+    Assert.assertEquals(1, reduced.size());
+    Assert.assertEquals(reducer.calls, GTSHelper.nvalues(reduced.get(0)));
+    Assert.assertTrue(reducer.calls > 10);
+  }
+}
@@ -22,6 +22,7 @@ import java.io.StringReader;
 import java.io.StringWriter;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.Random;
 
 import org.junit.Assert;
 import org.junit.BeforeClass;
@@ -29,6 +30,7 @@ import org.junit.Test;
 
 import io.warp10.WarpConfig;
 import io.warp10.continuum.Configuration;
+import io.warp10.continuum.gts.GeoTimeSerie.TYPE;
 public class GTSDecoderTest {
 
   @BeforeClass
@@ -452,4 +454,251 @@ public class GTSDecoderTest {
 
     Assert.assertEquals("0/-90.0:-180.0/0 {} F\r\n=1/-90.0:-180.0/0 1\r\n=2/-90.0:-180.0/0 2.0\r\n=3/-90.0:-180.0/0 '3'\r\n=4/-90.0:-180.0/0 b64:6Q\r\n", sw.toString());
   }
+
+  @Test
+  public void testDecoder_duplicateDirect() throws Exception {
+    GTSEncoder encoder = new GTSEncoder(0L);
+
+    int N = 1000;
+
+    for (int i = 0; i < N; i++) {
+      encoder.addValue(i * 1000L, GeoTimeSerie.NO_LOCATION, i, 0 == i % 2 ? (Object) (long) i : (Object) ("v" + i));
+    }
+
+    GTSDecoder decoder = encoder.getUnsafeDecoder(false);
+
+    // Consume a few values before moving the decoder off heap
+    for (int i = 0; i < 10; i++) {
+      Assert.assertTrue(decoder.next());
+    }
+
+    GTSDecoder direct = decoder.duplicateDirect();
+
+    Assert.assertTrue(direct.getBuffer().isDirect());
+    Assert.assertEquals(decoder.getCount(), direct.getCount());
+
+    // Duplicates of the off heap decoder must decode the same values, independently
+    for (GTSDecoder dec: new GTSDecoder[] { direct.duplicate(), direct.duplicate() }) {
+      GTSDecoder expected = decoder.duplicate();
+      while (expected.next()) {
+        Assert.assertTrue(dec.next());
+        Assert.assertEquals(expected.getTimestamp(), dec.getTimestamp());
+        Assert.assertEquals(expected.getElevation(), dec.getElevation());
+        Assert.assertEquals(expected.getValue(), dec.getValue());
+      }
+      Assert.assertFalse(dec.next());
+    }
+  }
+
+  @Test
+  public void testDecoder_bulk() throws Exception {
+    Random random = new Random(42L);
+
+    GTSEncoder encoder = new GTSEncoder(0L);
+
+    int N = 5000;
+
+    for (int i = 0; i < N; i++) {
+      long location = random.nextInt(10) < 2 ? random.nextLong() >>> 1 : GeoTimeSerie.NO_LOCATION;
+      long elevation = 0 == random.nextInt(10) ? random.nextInt(1000) : GeoTimeSerie.NO_ELEVATION;
+      Object value;
+      // Mostly runs of LONG values, then of DOUBLE values, with a few other types
+      switch (i < N / 2 ? (0 == random.nextInt(100) ? 2 : 0) : random.nextInt(5)) {
+        case 0:
+          value = (long) random.nextInt(1000);
+          break;
+        case 1:
+          value = random.nextInt(1000) / 4.0D;
+          break;
+        case 2:
+          value = "v" + i;
+          break;
+        case 3:
+          value = random.nextGaussian();
+          break;
+        default:
+          value = random.nextBoolean();
+      }
+      encoder.addValue(i * 10L - (random.nextBoolean() ? 5L : 0L), location, elevation, value);
+    }
+
+    for (TYPE type: new TYPE[] { null, TYPE.LONG, TYPE.DOUBLE, TYPE.STRING }) {
+      GeoTimeSerie expected = new GeoTimeSerie();
+      if (null != type) {
+        expected.setType(type);
+      }
+      GTSDecoder decoder = encoder.getDecoder();
+      while (decoder.next()) {
+        GTSHelper.setValue(expected, decoder.getTimestamp(), decoder.getLocation(), decoder.getElevation(), decoder.getValue(), false);
+      }
+
+      GeoTimeSerie actual = encoder.getDecoder().decode(type);
+
+      Assert.assertEquals(expected.getType(), actual.getType());
+      Assert.assertEquals(GTSHelper.nvalues(expected), GTSHelper.nvalues(actual));
+      Assert.assertEquals(GTSHelper.isSorted(expected), GTSHelper.isSorted(actual));
+      for (int i = 0; i < GTSHelper.nvalues(expected); i++) {
+        Assert.assertEquals(GTSHelper.tickAtIndex(expected, i), GTSHelper.tickAtIndex(actual, i));
+        Assert.assertEquals(GTSHelper.locationAtIndex(expected, i), GTSHelper.locationAtIndex(actual, i));
+        Assert.assertEquals(GTSHelper.elevationAtIndex(expected, i), GTSHelper.elevationAtIndex(actual, i));
+        Assert.assertEquals(GTSHelper.valueAtIndex(expected, i), GTSHelper.valueAtIndex(actual, i));
+      }
+    }
+
+    //
+    // Values of another type stop the bulk decoding
+    //
+
+    encoder = new GTSEncoder(0L);
+    encoder.addValue(0L, GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, 1L);
+    encoder.addValue(1L, GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, 2L);
+    encoder.addValue(2L, GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, 3.5D);
+    encoder.addValue(3L, GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, 4L);
+
+    GTSDecoder decoder = encoder.getDecoder();
+    long[] ticks = new long[4];
+    long[] longs = new long[4];
+    double[] doubles = new double[4];
+    Assert.assertEquals(0, decoder.next(TYPE.DOUBLE, ticks, null, null, null, doubles, 0, 4));
+    Assert.assertEquals(2, decoder.next(TYPE.LONG, ticks, null, null, longs, null, 0, 4));
+    Assert.assertEquals(1, decoder.next(TYPE.DOUBLE, ticks, null, null, null, doubles, 2, 4));
+    Assert.assertEquals(1, decoder.next(TYPE.LONG, ticks, null, null, longs, null, 3, 1));
+    Assert.assertArrayEquals(new long[] { 0L, 1L, 2L, 3L }, ticks);
+    Assert.assertEquals(2L, longs[1]);
+    Assert.assertEquals(3.5D, doubles[2], 0.0D);
+    Assert.assertEquals(4L, longs[3]);
+    Assert.assertFalse(decoder.next());
+  }
+
+  @Test
+  public void testDecoder_deltaOfDelta() throws Exception {
+    Random random = new Random(42L);
+
+    int N = 10000;
+
+    long[] timestamps = new long[N];
+    long[] locations = new long[N];
+    long[] elevations = new long[N];
+
+    //
+    // Runs of periodic timestamps with changes of period, jitter, gaps, duplicates and out of order timestamps
+    //
+
+    long period = 10000000L;
+    long ts = 1700000000000000L;
+
+    for (int i = 0; i < N; i++) {
+      int r = random.nextInt(100);
+      if (r < 2) {
+        period = (1 + random.nextInt(60)) * 1000000L;
+      } else if (r < 4) {
+        ts += random.nextInt(100) * period;
+      } else if (r < 6) {
+        ts -= random.nextInt(10) * period;
+      } else if (r < 16) {
+        ts += random.nextInt(2000) - 1000;
+      }
+      if (r > 1) {
+        ts += period;
+      }
+      timestamps[i] = ts;
+      locations[i] = random.nextInt(10) < 2 ? random.nextLong() >>> 1 : GeoTimeSerie.NO_LOCATION;
+      elevations[i] = 0 == random.nextInt(10) ? random.nextInt(1000) : GeoTimeSerie.NO_ELEVATION;
+    }
+
+    for (long base: new long[] { 0L, timestamps[N / 2] }) {
+      GTSEncoder encoder = new GTSEncoder(base);
+      encoder.setDeltaOfDelta(true);
+
+      for (int i = 0; i < N; i++) {
+        encoder.addValue(timestamps[i], locations[i], elevations[i], (long) i);
+      }
+
+      GTSDecoder decoder = encoder.getDecoder();
+
+      for (int i = 0; i < N; i++) {
+        Assert.assertTrue(decoder.next());
+        Assert.assertEquals(timestamps[i], decoder.getTimestamp());
+        Assert.assertEquals(locations[i], decoder.getLocation());
+        Assert.assertEquals(elevations[i], decoder.getElevation());
+        Assert.assertEquals((long) i, decoder.getValue());
+      }
+
+      Assert.assertFalse(decoder.next());
+
+      //
+      // Encoders created from a decoder must provide the last timestamp delta to their decoders
+      //
+
+      decoder = encoder.getDecoder();
+
+      for (int i = 0; i < N; i++) {
+        Assert.assertTrue(decoder.next());
+
+        if (0 != random.nextInt(100)) {
+          continue;
+        }
+
+        GTSEncoder enc = decoder.getEncoder();
+        enc.setDeltaOfDelta(true);
+        enc.addValue(ts + period, GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, (long) N);
+        enc.addValue(ts + 2 * period, GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, (long) N + 1);
+        enc.addValue(ts + 3 * period, GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, (long) N + 2);
+
+        GTSDecoder dec = enc.getDecoder();
+
+        for (int j = i; j < N; j++) {
+          Assert.assertTrue(dec.next());
+          Assert.assertEquals(timestamps[j], dec.getTimestamp());
+          Assert.assertEquals((long) j, dec.getValue());
+        }
+
+        for (int j = 1; j <= 3; j++) {
+          Assert.assertTrue(dec.next());
+          Assert.assertEquals(ts + j * period, dec.getTimestamp());
+          Assert.assertEquals((long) N + j - 1, dec.getValue());
+        }
+
+        Assert.assertFalse(dec.next());
+
+        // A duplicate continues after the current datapoint
+        dec = decoder.duplicateDirect();
+
+        for (int j = i + 1; j < N; j++) {
+          Assert.assertTrue(dec.next());
+          Assert.assertEquals(timestamps[j], dec.getTimestamp());
+        }
+
+        Assert.assertFalse(dec.next());
+      }
+
+      //
+      // Merging encoders with the same base takes the fast path
+      //
+
+      GTSEncoder merged = new GTSEncoder(base);
+      merged.setDeltaOfDelta(true);
+      GTSEncoder part = new GTSEncoder(base);
+      part.setDeltaOfDelta(true);
+
+      for (int i = 0; i < N; i++) {
+        part.addValue(timestamps[i], locations[i], elevations[i], (long) i);
+        if (0 == random.nextInt(500) || N - 1 == i) {
+          merged.merge(part);
+          part = new GTSEncoder(base);
+          part.setDeltaOfDelta(true);
+        }
+      }
+
+      decoder = merged.getDecoder();
+
+      for (int i = 0; i < N; i++) {
+        Assert.assertTrue(decoder.next());
+        Assert.assertEquals(timestamps[i], decoder.getTimestamp());
+        Assert.assertEquals((long) i, decoder.getValue());
+      }
+
+      Assert.assertFalse(decoder.next());
+    }
+  }
 }
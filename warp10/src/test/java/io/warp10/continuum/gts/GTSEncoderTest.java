@@ -392,6 +392,173 @@ public class GTSEncoderTest {
 
   }
 
+  @Test
+  public void testDoubleXOR() throws Exception {
+    //
+    // The XOR encoding is disabled by default
+    //
+
+    GTSEncoder encoder = new GTSEncoder(0L);
+    encoder.addValue(0L, GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, 1.0D);
+    encoder.addValue(1L, GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, 1.5D);
+    Assert.assertEquals("343ff000000000000054023ff8000000000000", new String(Hex.encode(encoder.getBytes())));
+
+    //
+    // The XOR of 1.0 and 1.5 has a single significant byte after one leading zero byte
+    //
+
+    encoder = new GTSEncoder(0L);
+    encoder.setDoubleXor(true);
+    encoder.addValue(0L, GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, 1.0D);
+    encoder.addValue(1L, GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, 1.5D);
+    Assert.assertEquals("343ff000000000000052021108", new String(Hex.encode(encoder.getBytes())));
+
+    //
+    // Values whose XOR would not be shorter are encoded as IEEE754
+    //
+
+    encoder = new GTSEncoder(0L);
+    encoder.setDoubleXor(true);
+    encoder.addValue(0L, GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, 1.0D);
+    encoder.addValue(1L, GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, -0.1D);
+    Assert.assertEquals("343ff00000000000005402bfb999999999999a", new String(Hex.encode(encoder.getBytes())));
+
+    //
+    // Slowly varying values, mixed with NaN, BigDecimal and LONG values
+    //
+
+    encoder = new GTSEncoder(0L);
+    encoder.setDoubleXor(true);
+
+    Object[] values = new Object[10000];
+    double value = 20.0D;
+
+    for (int i = 0; i < values.length; i++) {
+      if (0 == i % 1000) {
+        values[i] = Double.NaN;
+      } else if (0 == i % 777) {
+        values[i] = new BigDecimal("1.25");
+      } else if (0 == i % 555) {
+        values[i] = (long) i;
+      } else {
+        value += 0.25D * ((i * 7919) % 5 - 2);
+        values[i] = value;
+      }
+      encoder.addValue(i, GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, values[i]);
+    }
+
+    // At most 4 bytes per value (flags, timestamp delta, XOR header and significant bytes) in this series
+    Assert.assertTrue(encoder.size() < 4 * values.length);
+
+    GTSDecoder decoder = encoder.getDecoder();
+
+    for (int i = 0; i < values.length; i++) {
+      Assert.assertTrue(decoder.next());
+      Assert.assertEquals(i, decoder.getTimestamp());
+      if (values[i] instanceof Double) {
+        Assert.assertEquals(Double.doubleToRawLongBits((double) values[i]), Double.doubleToRawLongBits((double) decoder.getBinaryValue()));
+      } else if (values[i] instanceof BigDecimal) {
+        Assert.assertEquals(0, ((BigDecimal) values[i]).compareTo((BigDecimal) decoder.getBinaryValue()));
+      } else {
+        Assert.assertEquals(values[i], decoder.getBinaryValue());
+      }
+    }
+
+    Assert.assertFalse(decoder.next());
+  }
+
+  @Test
+  public void testDeltaOfDelta() throws Exception {
+    //
+    // Delta of delta encoding is disabled by default
+    //
+
+    GTSEncoder encoder = new GTSEncoder(0L);
+
+    for (int i = 1; i <= 4; i++) {
+      encoder.addValue(i * 10000000L, GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, 42L);
+    }
+
+    Assert.assertEquals("4c80dac409540980dac4090980dac4090980dac409", new String(Hex.encode(encoder.getBytes())));
+
+    encoder = new GTSEncoder(0L);
+    encoder.setDeltaOfDelta(true);
+
+    //
+    // Once the interval is known, repeating timestamps only need the continuation byte
+    //
+
+    for (int i = 1; i <= 4; i++) {
+      encoder.addValue(i * 10000000L, GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, 42L);
+    }
+
+    Assert.assertEquals("4c80dac409540980dac409a980a980", new String(Hex.encode(encoder.getBytes())));
+
+    //
+    // A change of interval is encoded as a zig zag varint delta of delta
+    //
+
+    encoder.addValue(50000100L, GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, 42L);
+    Assert.assertEquals("4c80dac409540980dac409a980a9808980c801", new String(Hex.encode(encoder.getBytes())));
+
+    GTSDecoder decoder = encoder.getDecoder();
+
+    for (int i = 1; i <= 4; i++) {
+      Assert.assertTrue(decoder.next());
+      Assert.assertEquals(i * 10000000L, decoder.getTimestamp());
+    }
+
+    Assert.assertTrue(decoder.next());
+    Assert.assertEquals(50000100L, decoder.getTimestamp());
+    Assert.assertFalse(decoder.next());
+
+    //
+    // Size of a day of datapoints sampled every 10s, strictly periodic, with a jitter of up to 1ms and with gaps
+    //
+
+    int n = 8640;
+    long now = 1700000000000000L;
+
+    GTSEncoder periodic = new GTSEncoder(0L);
+    GTSEncoder jittered = new GTSEncoder(0L);
+    GTSEncoder gaps = new GTSEncoder(0L);
+
+    for (GTSEncoder enc: new GTSEncoder[] { periodic, jittered, gaps }) {
+      enc.setDeltaOfDelta(true);
+    }
+
+    for (int i = 0; i < n; i++) {
+      long ts = now + i * 10000000L;
+      periodic.addValue(ts, GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, 42L);
+      jittered.addValue(ts + (i * 7919L) % 1000L, GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, 42L);
+      if (0 != (i / 100) % 10) {
+        gaps.addValue(ts, GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, 42L);
+      }
+    }
+
+    // Flag and continuation bytes for all but the first two datapoints, whose timestamp deltas would otherwise use 4 bytes each
+    Assert.assertEquals(2 * n + 11, periodic.size());
+    Assert.assertTrue(jittered.size() < 4 * n);
+    Assert.assertTrue(gaps.size() < 2 * n);
+
+    for (GTSEncoder enc: new GTSEncoder[] { periodic, jittered, gaps }) {
+      decoder = enc.getDecoder();
+
+      for (int i = 0; i < n; i++) {
+        long ts = now + i * 10000000L;
+        if (enc == jittered) {
+          ts += (i * 7919L) % 1000L;
+        } else if (enc == gaps && 0 == (i / 100) % 10) {
+          continue;
+        }
+        Assert.assertTrue(decoder.next());
+        Assert.assertEquals(ts, decoder.getTimestamp());
+      }
+
+      Assert.assertFalse(decoder.next());
+    }
+  }
+
   @Test
   public void testEncodingConsistency() throws Exception {
     GTSEncoder encoder;
@@ -419,6 +586,19 @@ public class GTSEncoderTest {
 
   @Test
   public void testSafeDelta() throws Exception {
+    safeDelta(false, 38, 50, 54, 57);
+  }
+
+  @Test
+  public void testSafeDeltaOfDelta() throws Exception {
+    // The interval between timestamps repeats from the fourth value, its timestamp is not stored when the continuation byte is present
+    safeDelta(true, 37, 48, 51, 53);
+  }
+
+  /**
+   * Check the sizes of an encoder reallocated from the bytes of another one after each of the last four added values
+   */
+  private void safeDelta(boolean deltaOfDelta, int... sizes) throws Exception {
     // Create an encoder with a single value
     GTSEncoder encoder = new GTSEncoder(0L);
 
@@ -428,6 +608,7 @@ public class GTSEncoderTest {
 
     // Reallocate encoder
     encoder = new GTSEncoder(0L, null, bytes);
+    encoder.setDeltaOfDelta(deltaOfDelta);
 
     Assert.assertEquals(13, encoder.size());
 
@@ -438,13 +619,13 @@ public class GTSEncoderTest {
     encoder.addValue(3L, 4L, GeoTimeSerie.NO_ELEVATION, 4L);
     Assert.assertEquals(34, encoder.size());
     encoder.addValue(4L, GeoTimeSerie.NO_LOCATION, 4L, 4L);
-    Assert.assertEquals(38, encoder.size());
+    Assert.assertEquals(sizes[0], encoder.size());
     encoder.addValue(5L, 6L, 4L, 9L);
-    Assert.assertEquals(50, encoder.size());
+    Assert.assertEquals(sizes[1], encoder.size());
     encoder.addValue(6L, 4L, 4L, 9L);
-    Assert.assertEquals(54, encoder.size());
+    Assert.assertEquals(sizes[2], encoder.size());
     encoder.addValue(7L, 4L, 4L, 9L);
-    Assert.assertEquals(57, encoder.size());
+    Assert.assertEquals(sizes[3], encoder.size());
 
     GTSDecoder decoder = encoder.getDecoder();
 
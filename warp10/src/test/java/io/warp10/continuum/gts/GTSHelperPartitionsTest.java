@@ -0,0 +1,258 @@
+//
+//   Copyright 2024  SenX S.A.S.
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.continuum.gts;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import io.warp10.WarpConfig;
+import io.warp10.continuum.Configuration;
+import io.warp10.script.MemoryWarpScriptStack;
+import io.warp10.script.WarpScriptException;
+import io.warp10.script.WarpScriptReducerFunction;
+import io.warp10.script.WarpScriptStack;
+import io.warp10.script.WarpScriptStack.Macro;
+import io.warp10.script.aggregator.Max;
+import io.warp10.script.aggregator.Mean;
+import io.warp10.script.aggregator.Sum;
+import io.warp10.script.functions.MACROMAPPER;
+import io.warp10.script.functions.STRICTREDUCER;
+import io.warp10.script.op.OpAdd;
+
+public class GTSHelperPartitionsTest {
+
+  private static final int PARTITIONS = 40;
+
+  private static final int SERIES_PER_PARTITION = 5;
+
+  @BeforeClass
+  public static void loadConfig() throws Exception {
+    StringReader reader = new StringReader(
+        Configuration.WARP_TIME_UNITS + "=us\n" +
+        "labelsid.slowimpl=true"
+    );
+    WarpConfig.safeSetProperties(reader);
+  }
+
+  private static WarpScriptStack stack(long parallelism) {
+    WarpScriptStack stack = new MemoryWarpScriptStack(null, null, new Properties());
+    stack.setAttribute(WarpScriptStack.ATTRIBUTE_MAX_PARALLELISM, parallelism);
+    return stack;
+  }
+
+  /**
+   * Generate sparse GTS with a label 'p' identifying their partition, the same seed always
+   * produces the same GTS.
+   */
+  private static List<GeoTimeSerie> generate(long seed, String name) {
+    Random random = new Random(seed);
+
+    List<GeoTimeSerie> series = new ArrayList<GeoTimeSerie>();
+
+    for (int p = 0; p < PARTITIONS; p++) {
+      for (int s = 0; s < SERIES_PER_PARTITION; s++) {
+        GeoTimeSerie gts = new GeoTimeSerie();
+        gts.setName(name);
+        Map<String,String> labels = new HashMap<String,String>();
+        labels.put("p", Integer.toString(p));
+        labels.put("s", Integer.toString(s));
+        gts.setLabels(labels);
+
+        for (int i = 0; i < 100; i++) {
+          if (random.nextInt(3) > 0) {
+            GTSHelper.setValue(gts, i * 10L, GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, (long) random.nextInt(1000), false);
+          }
+        }
+
+        series.add(gts);
+      }
+    }
+
+    // Shuffle the series so partitions are not in the order of their labels
+    Collections.shuffle(series, random);
+
+    return series;
+  }
+
+  private static void assertSameGTS(List<GeoTimeSerie> expected, List<GeoTimeSerie> actual) {
+    Assert.assertEquals(expected.size(), actual.size());
+
+    for (int i = 0; i < expected.size(); i++) {
+      GeoTimeSerie e = expected.get(i);
+      GeoTimeSerie a = actual.get(i);
+
+      Assert.assertEquals(e.getName(), a.getName());
+      Assert.assertEquals(e.getLabels(), a.getLabels());
+      Assert.assertEquals(GTSHelper.nvalues(e), GTSHelper.nvalues(a));
+
+      for (int j = 0; j < GTSHelper.nvalues(e); j++) {
+        Assert.assertEquals(GTSHelper.tickAtIndex(e, j), GTSHelper.tickAtIndex(a, j));
+        Assert.assertEquals(GTSHelper.locationAtIndex(e, j), GTSHelper.locationAtIndex(a, j));
+        Assert.assertEquals(GTSHelper.elevationAtIndex(e, j), GTSHelper.elevationAtIndex(a, j));
+        Assert.assertEquals(GTSHelper.valueAtIndex(e, j), GTSHelper.valueAtIndex(a, j));
+      }
+    }
+  }
+
+  /**
+   * Reducer sleeping for a random duration before each call so partitions complete out of order
+   */
+  private static class SlowReducer implements WarpScriptReducerFunction {
+    private final WarpScriptReducerFunction reducer;
+
+    public SlowReducer(WarpScriptReducerFunction reducer) {
+      this.reducer = reducer;
+    }
+
+    @Override
+    public Object apply(Object[] args) throws WarpScriptException {
+      if (0 == ThreadLocalRandom.current().nextInt(10)) {
+        try {
+          Thread.sleep(1L);
+        } catch (InterruptedException ie) {
+          throw new WarpScriptException(ie);
+        }
+      }
+      return this.reducer.apply(args);
+    }
+  }
+
+  /**
+   * Macro reducer recording the threads it was called from
+   */
+  private static class RecordingMacroReducer extends MACROMAPPER.MacroMapperWrapper {
+    private final Set<Thread> threads = Collections.newSetFromMap(new ConcurrentHashMap<Thread,Boolean>());
+
+    public RecordingMacroReducer(WarpScriptStack stack) {
+      super("macro", stack, new Macro());
+    }
+
+    @Override
+    public Object apply(Object[] args) throws WarpScriptException {
+      this.threads.add(Thread.currentThread());
+      return new Sum("reducer.sum", false).apply(args);
+    }
+  }
+
+  @Test
+  public void testParallelReduce() throws Exception {
+    WarpScriptReducerFunction[] reducers = new WarpScriptReducerFunction[] {
+        new Sum("reducer.sum", false),
+        new Mean("reducer.mean", true),
+        new Max("reducer.max", true),
+        new SlowReducer(new Sum("reducer.sum", true)),
+    };
+
+    for (WarpScriptReducerFunction reducer: reducers) {
+      List<GeoTimeSerie> sequential = GTSHelper.reduce(reducer, generate(42L, "a"), Collections.singletonList("p"), false, stack(1L));
+
+      for (long parallelism: new long[] { 2L, 4L, 64L }) {
+        List<GeoTimeSerie> parallel = GTSHelper.reduce(reducer, generate(42L, "a"), Collections.singletonList("p"), false, stack(parallelism));
+        Assert.assertEquals(PARTITIONS, parallel.size());
+        assertSameGTS(sequential, parallel);
+      }
+    }
+  }
+
+  @Test
+  public void testParallelApply() throws Exception {
+    OpAdd op = new OpAdd("op.add", false);
+
+    List<GeoTimeSerie> sequential = GTSHelper.partitionAndApply(op, stack(1L), null, Collections.singletonList("p"), generate(43L, "a"), generate(44L, "b"));
+
+    for (long parallelism: new long[] { 2L, 4L, 64L }) {
+      List<GeoTimeSerie> parallel = GTSHelper.partitionAndApply(op, stack(parallelism), null, Collections.singletonList("p"), generate(43L, "a"), generate(44L, "b"));
+      Assert.assertEquals(PARTITIONS, parallel.size());
+      assertSameGTS(sequential, parallel);
+    }
+  }
+
+  @Test
+  public void testParallelOps() throws Exception {
+    WarpScriptStack stack = stack(4L);
+    stack.setAttribute(WarpScriptStack.ATTRIBUTE_OPS, 10L);
+    stack.setAttribute(WarpScriptStack.ATTRIBUTE_MAX_OPS, 10L + PARTITIONS);
+
+    // Each partition reduced in parallel counts as one operation
+    GTSHelper.reduce(new Sum("reducer.sum", false), generate(42L, "a"), Collections.singletonList("p"), false, stack);
+    Assert.assertEquals(10L + PARTITIONS, ((Number) stack.getAttribute(WarpScriptStack.ATTRIBUTE_OPS)).longValue());
+
+    // No operation left for the partitions
+    try {
+      GTSHelper.reduce(new Sum("reducer.sum", false), generate(42L, "a"), Collections.singletonList("p"), false, stack);
+      Assert.fail("Operation count was not enforced.");
+    } catch (WarpScriptException wse) {
+      Assert.assertTrue(wse.getMessage().startsWith("Operation count"));
+    }
+
+    // Same for APPLY
+    stack.setAttribute(WarpScriptStack.ATTRIBUTE_OPS, 0L);
+    stack.setAttribute(WarpScriptStack.ATTRIBUTE_MAX_OPS, PARTITIONS - 1L);
+
+    try {
+      GTSHelper.partitionAndApply(new OpAdd("op.add", false), stack, null, Collections.singletonList("p"), generate(43L, "a"), generate(44L, "b"));
+      Assert.fail("Operation count was not enforced.");
+    } catch (WarpScriptException wse) {
+      Assert.assertTrue(wse.getMessage().startsWith("Operation count"));
+    }
+
+    // Sequential evaluation does not count the partitions
+    stack = stack(1L);
+    stack.setAttribute(WarpScriptStack.ATTRIBUTE_OPS, 0L);
+    GTSHelper.reduce(new Sum("reducer.sum", false), generate(42L, "a"), Collections.singletonList("p"), false, stack);
+    Assert.assertEquals(0L, ((Number) stack.getAttribute(WarpScriptStack.ATTRIBUTE_OPS)).longValue());
+  }
+
+  @Test
+  public void testMacroReducerSequential() throws Exception {
+    List<GeoTimeSerie> expected = GTSHelper.reduce(new Sum("reducer.sum", false), generate(42L, "a"), Collections.singletonList("p"), false, null);
+
+    WarpScriptStack stack = stack(8L);
+    stack.setAttribute(WarpScriptStack.ATTRIBUTE_OPS, 0L);
+
+    RecordingMacroReducer macro = new RecordingMacroReducer(stack);
+
+    for (WarpScriptReducerFunction reducer: new WarpScriptReducerFunction[] { macro, new STRICTREDUCER.StringentReducer("reducer.strict", macro) }) {
+      macro.threads.clear();
+
+      List<GeoTimeSerie> actual = GTSHelper.reduce(reducer, generate(42L, "a"), Collections.singletonList("p"), false, stack);
+
+      if (reducer == macro) {
+        assertSameGTS(expected, actual);
+      } else {
+        Assert.assertEquals(PARTITIONS, actual.size());
+      }
+
+      // Macros use the stack, they must only be called from the thread executing it
+      Assert.assertEquals(Collections.singleton(Thread.currentThread()), macro.threads);
+      Assert.assertEquals(0L, ((Number) stack.getAttribute(WarpScriptStack.ATTRIBUTE_OPS)).longValue());
+    }
+  }
+}
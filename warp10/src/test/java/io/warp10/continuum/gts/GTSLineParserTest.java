@@ -0,0 +1,128 @@
+//
+//   Copyright 2024  SenX S.A.S.
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.continuum.gts;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import io.warp10.WarpConfig;
+import io.warp10.continuum.Configuration;
+
+public class GTSLineParserTest {
+
+  private static final String INPUT =
+      "1// foo{a=b} 42\n" +
+      "2/48.0:-4.5/ foo{a=b} 3.1415\r\n" +
+      "# comment\n" +
+      "\n" +
+      "3//100 foo{a=b} -1.5E3\r" +
+      "4/1234/-5 foo{a=b} T\n" +
+      "=5// 'hello%20world'\n" +
+      "=6// false\n" +
+      "  7// bar{a=b,c=d} {attr=x} 123456789012345678901\n" +
+      "8/-0.0:180/ bar{a=b,c=d} +.5\n" +
+      "9// bar{a=b,c=d} 0.1234567890123\n" +
+      "10// foo%2Bbar{a=%20b} b64:AAAA\n" +
+      "11// foo{a=b} HH:48.0:-4.5\n" +
+      "// foo{a=b} -0\n" +
+      "T-3// foo{a=b} tRuE\n" +
+      "12/0.123456789012345678:1e2/ foo{a=b} 1.2.3";
+
+  @BeforeClass
+  public static void loadConfig() throws Exception {
+    StringReader reader = new StringReader(
+        Configuration.WARP_TIME_UNITS + "=us\n" +
+        "labelsid.slowimpl=true"
+    );
+    WarpConfig.safeSetProperties(reader);
+  }
+
+  @Test
+  public void testParse() throws Exception {
+    Map<String,String> extraLabels = new HashMap<String,String>();
+    extraLabels.put("owner", "xyz");
+
+    //
+    // Parse the input with GTSHelper
+    //
+
+    List<Object> expected = new ArrayList<Object>();
+    GTSEncoder encoder = null;
+
+    for (String line: INPUT.split("\r\n|\r|\n")) {
+      line = line.trim();
+      if (line.isEmpty() || line.startsWith("#")) {
+        continue;
+      }
+      try {
+        encoder = GTSHelper.parse(encoder, line, extraLabels, 100L, Long.MAX_VALUE, new AtomicBoolean(), null, null, null, false, 0L);
+        expected.add(encoder);
+      } catch (ParseException pe) {
+        expected.add(pe.getMessage() + " @" + pe.getErrorOffset());
+      }
+    }
+
+    //
+    // Parse the input with GTSLineParser
+    //
+
+    List<Object> actual = new ArrayList<Object>();
+    encoder = null;
+
+    GTSLineParser parser = new GTSLineParser(new ByteArrayInputStream(INPUT.getBytes(StandardCharsets.UTF_8)), StandardCharsets.UTF_8, true);
+
+    while (parser.next()) {
+      try {
+        encoder = parser.parse(encoder, extraLabels, 100L, Long.MAX_VALUE, new AtomicBoolean(), null, null, null, false, 0L);
+        actual.add(encoder);
+      } catch (ParseException pe) {
+        actual.add(pe.getMessage() + " @" + pe.getErrorOffset());
+      }
+    }
+
+    Assert.assertEquals(expected.size(), actual.size());
+
+    for (int i = 0; i < expected.size(); i++) {
+      Object e = expected.get(i);
+      Object a = actual.get(i);
+
+      if (e instanceof String) {
+        Assert.assertEquals(e, a);
+        continue;
+      }
+
+      GTSEncoder ee = (GTSEncoder) e;
+      GTSEncoder ae = (GTSEncoder) a;
+
+      Assert.assertEquals(ee.getMetadata(), ae.getMetadata());
+      Assert.assertEquals(ee.getCount(), ae.getCount());
+
+      Assert.assertArrayEquals(ee.getBytes(), ae.getBytes());
+    }
+  }
+}
@@ -0,0 +1,154 @@
+//
+//   Copyright 2024  SenX S.A.S.
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.continuum.gts;
+
+import java.io.StringReader;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import io.warp10.WarpConfig;
+import io.warp10.continuum.Configuration;
+
+public class PooledGTSEncoderTest {
+
+  @BeforeClass
+  public static void loadConfig() throws Exception {
+    StringReader reader = new StringReader(
+        Configuration.WARP_TIME_UNITS + "=us\n" +
+        "labelsid.slowimpl=true"
+    );
+    WarpConfig.safeSetProperties(reader);
+  }
+
+  @Test
+  public void testSameEncoding() throws Exception {
+    Random random = new Random(42L);
+
+    byte[] key = new byte[32];
+    random.nextBytes(key);
+
+    for (byte[] k: new byte[][] { null, key }) {
+      GTSEncoder expected = new GTSEncoder(1000L, k);
+      PooledGTSEncoder encoder = new PooledGTSEncoder(1000L, k);
+
+      for (int i = 0; i < 10000; i++) {
+        long location = 0 == random.nextInt(5) ? random.nextLong() >>> 1 : GeoTimeSerie.NO_LOCATION;
+        long elevation = 0 == random.nextInt(5) ? random.nextInt(1000) : GeoTimeSerie.NO_ELEVATION;
+        Object value;
+        switch (random.nextInt(4)) {
+          case 0:
+            value = (long) random.nextInt(100);
+            break;
+          case 1:
+            value = random.nextInt(100) / 4.0D;
+            break;
+          case 2:
+            value = "v" + random.nextInt(10);
+            break;
+          default:
+            value = random.nextBoolean();
+        }
+        expected.addValue(i * 10L, location, elevation, value);
+        Assert.assertEquals(expected.size(), encoder.addValue(i * 10L, location, elevation, value));
+      }
+
+      Assert.assertArrayEquals(expected.getBytes(), encoder.getBytes());
+      Assert.assertEquals(expected.getCount(), encoder.getCount());
+
+      // Resizing and flushing keep the encoder usable
+      encoder.resize(encoder.size() * 2);
+      Assert.assertArrayEquals(expected.getBytes(), encoder.getBytes());
+
+      encoder.flush();
+      Assert.assertEquals(0, encoder.size());
+      encoder.addValue(0L, GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, 42L);
+
+      GTSDecoder decoder = encoder.getDecoder();
+      Assert.assertTrue(decoder.next());
+      Assert.assertEquals(0L, decoder.getTimestamp());
+      Assert.assertEquals(42L, decoder.getValue());
+      Assert.assertFalse(decoder.next());
+
+      encoder.close();
+    }
+  }
+
+  @Test
+  public void testPool() throws Exception {
+    PooledGTSEncoder encoder = new PooledGTSEncoder(0L);
+    encoder.addValue(0L, GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, 42L);
+
+    byte[] array = ((PooledByteArrayOutputStream) encoder.stream).array();
+
+    GTSDecoder decoder = encoder.getUnsafeDecoder(false);
+    Assert.assertTrue(decoder.next());
+    Assert.assertEquals(42L, decoder.getValue());
+
+    encoder.close();
+    Assert.assertEquals(0, encoder.size());
+
+    // The array is reused by the next encoder created by the same thread
+    PooledGTSEncoder other = new PooledGTSEncoder(0L);
+    Assert.assertSame(array, ((PooledByteArrayOutputStream) other.stream).array());
+    Assert.assertEquals(0, other.size());
+
+    other.addValue(1L, GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, 43L);
+    decoder = other.getDecoder();
+    Assert.assertTrue(decoder.next());
+    Assert.assertEquals(1L, decoder.getTimestamp());
+    Assert.assertEquals(43L, decoder.getValue());
+    Assert.assertFalse(decoder.next());
+
+    other.close();
+  }
+
+  @Test
+  public void testReleaseReplacedArrays() throws Exception {
+    PooledGTSEncoder encoder = new PooledGTSEncoder(0L);
+    encoder.addValue(0L, GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, 42L);
+
+    // The array replaced by a resize is returned to the pool
+    byte[] array = ((PooledByteArrayOutputStream) encoder.stream).array();
+    encoder.resize(array.length * 2);
+    Assert.assertNotSame(array, ((PooledByteArrayOutputStream) encoder.stream).array());
+
+    PooledGTSEncoder other = new PooledGTSEncoder(0L);
+    Assert.assertSame(array, ((PooledByteArrayOutputStream) other.stream).array());
+    other.close();
+
+    // So is the array replaced by a flush
+    array = ((PooledByteArrayOutputStream) encoder.stream).array();
+    encoder.flush();
+
+    other = new PooledGTSEncoder(0L);
+    Assert.assertSame(array, ((PooledByteArrayOutputStream) other.stream).array());
+    other.close();
+
+    // The encoder remains usable
+    encoder.addValue(1L, GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, 43L);
+    GTSDecoder decoder = encoder.getDecoder();
+    Assert.assertTrue(decoder.next());
+    Assert.assertEquals(1L, decoder.getTimestamp());
+    Assert.assertEquals(43L, decoder.getValue());
+    Assert.assertFalse(decoder.next());
+
+    encoder.close();
+  }
+}
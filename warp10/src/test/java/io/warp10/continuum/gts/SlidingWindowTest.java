@@ -0,0 +1,154 @@
+//
+//   Copyright 2024  SenX S.A.S.
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.continuum.gts;
+
+import java.io.StringReader;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import io.warp10.WarpConfig;
+import io.warp10.continuum.Configuration;
+import io.warp10.script.WarpScriptException;
+import io.warp10.script.WarpScriptMapperFunction;
+import io.warp10.script.aggregator.Count;
+import io.warp10.script.aggregator.First;
+import io.warp10.script.aggregator.Last;
+import io.warp10.script.aggregator.Max;
+import io.warp10.script.aggregator.Mean;
+import io.warp10.script.aggregator.Min;
+import io.warp10.script.aggregator.RMS;
+import io.warp10.script.aggregator.StandardDeviation;
+import io.warp10.script.aggregator.Sum;
+import io.warp10.script.aggregator.Variance;
+
+public class SlidingWindowTest {
+
+  private static final WarpScriptMapperFunction[] MAPPERS = new WarpScriptMapperFunction[] {
+      new Count("mapper.count", false),
+      new First("mapper.first"),
+      new Last("mapper.last"),
+      new Min("mapper.min", true),
+      new Max("mapper.max", true),
+      new Mean("mapper.mean", false),
+      new Sum("mapper.sum", true),
+      new RMS("mapper.rms", false),
+      new Variance("mapper.var", true, false),
+      new StandardDeviation("mapper.sd", false, false),
+  };
+
+  @BeforeClass
+  public static void loadConfig() throws Exception {
+    StringReader reader = new StringReader(
+        Configuration.WARP_TIME_UNITS + "=us\n" +
+        "labelsid.slowimpl=true"
+    );
+    WarpConfig.safeSetProperties(reader);
+  }
+
+  /**
+   * Mapper hiding the sliding window support of the mapper it wraps so MAP uses subseries
+   */
+  private static class Legacy implements WarpScriptMapperFunction {
+    private final WarpScriptMapperFunction mapper;
+
+    public Legacy(WarpScriptMapperFunction mapper) {
+      this.mapper = mapper;
+    }
+
+    @Override
+    public Object apply(Object[] args) throws WarpScriptException {
+      return this.mapper.apply(args);
+    }
+  }
+
+  private static GeoTimeSerie generate(Random random, int n, boolean doubles) {
+    GeoTimeSerie gts = new GeoTimeSerie();
+
+    long tick = 0;
+
+    for (int i = 0; i < n; i++) {
+      // Produce some duplicate ticks
+      tick += random.nextInt(4);
+      long location = random.nextBoolean() ? GeoTimeSerie.NO_LOCATION : random.nextLong() >>> 1;
+      long elevation = random.nextBoolean() ? GeoTimeSerie.NO_ELEVATION : random.nextInt(1000);
+      Object value = doubles ? (Object) (random.nextGaussian() * 1000.0D) : (Object) (long) random.nextInt(100);
+      GTSHelper.setValue(gts, tick, location, elevation, value, false);
+    }
+
+    return gts;
+  }
+
+  private static void assertSameGTS(GeoTimeSerie expected, GeoTimeSerie actual) {
+    Assert.assertEquals(GTSHelper.nvalues(expected), GTSHelper.nvalues(actual));
+
+    for (int i = 0; i < GTSHelper.nvalues(expected); i++) {
+      Assert.assertEquals(GTSHelper.tickAtIndex(expected, i), GTSHelper.tickAtIndex(actual, i));
+      Assert.assertEquals(GTSHelper.locationAtIndex(expected, i), GTSHelper.locationAtIndex(actual, i));
+      Assert.assertEquals(GTSHelper.elevationAtIndex(expected, i), GTSHelper.elevationAtIndex(actual, i));
+
+      Assert.assertEquals(GTSHelper.valueAtIndex(expected, i), GTSHelper.valueAtIndex(actual, i));
+    }
+  }
+
+  @Test
+  public void testIncrementalMap() throws Exception {
+    Random random = new Random(42L);
+
+    long[][] windows = new long[][] {
+        { 0, 0 }, { 1, 0 }, { 0, 1 }, { 5, 5 }, { 50, 0 }, { -10, 0 }, { 0, -10 }, { -7, -3 }, { 3, -20 }, { 2000, 2000 },
+    };
+
+    for (boolean doubles: new boolean[] { false, true }) {
+      GeoTimeSerie gts = generate(random, 1000, doubles);
+
+      for (WarpScriptMapperFunction mapper: MAPPERS) {
+        for (long[] window: windows) {
+          for (boolean reversed: new boolean[] { false, true }) {
+            for (int step: new int[] { 1, 3 }) {
+              List<GeoTimeSerie> expected = GTSHelper.map(gts, new Legacy(mapper), window[0], window[1], 0, reversed, step, false);
+              List<GeoTimeSerie> actual = GTSHelper.map(gts, mapper, window[0], window[1], 0, reversed, step, false);
+
+              Assert.assertEquals(expected.size(), actual.size());
+              for (int i = 0; i < expected.size(); i++) {
+                assertSameGTS(expected.get(i), actual.get(i));
+              }
+            }
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testBucketized() throws Exception {
+    GeoTimeSerie gts = new GeoTimeSerie(100L, 100, 1L, 16);
+
+    for (int i = 0; i < 100; i += 3) {
+      GTSHelper.setValue(gts, i, GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, (long) i, false);
+    }
+
+    for (WarpScriptMapperFunction mapper: MAPPERS) {
+      List<GeoTimeSerie> expected = GTSHelper.map(gts, new Legacy(mapper), 4, 2, 0, false, 1, false);
+      List<GeoTimeSerie> actual = GTSHelper.map(gts, mapper, 4, 2, 0, false, 1, false);
+      assertSameGTS(expected.get(0), actual.get(0));
+    }
+  }
+}
@@ -0,0 +1,320 @@
+//
+//   Copyright 2024  SenX S.A.S.
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.continuum.store;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.LockSupport;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import io.warp10.WarpConfig;
+import io.warp10.continuum.Configuration;
+import io.warp10.continuum.gts.GTSDecoder;
+import io.warp10.continuum.gts.GTSEncoder;
+import io.warp10.continuum.gts.GeoTimeSerie;
+import io.warp10.continuum.store.thrift.data.FetchRequest;
+import io.warp10.continuum.store.thrift.data.Metadata;
+import io.warp10.quasar.token.thrift.data.WriteToken;
+import io.warp10.standalone.StandalonePlasmaHandlerInterface;
+
+public class ParallelGTSDecoderIteratorWrapperTest {
+
+  private static final int GTS = 3;
+
+  private static final int DATAPOINTS = 10000;
+
+  /**
+   * Maximum number of datapoints per decoder, so each GTS is returned as several decoders
+   */
+  private static final int DECODER_SIZE = 50;
+
+  /**
+   * End of the time range containing all the datapoints
+   */
+  private static final long NOW = 1000000L;
+
+  @BeforeClass
+  public static void loadConfig() throws Exception {
+    StringReader reader = new StringReader(
+        Configuration.WARP_TIME_UNITS + "=us\n" +
+        "labelsid.slowimpl=true\n" +
+        Configuration.STANDALONE_PARALLELSCANNERS_POOLSIZE + "=4\n" +
+        Configuration.STANDALONE_PARALLELSCANNERS_MAXINFLIGHTPERREQUEST + "=2"
+    );
+    WarpConfig.safeSetProperties(reader);
+
+    if (!WarpConfig.isStandaloneMode()) {
+      WarpConfig.setStandaloneMode(true);
+    }
+  }
+
+  /**
+   * StoreClient returning the datapoints of its GTS from the most recent one, a few at a time and slowly
+   */
+  private static class MemoryStoreClient implements StoreClient {
+    private final Map<Metadata,long[]> timestamps = new HashMap<Metadata,long[]>();
+
+    private void add(Metadata metadata, long[] ts) {
+      this.timestamps.put(metadata, ts);
+    }
+
+    @Override
+    public GTSDecoderIterator fetch(final FetchRequest req) throws IOException {
+      final List<GTSDecoder> decoders = new ArrayList<GTSDecoder>();
+
+      for (Metadata metadata: req.getMetadatas()) {
+        long[] ts = this.timestamps.get(metadata);
+
+        GTSEncoder encoder = null;
+
+        for (int i = ts.length - 1; i >= 0; i--) {
+          if (ts[i] > req.getNow() || ts[i] < req.getThents()) {
+            continue;
+          }
+
+          if (null == encoder) {
+            encoder = new GTSEncoder(0L);
+            encoder.setMetadata(metadata);
+          }
+
+          encoder.addValue(ts[i], GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, ts[i] * 3L);
+
+          if (DECODER_SIZE == encoder.getCount()) {
+            decoders.add(encoder.getDecoder());
+            encoder = null;
+          }
+        }
+
+        if (null != encoder) {
+          decoders.add(encoder.getDecoder());
+        }
+      }
+
+      return new GTSDecoderIterator() {
+        private final Iterator<GTSDecoder> iter = decoders.iterator();
+
+        @Override
+        public boolean hasNext() {
+          return iter.hasNext();
+        }
+
+        @Override
+        public GTSDecoder next() {
+          // Let the scanners complete out of order
+          if (0 == ThreadLocalRandom.current().nextInt(20)) {
+            LockSupport.parkNanos(100000L);
+          }
+          return iter.next();
+        }
+
+        @Override
+        public void close() throws Exception {
+        }
+      };
+    }
+
+    @Override
+    public void store(GTSEncoder encoder) throws IOException {
+      throw new IOException("Not supported.");
+    }
+
+    @Override
+    public long delete(WriteToken token, Metadata metadata, long start, long end) throws IOException {
+      throw new IOException("Not supported.");
+    }
+
+    @Override
+    public void addPlasmaHandler(StandalonePlasmaHandlerInterface handler) {
+    }
+  }
+
+  private static MemoryStoreClient populate(List<Metadata> metadatas) {
+    MemoryStoreClient client = new MemoryStoreClient();
+    Random random = new Random(42L);
+
+    for (int i = 0; i < GTS; i++) {
+      Metadata metadata = new Metadata();
+      metadata.setName("class");
+      metadata.setLabels(new HashMap<String,String>());
+      metadata.getLabels().put("id", Integer.toString(i));
+
+      long[] ts = new long[DATAPOINTS];
+      long t = 0L;
+      for (int j = 0; j < DATAPOINTS; j++) {
+        t += 1L + random.nextInt(100);
+        ts[j] = t;
+      }
+
+      client.add(metadata, ts);
+      metadatas.add(metadata);
+    }
+
+    return client;
+  }
+
+  private static FetchRequest request(List<Metadata> metadatas, long then, long now) {
+    FetchRequest req = new FetchRequest();
+    req.setMetadatas(metadatas);
+    req.setThents(then);
+    req.setNow(now);
+    req.setCount(-1L);
+    req.setSample(1.0D);
+    return req;
+  }
+
+  /**
+   * Return the datapoints returned by 'iter' in order, with the GTS they belong to
+   */
+  private static List<String> datapoints(GTSDecoderIterator iter) throws Exception {
+    List<String> datapoints = new ArrayList<String>();
+
+    try {
+      while (iter.hasNext()) {
+        GTSDecoder decoder = iter.next();
+        while (decoder.next()) {
+          datapoints.add(decoder.getMetadata().getLabels() + " " + decoder.getTimestamp() + " " + decoder.getValue());
+        }
+      }
+    } finally {
+      iter.close();
+    }
+
+    return datapoints;
+  }
+
+  /**
+   * Split the time range of the first GTS in 'splits' requests, from the most recent to the oldest,
+   * the other GTS are fetched by a single request.
+   */
+  private static List<FetchRequest> split(List<Metadata> metadatas, long then, long now, int splits) {
+    List<FetchRequest> requests = new ArrayList<FetchRequest>();
+
+    long width = (now - then + 1L) / splits;
+
+    for (int i = 0; i < splits; i++) {
+      long end = now - i * width;
+      long start = splits - 1 == i ? then : end - width + 1L;
+      requests.add(request(metadatas.subList(0, 1), start, end));
+    }
+
+    requests.add(request(metadatas.subList(1, metadatas.size()), then, now));
+
+    return requests;
+  }
+
+  @Test
+  public void testSplitEqualsUnsplit() throws Exception {
+    Assume.assumeTrue(ParallelGTSDecoderIteratorWrapper.useParallelScanners());
+
+    List<Metadata> metadatas = new ArrayList<Metadata>();
+    MemoryStoreClient client = populate(metadatas);
+
+    long then = 1000L;
+    long now = 400000L;
+
+    List<String> expected = datapoints(client.fetch(request(metadatas, then, now)));
+    Assert.assertFalse(expected.isEmpty());
+
+    // More requests than scanner threads and inflight scanners
+    for (int splits: new int[] { 1, 2, 3, 16, 64 }) {
+      List<FetchRequest> requests = split(metadatas, then, now, splits);
+      Assert.assertEquals(expected, datapoints(new ParallelGTSDecoderIteratorWrapper(client, requests)));
+    }
+  }
+
+  @Test
+  public void testConcurrentSplits() throws Exception {
+    Assume.assumeTrue(ParallelGTSDecoderIteratorWrapper.useParallelScanners());
+
+    final List<Metadata> metadatas = new ArrayList<Metadata>();
+    final MemoryStoreClient client = populate(metadatas);
+
+    final List<String> expected = datapoints(client.fetch(request(metadatas, 0L, NOW)));
+
+    // Concurrent fetches compete for the scanner threads, none of them may block the others
+    List<Thread> threads = new ArrayList<Thread>();
+    final List<Throwable> errors = new ArrayList<Throwable>();
+
+    for (int i = 0; i < 8; i++) {
+      threads.add(new Thread() {
+        @Override
+        public void run() {
+          try {
+            for (int j = 0; j < 5; j++) {
+              List<FetchRequest> requests = split(metadatas, 0L, NOW, 8);
+              Assert.assertEquals(expected, datapoints(new ParallelGTSDecoderIteratorWrapper(client, requests)));
+            }
+          } catch (Throwable t) {
+            synchronized (errors) {
+              errors.add(t);
+            }
+          }
+        }
+      });
+    }
+
+    for (Thread t: threads) {
+      t.start();
+    }
+    for (Thread t: threads) {
+      t.join();
+    }
+
+    if (!errors.isEmpty()) {
+      throw new AssertionError(errors.get(0));
+    }
+  }
+
+  @Test
+  public void testClose() throws Exception {
+    Assume.assumeTrue(ParallelGTSDecoderIteratorWrapper.useParallelScanners());
+
+    List<Metadata> metadatas = new ArrayList<Metadata>();
+    MemoryStoreClient client = populate(metadatas);
+
+    GTSDecoderIterator iter = new ParallelGTSDecoderIteratorWrapper(client, split(metadatas, 0L, NOW, 16));
+
+    Assert.assertTrue(iter.hasNext());
+    iter.next();
+    iter.close();
+
+    // The scanner threads are released, a new fetch completes
+    List<String> expected = datapoints(client.fetch(request(metadatas, 0L, NOW)));
+    Assert.assertEquals(expected, datapoints(new ParallelGTSDecoderIteratorWrapper(client, split(metadatas, 0L, NOW, 16))));
+
+    GTSDecoderIterator empty = new ParallelGTSDecoderIteratorWrapper(client, new ArrayList<FetchRequest>());
+    Assert.assertFalse(empty.hasNext());
+    try {
+      empty.next();
+      Assert.fail("No decoder expected.");
+    } catch (NoSuchElementException nsee) {
+    }
+    empty.close();
+  }
+}
@@ -0,0 +1,586 @@
+//
+//   Copyright 2024  SenX S.A.S.
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.leveldb;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.iq80.leveldb.DBIterator;
+import org.iq80.leveldb.Options;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import io.warp10.WarpConfig;
+import io.warp10.continuum.Configuration;
+import io.warp10.continuum.gts.GTSDecoder;
+import io.warp10.continuum.gts.GTSEncoder;
+import io.warp10.continuum.gts.GTSHelper;
+import io.warp10.continuum.gts.GeoTimeSerie;
+import io.warp10.continuum.store.Constants;
+import io.warp10.continuum.store.GTSDecoderIterator;
+import io.warp10.continuum.store.thrift.data.FetchRequest;
+import io.warp10.continuum.store.thrift.data.Metadata;
+import io.warp10.crypto.KeyStore;
+import io.warp10.crypto.UnsecureKeyStore;
+import io.warp10.standalone.StandaloneStoreClient;
+
+public class ReadAheadIteratorTest {
+
+  private static final int ROWS = 200;
+
+  private static final int BATCHSIZE = 7;
+
+  private static KeyStore keystore;
+
+  private static ExecutorService executor;
+
+  @BeforeClass
+  public static void loadConfig() throws Exception {
+    StringReader reader = new StringReader(
+        Configuration.WARP_TIME_UNITS + "=us\n" +
+        "labelsid.slowimpl=true"
+    );
+    WarpConfig.safeSetProperties(reader);
+
+    keystore = new UnsecureKeyStore();
+    keystore.setKey(KeyStore.SIPHASH_CLASS, new byte[16]);
+    keystore.setKey(KeyStore.SIPHASH_LABELS, new byte[16]);
+    keystore.setKey(KeyStore.AES_LEVELDB_DATA, new byte[32]);
+
+    executor = ReadAheadIterator.executor(2);
+  }
+
+  private static WarpDB open() throws IOException {
+    File home = Files.createTempDirectory("readahead").toFile();
+    home.deleteOnExit();
+    Options options = new Options();
+    options.createIfMissing(true);
+    return new WarpDB(true, false, home.getPath(), options);
+  }
+
+  /**
+   * Key of the i-th row, rows are only stored for even values of i so seeks can target missing keys
+   */
+  private static byte[] key(int i) {
+    return name(i).getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static String name(int i) {
+    return String.format("k%04d", i);
+  }
+
+  private static String key(Entry<byte[],byte[]> entry) {
+    return new String(entry.getKey(), StandardCharsets.UTF_8);
+  }
+
+  private static WarpDB rows() throws IOException {
+    WarpDB db = open();
+    for (int i = 0; i < ROWS; i++) {
+      db.put(key(2 * i), Integer.toString(i).getBytes(StandardCharsets.UTF_8));
+    }
+    return db;
+  }
+
+  /**
+   * Iterator blocking the read-aheads until released, and recording concurrent accesses
+   */
+  private static class GatedIterator implements DBIterator {
+    private final DBIterator iter;
+    private final Thread consumer = Thread.currentThread();
+    private final CountDownLatch entered = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicBoolean concurrent = new AtomicBoolean(false);
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+
+    private GatedIterator(DBIterator iter) {
+      this.iter = iter;
+    }
+
+    private void enter() {
+      if (0 != active.getAndIncrement() || closed.get()) {
+        concurrent.set(true);
+      }
+    }
+
+    private void exit() {
+      active.decrementAndGet();
+    }
+
+    @Override
+    public boolean hasNext() {
+      enter();
+      try {
+        if (Thread.currentThread() != consumer) {
+          entered.countDown();
+          release.await();
+        }
+        return iter.hasNext();
+      } catch (InterruptedException ie) {
+        throw new RuntimeException(ie);
+      } finally {
+        exit();
+      }
+    }
+
+    @Override
+    public Entry<byte[], byte[]> next() {
+      enter();
+      try {
+        return iter.next();
+      } finally {
+        exit();
+      }
+    }
+
+    @Override
+    public Entry<byte[], byte[]> peekNext() {
+      enter();
+      try {
+        return iter.peekNext();
+      } finally {
+        exit();
+      }
+    }
+
+    @Override
+    public boolean hasPrev() {
+      enter();
+      try {
+        return iter.hasPrev();
+      } finally {
+        exit();
+      }
+    }
+
+    @Override
+    public Entry<byte[], byte[]> prev() {
+      enter();
+      try {
+        return iter.prev();
+      } finally {
+        exit();
+      }
+    }
+
+    @Override
+    public Entry<byte[], byte[]> peekPrev() {
+      enter();
+      try {
+        return iter.peekPrev();
+      } finally {
+        exit();
+      }
+    }
+
+    @Override
+    public void seek(byte[] key) {
+      enter();
+      try {
+        iter.seek(key);
+      } finally {
+        exit();
+      }
+    }
+
+    @Override
+    public void seekToFirst() {
+      enter();
+      try {
+        iter.seekToFirst();
+      } finally {
+        exit();
+      }
+    }
+
+    @Override
+    public void seekToLast() {
+      enter();
+      try {
+        iter.seekToLast();
+      } finally {
+        exit();
+      }
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void close() throws IOException {
+      enter();
+      try {
+        closed.set(true);
+        iter.close();
+      } finally {
+        exit();
+      }
+    }
+  }
+
+  @Test
+  public void testRandomMoves() throws Exception {
+    WarpDB db = rows();
+    Random random = new Random(0L);
+
+    for (int round = 0; round < 100; round++) {
+      DBIterator expected = db.iterator();
+      ReadAheadIterator actual = new ReadAheadIterator(db.iterator(), BATCHSIZE, executor);
+
+      try {
+        expected.seekToFirst();
+        actual.seekToFirst();
+
+        for (int op = 0; op < 500; op++) {
+          int r = random.nextInt(100);
+          String context = "round " + round + " op " + op;
+
+          if (r < 60) {
+            // Mostly consume rows so read-aheads are pending or partially consumed
+            Assert.assertEquals(context, expected.hasNext(), actual.hasNext());
+            if (expected.hasNext()) {
+              Assert.assertEquals(context, key(expected.next()), key(actual.next()));
+            }
+          } else if (r < 65) {
+            Assert.assertEquals(context, expected.hasNext(), actual.hasNext());
+            if (expected.hasNext()) {
+              Assert.assertEquals(context, key(expected.peekNext()), key(actual.peekNext()));
+            }
+          } else if (r < 75) {
+            Assert.assertEquals(context, expected.hasPrev(), actual.hasPrev());
+            if (expected.hasPrev()) {
+              Assert.assertEquals(context, key(expected.prev()), key(actual.prev()));
+            }
+          } else if (r < 80) {
+            Assert.assertEquals(context, expected.hasPrev(), actual.hasPrev());
+            if (expected.hasPrev()) {
+              Assert.assertEquals(context, key(expected.peekPrev()), key(actual.peekPrev()));
+            }
+          } else if (r < 90) {
+            // Existing and missing keys, before, within and after the rows
+            byte[] key = key(random.nextInt(2 * ROWS + 10) - 5);
+            expected.seek(key);
+            actual.seek(key);
+          } else if (r < 95) {
+            // The limit only changes which rows are read in advance
+            actual.setLimit(random.nextBoolean() ? null : key(random.nextInt(2 * ROWS + 10) - 5));
+          } else {
+            expected.seekToFirst();
+            actual.seekToFirst();
+          }
+        }
+      } finally {
+        expected.close();
+        actual.close();
+      }
+    }
+  }
+
+  @Test
+  public void testPrevAfterPartialBatch() throws Exception {
+    WarpDB db = rows();
+
+    for (int consumed = 1; consumed < 3 * BATCHSIZE; consumed++) {
+      ReadAheadIterator iter = new ReadAheadIterator(db.iterator(), BATCHSIZE, executor);
+
+      try {
+        iter.seekToFirst();
+
+        for (int i = 0; i < consumed; i++) {
+          Assert.assertEquals(name(2 * i), key(iter.next()));
+        }
+
+        // Moving backward repositions on the rows read in advance which were not consumed
+        Assert.assertTrue(iter.hasPrev());
+        Assert.assertEquals(name(2 * (consumed - 1)), key(iter.peekPrev()));
+        Assert.assertEquals(name(2 * (consumed - 1)), key(iter.prev()));
+        Assert.assertEquals(name(2 * (consumed - 1)), key(iter.next()));
+        Assert.assertEquals(name(2 * consumed), key(iter.next()));
+      } finally {
+        iter.close();
+      }
+    }
+  }
+
+  @Test
+  public void testLimit() throws Exception {
+    WarpDB db = rows();
+
+    // Limits within a batch, on a batch boundary, on a missing key and past the rows
+    for (int limit: new int[] { 5, 2 * BATCHSIZE, 2 * BATCHSIZE + 1, 2 * ROWS + 1 }) {
+      ReadAheadIterator iter = new ReadAheadIterator(db.iterator(), BATCHSIZE, executor);
+
+      try {
+        iter.setLimit(key(limit));
+        iter.seekToFirst();
+
+        // The rows past the limit are still returned, they are read directly
+        for (int i = 0; i < ROWS; i++) {
+          Assert.assertTrue(iter.hasNext());
+          Assert.assertEquals(name(2 * i), key(iter.next()));
+        }
+        Assert.assertFalse(iter.hasNext());
+      } finally {
+        iter.close();
+      }
+    }
+  }
+
+  @Test
+  public void testSeekWhileReadingAhead() throws Exception {
+    WarpDB db = rows();
+
+    final GatedIterator gated = new GatedIterator(db.iterator());
+    final ReadAheadIterator iter = new ReadAheadIterator(gated, BATCHSIZE, executor);
+
+    try {
+      iter.seekToFirst();
+      Assert.assertEquals(name(0), key(iter.next()));
+
+      // Wait for the read-ahead to be in progress
+      Assert.assertTrue(gated.entered.await(10L, TimeUnit.SECONDS));
+
+      final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+
+      Thread seeker = new Thread() {
+        @Override
+        public void run() {
+          try {
+            iter.seek(key(101));
+          } catch (Throwable t) {
+            error.set(t);
+          }
+        }
+      };
+
+      seeker.start();
+      seeker.join(200L);
+
+      // The seek waits for the read-ahead to be done with the underlying iterator
+      Assert.assertTrue(seeker.isAlive());
+
+      gated.release.countDown();
+      seeker.join();
+
+      if (null != error.get()) {
+        throw new AssertionError(error.get());
+      }
+
+      // The rows read in advance were discarded
+      Assert.assertEquals(name(102), key(iter.next()));
+      Assert.assertEquals(name(104), key(iter.next()));
+      Assert.assertEquals(name(104), key(iter.prev()));
+    } finally {
+      // Do not leave an executor thread blocked if the test failed
+      gated.release.countDown();
+      iter.close();
+    }
+
+    Assert.assertFalse(gated.concurrent.get());
+  }
+
+  @Test
+  public void testCloseWaitsForReadAhead() throws Exception {
+    WarpDB db = rows();
+
+    final GatedIterator gated = new GatedIterator(db.iterator());
+    final ReadAheadIterator iter = new ReadAheadIterator(gated, BATCHSIZE, executor);
+
+    final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+
+    Thread closer = new Thread() {
+      @Override
+      public void run() {
+        try {
+          iter.close();
+        } catch (Throwable t) {
+          error.set(t);
+        }
+      }
+    };
+
+    try {
+      iter.seekToFirst();
+      iter.next();
+
+      Assert.assertTrue(gated.entered.await(10L, TimeUnit.SECONDS));
+
+      closer.start();
+      closer.join(200L);
+
+      // The underlying iterator is not closed while the read-ahead uses it
+      Assert.assertTrue(closer.isAlive());
+      Assert.assertFalse(gated.closed.get());
+    } finally {
+      // Do not leave an executor thread blocked if the test failed
+      gated.release.countDown();
+    }
+
+    closer.join();
+
+    if (null != error.get()) {
+      throw new AssertionError(error.get());
+    }
+
+    Assert.assertTrue(gated.closed.get());
+    Assert.assertFalse(gated.concurrent.get());
+  }
+
+  //
+  // Fetches with and without read-ahead
+  //
+
+  private static List<Metadata> metadatas() {
+    List<Metadata> metadatas = new ArrayList<Metadata>();
+
+    // The last GTS has no datapoints
+    for (int i = 0; i < 5; i++) {
+      Metadata metadata = new Metadata();
+      metadata.setName("gts");
+      metadata.setLabels(new HashMap<String,String>());
+      metadata.getLabels().put("id", Integer.toString(i));
+      metadata.setClassId(GTSHelper.classId(keystore.getKey(KeyStore.SIPHASH_CLASS), metadata.getName()));
+      metadata.setLabelsId(GTSHelper.labelsId(keystore.getKey(KeyStore.SIPHASH_LABELS), metadata.getLabels()));
+      metadatas.add(metadata);
+    }
+
+    return metadatas;
+  }
+
+  private static void store(StandaloneStoreClient client, Metadata metadata, long start, long end, long step) throws IOException {
+    GTSEncoder encoder = new GTSEncoder(0L);
+    encoder.setMetadata(metadata);
+
+    for (long ts = start; ts <= end; ts += step) {
+      encoder.addValue(ts, GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, ts * 10L);
+    }
+
+    client.store(encoder);
+    // Flush the per thread batch
+    client.store(null);
+  }
+
+  private static FetchRequest request(List<Metadata> metadatas, long now, long then, long count, long skip, long step, long timestep, long pre, long post) {
+    FetchRequest req = new FetchRequest();
+    req.setMetadatas(new ArrayList<Metadata>(metadatas));
+    req.setNow(now);
+    req.setThents(then);
+    req.setCount(count);
+    req.setSkip(skip);
+    req.setStep(step);
+    req.setTimestep(timestep);
+    req.setSample(1.0D);
+    req.setPreBoundary(pre);
+    req.setPostBoundary(post);
+    return req;
+  }
+
+  private static List<String> fetch(StandaloneStoreClient client, FetchRequest req) throws Exception {
+    List<String> datapoints = new ArrayList<String>();
+
+    GTSDecoderIterator iter = client.fetch(req);
+
+    try {
+      while (iter.hasNext()) {
+        GTSDecoder decoder = iter.next();
+        while (decoder.next()) {
+          datapoints.add(decoder.getMetadata().getLabels() + " " + decoder.getTimestamp() + " " + decoder.getBinaryValue());
+        }
+      }
+    } finally {
+      iter.close();
+    }
+
+    return datapoints;
+  }
+
+  @Test
+  public void testFetch() throws Exception {
+    WarpDB db = open();
+    // Boundary scans expect the Metadata rows before the data rows
+    db.put(Constants.FDB_METADATA_KEY_PREFIX, new byte[0]);
+
+    StandaloneStoreClient expected = new StandaloneStoreClient(db, keystore, new Properties());
+
+    Properties properties = new Properties();
+    properties.setProperty(Configuration.LEVELDB_READAHEAD_ROWS, Integer.toString(BATCHSIZE));
+    properties.setProperty(Configuration.LEVELDB_READAHEAD_POOLSIZE, "2");
+    StandaloneStoreClient actual = new StandaloneStoreClient(db, keystore, properties);
+
+    List<Metadata> metadatas = metadatas();
+
+    store(expected, metadatas.get(0), 0L, 5000L, 3L);
+    store(expected, metadatas.get(1), 1000L, 2000L, 50L);
+    // Fewer rows than a batch
+    store(expected, metadatas.get(2), 1500L, 1520L, 5L);
+    store(expected, metadatas.get(3), 0L, 5000L, 1L);
+
+    long[] nows = new long[] { Long.MAX_VALUE, 6000L, 4999L, 2000L, 1510L, 1000L, 0L };
+    long[] thens = new long[] { Long.MIN_VALUE, -100L, 0L, 1000L, 1505L, 1990L, 4000L };
+    long[] counts = new long[] { -1L, -1L, 0L, 1L, BATCHSIZE, BATCHSIZE + 1L, 100L };
+    long[] skips = new long[] { 0L, 0L, 1L, BATCHSIZE, 250L };
+    long[] steps = new long[] { 1L, 1L, 2L, BATCHSIZE };
+    long[] timesteps = new long[] { 1L, 1L, 1L, 10L };
+    long[] boundaries = new long[] { 0L, 0L, 1L, BATCHSIZE, 100L };
+
+    Random random = new Random(1L);
+
+    Assert.assertEquals(fetch(expected, request(metadatas, Long.MAX_VALUE, Long.MIN_VALUE, -1L, 0L, 1L, 1L, 0L, 0L)), fetch(actual, request(metadatas, Long.MAX_VALUE, Long.MIN_VALUE, -1L, 0L, 1L, 1L, 0L, 0L)));
+
+    for (int i = 0; i < 1000; i++) {
+      long now = nows[random.nextInt(nows.length)];
+      long then = thens[random.nextInt(thens.length)];
+
+      if (then > now) {
+        continue;
+      }
+
+      // Fetch a random subset of the GTS, in any order
+      List<Metadata> subset = new ArrayList<Metadata>();
+      for (Metadata metadata: metadatas) {
+        if (random.nextInt(4) > 0) {
+          subset.add(metadata);
+        }
+      }
+
+      FetchRequest req = request(subset, now, then, counts[random.nextInt(counts.length)], skips[random.nextInt(skips.length)],
+          steps[random.nextInt(steps.length)], timesteps[random.nextInt(timesteps.length)],
+          boundaries[random.nextInt(boundaries.length)], boundaries[random.nextInt(boundaries.length)]);
+
+      List<String> datapoints = fetch(expected, req);
+      Assert.assertEquals(req.toString(), datapoints, fetch(actual, new FetchRequest(req)));
+    }
+  }
+}
@@ -0,0 +1,309 @@
+//
+//   Copyright 2024  SenX S.A.S.
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.script;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ConcurrentHyperLogLogPlusTest {
+
+  private static final int P = 14;
+
+  private static final int PPRIME = 25;
+
+  /**
+   * Number of distinct values which keeps a ConcurrentHyperLogLogPlus in SPARSE mode
+   */
+  private static final int SPARSE_VALUES = 1000;
+
+  private static final long INIT_TIME = 1700000000000L;
+
+  /**
+   * Spread the bits of 'i' like the hashes aggregated by the estimators
+   */
+  private static long hash(long i) {
+    long h = i * 0x9E3779B97F4A7C15L;
+    h = (h ^ (h >>> 33)) * 0xFF51AFD7ED558CCDL;
+    h = (h ^ (h >>> 33)) * 0xC4CEB9FE1A85EC53L;
+    return h ^ (h >>> 33);
+  }
+
+  private static HyperLogLogPlus hllp() {
+    HyperLogLogPlus hllp = new HyperLogLogPlus(P, PPRIME);
+    hllp.setInitTime(INIT_TIME);
+    return hllp;
+  }
+
+  private static ConcurrentHyperLogLogPlus chllp() {
+    ConcurrentHyperLogLogPlus chllp = new ConcurrentHyperLogLogPlus(P, PPRIME);
+    chllp.setInitTime(INIT_TIME);
+    return chllp;
+  }
+
+  /**
+   * Check that 'actual' has the content of 'expected', both being in the same mode
+   */
+  private static void assertSame(HyperLogLogPlus expected, ConcurrentHyperLogLogPlus actual) throws Exception {
+    Assert.assertEquals(expected.cardinality(), actual.cardinality());
+    Assert.assertArrayEquals(expected.toBytes(), actual.toBytes());
+  }
+
+  @Test
+  public void testSparse() throws Exception {
+    for (int n: new int[] { 0, 1, 10, 100, SPARSE_VALUES }) {
+      HyperLogLogPlus expected = hllp();
+      ConcurrentHyperLogLogPlus actual = chllp();
+
+      for (int i = 0; i < n; i++) {
+        long x = hash(i);
+        Assert.assertEquals(expected.isNew(x), actual.isNew(x));
+        expected.aggregate(x);
+        actual.aggregate(x);
+        Assert.assertFalse(actual.isNew(x));
+      }
+
+      Assert.assertTrue(actual.isSparse());
+      assertSame(expected, actual);
+
+      // Converting to NORMAL mode yields the same registers
+      expected.toNormal();
+      actual.toNormal();
+      Assert.assertFalse(actual.isSparse());
+      assertSame(expected, actual);
+    }
+  }
+
+  @Test
+  public void testNormal() throws Exception {
+    for (int n: new int[] { 0, 1, 100, 10000, 1000000 }) {
+      HyperLogLogPlus expected = hllp();
+      expected.toNormal();
+      ConcurrentHyperLogLogPlus actual = chllp();
+      actual.toNormal();
+
+      for (int i = 0; i < n; i++) {
+        long x = hash(i);
+        Assert.assertEquals(expected.isNew(x), actual.isNew(x));
+        expected.aggregate(x);
+        actual.aggregate(x);
+      }
+
+      assertSame(expected, actual);
+
+      // Round trip through the serialized form
+      assertSame(expected, ConcurrentHyperLogLogPlus.fromBytes(actual.toBytes()));
+    }
+  }
+
+  @Test
+  public void testSwitch() throws Exception {
+    //
+    // ConcurrentHyperLogLogPlus switches to NORMAL mode after fewer values than HyperLogLogPlus,
+    // whose SPARSE estimates may then differ, but both have the same registers in NORMAL mode.
+    //
+
+    for (int n: new int[] { 2000, 5000, 100000 }) {
+      HyperLogLogPlus expected = hllp();
+      ConcurrentHyperLogLogPlus actual = chllp();
+
+      for (int i = 0; i < n; i++) {
+        long x = hash(i);
+        expected.aggregate(x);
+        actual.aggregate(x);
+      }
+
+      Assert.assertFalse(actual.isSparse());
+      Assert.assertEquals(n, actual.cardinality(), n * 0.05D);
+
+      expected.toNormal();
+      assertSame(expected, actual);
+    }
+  }
+
+  @Test
+  public void testConcurrentToNormal() throws Exception {
+    final int threads = 4;
+    final int values = SPARSE_VALUES / threads;
+
+    for (int round = 0; round < 100; round++) {
+      final ConcurrentHyperLogLogPlus actual = chllp();
+      final CountDownLatch start = new CountDownLatch(1);
+      final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+      final int base = round * SPARSE_VALUES;
+
+      List<Thread> writers = new ArrayList<Thread>();
+
+      for (int t = 0; t < threads; t++) {
+        final int thread = t;
+        writers.add(new Thread() {
+          @Override
+          public void run() {
+            try {
+              start.await();
+              for (int i = 0; i < values; i++) {
+                actual.aggregate(hash(base + thread * values + i));
+              }
+            } catch (Throwable th) {
+              error.compareAndSet(null, th);
+            }
+          }
+        });
+      }
+
+      for (Thread t: writers) {
+        t.start();
+      }
+
+      // Switch to NORMAL mode while the values are being aggregated
+      start.countDown();
+      actual.toNormal();
+
+      for (Thread t: writers) {
+        t.join();
+      }
+
+      if (null != error.get()) {
+        throw new AssertionError(error.get());
+      }
+
+      Assert.assertFalse(actual.isSparse());
+
+      HyperLogLogPlus expected = hllp();
+      expected.toNormal();
+
+      for (int i = 0; i < threads * values; i++) {
+        expected.aggregate(hash(base + i));
+      }
+
+      assertSame(expected, actual);
+    }
+  }
+
+  @Test
+  public void testConcurrentAggregate() throws Exception {
+    final int threads = 8;
+    final int values = 20000;
+
+    final ConcurrentHyperLogLogPlus actual = chllp();
+    final AtomicInteger next = new AtomicInteger();
+    final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+
+    List<Thread> writers = new ArrayList<Thread>();
+
+    // The estimator switches to NORMAL mode by itself while the threads aggregate values
+    for (int t = 0; t < threads; t++) {
+      writers.add(new Thread() {
+        @Override
+        public void run() {
+          try {
+            int i;
+            while ((i = next.getAndIncrement()) < threads * values) {
+              actual.aggregate(hash(i));
+            }
+          } catch (Throwable th) {
+            error.compareAndSet(null, th);
+          }
+        }
+      });
+    }
+
+    for (Thread t: writers) {
+      t.start();
+    }
+    for (Thread t: writers) {
+      t.join();
+    }
+
+    if (null != error.get()) {
+      throw new AssertionError(error.get());
+    }
+
+    HyperLogLogPlus expected = hllp();
+    expected.toNormal();
+
+    for (int i = 0; i < threads * values; i++) {
+      expected.aggregate(hash(i));
+    }
+
+    assertSame(expected, actual);
+  }
+
+  @Test
+  public void testFuse() throws Exception {
+    int n = SPARSE_VALUES / 2;
+
+    //
+    // SPARSE with SPARSE stays in SPARSE mode
+    //
+
+    ConcurrentHyperLogLogPlus sparse = chllp();
+    ConcurrentHyperLogLogPlus other = chllp();
+    HyperLogLogPlus expected = hllp();
+
+    for (int i = 0; i < n; i++) {
+      sparse.aggregate(hash(i));
+      other.aggregate(hash(n + i));
+      expected.aggregate(hash(i));
+      expected.aggregate(hash(n + i));
+    }
+
+    sparse.fuse(other);
+    Assert.assertTrue(sparse.isSparse());
+    assertSame(expected, sparse);
+
+    //
+    // SPARSE with NORMAL and NORMAL with SPARSE switch to NORMAL mode
+    //
+
+    expected = hllp();
+    expected.toNormal();
+
+    for (int i = 0; i < 2 * n; i++) {
+      expected.aggregate(hash(i));
+    }
+
+    for (boolean sparseFirst: new boolean[] { true, false }) {
+      sparse = chllp();
+      ConcurrentHyperLogLogPlus normal = chllp();
+      normal.toNormal();
+
+      for (int i = 0; i < n; i++) {
+        sparse.aggregate(hash(i));
+        normal.aggregate(hash(n + i));
+      }
+
+      ConcurrentHyperLogLogPlus fused = sparseFirst ? sparse : normal;
+      fused.fuse(sparseFirst ? normal : sparse);
+
+      Assert.assertFalse(fused.isSparse());
+      assertSame(expected, fused);
+    }
+
+    // Estimators with a different p cannot be fused
+    try {
+      chllp().fuse(new ConcurrentHyperLogLogPlus(P + 1, PPRIME));
+      Assert.fail("Estimators with different p were fused.");
+    } catch (java.io.IOException ioe) {
+    }
+  }
+}
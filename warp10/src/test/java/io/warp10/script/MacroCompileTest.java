@@ -0,0 +1,195 @@
+//
+//   Copyright 2024  SenX S.A.S.
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.script;
+
+import java.io.StringReader;
+import java.util.Properties;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import io.warp10.WarpConfig;
+import io.warp10.continuum.Configuration;
+import io.warp10.script.WarpScriptStack.Macro;
+
+public class MacroCompileTest {
+
+  private static final String[] SCRIPTS = new String[] {
+    "<% %> EVAL",
+    "<% 1 DUP DUP + + %> EVAL",
+    "<% 'a' 'b' + 1 2 3 [ 4 5 ] { 'k' 6 } 7 8 9 %> EVAL",
+    "<% 1 2 3 <% 4 5 6 %> EVAL 7 8 9 <% 10 %> EVAL 11 12 %> 'm' STORE @m @m",
+    "1 20 <% 1 2 3 + + + %> FOR",
+    "<% 1 2 RETURN 3 4 %> EVAL 5",
+    "<% 1 <% 2 3 RETURN 4 %> EVAL 5 6 %> EVAL 7",
+    "<% 1 2 <% 3 RETURN %> EVAL %> 'm' STORE <% @m 4 5 RETURN @m %> EVAL 6",
+  };
+
+  @BeforeClass
+  public static void loadConfig() throws Exception {
+    StringReader reader = new StringReader(
+        Configuration.WARP_TIME_UNITS + "=us\n" +
+        "labelsid.slowimpl=true"
+    );
+    WarpConfig.safeSetProperties(reader);
+  }
+
+  private static MemoryWarpScriptStack stack(boolean compile) {
+    Properties properties = new Properties();
+    if (compile) {
+      properties.setProperty(Configuration.WARPSCRIPT_MACRO_COMPILE, "true");
+    }
+    MemoryWarpScriptStack stack = new MemoryWarpScriptStack(null, null, properties);
+    stack.maxLimits();
+    return stack;
+  }
+
+  /**
+   * Describe the state of 'stack': its levels, its op count and the messages of 'error' if any
+   */
+  private static String state(WarpScriptStack stack, Throwable error) throws Exception {
+    StringBuilder sb = new StringBuilder();
+
+    for (Throwable t = error; null != t; t = t.getCause()) {
+      sb.append("error: ").append(t.getMessage()).append("\n");
+    }
+
+    sb.append("ops: ").append(stack.getAttribute(WarpScriptStack.ATTRIBUTE_OPS)).append("\n");
+
+    for (int i = stack.depth() - 1; i >= 0; i--) {
+      sb.append(i).append(": ").append(String.valueOf(stack.get(i))).append("\n");
+    }
+
+    return sb.toString();
+  }
+
+  private static String run(String script, boolean compile, long maxops, int maxdepth) throws Exception {
+    WarpScriptStack stack = stack(compile);
+    stack.setAttribute(WarpScriptStack.ATTRIBUTE_MAX_OPS, maxops);
+    stack.setAttribute(WarpScriptStack.ATTRIBUTE_MAX_DEPTH, maxdepth);
+
+    try {
+      stack.execMulti(script);
+      return state(stack, null);
+    } catch (WarpScriptException wse) {
+      return state(stack, wse);
+    }
+  }
+
+  /**
+   * Check that 'script' yields the same state with and without compiled macros, return it
+   */
+  private static String compare(String script, long maxops, int maxdepth) throws Exception {
+    String expected = run(script, false, maxops, maxdepth);
+    Assert.assertEquals(script, expected, run(script, true, maxops, maxdepth));
+    return expected;
+  }
+
+  private static long ops(WarpScriptStack stack) {
+    return ((Number) stack.getAttribute(WarpScriptStack.ATTRIBUTE_OPS)).longValue();
+  }
+
+  @Test
+  public void testSame() throws Exception {
+    for (String script: SCRIPTS) {
+      Assert.assertFalse(script, compare(script, Long.MAX_VALUE - 1, Integer.MAX_VALUE - 1).contains("error: "));
+    }
+  }
+
+  @Test
+  public void testMaxOps() throws Exception {
+    int errors = 0;
+
+    for (String script: SCRIPTS) {
+      WarpScriptStack stack = stack(false);
+      stack.execMulti(script);
+      long total = ops(stack);
+
+      // The limit falls at each statement in turn, including in the middle of runs of constants
+      for (long maxops = 0; maxops <= total; maxops++) {
+        if (compare(script, maxops, Integer.MAX_VALUE - 1).contains("exceeded maximum of " + maxops + ".")) {
+          errors++;
+        }
+      }
+    }
+
+    Assert.assertTrue(errors > SCRIPTS.length);
+  }
+
+  @Test
+  public void testMaxDepth() throws Exception {
+    int errors = 0;
+
+    for (String script: SCRIPTS) {
+      for (int maxdepth = 1; maxdepth <= 25; maxdepth++) {
+        if (compare(script, Long.MAX_VALUE - 1, maxdepth).contains("Stack depth would exceed set limit of " + maxdepth + ".")) {
+          errors++;
+        }
+      }
+    }
+
+    Assert.assertTrue(errors > SCRIPTS.length);
+
+    // The error names the constant which exceeded the limit, not the first one of its run
+    String state = compare("<% 1 2 3 4 5 6 7 8 %> EVAL", Long.MAX_VALUE - 1, 5);
+    Assert.assertTrue(state, state.contains("error: Exception at '6'"));
+    Assert.assertTrue(state, state.contains("0: 1\n"));
+    Assert.assertTrue(state, state.contains("4: 5\n"));
+    Assert.assertFalse(state, state.contains("5: "));
+  }
+
+  @Test
+  public void testStatements() throws Exception {
+    //
+    // ASREGS and DEREF modify macros which were already run, hence compiled, through statements()
+    //
+
+    String state = compare("<% 'x' STORE $x $x * 1 + %> 'm' STORE 3 @m $m ASREGS DROP 4 @m", Long.MAX_VALUE - 1, Integer.MAX_VALUE - 1);
+    Assert.assertTrue(state, state.contains("1: 10\n0: 17\n"));
+
+    state = compare("'a' 1 STORE <% $a 1 + $a %> 'm' STORE @m $m { 'a' 10 } DEREF DROP 'a' 2 STORE @m", Long.MAX_VALUE - 1, Integer.MAX_VALUE - 1);
+    Assert.assertTrue(state, state.contains("3: 2\n2: 1\n1: 11\n0: 10\n"));
+
+    //
+    // Replace a constant with a function in a compiled macro
+    //
+
+    Macro macro = new Macro();
+    macro.add(1L);
+    macro.add(2L);
+    macro.add(3L);
+
+    WarpScriptStack stack = stack(true);
+    stack.exec(macro);
+    Assert.assertEquals(3, stack.depth());
+
+    macro.statements().set(2, WarpScriptLib.getFunction("+"));
+
+    stack.clear();
+    stack.exec(macro);
+    Assert.assertEquals(1, stack.depth());
+    Assert.assertEquals(3L, stack.pop());
+
+    // Replace the function with a constant
+    macro.statements().set(2, 4L);
+
+    stack.exec(macro);
+    Assert.assertEquals(3, stack.depth());
+    Assert.assertEquals(4L, stack.pop());
+  }
+}
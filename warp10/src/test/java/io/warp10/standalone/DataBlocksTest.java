@@ -0,0 +1,527 @@
+//
+//   Copyright 2024  SenX S.A.S.
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.standalone;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.iq80.leveldb.DBIterator;
+import org.iq80.leveldb.Options;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import io.warp10.WarpConfig;
+import io.warp10.continuum.Configuration;
+import io.warp10.continuum.gts.GTSDecoder;
+import io.warp10.continuum.gts.GTSEncoder;
+import io.warp10.continuum.gts.GTSHelper;
+import io.warp10.continuum.gts.GeoTimeSerie;
+import io.warp10.continuum.store.Constants;
+import io.warp10.continuum.store.GTSDecoderIterator;
+import io.warp10.continuum.store.thrift.data.FetchRequest;
+import io.warp10.continuum.store.thrift.data.Metadata;
+import io.warp10.crypto.KeyStore;
+import io.warp10.crypto.UnsecureKeyStore;
+import io.warp10.leveldb.WarpDB;
+
+public class DataBlocksTest {
+
+  private static final long SPAN = 1000L;
+
+  private static final int GTS = 3;
+
+  private static KeyStore keystore;
+
+  @BeforeClass
+  public static void loadConfig() throws Exception {
+    StringReader reader = new StringReader(
+        Configuration.WARP_TIME_UNITS + "=us\n" +
+        "labelsid.slowimpl=true"
+    );
+    WarpConfig.safeSetProperties(reader);
+
+    keystore = new UnsecureKeyStore();
+    keystore.setKey(KeyStore.SIPHASH_CLASS, new byte[16]);
+    keystore.setKey(KeyStore.SIPHASH_LABELS, new byte[16]);
+    byte[] aesKey = new byte[32];
+    new Random(0L).nextBytes(aesKey);
+    keystore.setKey(KeyStore.AES_LEVELDB_DATA, aesKey);
+  }
+
+  private static WarpDB open() throws IOException {
+    File home = Files.createTempDirectory("datablocks").toFile();
+    home.deleteOnExit();
+    Options options = new Options();
+    options.createIfMissing(true);
+    WarpDB db = new WarpDB(true, false, home.getPath(), options);
+    // Boundary scans expect the Metadata rows before the data rows
+    db.put(Constants.FDB_METADATA_KEY_PREFIX, new byte[0]);
+    return db;
+  }
+
+  private static Properties blocksProperties(long span, boolean compress) {
+    Properties properties = new Properties();
+    properties.setProperty(Configuration.LEVELDB_BLOCKS_SPAN, Long.toString(span));
+    // All the test datapoints are cold
+    properties.setProperty(Configuration.LEVELDB_BLOCKS_AGE, "0");
+    // The compactor is only run explicitly
+    properties.setProperty(Configuration.LEVELDB_BLOCKS_PERIOD, "86400000");
+    // Several blocks per bucket
+    properties.setProperty(Configuration.LEVELDB_BLOCKS_MAXSIZE, "37");
+    properties.setProperty(Configuration.LEVELDB_BLOCKS_MINROWS, "1");
+    properties.setProperty(Configuration.LEVELDB_BLOCKS_COMPRESS, Boolean.toString(compress));
+    return properties;
+  }
+
+  private static List<Metadata> metadatas() {
+    List<Metadata> metadatas = new ArrayList<Metadata>();
+
+    for (int i = 0; i < GTS; i++) {
+      Metadata metadata = new Metadata();
+      metadata.setName("gts");
+      metadata.setLabels(new HashMap<String,String>());
+      metadata.getLabels().put("id", Integer.toString(i));
+      metadata.setClassId(GTSHelper.classId(keystore.getKey(KeyStore.SIPHASH_CLASS), metadata.getName()));
+      metadata.setLabelsId(GTSHelper.labelsId(keystore.getKey(KeyStore.SIPHASH_LABELS), metadata.getLabels()));
+      metadatas.add(metadata);
+    }
+
+    return metadatas;
+  }
+
+  /**
+   * Store datapoints in all the clients, the value depends on the timestamp and 'version' so overwritten datapoints can be told apart
+   */
+  private static void store(Metadata metadata, long[] timestamps, int version, StandaloneStoreClient... clients) throws IOException {
+    GTSEncoder encoder = new GTSEncoder(0L);
+    encoder.setMetadata(metadata);
+
+    for (long ts: timestamps) {
+      long location = 0 == ts % 3 ? ts * 1000L : GeoTimeSerie.NO_LOCATION;
+      long elevation = 0 == ts % 5 ? ts : GeoTimeSerie.NO_ELEVATION;
+      Object value;
+      switch ((int) Math.floorMod(ts, 3L)) {
+        case 0:
+          value = ts * 10L + version;
+          break;
+        case 1:
+          value = ts + version / 10.0D;
+          break;
+        default:
+          value = "v" + version + ":" + ts;
+      }
+      encoder.addValue(ts, location, elevation, value);
+    }
+
+    for (StandaloneStoreClient client: clients) {
+      client.store(encoder);
+      // Flush the per thread batch
+      client.store(null);
+    }
+  }
+
+  private static long[] range(long start, long end, long step) {
+    long[] timestamps = new long[(int) ((end - start) / step) + 1];
+    for (int i = 0; i < timestamps.length; i++) {
+      timestamps[i] = start + i * step;
+    }
+    return timestamps;
+  }
+
+  private static long[] random(Random random, long start, long end, int count) {
+    long[] timestamps = new long[count];
+    for (int i = 0; i < count; i++) {
+      timestamps[i] = start + (long) (random.nextDouble() * (end - start + 1));
+    }
+    return timestamps;
+  }
+
+  /**
+   * Populate the clients with GTS spanning several buckets, with empty buckets in between
+   */
+  private static void populate(List<Metadata> metadatas, StandaloneStoreClient... clients) throws IOException {
+    Random random = new Random(42L);
+
+    // Dense GTS with a gap between 12000 and 15000
+    store(metadatas.get(0), range(0L, 12000L, 7L), 0, clients);
+    store(metadatas.get(0), range(15000L, 30000L, 11L), 0, clients);
+
+    // Sparse GTS, starting in the middle of bucket 5000
+    store(metadatas.get(1), random(random, 5500L, 25000L, 2000), 0, clients);
+
+    // A few datapoints, one of them at the start of a bucket and one at its end
+    store(metadatas.get(2), new long[] { -2500L, -1L, 0L, 999L, 1000L, 4321L }, 0, clients);
+  }
+
+  /**
+   * Write rows in buckets which were already compacted: new timestamps, overwritten ones and rows
+   * older than the oldest datapoint of the blocks of their bucket.
+   */
+  private static void late(List<Metadata> metadatas, boolean overwrite, StandaloneStoreClient... clients) throws IOException {
+    // New timestamps interleaved with the compacted ones
+    store(metadatas.get(0), range(3004L, 3990L, 14L), 1, clients);
+    // Rows in the gap, in buckets which contained no datapoints
+    store(metadatas.get(0), range(12500L, 14500L, 50L), 1, clients);
+    // Rows older than the oldest datapoint of the blocks of bucket 5000
+    store(metadatas.get(1), range(5000L, 5400L, 20L), 1, clients);
+    // Rows after the last bucket
+    store(metadatas.get(2), new long[] { 100000L, 100001L }, 1, clients);
+
+    if (overwrite) {
+      store(metadatas.get(0), range(7000L, 7700L, 7L), 2, clients);
+      store(metadatas.get(2), new long[] { 999L, 1000L }, 2, clients);
+    }
+  }
+
+  private static FetchRequest request(List<Metadata> metadatas, long now, long then, long count, long skip, long step, long timestep, long pre, long post) {
+    FetchRequest req = new FetchRequest();
+    req.setMetadatas(new ArrayList<Metadata>(metadatas));
+    req.setNow(now);
+    req.setThents(then);
+    req.setCount(count);
+    req.setSkip(skip);
+    req.setStep(step);
+    req.setTimestep(timestep);
+    req.setSample(1.0D);
+    req.setPreBoundary(pre);
+    req.setPostBoundary(post);
+    return req;
+  }
+
+  private static List<String> fetch(StandaloneStoreClient client, FetchRequest req) throws Exception {
+    List<String> datapoints = new ArrayList<String>();
+
+    GTSDecoderIterator iter = client.fetch(req);
+
+    try {
+      while (iter.hasNext()) {
+        GTSDecoder decoder = iter.next();
+        while (decoder.next()) {
+          datapoints.add(decoder.getMetadata().getLabels() + " " + decoder.getTimestamp() + " " + decoder.getLocation() + " " + decoder.getElevation() + " " + decoder.getBinaryValue());
+        }
+      }
+    } finally {
+      iter.close();
+    }
+
+    return datapoints;
+  }
+
+  /**
+   * Check that fetches by count, range, skip, step, timestep and boundaries return the same datapoints
+   * from both clients.
+   */
+  private static void compare(List<Metadata> metadatas, StandaloneStoreClient expected, StandaloneStoreClient actual) throws Exception {
+    long[] nows = new long[] { Long.MAX_VALUE, 200000L, 29999L, 12345L, 7350L, 5000L, 999L };
+    long[] thens = new long[] { Long.MIN_VALUE, -2000L, 0L, 1000L, 4999L, 5250L, 13000L };
+    long[] counts = new long[] { -1L, -1L, 0L, 1L, 17L, 500L };
+    long[] skips = new long[] { 0L, 0L, 3L, 250L };
+    long[] steps = new long[] { 1L, 1L, 7L };
+    long[] timesteps = new long[] { 1L, 1L, 15L, 1200L };
+    long[] boundaries = new long[] { 0L, 0L, 1L, 5L, 100L };
+
+    Random random = new Random(1L);
+
+    // The full content first
+    Assert.assertEquals(fetch(expected, request(metadatas, Long.MAX_VALUE, Long.MIN_VALUE, -1L, 0L, 1L, 1L, 0L, 0L)), fetch(actual, request(metadatas, Long.MAX_VALUE, Long.MIN_VALUE, -1L, 0L, 1L, 1L, 0L, 0L)));
+
+    for (int i = 0; i < 400; i++) {
+      long now = nows[random.nextInt(nows.length)];
+      long then = thens[random.nextInt(thens.length)];
+
+      if (then > now) {
+        continue;
+      }
+
+      FetchRequest req = request(metadatas, now, then, counts[random.nextInt(counts.length)], skips[random.nextInt(skips.length)],
+          steps[random.nextInt(steps.length)], timesteps[random.nextInt(timesteps.length)],
+          boundaries[random.nextInt(boundaries.length)], boundaries[random.nextInt(boundaries.length)]);
+
+      List<String> datapoints = fetch(expected, req);
+      Assert.assertEquals(req.toString(), datapoints, fetch(actual, new FetchRequest(req)));
+    }
+  }
+
+  private static int blocks(WarpDB db) throws IOException {
+    int blocks = 0;
+
+    DBIterator iter = db.iterator();
+
+    try {
+      iter.seekToFirst();
+      while (iter.hasNext()) {
+        if (DataBlocks.isBlockKey(iter.next().getKey())) {
+          blocks++;
+        }
+      }
+    } finally {
+      iter.close();
+    }
+
+    return blocks;
+  }
+
+  @Test
+  public void testFetch() throws Exception {
+    fetch(true);
+  }
+
+  @Test
+  public void testFetchUncompressed() throws Exception {
+    fetch(false);
+  }
+
+  private void fetch(boolean compress) throws Exception {
+    List<Metadata> metadatas = metadatas();
+
+    StandaloneStoreClient expected = new StandaloneStoreClient(open(), keystore, new Properties());
+    WarpDB db = open();
+    StandaloneStoreClient actual = new StandaloneStoreClient(db, keystore, blocksProperties(SPAN, compress));
+
+    populate(metadatas, expected, actual);
+    compare(metadatas, expected, actual);
+
+    actual.getBlocksCompactor().compact();
+    Assert.assertTrue(blocks(db) > 0);
+    compare(metadatas, expected, actual);
+
+    late(metadatas, true, expected, actual);
+    compare(metadatas, expected, actual);
+
+    // Merge the late rows with the blocks
+    actual.getBlocksCompactor().compact();
+    compare(metadatas, expected, actual);
+  }
+
+  @Test
+  public void testDelete() throws Exception {
+    List<Metadata> metadatas = metadatas();
+
+    StandaloneStoreClient expected = new StandaloneStoreClient(open(), keystore, new Properties());
+    StandaloneStoreClient actual = new StandaloneStoreClient(open(), keystore, blocksProperties(SPAN, true));
+
+    populate(metadatas, expected, actual);
+    actual.getBlocksCompactor().compact();
+    late(metadatas, false, expected, actual);
+
+    // Ranges partially covering blocks, spanning several buckets, covering only late rows or nothing
+    long[][] ranges = new long[][] {
+      { 5250L, 5500L },
+      { 7900L, 9100L },
+      { 3004L, 3100L },
+      { 12600L, 12800L },
+      { 13001L, 13001L },
+      { -3000L, 0L },
+      { 20000L, Long.MAX_VALUE },
+    };
+
+    for (long[] range: ranges) {
+      for (Metadata metadata: metadatas) {
+        Assert.assertEquals(expected.delete(null, new Metadata(metadata), range[0], range[1]), actual.delete(null, new Metadata(metadata), range[0], range[1]));
+      }
+      compare(metadatas, expected, actual);
+    }
+
+    // Compacting the remaining rows and blocks keeps the same datapoints
+    actual.getBlocksCompactor().compact();
+    compare(metadatas, expected, actual);
+  }
+
+  @Test
+  public void testConcurrentCompaction() throws Exception {
+    final List<Metadata> metadatas = metadatas();
+
+    final StandaloneStoreClient expected = new StandaloneStoreClient(open(), keystore, new Properties());
+    final StandaloneStoreClient actual = new StandaloneStoreClient(open(), keystore, blocksProperties(SPAN, true));
+
+    final AtomicBoolean done = new AtomicBoolean(false);
+    final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+
+    List<Thread> writers = new ArrayList<Thread>();
+
+    for (int w = 0; w < 4; w++) {
+      final int writer = w;
+      writers.add(new Thread() {
+        @Override
+        public void run() {
+          try {
+            Random random = new Random(writer);
+            for (int i = 0; i < 200; i++) {
+              // Each writer owns the timestamps congruent to its index so overwrites happen in the same order in both stores
+              long[] timestamps = random(random, 0L, 20000L, 20);
+              for (int j = 0; j < timestamps.length; j++) {
+                timestamps[j] = timestamps[j] - Math.floorMod(timestamps[j], 4L) + writer;
+              }
+              store(metadatas.get(writer % GTS), timestamps, i, expected, actual);
+            }
+          } catch (Throwable t) {
+            error.compareAndSet(null, t);
+          }
+        }
+      });
+    }
+
+    Thread compactor = new Thread() {
+      @Override
+      public void run() {
+        try {
+          while (!done.get()) {
+            actual.getBlocksCompactor().compact();
+          }
+        } catch (Throwable t) {
+          error.compareAndSet(null, t);
+        }
+      }
+    };
+
+    // Fetched datapoints are sorted and never duplicated
+    Thread reader = new Thread() {
+      @Override
+      public void run() {
+        try {
+          while (!done.get()) {
+            GTSDecoderIterator iter = actual.fetch(request(metadatas, Long.MAX_VALUE, Long.MIN_VALUE, -1L, 0L, 1L, 1L, 0L, 0L));
+            try {
+              String labels = null;
+              long last = Long.MAX_VALUE;
+              while (iter.hasNext()) {
+                GTSDecoder decoder = iter.next();
+                if (!decoder.getMetadata().getLabels().toString().equals(labels)) {
+                  labels = decoder.getMetadata().getLabels().toString();
+                  last = Long.MAX_VALUE;
+                }
+                while (decoder.next()) {
+                  Assert.assertTrue(decoder.getTimestamp() < last);
+                  last = decoder.getTimestamp();
+                }
+              }
+            } finally {
+              iter.close();
+            }
+          }
+        } catch (Throwable t) {
+          error.compareAndSet(null, t);
+        }
+      }
+    };
+
+    compactor.start();
+    reader.start();
+    for (Thread t: writers) {
+      t.start();
+    }
+    for (Thread t: writers) {
+      t.join();
+    }
+
+    done.set(true);
+    compactor.join();
+    reader.join();
+
+    if (null != error.get()) {
+      throw new AssertionError(error.get());
+    }
+
+    compare(metadatas, expected, actual);
+
+    actual.getBlocksCompactor().compact();
+    compare(metadatas, expected, actual);
+  }
+
+  @Test
+  public void testSpanChange() throws Exception {
+    List<Metadata> metadatas = metadatas();
+
+    // The span can be changed as long as no block was written
+    WarpDB db = open();
+    StandaloneStoreClient client = new StandaloneStoreClient(db, keystore, blocksProperties(SPAN, true));
+    populate(metadatas, client);
+    client = new StandaloneStoreClient(db, keystore, blocksProperties(2 * SPAN, true));
+    client = new StandaloneStoreClient(db, keystore, blocksProperties(SPAN, true));
+
+    client.getBlocksCompactor().compact();
+    Assert.assertTrue(blocks(db) > 0);
+
+    for (Properties properties: new Properties[] { blocksProperties(2 * SPAN, true), blocksProperties(0L, true), new Properties() }) {
+      try {
+        new StandaloneStoreClient(db, keystore, properties);
+        Assert.fail("Span modification was not detected.");
+      } catch (RuntimeException re) {
+        Assert.assertTrue(re.getMessage().contains(Configuration.LEVELDB_BLOCKS_SPAN));
+      }
+    }
+
+    // The same span is accepted
+    new StandaloneStoreClient(db, keystore, blocksProperties(SPAN, false));
+  }
+
+  @Test
+  public void testVirtualRows() throws Exception {
+    List<Metadata> metadatas = metadatas();
+
+    WarpDB db = open();
+    StandaloneStoreClient client = new StandaloneStoreClient(db, keystore, blocksProperties(SPAN, true));
+    populate(metadatas, client);
+
+    List<Entry<byte[],byte[]>> rows = new ArrayList<Entry<byte[],byte[]>>();
+
+    DBIterator iter = db.iterator();
+    try {
+      iter.seekToFirst();
+      while (iter.hasNext()) {
+        Entry<byte[],byte[]> entry = iter.next();
+        if (DataBlocks.isRowKey(entry.getKey())) {
+          rows.add(entry);
+        }
+      }
+    } finally {
+      iter.close();
+    }
+
+    client.getBlocksCompactor().compact();
+
+    // The blocks are returned as rows with the same keys and datapoints
+    DataBlocksIterator blocks = new DataBlocksIterator(db.iterator(), SPAN, keystore.getKey(KeyStore.AES_LEVELDB_DATA));
+    try {
+      blocks.seek(rows.get(0).getKey());
+      for (Entry<byte[],byte[]> row: rows) {
+        Entry<byte[],byte[]> entry = blocks.next();
+        Assert.assertArrayEquals(row.getKey(), entry.getKey());
+        Assert.assertTrue(entry instanceof DataBlocks.Row);
+        DataBlocks.Datapoint expected = DataBlocks.datapoint(row.getKey(), row.getValue(), keystore.getKey(KeyStore.AES_LEVELDB_DATA));
+        DataBlocks.Datapoint actual = DataBlocks.datapoint(entry.getKey(), entry.getValue(), keystore.getKey(KeyStore.AES_LEVELDB_DATA));
+        Assert.assertEquals(expected.timestamp, actual.timestamp);
+        Assert.assertEquals(expected.location, actual.location);
+        Assert.assertEquals(expected.elevation, actual.elevation);
+        Assert.assertEquals(String.valueOf(expected.value), String.valueOf(actual.value));
+      }
+    } finally {
+      blocks.close();
+    }
+  }
+}
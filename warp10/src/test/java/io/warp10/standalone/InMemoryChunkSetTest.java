@@ -0,0 +1,372 @@
+//
+//   Copyright 2024  SenX S.A.S.
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.standalone;
+
+import java.io.StringReader;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import io.warp10.CapacityExtractorOutputStream;
+import io.warp10.WarpConfig;
+import io.warp10.continuum.Configuration;
+import io.warp10.continuum.TimeSource;
+import io.warp10.continuum.gts.GTSDecoder;
+import io.warp10.continuum.gts.GTSEncoder;
+import io.warp10.continuum.gts.GeoTimeSerie;
+import io.warp10.continuum.store.Constants;
+
+public class InMemoryChunkSetTest {
+
+  private static final int CHUNKS = 8;
+
+  private static final int WRITERS = 4;
+
+  private static final int BATCHES = 400;
+
+  private static final int BATCH_SIZE = 10;
+
+  private static long CHUNKLEN;
+
+  /**
+   * Datapoints are spread over the SPAN time units preceding the start of a test
+   */
+  private static long SPAN;
+
+  @BeforeClass
+  public static void loadConfig() throws Exception {
+    StringReader reader = new StringReader(
+        Configuration.WARP_TIME_UNITS + "=us\n" +
+        "labelsid.slowimpl=true"
+    );
+    WarpConfig.safeSetProperties(reader);
+
+    CHUNKLEN = 3600000L * Constants.TIME_UNITS_PER_MS;
+    SPAN = 5 * CHUNKLEN;
+  }
+
+  /**
+   * Datapoints are identified by their value, their timestamp is derived from it
+   */
+  private static long id(int writer, long seq) {
+    return ((long) writer << 32) | seq;
+  }
+
+  private static long timestamp(long base, long id) {
+    long h = id * 0x9E3779B97F4A7C15L;
+    h ^= h >>> 29;
+    return base + Math.floorMod(h, SPAN);
+  }
+
+  @Test
+  public void testConcurrentStore() throws Exception {
+    concurrentStore(false);
+  }
+
+  @Test
+  public void testConcurrentStoreOffHeap() throws Exception {
+    concurrentStore(true);
+  }
+
+  /**
+   * Store datapoints while other threads fetch, clean, optimize and delete, and check no datapoint
+   * is lost or duplicated. Deletions only target a range of timestamps, the datapoints of this
+   * range may or may not be present at the end.
+   */
+  private void concurrentStore(final boolean offheap) throws Exception {
+    final InMemoryChunkSet chunkset = new InMemoryChunkSet(CHUNKS, CHUNKLEN, false, offheap);
+
+    final long base = TimeSource.getTime() - SPAN;
+    final long deleteStart = base + 2 * CHUNKLEN + CHUNKLEN / 2;
+    final long deleteEnd = deleteStart + CHUNKLEN / 4;
+
+    // Number of batches of each writer known to be stored
+    final AtomicLongArray stored = new AtomicLongArray(WRITERS);
+    final AtomicBoolean done = new AtomicBoolean(false);
+    final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+
+    List<Thread> writers = new ArrayList<Thread>();
+
+    for (int w = 0; w < WRITERS; w++) {
+      final int writer = w;
+      writers.add(new Thread() {
+        @Override
+        public void run() {
+          try {
+            for (int b = 0; b < BATCHES; b++) {
+              GTSEncoder encoder = new GTSEncoder(0L);
+              for (int i = 0; i < BATCH_SIZE; i++) {
+                long id = id(writer, b * BATCH_SIZE + i);
+                encoder.addValue(timestamp(base, id), GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, id);
+              }
+              chunkset.store(encoder);
+              stored.set(writer, b + 1);
+            }
+          } catch (Throwable t) {
+            error.compareAndSet(null, t);
+          }
+        }
+      });
+    }
+
+    List<Thread> others = new ArrayList<Thread>();
+
+    // Fetch everything, checking for duplicates and for datapoints stored before the fetch started
+    others.add(new Thread() {
+      @Override
+      public void run() {
+        try {
+          while (!done.get()) {
+            long[] before = new long[WRITERS];
+            for (int w = 0; w < WRITERS; w++) {
+              before[w] = stored.get(w);
+            }
+
+            Set<Long> ids = fetchAll(chunkset);
+
+            for (int w = 0; w < WRITERS; w++) {
+              for (long seq = 0; seq < before[w] * BATCH_SIZE; seq++) {
+                long id = id(w, seq);
+                long ts = timestamp(base, id);
+                if (ts < deleteStart || ts > deleteEnd) {
+                  Assert.assertTrue("Datapoint " + id + " missing", ids.contains(id));
+                }
+              }
+            }
+          }
+        } catch (Throwable t) {
+          error.compareAndSet(null, t);
+        }
+      }
+    });
+
+    others.add(new Thread() {
+      @Override
+      public void run() {
+        try {
+          while (!done.get()) {
+            // No chunk has expired, nothing may be dropped
+            Assert.assertEquals(0L, chunkset.clean(TimeSource.getTime()));
+            CapacityExtractorOutputStream extractor = new CapacityExtractorOutputStream();
+            chunkset.optimize(extractor, TimeSource.getTime(), new AtomicLong());
+          }
+        } catch (Throwable t) {
+          error.compareAndSet(null, t);
+        }
+      }
+    });
+
+    others.add(new Thread() {
+      @Override
+      public void run() {
+        try {
+          while (!done.get()) {
+            chunkset.delete(deleteStart, deleteEnd);
+            Thread.yield();
+          }
+        } catch (Throwable t) {
+          error.compareAndSet(null, t);
+        }
+      }
+    });
+
+    for (Thread t: others) {
+      t.start();
+    }
+    for (Thread t: writers) {
+      t.start();
+    }
+    for (Thread t: writers) {
+      t.join();
+    }
+
+    done.set(true);
+
+    for (Thread t: others) {
+      t.join();
+    }
+
+    if (null != error.get()) {
+      throw new AssertionError(error.get());
+    }
+
+    Set<Long> ids = fetchAll(chunkset);
+
+    long expected = 0L;
+
+    for (int w = 0; w < WRITERS; w++) {
+      for (long seq = 0; seq < BATCHES * BATCH_SIZE; seq++) {
+        long id = id(w, seq);
+        long ts = timestamp(base, id);
+        boolean present = ids.remove(id);
+        if (ts < deleteStart || ts > deleteEnd) {
+          Assert.assertTrue("Datapoint " + id + " missing", present);
+        }
+        if (present) {
+          expected++;
+        }
+      }
+    }
+
+    Assert.assertTrue("Unexpected datapoints " + ids, ids.isEmpty());
+    Assert.assertEquals(expected, chunkset.getCount());
+  }
+
+  /**
+   * Create a chunk set with BATCH_SIZE datapoints in a chunk which is not the current one,
+   * moved off heap. The values of the datapoints are their timestamps.
+   */
+  private static InMemoryChunkSet offHeapChunkSet(long chunkstart) throws Exception {
+    InMemoryChunkSet chunkset = new InMemoryChunkSet(CHUNKS, CHUNKLEN, false, true);
+
+    GTSEncoder encoder = new GTSEncoder(0L);
+    for (int i = 0; i < BATCH_SIZE; i++) {
+      encoder.addValue(chunkstart + i, GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, chunkstart + i);
+    }
+    chunkset.store(encoder);
+
+    chunkset.optimize(new CapacityExtractorOutputStream(), TimeSource.getTime(), new AtomicLong());
+
+    return chunkset;
+  }
+
+  /**
+   * Store a late datapoint in the chunk containing 'timestamp', bringing it back on heap if it is off heap
+   */
+  private static void storeLate(InMemoryChunkSet chunkset, long timestamp) throws Exception {
+    GTSEncoder encoder = new GTSEncoder(0L);
+    encoder.addValue(timestamp, GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, timestamp);
+    Assert.assertTrue(chunkset.store(encoder));
+  }
+
+  /**
+   * Delete datapoints while late data brings the off heap chunk containing them back on heap.
+   * The datapoints must be deleted from the on heap copy and counted once.
+   */
+  @Test
+  public void testDeleteWhileBroughtOnHeap() throws Exception {
+    final long chunkstart = InMemoryChunkSet.chunkEnd(TimeSource.getTime() - SPAN, CHUNKLEN) + 1L;
+    final long late = chunkstart + CHUNKLEN / 2;
+
+    //
+    // Hold the monitor of the off heap chunk so the deletion waits for it while the late datapoint
+    // replaces the chunk with an on heap copy
+    //
+
+    final InMemoryChunkSet chunkset = offHeapChunkSet(chunkstart);
+
+    Field field = InMemoryChunkSet.class.getDeclaredField("chunks");
+    field.setAccessible(true);
+    AtomicReferenceArray<?> chunks = (AtomicReferenceArray<?>) field.get(chunkset);
+
+    Object chunk = null;
+    for (int i = 0; i < chunks.length() && null == chunk; i++) {
+      chunk = chunks.get(i);
+    }
+    Assert.assertNotNull(chunk);
+
+    final AtomicLong deleted = new AtomicLong(-1L);
+
+    Thread deleter = new Thread() {
+      @Override
+      public void run() {
+        deleted.set(chunkset.delete(chunkstart, chunkstart + BATCH_SIZE - 1));
+      }
+    };
+
+    synchronized(chunk) {
+      deleter.start();
+      while (Thread.State.BLOCKED != deleter.getState()) {
+        Thread.yield();
+      }
+      storeLate(chunkset, late);
+    }
+
+    deleter.join();
+
+    Assert.assertEquals(BATCH_SIZE, deleted.get());
+    Assert.assertEquals(Collections.singleton(late), fetchAll(chunkset));
+    Assert.assertEquals(1L, chunkset.getCount());
+
+    //
+    // Let deletions and late datapoints race, the datapoints reported as deleted must be gone
+    //
+
+    for (int round = 0; round < 200; round++) {
+      final InMemoryChunkSet racing = offHeapChunkSet(chunkstart);
+      final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+
+      deleter = new Thread() {
+        @Override
+        public void run() {
+          deleted.set(racing.delete(chunkstart, chunkstart + BATCH_SIZE - 1));
+        }
+      };
+
+      Thread writer = new Thread() {
+        @Override
+        public void run() {
+          try {
+            storeLate(racing, late);
+          } catch (Throwable t) {
+            error.compareAndSet(null, t);
+          }
+        }
+      };
+
+      writer.start();
+      deleter.start();
+      writer.join();
+      deleter.join();
+
+      if (null != error.get()) {
+        throw new AssertionError(error.get());
+      }
+
+      Assert.assertEquals(BATCH_SIZE, deleted.get());
+      Assert.assertEquals(Collections.singleton(late), fetchAll(racing));
+    }
+  }
+
+  /**
+   * Fetch all the datapoints of 'chunkset', failing if a datapoint is returned twice
+   */
+  private static Set<Long> fetchAll(InMemoryChunkSet chunkset) throws Exception {
+    GTSDecoder decoder = chunkset.fetch(Long.MAX_VALUE, Long.MIN_VALUE, -1L, 0L, 1.0D);
+
+    Set<Long> ids = new HashSet<Long>();
+
+    while (decoder.next()) {
+      long id = ((Number) decoder.getValue()).longValue();
+      Assert.assertTrue("Datapoint " + id + " duplicated", ids.add(id));
+    }
+
+    return ids;
+  }
+}
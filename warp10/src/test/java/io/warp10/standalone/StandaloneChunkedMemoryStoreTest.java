@@ -0,0 +1,300 @@
+//
+//   Copyright 2024  SenX S.A.S.
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.standalone;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.StringReader;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import io.warp10.WarpConfig;
+import io.warp10.continuum.Configuration;
+import io.warp10.continuum.TimeSource;
+import io.warp10.continuum.gts.GTSDecoder;
+import io.warp10.continuum.gts.GTSEncoder;
+import io.warp10.continuum.gts.GTSHelper;
+import io.warp10.continuum.gts.GeoTimeSerie;
+import io.warp10.continuum.store.Constants;
+import io.warp10.continuum.store.GTSDecoderIterator;
+import io.warp10.continuum.store.thrift.data.FetchRequest;
+import io.warp10.continuum.store.thrift.data.Metadata;
+import io.warp10.crypto.KeyStore;
+import io.warp10.crypto.SipHashInline;
+import io.warp10.crypto.UnsecureKeyStore;
+
+public class StandaloneChunkedMemoryStoreTest {
+
+  private static final int GTS = 50;
+
+  private static final int DATAPOINTS = 300;
+
+  private static long CHUNKLEN;
+
+  private static KeyStore keystore;
+
+  @BeforeClass
+  public static void loadConfig() throws Exception {
+    StringReader reader = new StringReader(
+        Configuration.WARP_TIME_UNITS + "=us\n" +
+        "labelsid.slowimpl=true"
+    );
+    WarpConfig.safeSetProperties(reader);
+
+    CHUNKLEN = 3600000L * Constants.TIME_UNITS_PER_MS;
+
+    keystore = new UnsecureKeyStore();
+    keystore.setKey(KeyStore.SIPHASH_CLASS, new byte[16]);
+    keystore.setKey(KeyStore.SIPHASH_LABELS, new byte[16]);
+  }
+
+  /**
+   * Directory client only keeping the Metadata of registered GTS in memory
+   */
+  private static class MemoryDirectoryClient extends StandaloneDirectoryClient {
+    private final Map<BigInteger,Metadata> metadatas = new ConcurrentHashMap<BigInteger,Metadata>();
+
+    @Override
+    public boolean register(Metadata metadata) throws IOException {
+      byte[] bytes = new byte[16];
+      GTSHelper.fillGTSIds(bytes, 0, metadata.getClassId(), metadata.getLabelsId());
+      this.metadatas.put(new BigInteger(bytes), metadata);
+      return true;
+    }
+
+    @Override
+    public Metadata getMetadataById(BigInteger id) {
+      return this.metadatas.get(id);
+    }
+  }
+
+  private static StandaloneChunkedMemoryStore newStore(MemoryDirectoryClient directory, int chunkcount, boolean offheap, String load, boolean failsafe) {
+    Properties properties = new Properties();
+    properties.setProperty(Configuration.IN_MEMORY_CHUNK_COUNT, Integer.toString(chunkcount));
+    properties.setProperty(Configuration.IN_MEMORY_CHUNK_LENGTH, Long.toString(CHUNKLEN));
+    properties.setProperty(Configuration.STANDALONE_MEMORY_STORE_DUMP_SNAPSHOT, "true");
+    properties.setProperty(Configuration.STANDALONE_MEMORY_OFFHEAP, Boolean.toString(offheap));
+    properties.setProperty(Configuration.STANDALONE_MEMORY_STORE_LOAD_FAILSAFE, Boolean.toString(failsafe));
+    if (null != load) {
+      properties.setProperty(Configuration.STANDALONE_MEMORY_STORE_LOAD, load);
+    }
+
+    StandaloneChunkedMemoryStore store = new StandaloneChunkedMemoryStore(properties, keystore);
+    store.setDirectoryClient(directory);
+    return store;
+  }
+
+  /**
+   * Store random GTS in 'store' and return their Metadata
+   */
+  private static List<Metadata> populate(StandaloneChunkedMemoryStore store, MemoryDirectoryClient directory, long seed) throws IOException {
+    Random random = new Random(seed);
+
+    long[] classKey = SipHashInline.getKey(keystore.getKey(KeyStore.SIPHASH_CLASS));
+    long[] labelsKey = SipHashInline.getKey(keystore.getKey(KeyStore.SIPHASH_LABELS));
+
+    long now = TimeSource.getTime();
+
+    List<Metadata> metadatas = new ArrayList<Metadata>();
+
+    for (int i = 0; i < GTS; i++) {
+      Metadata metadata = new Metadata();
+      metadata.setName("class." + (i % 7));
+      metadata.setLabels(new HashMap<String,String>());
+      metadata.getLabels().put("id", Integer.toString(i));
+      metadata.setClassId(GTSHelper.classId(classKey, metadata.getName()));
+      metadata.setLabelsId(GTSHelper.labelsId(labelsKey, metadata.getLabels()));
+
+      GTSEncoder encoder = new GTSEncoder(0L);
+      encoder.setMetadata(metadata);
+
+      for (int j = 0; j < DATAPOINTS; j++) {
+        // Spread the datapoints over two and a half chunk lengths, all within the retained chunks
+        long ts = now - (long) (random.nextDouble() * 2.5D * CHUNKLEN);
+        long location = random.nextBoolean() ? GeoTimeSerie.NO_LOCATION : random.nextLong() >>> 1;
+        long elevation = random.nextBoolean() ? GeoTimeSerie.NO_ELEVATION : random.nextInt(1000);
+        Object value = 0 == i % 2 ? (Object) random.nextLong() : (Object) random.nextDouble();
+        encoder.addValue(ts, location, elevation, value);
+      }
+
+      store.store(encoder);
+      directory.register(metadata);
+      metadatas.add(metadata);
+    }
+
+    return metadatas;
+  }
+
+  /**
+   * Return the datapoints of a GTS, in a canonical order
+   */
+  private static List<String> datapoints(StandaloneChunkedMemoryStore store, Metadata metadata) throws Exception {
+    FetchRequest req = new FetchRequest();
+    req.setMetadatas(Collections.singletonList(metadata));
+    req.setNow(Long.MAX_VALUE);
+    req.setThents(Long.MIN_VALUE);
+    req.setCount(-1L);
+    req.setSample(1.0D);
+
+    List<String> datapoints = new ArrayList<String>();
+
+    GTSDecoderIterator iter = store.fetch(req);
+
+    try {
+      while (iter.hasNext()) {
+        GTSDecoder decoder = iter.next();
+        while (decoder.next()) {
+          datapoints.add(decoder.getTimestamp() + " " + decoder.getLocation() + " " + decoder.getElevation() + " " + decoder.getBinaryValue());
+        }
+      }
+    } finally {
+      iter.close();
+    }
+
+    Collections.sort(datapoints);
+
+    return datapoints;
+  }
+
+  private static File tempFile() throws IOException {
+    File file = File.createTempFile("snapshot", ".dump");
+    file.delete();
+    file.deleteOnExit();
+    return file;
+  }
+
+  private void roundTrip(int chunkcount, boolean offheap) throws Exception {
+    MemoryDirectoryClient directory = new MemoryDirectoryClient();
+    StandaloneChunkedMemoryStore store = newStore(directory, 4, false, null, false);
+    List<Metadata> metadatas = populate(store, directory, 42L);
+
+    File file = tempFile();
+    store.dump(file.getPath());
+
+    Assert.assertTrue(file.isFile());
+    Assert.assertFalse(new File(file.getPath() + ".tmp").exists());
+
+    MemoryDirectoryClient loadedDirectory = new MemoryDirectoryClient();
+    StandaloneChunkedMemoryStore loaded = newStore(loadedDirectory, chunkcount, offheap, file.getPath(), false);
+    loaded.load();
+
+    Assert.assertEquals(GTS, loaded.getGTSCount());
+
+    for (Metadata metadata: metadatas) {
+      List<String> expected = datapoints(store, metadata);
+      Assert.assertEquals(DATAPOINTS, expected.size());
+      Assert.assertEquals(expected, datapoints(loaded, metadata));
+
+      // The Metadata must have been registered with the directory
+      byte[] bytes = new byte[16];
+      GTSHelper.fillGTSIds(bytes, 0, metadata.getClassId(), metadata.getLabelsId());
+      Assert.assertEquals(metadata, loadedDirectory.getMetadataById(new BigInteger(bytes)));
+    }
+
+    // A store loaded from a snapshot can be dumped again
+    File again = tempFile();
+    loaded.dump(again.getPath());
+
+    StandaloneChunkedMemoryStore reloaded = newStore(new MemoryDirectoryClient(), chunkcount, offheap, again.getPath(), false);
+    reloaded.load();
+
+    for (Metadata metadata: metadatas) {
+      Assert.assertEquals(datapoints(store, metadata), datapoints(reloaded, metadata));
+    }
+  }
+
+  @Test
+  public void testRoundTripAdopted() throws Exception {
+    roundTrip(4, false);
+  }
+
+  @Test
+  public void testRoundTripAdoptedOffHeap() throws Exception {
+    roundTrip(4, true);
+  }
+
+  @Test
+  public void testRoundTripReencoded() throws Exception {
+    // A different chunk count prevents the chunks from being adopted
+    roundTrip(6, false);
+  }
+
+  @Test
+  public void testTruncated() throws Exception {
+    MemoryDirectoryClient directory = new MemoryDirectoryClient();
+    StandaloneChunkedMemoryStore store = newStore(directory, 4, false, null, false);
+    populate(store, directory, 43L);
+
+    File file = tempFile();
+    store.dump(file.getPath());
+
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      raf.setLength(raf.length() - 5);
+    }
+
+    checkRejected(file);
+  }
+
+  @Test
+  public void testBadMagic() throws Exception {
+    MemoryDirectoryClient directory = new MemoryDirectoryClient();
+    StandaloneChunkedMemoryStore store = newStore(directory, 4, false, null, false);
+    populate(store, directory, 44L);
+
+    File file = tempFile();
+    store.dump(file.getPath());
+
+    // Corrupt the magic of the footer
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      raf.seek(raf.length() - 1);
+      raf.write('X');
+    }
+
+    checkRejected(file);
+  }
+
+  /**
+   * Check that loading 'file' fails, and loads nothing when failsafe
+   */
+  private static void checkRejected(File file) {
+    StandaloneChunkedMemoryStore store = newStore(new MemoryDirectoryClient(), 4, false, file.getPath(), false);
+
+    try {
+      store.load();
+      Assert.fail("Invalid snapshot was loaded.");
+    } catch (RuntimeException re) {
+      Assert.assertTrue(re.getCause() instanceof IOException);
+      Assert.assertEquals("Truncated snapshot.", re.getCause().getMessage());
+    }
+
+    StandaloneChunkedMemoryStore failsafe = newStore(new MemoryDirectoryClient(), 4, false, file.getPath(), true);
+    failsafe.load();
+    Assert.assertEquals(0, failsafe.getGTSCount());
+  }
+}
@@ -0,0 +1,413 @@
+//
+//   Copyright 2024  SenX S.A.S.
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.standalone;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import io.warp10.WarpConfig;
+import io.warp10.continuum.Configuration;
+import io.warp10.continuum.store.Directory;
+import io.warp10.continuum.store.thrift.data.DirectoryRequest;
+import io.warp10.continuum.store.thrift.data.Metadata;
+import io.warp10.crypto.KeyStore;
+import io.warp10.crypto.UnsecureKeyStore;
+
+public class StandaloneDirectoryClientTest {
+
+  private static final String[] DCS = new String[] { "paris", "parma", "london", "lyon", "par" };
+
+  private static KeyStore keystore;
+
+  @BeforeClass
+  public static void loadConfig() throws Exception {
+    StringReader reader = new StringReader(
+        Configuration.WARP_TIME_UNITS + "=us\n" +
+        "labelsid.slowimpl=true"
+    );
+    WarpConfig.safeSetProperties(reader);
+
+    keystore = new UnsecureKeyStore();
+    keystore.setKey(KeyStore.SIPHASH_CLASS, new byte[16]);
+    keystore.setKey(KeyStore.SIPHASH_LABELS, new byte[16]);
+  }
+
+  /**
+   * Create a directory client without DB. The Metadata of all the clients are shared, the labels index is only
+   * maintained by the clients which have it enabled, so GTS must be registered through such a client.
+   */
+  private static StandaloneDirectoryClient client(String indexLabels, int parallelism) {
+    WarpConfig.setProperty(Configuration.DIRECTORY_INDEX_LABELS, indexLabels);
+    WarpConfig.setProperty(Configuration.DIRECTORY_FIND_PARALLELISM, Integer.toString(parallelism));
+    try {
+      return new StandaloneDirectoryClient(null, keystore);
+    } finally {
+      WarpConfig.setProperty(Configuration.DIRECTORY_INDEX_LABELS, null);
+      WarpConfig.setProperty(Configuration.DIRECTORY_FIND_PARALLELISM, null);
+    }
+  }
+
+  private static Metadata metadata(String className, String... labels) {
+    Metadata metadata = new Metadata();
+    metadata.setName(className);
+    metadata.setLabels(new HashMap<String,String>());
+    for (int i = 0; i < labels.length; i += 2) {
+      metadata.getLabels().put(labels[i], labels[i + 1]);
+    }
+    return metadata;
+  }
+
+  private static void setAttributes(StandaloneDirectoryClient client, Metadata metadata, String... attributes) throws Exception {
+    Metadata update = metadata(metadata.getName());
+    update.setLabels(new HashMap<String,String>(metadata.getLabels()));
+    update.setAttributes(new HashMap<String,String>());
+    for (int i = 0; i < attributes.length; i += 2) {
+      update.getAttributes().put(attributes[i], attributes[i + 1]);
+    }
+    update.setSource(Configuration.INGRESS_METADATA_UPDATE_ENDPOINT);
+    Assert.assertTrue(client.register(update));
+  }
+
+  /**
+   * Register GTS in classes 'prefix'0 to 'prefix'(classes - 1). Some GTS carry the 'rack' label, the others
+   * have it as an attribute or not at all.
+   */
+  private static List<Metadata> populate(StandaloneDirectoryClient client, String prefix, int classes, int gts) throws Exception {
+    List<Metadata> metadatas = new ArrayList<Metadata>();
+
+    for (int c = 0; c < classes; c++) {
+      for (int i = 0; i < gts; i++) {
+        Metadata metadata;
+        if (0 == i % 3) {
+          metadata = metadata(prefix + c, "dc", DCS[i % DCS.length], "host", "h" + i, "rack", "r" + (i % 4));
+        } else {
+          metadata = metadata(prefix + c, "dc", DCS[i % DCS.length], "host", "h" + i);
+        }
+        client.register(metadata);
+        metadatas.add(metadata);
+        if (1 == i % 3) {
+          setAttributes(client, metadata, "rack", "r" + (i % 4));
+        }
+      }
+    }
+
+    return metadatas;
+  }
+
+  private static List<String> find(StandaloneDirectoryClient client, String classSelector, Map<String,String> labelsSelector) {
+    DirectoryRequest request = new DirectoryRequest();
+    request.setClassSelectors(new ArrayList<String>(Arrays.asList(classSelector)));
+    request.setLabelsSelectors(new ArrayList<Map<String,String>>(Arrays.asList(labelsSelector)));
+
+    List<String> found = new ArrayList<String>();
+
+    for (Metadata metadata: client.find(request)) {
+      found.add(metadata.getName() + metadata.getLabels() + metadata.getAttributes());
+    }
+
+    return found;
+  }
+
+  private static Map<String,String> selector(String... selectors) {
+    Map<String,String> labels = new HashMap<String,String>();
+    for (int i = 0; i < selectors.length; i += 2) {
+      labels.put(selectors[i], selectors[i + 1]);
+    }
+    return labels;
+  }
+
+  /**
+   * Label selectors resolved by the index, partially resolved or not resolved at all
+   */
+  private static List<Map<String,String>> selectors() {
+    List<Map<String,String>> selectors = new ArrayList<Map<String,String>>();
+
+    selectors.add(selector());
+    // Exact values
+    selectors.add(selector("dc", "=paris"));
+    selectors.add(selector("dc", "paris"));
+    selectors.add(selector("dc", "=par"));
+    selectors.add(selector("dc", "=paris", "host", "=h5"));
+    selectors.add(selector("dc", "=paris", "host", "=h6"));
+    selectors.add(selector("dc", "=nowhere"));
+    selectors.add(selector("unknown", "=x"));
+    // Prefixes
+    selectors.add(selector("dc", "~par.*"));
+    selectors.add(selector("dc", "~^par.*"));
+    selectors.add(selector("dc", "~par.*$"));
+    selectors.add(selector("dc", "~l.*"));
+    selectors.add(selector("dc", "~z.*"));
+    selectors.add(selector("host", "~h1.*"));
+    selectors.add(selector("dc", "~par.*", "host", "~h1.*"));
+    selectors.add(selector("dc", "=london", "host", "~h1.*"));
+    // Regular expressions which are not prefixes
+    selectors.add(selector("dc", "~pa(r|x).*"));
+    selectors.add(selector("dc", "~par"));
+    selectors.add(selector("dc", "~.*"));
+    selectors.add(selector("dc", "~p.r.*"));
+    selectors.add(selector("host", "~h1.*", "dc", "~.*s"));
+    // 'rack' is a label of some GTS and an attribute of others
+    selectors.add(selector("rack", "=r1"));
+    selectors.add(selector("rack", "~r.*"));
+    selectors.add(selector("rack", "=r0", "dc", "=paris"));
+    selectors.add(selector("rack", "~r1.*", "dc", "~l.*"));
+    // Absent labels
+    selectors.add(selector("rack", "="));
+    selectors.add(selector("rack", "=", "dc", "=paris"));
+
+    return selectors;
+  }
+
+  /**
+   * Check that the clients return the same GTS, in the same order
+   */
+  private static int compare(StandaloneDirectoryClient expected, StandaloneDirectoryClient actual, String... classSelectors) {
+    int found = 0;
+
+    for (String classSelector: classSelectors) {
+      for (Map<String,String> selector: selectors()) {
+        List<String> metadatas = find(expected, classSelector, selector);
+        Assert.assertEquals(classSelector + selector, metadatas, find(actual, classSelector, selector));
+        found += metadatas.size();
+      }
+    }
+
+    return found;
+  }
+
+  @Test
+  public void testFindWithIndex() throws Exception {
+    StandaloneDirectoryClient indexed = client("*", 1);
+    StandaloneDirectoryClient partial = client("dc,rack", 1);
+    StandaloneDirectoryClient plain = client("", 1);
+
+    populate(indexed, "index.all.", 3, 100);
+    populate(partial, "index.partial.", 3, 100);
+
+    // Classes indexed on all their labels or on some of them
+    for (String prefix: new String[] { "index.all.", "index.partial." }) {
+      String regexp = "~" + prefix.replace(".", "\\.") + ".*";
+      Assert.assertTrue(compare(plain, indexed, prefix + "0", "=" + prefix + "1", regexp, prefix + "missing") > 0);
+      Assert.assertTrue(compare(plain, partial, prefix + "0", regexp) > 0);
+    }
+
+    // GTS carrying 'rack' as an attribute are found by the exact and prefix selectors
+    for (String rack: new String[] { "=r1", "~r1.*" }) {
+      int attributes = 0;
+      for (String metadata: find(indexed, "index.all.0", selector("rack", rack))) {
+        if (metadata.endsWith("{rack=r1}")) {
+          attributes++;
+        }
+      }
+      Assert.assertTrue(attributes > 0);
+    }
+  }
+
+  @Test
+  public void testUnregister() throws Exception {
+    StandaloneDirectoryClient indexed = client("*", 1);
+    StandaloneDirectoryClient plain = client("", 1);
+
+    List<Metadata> metadatas = populate(indexed, "index.unregister.", 2, 30);
+
+    // Unregister the only GTS with a given value and then all the GTS with a given value
+    Metadata single = metadata("index.unregister.0", "dc", "single", "host", "s");
+    indexed.register(single);
+    Assert.assertEquals(1, find(indexed, "index.unregister.0", selector("dc", "=single")).size());
+    Assert.assertEquals(1, find(indexed, "index.unregister.0", selector("dc", "~sin.*")).size());
+
+    indexed.unregister(single);
+    Assert.assertEquals(0, find(indexed, "index.unregister.0", selector("dc", "=single")).size());
+    Assert.assertEquals(0, find(indexed, "index.unregister.0", selector("dc", "~sin.*")).size());
+    compare(plain, indexed, "index.unregister.0", "~index\\.unregister\\..*");
+
+    for (Metadata metadata: metadatas) {
+      if ("index.unregister.0".equals(metadata.getName()) && "lyon".equals(metadata.getLabels().get("dc"))) {
+        indexed.unregister(metadata);
+      }
+    }
+
+    Assert.assertEquals(0, find(indexed, "index.unregister.0", selector("dc", "=lyon")).size());
+    Assert.assertTrue(find(indexed, "index.unregister.1", selector("dc", "=lyon")).size() > 0);
+    compare(plain, indexed, "index.unregister.0", "~index\\.unregister\\..*");
+
+    // The GTS are found again once registered
+    indexed.register(single);
+    Assert.assertEquals(1, find(indexed, "index.unregister.0", selector("dc", "=single")).size());
+    compare(plain, indexed, "index.unregister.0", "~index\\.unregister\\..*");
+
+    // Unregister all the GTS of a class, which drops its index, then register some of them again
+    for (Metadata metadata: metadatas) {
+      if ("index.unregister.1".equals(metadata.getName())) {
+        indexed.unregister(metadata);
+      }
+    }
+
+    Assert.assertEquals(0, find(plain, "index.unregister.1", selector()).size());
+    Assert.assertEquals(0, find(indexed, "index.unregister.1", selector("dc", "=paris")).size());
+
+    for (Metadata metadata: metadatas) {
+      if ("index.unregister.1".equals(metadata.getName()) && !"paris".equals(metadata.getLabels().get("dc"))) {
+        indexed.register(metadata);
+      }
+    }
+
+    Assert.assertEquals(0, find(indexed, "index.unregister.1", selector("dc", "=paris")).size());
+    Assert.assertTrue(find(indexed, "index.unregister.1", selector("dc", "=parma")).size() > 0);
+    compare(plain, indexed, "index.unregister.1", "~index\\.unregister\\..*");
+  }
+
+  @Test
+  public void testChangedAttributes() throws Exception {
+    StandaloneDirectoryClient indexed = client("*", 1);
+    StandaloneDirectoryClient plain = client("", 1);
+
+    List<Metadata> metadatas = populate(indexed, "index.attributes.", 1, 30);
+
+    // Give GTS without a 'rack' label a 'rack' attribute, change it, then remove it
+    for (String rack: new String[] { "r9", "r8" }) {
+      for (Metadata metadata: metadatas) {
+        if (!metadata.getLabels().containsKey("rack")) {
+          setAttributes(indexed, metadata, "rack", rack);
+        }
+      }
+
+      Assert.assertEquals(20, find(indexed, "index.attributes.0", selector("rack", "=" + rack)).size());
+      Assert.assertEquals(20, find(indexed, "index.attributes.0", selector("rack", "~" + rack + ".*")).size());
+      compare(plain, indexed, "index.attributes.0");
+    }
+
+    Assert.assertEquals(0, find(indexed, "index.attributes.0", selector("rack", "=r9")).size());
+
+    for (Metadata metadata: metadatas) {
+      if (!metadata.getLabels().containsKey("rack")) {
+        setAttributes(indexed, metadata, "other", "x");
+      }
+    }
+
+    Assert.assertEquals(0, find(indexed, "index.attributes.0", selector("rack", "=r8")).size());
+    Assert.assertEquals(10, find(indexed, "index.attributes.0", selector("rack", "~r.*")).size());
+    compare(plain, indexed, "index.attributes.0");
+
+    // Registering known GTS again, as done to track their activity, keeps their attributes
+    for (Metadata metadata: metadatas) {
+      indexed.register(metadata(metadata.getName(), "dc", metadata.getLabels().get("dc"), "host", metadata.getLabels().get("host")));
+    }
+
+    Assert.assertEquals(20, find(indexed, "index.attributes.0", selector("other", "=x")).size());
+    compare(plain, indexed, "index.attributes.0");
+  }
+
+  @Test
+  public void testLabelsIndexCandidates() throws Exception {
+    LabelsIndex index = new LabelsIndex(null);
+
+    List<Long> ids = new ArrayList<Long>();
+
+    for (int i = 0; i < 50; i++) {
+      // Ids of both signs, in no particular order
+      long id = (i * 0x9E3779B97F4A7C15L) ^ (i << 7);
+      ids.add(id);
+      Map<String,String> labels = selector("dc", DCS[i % DCS.length], "host", "h" + i);
+      if (0 == i % 2) {
+        labels.put("rack", "r" + (i % 4));
+      }
+      index.add(id, labels);
+    }
+
+    // The candidates are sorted like the Metadata of a class
+    List<Long> candidates = index.candidates(Arrays.asList("dc"), Arrays.asList("par"), Arrays.asList(true));
+    Assert.assertEquals(30, candidates.size());
+    List<Long> sorted = new ArrayList<Long>(candidates);
+    Collections.sort(sorted, Directory.ID_COMPARATOR);
+    Assert.assertEquals(sorted, candidates);
+
+    Assert.assertEquals(10, index.candidates(Arrays.asList("dc"), Arrays.asList("par"), Arrays.asList(false)).size());
+    Assert.assertEquals(7, index.candidates(Arrays.asList("dc", "host"), Arrays.asList("par", "h1"), Arrays.asList(true, true)).size());
+    Assert.assertEquals(0, index.candidates(Arrays.asList("dc"), Arrays.asList("nowhere"), Arrays.asList(false)).size());
+    Assert.assertEquals(0, index.candidates(Arrays.asList("dc", "host"), Arrays.asList("paris", "x"), Arrays.asList(false, true)).size());
+
+    // Labels which some GTS do not have are ignored as they could match attributes, unknown labels too
+    Assert.assertNull(index.candidates(Arrays.asList("rack"), Arrays.asList("r0"), Arrays.asList(false)));
+    Assert.assertNull(index.candidates(Arrays.asList("unknown"), Arrays.asList("x"), Arrays.asList(false)));
+    Assert.assertEquals(10, index.candidates(Arrays.asList("rack", "dc"), Arrays.asList("r0", "paris"), Arrays.asList(false, false)).size());
+
+    // Removing the GTS without 'rack' makes it usable
+    for (int i = 1; i < 50; i += 2) {
+      Map<String,String> labels = selector("dc", DCS[i % DCS.length], "host", "h" + i);
+      index.remove(ids.get(i), labels);
+    }
+
+    Assert.assertEquals(13, index.candidates(Arrays.asList("rack"), Arrays.asList("r0"), Arrays.asList(false)).size());
+    Assert.assertEquals(15, index.candidates(Arrays.asList("dc"), Arrays.asList("p"), Arrays.asList(true)).size());
+
+    // Only the listed labels are indexed
+    LabelsIndex partial = new LabelsIndex(new HashSet<String>(Arrays.asList("dc")));
+    partial.add(1L, selector("dc", "paris", "host", "h1"));
+    partial.add(2L, selector("dc", "lyon", "host", "h2"));
+    Assert.assertEquals(Arrays.asList(1L), partial.candidates(Arrays.asList("dc", "host"), Arrays.asList("paris", "h2"), Arrays.asList(false, false)));
+    Assert.assertNull(partial.candidates(Arrays.asList("host"), Arrays.asList("h2"), Arrays.asList(false)));
+  }
+
+  @Test
+  public void testFindParallel() throws Exception {
+    StandaloneDirectoryClient indexed = client("*", 1);
+    StandaloneDirectoryClient plain = client("", 1);
+
+    // Few classes, which are split in labelsId ranges, and more classes than tasks
+    List<Metadata> metadatas = populate(indexed, "parallel.few.", 2, 300);
+    metadatas.addAll(populate(indexed, "parallel.many.", 11, 40));
+
+    // The labelsIds of both signs are split
+    int negative = 0;
+    for (Metadata metadata: metadatas) {
+      if (metadata.getLabelsId() < 0) {
+        negative++;
+      }
+    }
+    Assert.assertTrue(negative > 0 && negative < metadatas.size());
+
+    String[] classSelectors = new String[] {
+      // Single class
+      "parallel.few.0",
+      "~parallel\\.few\\.1",
+      // Few classes
+      "~parallel\\.few\\..*",
+      "~parallel\\.many\\.1.*",
+      // Many classes
+      "~parallel\\.many\\..*",
+      "~parallel\\..*",
+      "~parallel\\.none\\..*",
+    };
+
+    // Parallelisms which do not divide 2^64, and more ranges than GTS per class
+    for (int parallelism: new int[] { 2, 3, 4, 7, 64, 1000 }) {
+      Assert.assertTrue(compare(plain, client("", parallelism), classSelectors) > 0);
+      Assert.assertTrue(compare(plain, client("*", parallelism), classSelectors) > 0);
+    }
+  }
+}